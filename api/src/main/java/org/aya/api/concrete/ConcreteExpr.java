@@ -3,7 +3,6 @@
 package org.aya.api.concrete;
 
 import org.aya.api.distill.AyaDocile;
-import org.aya.api.error.Reporter;
 import org.aya.api.error.SourcePos;
 import org.jetbrains.annotations.ApiStatus;
 import org.jetbrains.annotations.NotNull;
@@ -11,5 +10,4 @@ import org.jetbrains.annotations.NotNull;
 @ApiStatus.NonExtendable
 public interface ConcreteExpr extends AyaDocile {
   @NotNull SourcePos sourcePos();
-  @NotNull ConcreteExpr desugar(@NotNull Reporter reporter);
 }
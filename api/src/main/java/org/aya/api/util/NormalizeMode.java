@@ -8,4 +8,13 @@ package org.aya.api.util;
 public enum NormalizeMode {
   NF,
   WHNF,
+  /** The same as {@link #NF}, computed by evaluating into closures and reading back */
+  NBE,
+  /** The same as {@link #NF}, computed by running the terms compiled into closures */
+  COMPILED,
+  /**
+   * The same as {@link #NF}, computed by call-by-need: the arguments of a reduction are
+   * shared by the places they are substituted into, and normalized at most once
+   */
+  NEED,
 }
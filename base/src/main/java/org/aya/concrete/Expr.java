@@ -25,6 +25,7 @@ import org.aya.distill.ConcreteDistiller;
 import org.aya.generic.Level;
 import org.aya.generic.ParamLike;
 import org.aya.pretty.doc.Doc;
+import org.aya.tyck.CompilationSession;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
@@ -43,8 +44,8 @@ public sealed interface Expr extends ConcreteExpr {
     return ret;
   }
 
-  @Override default @NotNull Expr desugar(@NotNull Reporter reporter) {
-    return accept(new Desugarer(reporter, new BinOpSet(reporter)), Unit.unit());
+  default @NotNull Expr desugar(@NotNull CompilationSession session, @NotNull Reporter reporter) {
+    return accept(new Desugarer(session, reporter, new BinOpSet(reporter)), Unit.unit());
   }
 
   @Override default @NotNull Doc toDoc(@NotNull DistillerOptions options) {
@@ -10,13 +10,17 @@ import org.aya.concrete.Expr;
 import org.aya.concrete.desugar.error.LevelProblem;
 import org.aya.concrete.visitor.StmtFixpoint;
 import org.aya.generic.Level;
-import org.aya.util.Constants;
+import org.aya.tyck.CompilationSession;
 import org.jetbrains.annotations.NotNull;
 
 /**
  * @author ice1000, kiva
  */
-public record Desugarer(@NotNull Reporter reporter, @NotNull BinOpSet opSet) implements StmtFixpoint<Unit> {
+public record Desugarer(
+  @NotNull CompilationSession session,
+  @NotNull Reporter reporter,
+  @NotNull BinOpSet opSet
+) implements StmtFixpoint<Unit> {
   @Override public @NotNull Expr visitApp(@NotNull Expr.AppExpr expr, Unit unit) {
     if (expr.function() instanceof Expr.RawUnivExpr univ) return desugarUniv(expr, univ);
     return StmtFixpoint.super.visitApp(expr, unit);
@@ -52,7 +56,7 @@ public record Desugarer(@NotNull Reporter reporter, @NotNull BinOpSet opSet) imp
       case Expr.LSucExpr uSuc -> levelVar(uSuc.expr()).lift(1);
       case Expr.LitIntExpr uLit -> new Level.Constant<>(uLit.integer());
       case Expr.RefExpr ref && ref.resolvedVar() instanceof PreLevelVar lv -> new Level.Reference<>(lv);
-      case Expr.HoleExpr hole -> new Level.Reference<>(new PreLevelVar(Constants.randomName(hole), hole.sourcePos()));
+      case Expr.HoleExpr hole -> new Level.Reference<>(new PreLevelVar(session.randomName(hole), hole.sourcePos()));
       default -> {
         reporter.report(new LevelProblem.BadLevelExpr(expr));
         throw new DesugarInterruption();
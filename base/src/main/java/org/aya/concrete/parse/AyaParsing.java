@@ -3,17 +3,20 @@
 package org.aya.concrete.parse;
 
 import kala.collection.immutable.ImmutableSeq;
+import kala.collection.mutable.Buffer;
 import kala.control.Option;
 import org.antlr.v4.runtime.CharStreams;
 import org.antlr.v4.runtime.CodePointBuffer;
 import org.antlr.v4.runtime.CodePointCharStream;
 import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.tree.ParseTree;
 import org.aya.api.error.Reporter;
 import org.aya.api.error.SourceFile;
 import org.aya.api.error.SourceFileLocator;
 import org.aya.concrete.stmt.Stmt;
 import org.aya.parser.AyaLexer;
 import org.aya.parser.AyaParser;
+import org.aya.tyck.CompilationSession;
 import org.jetbrains.annotations.Contract;
 import org.jetbrains.annotations.NotNull;
 
@@ -21,6 +24,7 @@ import java.io.IOException;
 import java.nio.IntBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.List;
 
 public interface AyaParsing {
   @Contract("_ -> new") static @NotNull AyaParser parser(@NotNull String text) {
@@ -44,12 +48,43 @@ public interface AyaParsing {
   }
 
   static @NotNull ImmutableSeq<Stmt> program(
+    @NotNull CompilationSession session,
     @NotNull SourceFileLocator locator,
     @NotNull Reporter reporter, @NotNull Path path
   ) throws IOException {
     var sourceCode = Files.readString(path);
     var sourceFile = new SourceFile(Option.some(locator.displayName(path)), sourceCode);
     var parser = AyaParsing.parser(sourceFile, reporter);
-    return new AyaProducer(sourceFile, reporter).visitProgram(parser.program());
+    return new AyaProducer(session, sourceFile, reporter).visitProgram(parser.program());
+  }
+
+  /**
+   * The modules imported by a file, collected from the parse tree without producing the
+   * concrete syntax, so that primitives are not registered in the {@link CompilationSession}.
+   */
+  static @NotNull ImmutableSeq<ImmutableSeq<String>> imports(
+    @NotNull SourceFileLocator locator,
+    @NotNull Reporter reporter, @NotNull Path path
+  ) throws IOException {
+    var sourceCode = Files.readString(path);
+    var sourceFile = new SourceFile(Option.some(locator.displayName(path)), sourceCode);
+    var imports = Buffer.<ImmutableSeq<String>>create();
+    collectImports(AyaParsing.parser(sourceFile, reporter).program().stmt(), imports);
+    return imports.toImmutableSeq();
+  }
+
+  private static void collectImports(@NotNull List<AyaParser.StmtContext> stmts, @NotNull Buffer<ImmutableSeq<String>> imports) {
+    for (var stmt : stmts) {
+      var importCmd = stmt.importCmd();
+      var openCmd = stmt.openCmd();
+      var mod = stmt.module();
+      if (importCmd != null) imports.append(qualifiedId(importCmd.qualifiedId()));
+      else if (openCmd != null && openCmd.IMPORT() != null) imports.append(qualifiedId(openCmd.qualifiedId()));
+      else if (mod != null) collectImports(mod.stmt(), imports);
+    }
+  }
+
+  private static @NotNull ImmutableSeq<String> qualifiedId(@NotNull AyaParser.QualifiedIdContext ctx) {
+    return ctx.ID().stream().map(ParseTree::getText).collect(ImmutableSeq.factory());
   }
 }
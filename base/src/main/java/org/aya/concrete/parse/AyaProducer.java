@@ -34,6 +34,7 @@ import org.aya.concrete.stmt.*;
 import org.aya.core.def.PrimDef;
 import org.aya.generic.Modifier;
 import org.aya.parser.AyaParser;
+import org.aya.tyck.CompilationSession;
 import org.aya.util.Constants;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -49,11 +50,13 @@ import java.util.stream.Stream;
  * @author ice1000, kiva
  */
 public final class AyaProducer {
+  public final @NotNull CompilationSession session;
   public final @NotNull SourceFile sourceFile;
   public final @NotNull Reporter reporter;
   private @Nullable SourcePos overridingSourcePos;
 
-  public AyaProducer(@NotNull SourceFile sourceFile, @NotNull Reporter reporter) {
+  public AyaProducer(@NotNull CompilationSession session, @NotNull SourceFile sourceFile, @NotNull Reporter reporter) {
+    this.session = session;
     this.sourceFile = sourceFile;
     this.reporter = reporter;
   }
@@ -71,15 +74,16 @@ public final class AyaProducer {
       reporter.report(new UnknownPrimError(sourcePos, name));
       throw new ParsingInterruptedException();
     }
-    var lack = PrimDef.Factory.INSTANCE.checkDependency(primID);
+    var factory = session.primFactory();
+    var lack = factory.checkDependency(primID);
     if (lack.isNotEmpty() && lack.get().isNotEmpty()) {
       reporter.report(new PrimDependencyError(name, lack.get(), sourcePos));
       throw new ParsingInterruptedException();
-    } else if (PrimDef.Factory.INSTANCE.have(primID)) {
+    } else if (factory.declared(primID)) {
       reporter.report(new RedefinitionError(RedefinitionError.Kind.Prim, name, sourcePos));
       throw new ParsingInterruptedException();
     }
-    var core = PrimDef.Factory.INSTANCE.factory(primID);
+    var core = factory.factory(primID);
     var type = ctx.type();
     return new Decl.PrimDecl(
       sourcePos,
@@ -260,7 +264,7 @@ public final class AyaProducer {
       var pos = sourcePosOf(ctx);
       return ImmutableSeq.of(isLamTele
         ? new Expr.Param(pos, visitParamLiteral(literal), type(null, pos), true)
-        : new Expr.Param(pos, Constants.randomlyNamed(pos), visitLiteral(literal), true)
+        : new Expr.Param(pos, session.randomlyNamed(pos), visitLiteral(literal), true)
       );
     }
     var teleBinder = ctx.teleBinder();
@@ -269,7 +273,7 @@ public final class AyaProducer {
       var type = teleBinder.expr();
       if (type != null) {
         var pos = sourcePosOf(ctx);
-        return ImmutableSeq.of(new Expr.Param(pos, Constants.randomlyNamed(pos), visitExpr(type), true));
+        return ImmutableSeq.of(new Expr.Param(pos, session.randomlyNamed(pos), visitExpr(type), true));
       }
       teleMaybeTypedExpr = teleBinder.teleMaybeTypedExpr();
     }
@@ -329,7 +333,7 @@ public final class AyaProducer {
     return new Expr.PiExpr(
       sourcePosOf(ctx),
       false,
-      new Expr.Param(pos, Constants.randomlyNamed(pos), from, true),
+      new Expr.Param(pos, session.randomlyNamed(pos), from, true),
       to);
   }
 
@@ -17,6 +17,7 @@ import org.aya.concrete.visitor.ExprConsumer;
 import org.aya.concrete.visitor.ExprFixpoint;
 import org.aya.core.def.UserDef;
 import org.aya.core.term.Term;
+import org.aya.core.visitor.Fuel;
 import org.aya.pretty.doc.Doc;
 import org.aya.pretty.doc.Docile;
 import org.aya.pretty.doc.Style;
@@ -110,7 +111,7 @@ public sealed interface Literate extends Docile {
 
     private @NotNull Doc normalize(@NotNull Term term) {
       var mode = options.mode();
-      return (mode == null ? term : term.normalize(mode)).toDoc(options.options());
+      return (mode == null ? term : term.normalize(mode, new Fuel(Fuel.INTERACTIVE, null))).toDoc(options.options());
     }
 
     @Override public @NotNull Doc toDoc() {
@@ -0,0 +1,82 @@
+// Copyright (c) 2020-2021 Yinsen (Tesla) Zhang.
+// Use of this source code is governed by the GNU GPLv3 license that can be found in the LICENSE file.
+package org.aya.concrete.resolve.module;
+
+import kala.collection.SeqLike;
+import kala.collection.immutable.ImmutableSeq;
+import kala.collection.mutable.MutableMap;
+import org.aya.api.ref.DefVar;
+import org.aya.api.ref.Var;
+import org.aya.core.def.DataDef;
+import org.aya.core.def.StructDef;
+import org.aya.core.serde.CompiledAya;
+import org.aya.core.serde.CoreFormat;
+import org.aya.core.serde.SerTerm;
+import org.aya.tyck.CompilationSession;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Loads modules from the compiled cores (<code>.ayac</code> files) under {@link #basePath}.
+ * The cores are memory-mapped and function bodies are only decoded when needed.
+ * Gives up when the core is missing, broken, or older than its source file found in {@link #sourcePaths},
+ * so it is supposed to be followed by a {@link FileModuleLoader}.
+ *
+ * @param session shared by all the loaders of a compilation, see {@link SerTerm.DeState#session()}
+ */
+public record CompiledModuleLoader(
+  @NotNull CompilationSession session,
+  @NotNull Path basePath,
+  @NotNull SeqLike<Path> sourcePaths
+) implements ModuleLoader {
+  @Override public @Nullable MutableMap<ImmutableSeq<String>, MutableMap<String, Var>>
+  load(@NotNull ImmutableSeq<@NotNull String> path, @NotNull ModuleLoader recurseLoader) {
+    var corePath = FileModuleLoader.resolveFile(basePath, path, ".ayac");
+    try {
+      if (!Files.exists(corePath) || isStale(path, corePath)) return null;
+      var compiled = readCompiled(corePath);
+      var state = new SerTerm.DeState(session);
+      for (var mod : compiled.imports()) {
+        var imported = recurseLoader.load(mod);
+        if (imported == null) return null;
+        imported.forEach((modName, symbols) -> symbols.forEach((name, var) -> {
+          if (var instanceof DefVar<?, ?> defVar) register(state, defVar);
+        }));
+      }
+      return compiled.toExports(state);
+    } catch (IOException e) {
+      return null;
+    }
+  }
+
+  private boolean isStale(@NotNull ImmutableSeq<String> path, @NotNull Path corePath) throws IOException {
+    var coreTime = Files.getLastModifiedTime(corePath);
+    for (var sourceBase : sourcePaths) {
+      var source = FileModuleLoader.resolveFile(sourceBase, path, ".aya");
+      if (Files.exists(source)) return Files.getLastModifiedTime(source).compareTo(coreTime) > 0;
+    }
+    // Libraries may be distributed without sources
+    return false;
+  }
+
+  /** Function bodies are decoded from the mapped file when they are first unfolded */
+  private static @NotNull CompiledAya readCompiled(@NotNull Path corePath) throws IOException {
+    try (var channel = FileChannel.open(corePath, StandardOpenOption.READ)) {
+      return CoreFormat.readLazily(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+    }
+  }
+
+  /** Definitions from modules loaded from source are not in the cache, so we link them by name. */
+  private static void register(@NotNull SerTerm.DeState state, @NotNull DefVar<?, ?> defVar) {
+    if (defVar.module == null) return;
+    state.register(defVar);
+    if (defVar.core instanceof DataDef data) data.body.forEach(ctor -> state.register(ctor.ref));
+    else if (defVar.core instanceof StructDef struct) struct.fields.forEach(field -> state.register(field.ref));
+  }
+}
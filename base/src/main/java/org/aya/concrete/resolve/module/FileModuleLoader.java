@@ -8,7 +8,6 @@ import kala.collection.mutable.Buffer;
 import kala.collection.mutable.MutableMap;
 import kala.function.CheckedConsumer;
 import org.aya.api.error.DelayedReporter;
-import org.aya.api.error.Problem;
 import org.aya.api.error.Reporter;
 import org.aya.api.error.SourceFileLocator;
 import org.aya.api.ref.Var;
@@ -16,15 +15,13 @@ import org.aya.api.util.InternalException;
 import org.aya.api.util.InterruptException;
 import org.aya.concrete.desugar.BinOpSet;
 import org.aya.concrete.parse.AyaParsing;
-import org.aya.concrete.remark.Remark;
 import org.aya.concrete.resolve.context.EmptyContext;
 import org.aya.concrete.resolve.context.PhysicalModuleContext;
 import org.aya.concrete.resolve.visitor.StmtShallowResolver;
-import org.aya.concrete.stmt.Decl;
-import org.aya.concrete.stmt.Sample;
 import org.aya.concrete.stmt.Stmt;
 import org.aya.core.def.Def;
-import org.aya.tyck.ExprTycker;
+import org.aya.tyck.CompilationSession;
+import org.aya.tyck.order.TyckScheduler;
 import org.aya.tyck.trace.Trace;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -33,6 +30,7 @@ import java.io.IOException;
 import java.nio.file.Path;
 
 public record FileModuleLoader(
+  @NotNull CompilationSession session,
   @NotNull SourceFileLocator locator,
   @NotNull Path basePath,
   @NotNull Reporter reporter,
@@ -46,17 +44,17 @@ public record FileModuleLoader(
                   @NotNull ImmutableSeq<Def> defs);
   }
 
-  private @NotNull Path resolveFile(@NotNull Seq<@NotNull String> path) {
+  public static @NotNull Path resolveFile(@NotNull Path basePath, @NotNull Seq<@NotNull String> path, @NotNull String ext) {
     var withoutExt = path.foldLeft(basePath, Path::resolve);
-    return withoutExt.resolveSibling(withoutExt.getFileName() + ".aya");
+    return withoutExt.resolveSibling(withoutExt.getFileName() + ext);
   }
 
   @Override public @Nullable MutableMap<ImmutableSeq<String>, MutableMap<String, Var>>
   load(@NotNull ImmutableSeq<@NotNull String> path, @NotNull ModuleLoader recurseLoader) {
-    var sourcePath = resolveFile(path);
+    var sourcePath = resolveFile(basePath, path, ".aya");
     try {
-      var program = AyaParsing.program(locator, reporter, sourcePath);
-      return tyckModule(path, recurseLoader, program, reporter,
+      var program = AyaParsing.program(session, locator, reporter, sourcePath);
+      return tyckModule(session, path, recurseLoader, program, reporter,
         resolveInfo -> {
           if (callback != null) callback.onResolved(sourcePath, resolveInfo, program);
         },
@@ -76,6 +74,7 @@ public record FileModuleLoader(
   }
 
   public static <E extends Exception> @NotNull PhysicalModuleContext tyckModule(
+    @NotNull CompilationSession session,
     @NotNull ImmutableSeq<@NotNull String> path,
     @NotNull ModuleLoader recurseLoader,
     @NotNull ImmutableSeq<Stmt> program,
@@ -85,26 +84,17 @@ public record FileModuleLoader(
     Trace.@Nullable Builder builder
   ) throws E {
     var context = new EmptyContext(reporter).derive(path);
-    var resolveInfo = new FileResolveInfo(Buffer.create());
+    var resolveInfo = new FileResolveInfo(context, Buffer.create());
     var shallowResolver = new StmtShallowResolver(recurseLoader, resolveInfo);
     program.forEach(s -> s.accept(shallowResolver, context));
     var opSet = new BinOpSet(reporter);
     program.forEach(s -> s.resolve(opSet));
     opSet.sort();
-    program.forEach(s -> s.desugar(reporter, opSet));
+    program.forEach(s -> s.desugar(session, reporter, opSet));
     // in case we have un-messaged TyckException
     try (var delayedReporter = new DelayedReporter(reporter)) {
-      var wellTyped = Buffer.<Def>create();
-      for (var stmt : program) {
-        if (stmt instanceof Decl decl) wellTyped.append(decl.tyck(delayedReporter, builder));
-        else if (stmt instanceof Sample sample) wellTyped.append(sample.tyck(delayedReporter, builder));
-        else if (stmt instanceof Remark remark) {
-          var literate = remark.literate;
-          if (literate != null) literate.tyck(new ExprTycker(delayedReporter, builder));
-        }
-        if (delayedReporter.problems().anyMatch(Problem::isError)) break;
-      }
-      onTycked.acceptChecked(wellTyped.toImmutableSeq());
+      var wellTyped = TyckScheduler.tyck(session, program, delayedReporter, builder);
+      onTycked.acceptChecked(wellTyped);
     } finally {
       onResolved.acceptChecked(resolveInfo);
     }
@@ -120,6 +110,7 @@ public record FileModuleLoader(
   }
 
   public record FileResolveInfo(
+    @NotNull PhysicalModuleContext thisModule,
     @NotNull Buffer<ImmutableSeq<String>> imports
   ) {
   }
@@ -0,0 +1,55 @@
+// Copyright (c) 2020-2021 Yinsen (Tesla) Zhang.
+// Use of this source code is governed by the GNU GPLv3 license that can be found in the LICENSE file.
+package org.aya.concrete.resolve.module;
+
+import kala.collection.immutable.ImmutableSeq;
+import kala.collection.mutable.MutableMap;
+import org.aya.api.ref.Var;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A loader shared by concurrent compilations, loading each module once.
+ * Each module is locked on its own: the callers asking for a module being loaded wait for it,
+ * while the other modules are loaded concurrently, so the wrapped loader must be thread-safe
+ * for different modules (a {@link CompiledModuleLoader} is, a {@link CachedModuleLoader} is not).
+ * The wrapped loader recurses into this one instead of the <code>recurseLoader</code> of the caller,
+ * so that no module is waited for while a caller-specific loader (like a {@link FileModuleLoader}) is working.
+ */
+public record SynchronizedModuleLoader(
+  @NotNull ModuleLoader loader,
+  @NotNull ConcurrentHashMap<ImmutableSeq<String>, Loading> modules
+) implements ModuleLoader {
+  public SynchronizedModuleLoader(@NotNull ModuleLoader loader) {
+    this(loader, new ConcurrentHashMap<>());
+  }
+
+  /** A module loaded by the thread {@link #loader}, finished when the module is loaded */
+  public record Loading(
+    @NotNull Thread loader,
+    @NotNull CompletableFuture<@Nullable MutableMap<ImmutableSeq<String>, MutableMap<String, Var>>> result
+  ) {
+  }
+
+  @Override public @Nullable MutableMap<ImmutableSeq<String>, MutableMap<String, Var>>
+  load(@NotNull ImmutableSeq<@NotNull String> path, @NotNull ModuleLoader recurseLoader) {
+    var loading = new Loading(Thread.currentThread(), new CompletableFuture<>());
+    var existing = modules.putIfAbsent(path, loading);
+    if (existing != null) {
+      // Imported by itself, waiting would never end
+      if (existing.loader == Thread.currentThread() && !existing.result.isDone()) return null;
+      return existing.result.join();
+    }
+    try {
+      var result = loader.load(path, this);
+      loading.result.complete(result);
+      return result;
+    } catch (RuntimeException | Error e) {
+      loading.result.completeExceptionally(e);
+      throw e;
+    }
+  }
+}
@@ -14,6 +14,7 @@ import org.aya.concrete.Pattern;
 import org.aya.concrete.resolve.context.Context;
 import org.aya.core.def.*;
 import org.aya.generic.Modifier;
+import org.aya.tyck.CompilationSession;
 import org.aya.tyck.StmtTycker;
 import org.aya.tyck.trace.Trace;
 import org.jetbrains.annotations.ApiStatus;
@@ -54,10 +55,11 @@ public sealed abstract class Decl extends Signatured implements Stmt, ConcreteDe
   protected abstract <P, R> R doAccept(@NotNull Visitor<P, R> visitor, P p);
 
   public @NotNull Def tyck(
+    @NotNull CompilationSession session,
     @NotNull Reporter reporter,
     Trace.@Nullable Builder builder
   ) {
-    var tycker = new StmtTycker(reporter, builder);
+    var tycker = new StmtTycker(session, reporter, builder);
     return accept(tycker, tycker.newTycker());
   }
 
@@ -7,6 +7,7 @@ import org.aya.api.error.Reporter;
 import org.aya.api.error.SourcePos;
 import org.aya.core.def.Def;
 import org.aya.core.def.UserDef;
+import org.aya.tyck.CompilationSession;
 import org.aya.tyck.ExprTycker;
 import org.aya.tyck.StmtTycker;
 import org.aya.tyck.error.CounterexampleError;
@@ -18,7 +19,7 @@ public sealed interface Sample extends Stmt {
   @NotNull Stmt delegate();
 
   /** @return <code>null</code> if the delegate is a command (not a definition) */
-  @Nullable Def tyck(@NotNull Reporter reporter, Trace.@Nullable Builder traceBuilder);
+  @Nullable Def tyck(@NotNull CompilationSession session, @NotNull Reporter reporter, Trace.@Nullable Builder traceBuilder);
 
   @Override default @NotNull SourcePos sourcePos() {
     return delegate().sourcePos();
@@ -34,11 +35,12 @@ public sealed interface Sample extends Stmt {
     }
 
     @Override public @Nullable Def tyck(
+      @NotNull CompilationSession session,
       @NotNull Reporter reporter,
       Trace.@Nullable Builder traceBuilder
     ) {
       if (delegate instanceof Decl decl) {
-        var stmtTycker = new StmtTycker(reporter, traceBuilder);
+        var stmtTycker = new StmtTycker(session, reporter, traceBuilder);
         return decl.accept(stmtTycker, stmtTycker.newTycker());
       } else return null;
     }
@@ -54,11 +56,12 @@ public sealed interface Sample extends Stmt {
     }
 
     @Override public @Nullable Def tyck(
+      @NotNull CompilationSession session,
       @NotNull Reporter reporter,
       Trace.@Nullable Builder traceBuilder
     ) {
-      var stmtTycker = new StmtTycker(reporter, traceBuilder);
-      var def = delegate.accept(stmtTycker, new ExprTycker(this.reporter, stmtTycker.traceBuilder()));
+      var stmtTycker = new StmtTycker(session, reporter, traceBuilder);
+      var def = delegate.accept(stmtTycker, new ExprTycker(session, this.reporter, stmtTycker.traceBuilder()));
       var problems = this.reporter.problems().toImmutableSeq();
       if (problems.isEmpty()) {
         stmtTycker.reporter().report(new CounterexampleError(delegate.sourcePos(), delegate.ref()));
@@ -14,6 +14,7 @@ import org.aya.concrete.remark.Remark;
 import org.aya.concrete.resolve.visitor.StmtResolver;
 import org.aya.distill.ConcreteDistiller;
 import org.aya.pretty.doc.Doc;
+import org.aya.tyck.CompilationSession;
 import org.jetbrains.annotations.Contract;
 import org.jetbrains.annotations.NotNull;
 
@@ -32,8 +33,8 @@ public sealed interface Stmt extends AyaDocile
     accept(StmtResolver.INSTANCE, opSet);
   }
 
-  default void desugar(@NotNull Reporter reporter, @NotNull BinOpSet opSet) {
-    accept(new Desugarer(reporter, opSet), Unit.unit());
+  default void desugar(@NotNull CompilationSession session, @NotNull Reporter reporter, @NotNull BinOpSet opSet) {
+    accept(new Desugarer(session, reporter, opSet), Unit.unit());
   }
 
   @Override default @NotNull Doc toDoc(@NotNull DistillerOptions options) {
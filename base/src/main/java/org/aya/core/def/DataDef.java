@@ -9,6 +9,7 @@ import org.aya.core.sort.Sort;
 import org.aya.core.term.CallTerm;
 import org.aya.core.term.Term;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 /**
  * core data definition, corresponding to {@link Decl.DataDecl}
@@ -18,6 +19,8 @@ import org.jetbrains.annotations.NotNull;
 public final class DataDef extends UserDef {
   public final @NotNull DefVar<DataDef, Decl.DataDecl> ref;
   public final @NotNull ImmutableSeq<CtorDef> body;
+  /** Non-null if the values of this data type can be written as {@link org.aya.core.term.IntroTerm.NatLit} */
+  public final @Nullable NatShape natShape;
 
   public DataDef(
     @NotNull DefVar<DataDef, Decl.DataDecl> ref, @NotNull ImmutableSeq<Term.Param> telescope,
@@ -28,6 +31,7 @@ public final class DataDef extends UserDef {
     ref.core = this;
     this.ref = ref;
     this.body = body;
+    this.natShape = NatShape.of(this);
   }
 
   public static @NotNull DefVar<DataDef, Decl.DataDecl> fromCtor(@NotNull DefVar<CtorDef, Decl.DataCtor> conHead) {
@@ -43,6 +47,27 @@ public final class DataDef extends UserDef {
     return ref;
   }
 
+  /**
+   * The constructors of a data type without parameters which has exactly a nullary constructor
+   * and a constructor taking one explicit argument of the data type itself, both without patterns or conditions.
+   */
+  public record NatShape(
+    @NotNull DefVar<CtorDef, Decl.DataCtor> zero,
+    @NotNull DefVar<CtorDef, Decl.DataCtor> suc
+  ) {
+    private static @Nullable NatShape of(@NotNull DataDef data) {
+      if (data.telescope.isNotEmpty() || !data.body.sizeEquals(2)) return null;
+      CtorDef zero = null, suc = null;
+      for (var ctor : data.body) {
+        if (ctor.pats.isNotEmpty() || ctor.clauses.isNotEmpty()) return null;
+        if (ctor.selfTele.isEmpty()) zero = ctor;
+        else if (ctor.selfTele.sizeEquals(1) && ctor.selfTele.first().explicit()
+          && ctor.selfTele.first().type() instanceof CallTerm.Data dataCall && dataCall.ref() == data.ref) suc = ctor;
+      }
+      return zero != null && suc != null ? new NatShape(zero.ref, suc.ref) : null;
+    }
+  }
+
   /**
    * @author ice1000
    */
@@ -2,7 +2,6 @@
 // Use of this source code is governed by the GNU GPLv3 license that can be found in the LICENSE file.
 package org.aya.core.def;
 
-import kala.collection.SeqLike;
 import kala.collection.immutable.ImmutableSeq;
 import kala.tuple.Unit;
 import org.aya.api.core.CoreDef;
@@ -49,10 +48,6 @@ public sealed interface Def extends CoreDef permits SubLevelDef, TopLevelDef {
       // guaranteed as this is already a core term
     else return Objects.requireNonNull(defVar.concrete.signature).result;
   }
-  static @NotNull ImmutableSeq<Term.Param>
-  substParams(@NotNull SeqLike<Term.@NotNull Param> param, Substituter.@NotNull TermSubst subst) {
-    return param.view().drop(1).map(p -> p.subst(subst)).toImmutableSeq();
-  }
 
   @Override @NotNull Term result();
   @Override @NotNull DefVar<? extends Def, ? extends Signatured> ref();
@@ -85,10 +80,6 @@ public sealed interface Def extends CoreDef permits SubLevelDef, TopLevelDef {
     @NotNull ImmutableSeq<Term.@NotNull Param> param,
     @NotNull Term result
   ) implements AyaDocile {
-    @Contract("_ -> new") public @NotNull Signature inst(@NotNull Substituter.TermSubst subst) {
-      return new Signature(sortParam, substParams(param, subst), result.subst(subst));
-    }
-
     @Override public @NotNull Doc toDoc(@NotNull DistillerOptions options) {
       return Doc.sep(Doc.sep(param.view().map(p -> p.toDoc(options))), Doc.symbol("->"), result.toDoc(options));
     }
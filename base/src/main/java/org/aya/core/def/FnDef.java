@@ -3,34 +3,109 @@
 package org.aya.core.def;
 
 import kala.collection.immutable.ImmutableSeq;
+import kala.collection.mutable.Buffer;
 import kala.control.Either;
 import org.aya.api.ref.DefVar;
 import org.aya.concrete.stmt.Decl;
 import org.aya.core.Matching;
+import org.aya.core.pat.CaseTree;
 import org.aya.core.sort.Sort;
 import org.aya.core.term.Term;
+import org.aya.core.visitor.ClosureCompiler;
+import org.aya.core.visitor.RefFinder;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.util.function.BiFunction;
+import java.util.function.Supplier;
 
 /**
  * @author ice1000
  */
 public final class FnDef extends UserDef {
   public final @NotNull DefVar<FnDef, Decl.FnDecl> ref;
-  public final @NotNull Either<Term, ImmutableSeq<Matching>> body;
+  private volatile @Nullable Either<Term, ImmutableSeq<Matching>> body;
+  private @Nullable Supplier<Either<Term, ImmutableSeq<Matching>>> lazyBody;
+  private volatile @Nullable CaseTree caseTree;
+  private volatile @Nullable ClosureCompiler.Fn compiled;
+  /**
+   * One more than the highest function the body calls, see {@link #height(DefVar, Either)}.
+   * Conversion checking unfolds the higher calls first.
+   */
+  public final int height;
 
   public FnDef(
     @NotNull DefVar<FnDef, Decl.FnDecl> ref, @NotNull ImmutableSeq<Term.Param> telescope,
-    @NotNull ImmutableSeq<Sort.LvlVar> levels, @NotNull Term result,
+    @NotNull ImmutableSeq<Sort.LvlVar> levels, @NotNull Term result, int height,
     @NotNull Either<Term, ImmutableSeq<Matching>> body
   ) {
     super(telescope, result, levels);
     ref.core = this;
     this.ref = ref;
+    this.height = height;
     this.body = body;
   }
 
+  /** @param lazyBody computed on the first call to {@link #body()}, used for definitions loaded from compiled cores */
+  public FnDef(
+    @NotNull DefVar<FnDef, Decl.FnDecl> ref, @NotNull ImmutableSeq<Term.Param> telescope,
+    @NotNull ImmutableSeq<Sort.LvlVar> levels, @NotNull Term result, int height,
+    @NotNull Supplier<Either<Term, ImmutableSeq<Matching>>> lazyBody
+  ) {
+    super(telescope, result, levels);
+    ref.core = this;
+    this.ref = ref;
+    this.height = height;
+    this.lazyBody = lazyBody;
+  }
+
+  public @NotNull Either<Term, ImmutableSeq<Matching>> body() {
+    var body = this.body;
+    if (body != null) return body;
+    synchronized (this) {
+      if (this.body == null) {
+        assert lazyBody != null;
+        this.body = lazyBody.get();
+        lazyBody = null;
+      }
+      return this.body;
+    }
+  }
+
+  /** @return the clauses compiled on the first call, the body must be made of clauses */
+  public @NotNull CaseTree caseTree() {
+    var caseTree = this.caseTree;
+    if (caseTree != null) return caseTree;
+    synchronized (this) {
+      if (this.caseTree == null) this.caseTree = CaseTree.compile(body().getRightValue());
+      return this.caseTree;
+    }
+  }
+
+  /** @return the body compiled on the first call, see {@link ClosureCompiler} */
+  public @NotNull ClosureCompiler.Fn compiled() {
+    var compiled = this.compiled;
+    if (compiled != null) return compiled;
+    synchronized (this) {
+      if (this.compiled == null) this.compiled = ClosureCompiler.Fn.compile(this);
+      return this.compiled;
+    }
+  }
+
+  /**
+   * @param body of the function being tycked, whose callees are tycked already
+   * @return one more than the highest function the body calls,
+   * where the recursive calls count as zero
+   */
+  public static int height(@NotNull DefVar<FnDef, Decl.FnDecl> ref, @NotNull Either<Term, ImmutableSeq<Matching>> body) {
+    var references = Buffer.<Def>create();
+    if (body.isLeft()) body.getLeftValue().accept(RefFinder.HEADER_ONLY, references);
+    else body.getRightValue().forEach(clause -> RefFinder.HEADER_ONLY.matchy(clause, references));
+    var max = 0;
+    for (var def : references) if (def instanceof FnDef fn && fn.ref != ref) max = Math.max(max, fn.height);
+    return max + 1;
+  }
+
   public static <T> BiFunction<Term, Either<Term, ImmutableSeq<Matching>>, T>
   factory(BiFunction<Term, Either<Term, ImmutableSeq<Matching>>, T> function) {
     return function;
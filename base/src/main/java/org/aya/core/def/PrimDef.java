@@ -16,32 +16,36 @@ import org.aya.concrete.stmt.Decl;
 import org.aya.core.sort.Sort;
 import org.aya.core.term.*;
 import org.aya.generic.Level;
+import org.aya.pretty.doc.Doc;
 import org.aya.util.Constants;
 import org.jetbrains.annotations.NonNls;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.math.BigInteger;
 import java.util.Objects;
+import java.util.function.BinaryOperator;
 import java.util.function.Function;
-import java.util.function.Supplier;
 
 /**
  * @author ice1000
  */
 public final class PrimDef extends TopLevelDef {
   public PrimDef(
+    @NotNull Factory factory,
     @NotNull ImmutableSeq<Term.Param> telescope,
     @NotNull ImmutableSeq<Sort.LvlVar> levels,
     @NotNull Term result, @NotNull ID name
   ) {
     super(telescope, result, levels);
+    this.factory = factory;
     this.ref = DefVar.empty(name.id);
     this.id = name;
     ref.core = this;
   }
 
-  public PrimDef(@NotNull Term result, @NotNull ID name) {
-    this(ImmutableSeq.empty(), ImmutableSeq.empty(), result, name);
+  public PrimDef(@NotNull Factory factory, @NotNull Term result, @NotNull ID name) {
+    this(factory, ImmutableSeq.empty(), ImmutableSeq.empty(), result, name);
   }
 
   @Override public <P, R> R accept(@NotNull Visitor<P, R> visitor, P p) {
@@ -49,52 +53,55 @@ public final class PrimDef extends TopLevelDef {
   }
 
   public @NotNull Term unfold(@NotNull CallTerm.Prim primCall) {
-    return Factory.INSTANCE.unfold(Objects.requireNonNull(ID.find(ref.name())), primCall);
+    return factory.unfold(Objects.requireNonNull(ID.find(ref.name())), primCall);
   }
 
   public @NotNull ImmutableSeq<Term.Param> telescope() {
     if (telescope.isEmpty()) return telescope;
-    if (ref.concrete != null) {
-      var signature = ref.concrete.signature;
-      if (signature != null) return signature.param();
-    }
-    return telescope;
+    var signature = signature();
+    return signature != null ? signature.param() : telescope;
   }
 
   public @NotNull Term result() {
+    var signature = signature();
+    return signature != null ? signature.result() : result;
+  }
+
+  /** @return the signature given by the declaration, or the one loaded from a compiled core */
+  public @Nullable Def.Signature signature() {
     if (ref.concrete != null) {
       var signature = ref.concrete.signature;
-      if (signature != null) return signature.result();
+      if (signature != null) return signature;
     }
-    return result;
+    return loadedSignature;
   }
 
   record PrimSeed(
     @NotNull ID name,
     @NotNull Function<CallTerm.@NotNull Prim, @NotNull Term> unfold,
-    @NotNull Supplier<@NotNull PrimDef> supplier,
+    @NotNull Function<@NotNull Factory, @NotNull PrimDef> supplier,
     @NotNull ImmutableSeq<@NotNull ID> dependency
   ) {
-    public @NotNull PrimDef supply() {
-      return supplier.get();
+    public @NotNull PrimDef supply(@NotNull Factory factory) {
+      return supplier.apply(factory);
     }
 
     // Interval
-    public static CallTerm.Prim intervalCall() {
-      return new CallTerm.Prim(Factory.INSTANCE.getOrCreate(ID.INTERVAL).ref(),
+    public static CallTerm.Prim intervalCall(@NotNull Factory factory) {
+      return new CallTerm.Prim(factory.getOrCreate(ID.INTERVAL).ref(),
         ImmutableSeq.empty(), ImmutableSeq.empty());
     }
 
     public static final @NotNull PrimSeed INTERVAL = new PrimSeed(
       ID.INTERVAL,
       prim -> prim,
-      () -> new PrimDef(FormTerm.Univ.ZERO, ID.INTERVAL),
+      factory -> new PrimDef(factory, FormTerm.Univ.ZERO, ID.INTERVAL),
       ImmutableSeq.empty()
     );
     public static final @NotNull PrimDef.PrimSeed LEFT = new PrimSeed(
       ID.LEFT,
       prim -> prim,
-      () -> new PrimDef(intervalCall(), ID.LEFT),
+      factory -> new PrimDef(factory, intervalCall(factory), ID.LEFT),
       ImmutableSeq.of(ID.INTERVAL)
     );
 
@@ -102,7 +109,7 @@ public final class PrimDef extends TopLevelDef {
     public static final @NotNull PrimDef.PrimSeed RIGHT = new PrimSeed(
       ID.RIGHT,
       prim -> prim,
-      () -> new PrimDef(intervalCall(), ID.RIGHT),
+      factory -> new PrimDef(factory, intervalCall(factory), ID.RIGHT),
       ImmutableSeq.of(ID.INTERVAL)
     );
 
@@ -111,7 +118,7 @@ public final class PrimDef extends TopLevelDef {
       var args = prim.args();
       var argBase = args.get(1);
       var argI = args.get(2);
-      var left = Factory.INSTANCE.getOption(ID.LEFT);
+      var left = prim.ref().core.factory.getOption(ID.LEFT);
       if (argI.term() instanceof CallTerm.Prim primCall && left.isNotEmpty() && primCall.ref() == left.get().ref)
         return argBase.term();
       var argA = args.get(0).term();
@@ -125,38 +132,39 @@ public final class PrimDef extends TopLevelDef {
       return prim;
     }
 
-    public static final @NotNull PrimDef.PrimSeed ARCOE = new PrimSeed(ID.ARCOE, PrimSeed::arcoe, () -> {
+    public static final @NotNull PrimDef.PrimSeed ARCOE = new PrimSeed(ID.ARCOE, PrimSeed::arcoe, factory -> {
       var paramA = new LocalVar("A");
-      var paramIToATy = new Term.Param(new LocalVar(Constants.ANONYMOUS_PREFIX), intervalCall(), true);
+      var paramIToATy = new Term.Param(new LocalVar(Constants.ANONYMOUS_PREFIX), intervalCall(factory), true);
       var paramI = new LocalVar("i");
       var universe = new Sort.LvlVar("u", null);
       var result = new FormTerm.Univ(new Sort(new Level.Reference<>(universe)));
       var paramATy = new FormTerm.Pi(paramIToATy, result);
       var aRef = new RefTerm(paramA, paramATy);
-      var left = Factory.INSTANCE.getOrCreate(ID.LEFT);
+      var left = factory.getOrCreate(ID.LEFT);
       var baseAtLeft = new ElimTerm.App(aRef, new Arg<>(new CallTerm.Prim(left.ref, ImmutableSeq.empty(), ImmutableSeq.empty()), true));
       return new PrimDef(
+        factory,
         ImmutableSeq.of(
           new Term.Param(paramA, paramATy, true),
           new Term.Param(new LocalVar("base"), baseAtLeft, true),
-          new Term.Param(paramI, intervalCall(), true)
+          new Term.Param(paramI, intervalCall(factory), true)
         ),
         ImmutableSeq.of(universe),
-        new ElimTerm.App(aRef, new Arg<>(new RefTerm(paramI, intervalCall()), true)),
+        new ElimTerm.App(aRef, new Arg<>(new RefTerm(paramI, intervalCall(factory)), true)),
         ID.ARCOE
       );
     }, ImmutableSeq.empty());
 
-    private static @NotNull Tuple2<PrimDef, PrimDef> leftRight() {
+    private static @NotNull Tuple2<PrimDef, PrimDef> leftRight(@NotNull Factory factory) {
       return Tuple.of(
-        Factory.INSTANCE.getOption(ID.LEFT).get(),
-        Factory.INSTANCE.getOption(ID.RIGHT).get());
+        factory.getOption(ID.LEFT).get(),
+        factory.getOption(ID.RIGHT).get());
     }
 
     /** Involution, ~ in Cubical Agda */
     private static @NotNull Term invol(CallTerm.@NotNull Prim prim) {
       if (prim.args().get(0).term() instanceof CallTerm.Prim primCall) {
-        var lr = leftRight();
+        var lr = leftRight(prim.ref().core.factory);
         var left = lr._1;
         var right = lr._2;
         if (primCall.ref() == left.ref)
@@ -167,10 +175,11 @@ public final class PrimDef extends TopLevelDef {
       return prim;
     }
 
-    public static final @NotNull PrimDef.PrimSeed INVOL = new PrimSeed(ID.INVOL, PrimSeed::invol, () -> new PrimDef(
-      ImmutableSeq.of(new Term.Param(new LocalVar("i"), intervalCall(), true)),
+    public static final @NotNull PrimDef.PrimSeed INVOL = new PrimSeed(ID.INVOL, PrimSeed::invol, factory -> new PrimDef(
+      factory,
+      ImmutableSeq.of(new Term.Param(new LocalVar("i"), intervalCall(factory), true)),
       ImmutableSeq.empty(),
-      intervalCall(),
+      intervalCall(factory),
       ID.INVOL
     ), ImmutableSeq.empty());
 
@@ -178,7 +187,7 @@ public final class PrimDef extends TopLevelDef {
     private static @NotNull Term squeezeLeft(CallTerm.@NotNull Prim prim) {
       var lhsArg = prim.args().get(0).term();
       var rhsArg = prim.args().get(1).term();
-      var lr = leftRight();
+      var lr = leftRight(prim.ref().core.factory);
       var left = lr._1;
       var right = lr._2;
       if (lhsArg instanceof CallTerm.Prim lhs) {
@@ -193,21 +202,58 @@ public final class PrimDef extends TopLevelDef {
 
 
     public static final @NotNull PrimDef.PrimSeed SQUEEZE_LEFT =
-      new PrimSeed(ID.SQUEEZE_LEFT, PrimSeed::squeezeLeft, () -> new PrimDef(
+      new PrimSeed(ID.SQUEEZE_LEFT, PrimSeed::squeezeLeft, factory -> new PrimDef(
+        factory,
         ImmutableSeq.of(
-          new Term.Param(new LocalVar("i"), intervalCall(), true),
-          new Term.Param(new LocalVar("j"), intervalCall(), true)),
+          new Term.Param(new LocalVar("i"), intervalCall(factory), true),
+          new Term.Param(new LocalVar("j"), intervalCall(factory), true)),
         ImmutableSeq.empty(),
-        intervalCall(),
+        intervalCall(factory),
         ID.SQUEEZE_LEFT
       ), ImmutableSeq.empty());
+
+    /** Computed in binary when both sides are closed numbers, see {@link IntroTerm.NatLit#from(Term)} */
+    private static @NotNull Term natArith(CallTerm.@NotNull Prim prim, @NotNull BinaryOperator<BigInteger> op) {
+      var lhs = IntroTerm.NatLit.from(prim.args().get(0).term());
+      if (lhs == null) return prim;
+      var rhs = IntroTerm.NatLit.from(prim.args().get(1).term());
+      if (rhs == null) return prim;
+      return new IntroTerm.NatLit(op.apply(lhs.value(), rhs.value()), lhs.type());
+    }
+
+    /**
+     * The naturals are user-defined, so the types here are placeholders.
+     * The declaration has to give a signature, which is checked to be about a data type with a {@link DataDef.NatShape}.
+     */
+    private static @NotNull PrimDef natArithDef(@NotNull Factory factory, @NotNull ID id) {
+      var nat = new ErrorTerm(Doc.plain("Nat"), false);
+      return new PrimDef(factory, ImmutableSeq.of(
+        new Term.Param(new LocalVar("a"), nat, true),
+        new Term.Param(new LocalVar("b"), nat, true)
+      ), ImmutableSeq.empty(), nat, id);
+    }
+
+    public static final @NotNull PrimDef.PrimSeed NAT_ADD = new PrimSeed(ID.NAT_ADD,
+      prim -> natArith(prim, BigInteger::add), factory -> natArithDef(factory, ID.NAT_ADD), ImmutableSeq.empty());
+    public static final @NotNull PrimDef.PrimSeed NAT_MUL = new PrimSeed(ID.NAT_MUL,
+      prim -> natArith(prim, BigInteger::multiply), factory -> natArithDef(factory, ID.NAT_MUL), ImmutableSeq.empty());
   }
 
+  /**
+   * The primitives of a {@link org.aya.tyck.CompilationSession}.
+   * A factory may have a parent, whose primitives are visible but can be declared again,
+   * so that independent files compiled in one build can declare the same primitive.
+   */
   public static class Factory {
     private final @NotNull MutableMap<@NotNull ID, @NotNull PrimDef> defs = MutableMap.create();
-    public static final @NotNull PrimDef.Factory INSTANCE = new Factory();
+    private final @Nullable Factory parent;
+
+    public Factory() {
+      this(null);
+    }
 
-    private Factory() {
+    public Factory(@Nullable Factory parent) {
+      this.parent = parent;
     }
 
     private static final @NotNull Map<@NotNull ID, @NotNull PrimSeed> SEEDS = ImmutableSeq.of(
@@ -216,26 +262,34 @@ public final class PrimDef extends TopLevelDef {
         PrimSeed.RIGHT,
         PrimSeed.ARCOE,
         PrimSeed.SQUEEZE_LEFT,
-        PrimSeed.INVOL
+        PrimSeed.INVOL,
+        PrimSeed.NAT_ADD,
+        PrimSeed.NAT_MUL
       ).map(seed -> Tuple.of(seed.name, seed))
       .toImmutableMap();
 
-    public @NotNull PrimDef factory(@NotNull ID name) {
-      assert !have(name);
-      var rst = SEEDS.get(name).supply();
+    public synchronized @NotNull PrimDef factory(@NotNull ID name) {
+      assert !declared(name);
+      var rst = SEEDS.get(name).supply(this);
       defs.set(name, rst);
       return rst;
     }
 
-    public @NotNull Option<PrimDef> getOption(@NotNull ID name) {
-      return defs.getOption(name);
+    public synchronized @NotNull Option<PrimDef> getOption(@NotNull ID name) {
+      var def = defs.getOption(name);
+      return def.isEmpty() && parent != null ? parent.getOption(name) : def;
     }
 
     public boolean have(@NotNull ID name) {
+      return getOption(name).isNotEmpty();
+    }
+
+    /** @return true if the primitive is declared in this factory, not in the parent */
+    public synchronized boolean declared(@NotNull ID name) {
       return defs.containsKey(name);
     }
 
-    public @NotNull PrimDef getOrCreate(@NotNull ID name) {
+    public synchronized @NotNull PrimDef getOrCreate(@NotNull ID name) {
       return getOption(name).getOrElse(() -> factory(name));
     }
 
@@ -258,8 +312,10 @@ public final class PrimDef extends TopLevelDef {
       return false;
     }
 
-    public void clear() {
-      defs.clear();
+    public static final @NotNull ImmutableSeq<ID> NAT_ARITH = ImmutableSeq.of(ID.NAT_ADD, ID.NAT_MUL);
+
+    public boolean natArith(@NotNull PrimDef core) {
+      return core.factory == this && NAT_ARITH.contains(core.id);
     }
   }
 
@@ -268,7 +324,9 @@ public final class PrimDef extends TopLevelDef {
     /** Short for <em>Arend coe</em>. */
     ARCOE("arcoe"),
     SQUEEZE_LEFT("squeezeL"),
-    INVOL("invol");
+    INVOL("invol"),
+    NAT_ADD("natAdd"),
+    NAT_MUL("natMul");
     public final @NotNull @NonNls String id;
 
     public static @Nullable ID find(@NotNull String id) {
@@ -284,6 +342,10 @@ public final class PrimDef extends TopLevelDef {
 
   public final @NotNull DefVar<@NotNull PrimDef, Decl.PrimDecl> ref;
   public final @NotNull ID id;
+  /** The factory creating this primitive, where its siblings like {@link ID#RIGHT} for {@link ID#LEFT} are found */
+  public final @NotNull Factory factory;
+  /** Set for the primitives typed by their declarations (see {@link Factory#natArith}) loaded from compiled cores */
+  public @Nullable Def.Signature loadedSignature;
 
   public @NotNull DefVar<@NotNull PrimDef, Decl.PrimDecl> ref() {
     return ref;
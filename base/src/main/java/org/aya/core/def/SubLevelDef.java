@@ -5,6 +5,7 @@ package org.aya.core.def;
 import kala.collection.SeqView;
 import kala.collection.immutable.ImmutableSeq;
 import org.aya.core.Matching;
+import org.aya.core.pat.CaseTree;
 import org.aya.core.term.Term;
 import org.jetbrains.annotations.NotNull;
 
@@ -18,6 +19,7 @@ public sealed abstract class SubLevelDef implements Def permits CtorDef, FieldDe
   public final @NotNull ImmutableSeq<Term.Param> selfTele;
   public final @NotNull Term result;
   public final @NotNull ImmutableSeq<Matching> clauses;
+  public final @NotNull CaseTree caseTree;
   public final boolean coerce;
 
   protected SubLevelDef(
@@ -28,6 +30,7 @@ public sealed abstract class SubLevelDef implements Def permits CtorDef, FieldDe
     this.selfTele = selfTele;
     this.result = result;
     this.clauses = clauses;
+    this.caseTree = CaseTree.compile(clauses);
     this.coerce = coerce;
   }
 
@@ -8,9 +8,12 @@ import org.aya.core.term.CallTerm;
 import org.aya.core.term.IntroTerm;
 import org.aya.core.term.RefTerm;
 import org.aya.core.term.Term;
+import org.aya.tyck.pat.PatTycker;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.math.BigInteger;
+
 public interface TermToPat {
   static @Nullable Pat toPat(@NotNull Arg<@NotNull Term> arg) {
     return toPat(arg.term(), arg.explicit());
@@ -28,6 +31,9 @@ public interface TermToPat {
         case LEFT, RIGHT -> new Pat.Prim(explicit, prim.ref(), prim.computeType());
         default -> null;
       };
+      // The pattern nests a constructor for each successor, so the big numbers are not patterns, like in PatTycker
+      case IntroTerm.NatLit lit -> lit.value().compareTo(BigInteger.valueOf(PatTycker.NUMBER_PATTERN_LIMIT)) <= 0
+        ? toPat(lit.toCon(), explicit) : null;
       case IntroTerm.Tuple tuple -> new Pat.Tuple(explicit,
         tuple.items().map(item -> toPat(item, true)), null, term);
     };
@@ -0,0 +1,205 @@
+// Copyright (c) 2020-2021 Yinsen (Tesla) Zhang.
+// Use of this source code is governed by the GNU GPLv3 license that can be found in the LICENSE file.
+package org.aya.core.pat;
+
+import kala.collection.SeqLike;
+import kala.collection.immutable.ImmutableSeq;
+import kala.collection.mutable.Buffer;
+import kala.collection.mutable.MutableHashMap;
+import kala.tuple.Tuple;
+import kala.tuple.Tuple2;
+import org.aya.api.ref.LocalVar;
+import org.aya.api.util.Arg;
+import org.aya.core.Matching;
+import org.aya.core.term.CallTerm;
+import org.aya.core.term.IntroTerm;
+import org.aya.core.term.Term;
+import org.aya.core.visitor.Substituter;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Clauses compiled into a decision tree, which tests each argument (or a part of it) at most once.
+ * It finds the same clause as trying {@link PatMatcher#tryBuildSubstArgs} on the clauses in order:
+ * a term that is not an introduction (say, a variable) only goes to the clauses with a variable
+ * pattern at that place.
+ * <p>
+ * The arguments and their parts are stored in slots, numbered when compiling the tree.
+ *
+ * @see #compile(ImmutableSeq)
+ */
+public record CaseTree(int slotCount, @Nullable Node root) {
+  public static final @NotNull CaseTree EMPTY = new CaseTree(0, null);
+
+  public sealed interface Node {
+  }
+
+  /** @param bindings the pattern variables, and the slots they are bound to */
+  public record Leaf(@NotNull Matching clause, @NotNull ImmutableSeq<Tuple2<LocalVar, Integer>> bindings) implements Node {
+  }
+
+  /** @param otherwise taken if no branch applies, <code>null</code> if no clause matches then */
+  public record Switch(int slot, @NotNull ImmutableSeq<Branch> branches, @Nullable Node otherwise) implements Node {
+  }
+
+  /**
+   * @param head       the constructor or primitive {@link org.aya.api.ref.DefVar}, or <code>null</code> for tuples
+   * @param childSlots where the arguments of the constructor or the tuple items go
+   */
+  public record Branch(@Nullable Object head, int @NotNull [] childSlots, @NotNull Node next) {
+    private boolean test(@NotNull Term term, @Nullable Term @NotNull [] slots) {
+      if (head == null && term instanceof IntroTerm.Tuple tuple) {
+        for (int i = 0; i < childSlots.length; i++) slots[childSlots[i]] = tuple.items().get(i);
+        return true;
+      }
+      if (term instanceof IntroTerm.NatLit lit) term = lit.toCon();
+      if (term instanceof CallTerm.Con conCall && conCall.ref() == head) {
+        var conArgs = conCall.conArgs();
+        for (int i = 0; i < childSlots.length; i++) slots[childSlots[i]] = conArgs.get(i).term();
+        return true;
+      }
+      return term instanceof CallTerm.Prim primCall && primCall.ref() == head;
+    }
+  }
+
+  public record Match(@NotNull Matching clause, @NotNull Substituter.TermSubst subst) {
+  }
+
+  public @Nullable Match match(@NotNull SeqLike<@NotNull Arg<@NotNull Term>> args) {
+    if (root == null) return null;
+    var slots = new Term[slotCount];
+    var iter = args.iterator();
+    for (int i = 0; iter.hasNext(); i++) slots[i] = iter.next().term();
+    var node = root;
+    while (node instanceof Switch branching) {
+      var term = slots[branching.slot];
+      node = branching.otherwise;
+      for (var branch : branching.branches)
+        if (branch.test(term, slots)) {
+          node = branch.next;
+          break;
+        }
+    }
+    if (!(node instanceof Leaf leaf)) return null;
+    var subst = new Substituter.TermSubst(new MutableHashMap<>(leaf.bindings.size() * 2));
+    for (var binding : leaf.bindings) subst.map().put(binding._1, slots[binding._2]);
+    return new Match(leaf.clause, subst);
+  }
+
+  /**
+   * A row of the pattern matrix, a <code>null</code> pattern matches anything without binding.
+   *
+   * @param pats the patterns, one for each column
+   */
+  private record Row(
+    @Nullable Pat @NotNull [] pats,
+    @NotNull ImmutableSeq<Tuple2<LocalVar, Integer>> bindings,
+    @NotNull Matching clause
+  ) {
+    private @NotNull Row bind(@Nullable LocalVar var, int slot) {
+      return var == null ? this : new Row(pats, bindings.appended(Tuple.of(var, slot)), clause);
+    }
+
+    /** Replace the column with the given patterns, appended to the end */
+    private @NotNull Row expand(int column, @Nullable Pat @NotNull [] replacement) {
+      var newPats = new Pat[pats.length - 1 + replacement.length];
+      System.arraycopy(pats, 0, newPats, 0, column);
+      System.arraycopy(pats, column + 1, newPats, column, pats.length - column - 1);
+      System.arraycopy(replacement, 0, newPats, pats.length - 1, replacement.length);
+      return new Row(newPats, bindings, clause);
+    }
+  }
+
+  private static boolean isAbsurd(@NotNull Pat pat) {
+    return switch (pat) {
+      case Pat.Absurd absurd -> true;
+      case Pat.Tuple tuple -> tuple.pats().anyMatch(CaseTree::isAbsurd);
+      case Pat.Ctor ctor -> ctor.params().anyMatch(CaseTree::isAbsurd);
+      default -> false;
+    };
+  }
+
+  private static @Nullable Object head(@NotNull Pat pat) {
+    return switch (pat) {
+      case Pat.Ctor ctor -> ctor.ref();
+      case Pat.Prim prim -> prim.ref();
+      default -> null;
+    };
+  }
+
+  private static @NotNull Pat @NotNull [] children(@NotNull Pat pat) {
+    return switch (pat) {
+      case Pat.Ctor ctor -> ctor.params().asJava().toArray(new Pat[0]);
+      case Pat.Tuple tuple -> tuple.pats().asJava().toArray(new Pat[0]);
+      default -> new Pat[0];
+    };
+  }
+
+  public static @NotNull CaseTree compile(@NotNull ImmutableSeq<Matching> clauses) {
+    // Clauses with absurd patterns never match
+    var rows = clauses.view()
+      .filterNot(clause -> clause.patterns().anyMatch(CaseTree::isAbsurd))
+      .map(clause -> new Row(clause.patterns().asJava().toArray(new Pat[0]), ImmutableSeq.empty(), clause))
+      .toImmutableSeq();
+    if (rows.isEmpty()) return EMPTY;
+    var arity = rows.first().pats.length;
+    var columns = new int[arity];
+    for (int i = 0; i < arity; i++) columns[i] = i;
+    var compiler = new Object() {
+      int slotCount = arity;
+
+      @Nullable Node build(int @NotNull [] columns, @NotNull ImmutableSeq<Row> rows) {
+        if (rows.isEmpty()) return null;
+        var first = rows.first();
+        int refutable = 0;
+        while (refutable < columns.length && (first.pats[refutable] == null || first.pats[refutable] instanceof Pat.Bind))
+          refutable++;
+        if (refutable == columns.length) {
+          var row = first;
+          for (int i = 0; i < columns.length; i++)
+            if (first.pats[i] instanceof Pat.Bind bind) row = row.bind(bind.as(), columns[i]);
+          return new Leaf(row.clause, row.bindings);
+        }
+        var column = refutable;
+        var slot = columns[column];
+        var branches = Buffer.<Branch>create();
+        var seen = Buffer.<Pat>create();
+        for (var row : rows) {
+          var pat = row.pats[column];
+          if (pat == null || pat instanceof Pat.Bind) continue;
+          var head = head(pat);
+          if (seen.anyMatch(p -> p.getClass() == pat.getClass() && head(p) == head)) continue;
+          seen.append(pat);
+          var width = children(pat).length;
+          var childSlots = new int[width];
+          for (int i = 0; i < width; i++) childSlots[i] = slotCount++;
+          var childColumns = expand(columns, column, childSlots);
+          var specialized = rows.view().mapNotNull(r -> {
+            var p = r.pats[column];
+            if (p == null) return r.expand(column, new Pat[width]);
+            if (p instanceof Pat.Bind bind) return r.bind(bind.as(), slot).expand(column, new Pat[width]);
+            if (p.getClass() != pat.getClass() || head(p) != head) return null;
+            return r.bind(p.as(), slot).expand(column, children(p));
+          }).toImmutableSeq();
+          var next = build(childColumns, specialized);
+          if (next != null) branches.append(new Branch(head, childSlots, next));
+        }
+        var otherwise = rows.view().filter(r -> r.pats[column] == null || r.pats[column] instanceof Pat.Bind)
+          .map(r -> r.pats[column] instanceof Pat.Bind bind ? r.bind(bind.as(), slot) : r)
+          .map(r -> r.expand(column, new Pat[0]))
+          .toImmutableSeq();
+        return new Switch(slot, branches.toImmutableSeq(), build(expand(columns, column, new int[0]), otherwise));
+      }
+    };
+    var root = compiler.build(columns, rows);
+    return new CaseTree(compiler.slotCount, root);
+  }
+
+  private static int @NotNull [] expand(int @NotNull [] columns, int column, int @NotNull [] replacement) {
+    var newColumns = new int[columns.length - 1 + replacement.length];
+    System.arraycopy(columns, 0, newColumns, 0, column);
+    System.arraycopy(columns, column + 1, newColumns, column, columns.length - column - 1);
+    System.arraycopy(replacement, 0, newColumns, columns.length - 1, replacement.length);
+    return newColumns;
+  }
+}
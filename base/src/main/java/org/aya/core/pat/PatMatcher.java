@@ -7,7 +7,6 @@ import kala.collection.immutable.ImmutableSeq;
 import kala.collection.mutable.MutableHashMap;
 import kala.tuple.Unit;
 import org.aya.api.util.Arg;
-import org.aya.core.def.PrimDef;
 import org.aya.core.term.CallTerm;
 import org.aya.core.term.IntroTerm;
 import org.aya.core.term.Term;
@@ -54,7 +53,7 @@ public record PatMatcher(@NotNull Substituter.TermSubst subst) implements Pat.Vi
 
   @Override public Unit visitPrim(Pat.@NotNull Prim prim, Term term) {
     var core = prim.ref().core;
-    assert PrimDef.Factory.INSTANCE.leftOrRight(core);
+    assert core.factory.leftOrRight(core);
     if (term instanceof CallTerm.Prim primCall && primCall.ref() == prim.ref()) return Unit.unit();
     throw new Mismatch();
   }
@@ -73,9 +72,11 @@ public record PatMatcher(@NotNull Substituter.TermSubst subst) implements Pat.Vi
   }
 
   @Override public Unit visitCtor(Pat.@NotNull Ctor ctor, Term term) {
-    if (!(term instanceof CallTerm.Con conCall)) throw new Mismatch();
+    // A literal is viewed as its outermost constructor, so the rest of it stays binary
+    var view = term instanceof IntroTerm.NatLit lit ? lit.toCon() : term;
+    if (!(view instanceof CallTerm.Con conCall)) throw new Mismatch();
     var as = ctor.as();
-    if (as != null) subst.map().put(as, conCall);
+    if (as != null) subst.map().put(as, term);
     if (ctor.ref() != conCall.ref()) throw new Mismatch();
     return visitList(ctor.params(), conCall.conArgs().view().map(Arg::term));
   }
@@ -3,14 +3,63 @@
 package org.aya.core.serde;
 
 import kala.collection.immutable.ImmutableSeq;
+import kala.collection.mutable.Buffer;
+import kala.collection.mutable.MutableHashMap;
+import kala.collection.mutable.MutableMap;
+import kala.tuple.Unit;
+import org.aya.api.ref.DefVar;
+import org.aya.api.ref.Var;
+import org.aya.concrete.resolve.context.Context;
+import org.aya.concrete.resolve.module.FileModuleLoader;
+import org.aya.core.def.Def;
 import org.jetbrains.annotations.NotNull;
 
 import java.io.Serializable;
 
+/**
+ * The compiled core of a module, stored in <code>.ayac</code> files.
+ *
+ * @param imports modules imported by this module, they must be loaded before {@link #defs}
+ * @param exports definitions exported by this module, other kinds of symbols (like generalized levels) are dropped
+ */
 public record CompiledAya(
+  @NotNull ImmutableSeq<ImmutableSeq<String>> imports,
+  @NotNull ImmutableSeq<SerExport> exports,
   @NotNull ImmutableSeq<SerDef> defs
 ) implements Serializable {
-  public static @NotNull CompiledAya from(@NotNull ImmutableSeq<SerDef> defs) {
-    return new CompiledAya(defs);
+  public static @NotNull CompiledAya from(
+    @NotNull FileModuleLoader.FileResolveInfo resolveInfo,
+    @NotNull ImmutableSeq<Def> defs
+  ) {
+    var serializer = new Serializer(new Serializer.State());
+    var serDefs = defs.map(def -> def.accept(serializer, Unit.unit()));
+    var exports = Buffer.<SerExport>create();
+    resolveInfo.thisModule().exports.forEach((modName, symbols) -> symbols.forEach((name, var) -> {
+      if (var instanceof DefVar<?, ?> defVar)
+        exports.append(new SerExport(modName, name, serializer.state().def(defVar)));
+    }));
+    return new CompiledAya(resolveInfo.imports().toImmutableSeq(), exports.toImmutableSeq(), serDefs);
+  }
+
+  /**
+   * Deserialize the definitions, make sure {@link #imports} are loaded and registered in <code>state</code>.
+   *
+   * @return the exported symbols, in the same shape as {@link org.aya.concrete.resolve.context.PhysicalModuleContext#exports}
+   */
+  public @NotNull MutableMap<ImmutableSeq<String>, MutableMap<String, Var>> toExports(@NotNull SerTerm.DeState state) {
+    defs.forEach(def -> def.declare(state));
+    defs.forEach(def -> def.de(state));
+    MutableMap<ImmutableSeq<String>, MutableMap<String, Var>> exports =
+      MutableHashMap.of(Context.TOP_LEVEL_MOD_NAME, MutableHashMap.of());
+    for (var export : this.exports)
+      exports.getOrPut(export.module, MutableHashMap::new).set(export.name, state.def(export.def));
+    return exports;
+  }
+
+  public record SerExport(
+    @NotNull ImmutableSeq<String> module,
+    @NotNull String name,
+    @NotNull SerDef.QName def
+  ) implements Serializable {
   }
 }
@@ -0,0 +1,733 @@
+// Copyright (c) 2020-2021 Yinsen (Tesla) Zhang.
+// Use of this source code is governed by the GNU GPLv3 license that can be found in the LICENSE file.
+package org.aya.core.serde;
+
+import kala.collection.immutable.ImmutableSeq;
+import kala.collection.mutable.Buffer;
+import kala.collection.mutable.MutableMap;
+import kala.control.Either;
+import kala.control.Option;
+import org.aya.core.def.PrimDef;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * The binary format of {@link CompiledAya}, stored in <code>.ayac</code> files.
+ * <p>
+ * After the {@link #MAGIC} and the {@link #VERSION}, there are the string table,
+ * the {@link SerDef.QName} table, the imports and exports of the module, and the offsets
+ * of the function bodies. Then comes the section of the signatures, which contains
+ * everything but the function bodies, followed by one section for each function body,
+ * so the bodies can be decoded on demand (see {@link #readLazily}).
+ * <p>
+ * Integers are varints, strings and qualified names are indices into their tables.
+ * Every section starts with a term table, where terms are stored bottom-up and refer
+ * to their subterms by their indices, so equal subterms in a section are stored only once.
+ */
+public final class CoreFormat {
+  public static final int MAGIC = 0x41594143; // AYAC
+  /** Bump this when the layout or the shape of the serialized core changes */
+  public static final int VERSION = 5;
+
+  private CoreFormat() {
+  }
+
+  // Tags of terms
+  private static final int PI = 0, SIGMA = 1, UNIV = 2, REF = 3, LAM = 4, NEW = 5, PROJ = 6, APP = 7,
+    STRUCT_CALL = 8, FN_CALL = 9, DATA_CALL = 10, PRIM_CALL = 11, CON_CALL = 12, TUP = 13, ACCESS = 14, FIELD_REF = 15,
+    NAT_LIT = 16;
+  // Tags of patterns
+  private static final int PAT_ABSURD = 0, PAT_TUPLE = 1, PAT_BIND = 2, PAT_PRIM = 3, PAT_CTOR = 4;
+  // Tags of levels
+  private static final int LVL_CONST = 0, LVL_REF = 1;
+  // Tags of definitions
+  private static final int FN = 0, CTOR = 1, DATA = 2, FIELD = 3, STRUCT = 4, PRIM = 5;
+
+  public static void write(@NotNull CompiledAya compiled, @NotNull OutputStream output) throws IOException {
+    new Encoder().encode(compiled).writeTo(output);
+  }
+
+  public static byte @NotNull [] write(@NotNull CompiledAya compiled) {
+    return new Encoder().encode(compiled).toByteArray();
+  }
+
+  /** @throws IOException if the data is broken or of another version */
+  public static @NotNull CompiledAya read(@NotNull ByteBuffer input) throws IOException {
+    return read(input, false);
+  }
+
+  /**
+   * Function bodies are decoded on demand as {@link SerDef.LazyFn}, so <code>input</code>
+   * must stay unchanged as long as the result is used. Usually it is a {@link java.nio.MappedByteBuffer}.
+   *
+   * @throws IOException if the data is broken or of another version
+   */
+  public static @NotNull CompiledAya readLazily(@NotNull ByteBuffer input) throws IOException {
+    return read(input, true);
+  }
+
+  private static @NotNull CompiledAya read(@NotNull ByteBuffer input, boolean lazy) throws IOException {
+    try {
+      return new Decoder(input).decode(lazy);
+    } catch (BufferUnderflowException | IndexOutOfBoundsException | ClassCastException | IllegalArgumentException e) {
+      throw new IOException("Broken core file", e);
+    }
+  }
+
+  /** A growable byte array with varint encoding */
+  private static final class Output {
+    private byte @NotNull [] bytes = new byte[64];
+    private int size = 0;
+
+    private void ensure(int extra) {
+      if (size + extra > bytes.length) bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + extra));
+    }
+
+    void writeByte(int b) {
+      ensure(1);
+      bytes[size++] = (byte) b;
+    }
+
+    void writeBool(boolean b) {
+      writeByte(b ? 1 : 0);
+    }
+
+    /** Unsigned LEB128 */
+    void writeVarInt(int value) {
+      while ((value & ~0x7F) != 0) {
+        writeByte((value & 0x7F) | 0x80);
+        value >>>= 7;
+      }
+      writeByte(value);
+    }
+
+    /** Zigzag encoded, for values that may be negative */
+    void writeSignedVarInt(int value) {
+      writeVarInt((value << 1) ^ (value >> 31));
+    }
+
+    /** Fixed width, so it can be patched without moving the data after it */
+    void writeInt(int value) {
+      ensure(4);
+      for (int shift = 24; shift >= 0; shift -= 8) bytes[size++] = (byte) (value >>> shift);
+    }
+
+    void writeBytes(byte @NotNull [] data, int offset, int length) {
+      ensure(length);
+      System.arraycopy(data, offset, bytes, size, length);
+      size += length;
+    }
+
+    void writeOutput(@NotNull Output other) {
+      writeBytes(other.bytes, 0, other.size);
+    }
+
+    byte @NotNull [] toByteArray() {
+      return Arrays.copyOf(bytes, size);
+    }
+
+    void writeTo(@NotNull OutputStream output) throws IOException {
+      output.write(bytes, 0, size);
+    }
+  }
+
+  private static final class Encoder {
+    private final @NotNull MutableMap<String, Integer> strings = MutableMap.create();
+    private final @NotNull Buffer<String> stringTable = Buffer.create();
+    private final @NotNull MutableMap<SerDef.QName, Integer> qnames = MutableMap.create();
+    private final @NotNull Buffer<SerDef.QName> qnameTable = Buffer.create();
+    /** Function bodies found in the signatures, each of them is written to its own section */
+    private final @NotNull Buffer<Either<SerTerm, ImmutableSeq<SerPat.Matchy>>> bodies = Buffer.create();
+    /** Encoded terms are keyed by their bytes, which refer to subterms by index, so hashing is cheap */
+    private @NotNull MutableMap<ByteBuffer, Integer> terms = MutableMap.create();
+    private @NotNull Output termTable = new Output();
+
+    @NotNull Output encode(@NotNull CompiledAya compiled) {
+      var header = new Output();
+      seq(header, compiled.imports(), this::module);
+      seq(header, compiled.exports(), (out, export) -> {
+        module(out, export.module());
+        string(out, export.name());
+        qname(out, export.def());
+      });
+      var signatures = section(out -> seq(out, compiled.defs(), this::def));
+      var bodySections = bodies.view().map(body -> section(out -> {
+        out.writeBool(body.isLeft());
+        if (body.isLeft()) term(out, body.getLeftValue());
+        else seq(out, body.getRightValue(), this::matchy);
+      })).toImmutableSeq();
+      // The qualified names refer to strings, intern them before writing the string table
+      var qnameOut = new Output();
+      qnameOut.writeVarInt(qnameTable.size());
+      for (var qname : qnameTable) {
+        module(qnameOut, qname.mod());
+        string(qnameOut, qname.name());
+        qnameOut.writeVarInt(qname.id());
+      }
+      var out = new Output();
+      out.writeVarInt(MAGIC);
+      out.writeVarInt(VERSION);
+      out.writeVarInt(stringTable.size());
+      for (var string : stringTable) {
+        var utf8 = string.getBytes(StandardCharsets.UTF_8);
+        out.writeVarInt(utf8.length);
+        out.writeBytes(utf8, 0, utf8.length);
+      }
+      out.writeOutput(qnameOut);
+      out.writeOutput(header);
+      // Offsets are relative to the signature section
+      out.writeVarInt(bodySections.size());
+      var offset = signatures.size;
+      for (var section : bodySections) {
+        out.writeInt(offset);
+        offset += section.size;
+      }
+      out.writeOutput(signatures);
+      bodySections.forEach(out::writeOutput);
+      return out;
+    }
+
+    private @NotNull Output section(@NotNull Consumer<Output> payload) {
+      terms = MutableMap.create();
+      termTable = new Output();
+      var content = new Output();
+      payload.accept(content);
+      var section = new Output();
+      section.writeVarInt(terms.size());
+      section.writeOutput(termTable);
+      section.writeOutput(content);
+      return section;
+    }
+
+    private <T> void seq(@NotNull Output out, @NotNull ImmutableSeq<T> seq, @NotNull Writer<T> writer) {
+      out.writeVarInt(seq.size());
+      for (var t : seq) writer.write(out, t);
+    }
+
+    private void string(@NotNull Output out, @NotNull String string) {
+      out.writeVarInt(strings.getOrPut(string, () -> {
+        stringTable.append(string);
+        return stringTable.size() - 1;
+      }));
+    }
+
+    private void module(@NotNull Output out, @NotNull ImmutableSeq<String> module) {
+      seq(out, module, this::string);
+    }
+
+    private void qname(@NotNull Output out, @NotNull SerDef.QName qname) {
+      out.writeVarInt(qnames.getOrPut(qname, () -> {
+        qnameTable.append(qname);
+        return qnameTable.size() - 1;
+      }));
+    }
+
+    private void simpVar(@NotNull Output out, @NotNull SerTerm.SimpVar var) {
+      out.writeSignedVarInt(var.var());
+      string(out, var.name());
+    }
+
+    private void term(@NotNull Output out, @NotNull SerTerm term) {
+      out.writeVarInt(term(term));
+    }
+
+    /** @return the index of the term in the term table */
+    private int term(@NotNull SerTerm term) {
+      var node = new Output();
+      switch (term) {
+        case SerTerm.Pi pi -> {
+          node.writeByte(PI);
+          seq(node, pi.params(), this::param);
+          term(node, pi.body());
+        }
+        case SerTerm.Sigma sigma -> {
+          node.writeByte(SIGMA);
+          seq(node, sigma.params(), this::param);
+        }
+        case SerTerm.Univ univ -> {
+          node.writeByte(UNIV);
+          max(node, univ.u());
+        }
+        case SerTerm.Ref ref -> {
+          node.writeByte(REF);
+          simpVar(node, ref.var());
+          term(node, ref.type());
+        }
+        case SerTerm.Lam lam -> {
+          node.writeByte(LAM);
+          seq(node, lam.params(), this::param);
+          term(node, lam.body());
+        }
+        case SerTerm.New newTerm -> {
+          node.writeByte(NEW);
+          term(node, newTerm.call());
+          seq(node, newTerm.fields(), (out, field) -> {
+            qname(out, field.name());
+            term(out, field.body());
+          });
+        }
+        case SerTerm.Proj proj -> {
+          node.writeByte(PROJ);
+          term(node, proj.of());
+          node.writeVarInt(proj.ix());
+        }
+        case SerTerm.App app -> {
+          node.writeByte(APP);
+          term(node, app.of());
+          seq(node, app.args(), this::arg);
+        }
+        case SerTerm.StructCall call -> call(node, STRUCT_CALL, call.name(), call.data());
+        case SerTerm.FnCall call -> call(node, FN_CALL, call.name(), call.data());
+        case SerTerm.DataCall call -> call(node, DATA_CALL, call.name(), call.data());
+        case SerTerm.PrimCall call -> call(node, PRIM_CALL, call.name(), call.data());
+        case SerTerm.ConCall conCall -> {
+          node.writeByte(CON_CALL);
+          qname(node, conCall.dataRef());
+          qname(node, conCall.selfRef());
+          callData(node, conCall.dataArgs());
+          seq(node, conCall.args(), this::arg);
+        }
+        case SerTerm.Tup tup -> {
+          node.writeByte(TUP);
+          seq(node, tup.components(), this::term);
+        }
+        case SerTerm.NatLit lit -> {
+          node.writeByte(NAT_LIT);
+          var bytes = lit.value().toByteArray();
+          node.writeVarInt(bytes.length);
+          node.writeBytes(bytes, 0, bytes.length);
+          term(node, lit.type());
+        }
+        case SerTerm.Access access -> {
+          node.writeByte(ACCESS);
+          term(node, access.of());
+          qname(node, access.ref());
+          seq(node, access.sortArgs(), this::max);
+          seq(node, access.structArgs(), this::arg);
+          seq(node, access.fieldArgs(), this::arg);
+        }
+        case SerTerm.FieldRef ref -> {
+          node.writeByte(FIELD_REF);
+          qname(node, ref.name());
+        }
+      }
+      return terms.getOrPut(ByteBuffer.wrap(node.toByteArray()), () -> {
+        termTable.writeOutput(node);
+        return terms.size();
+      });
+    }
+
+    private void call(@NotNull Output node, int tag, @NotNull SerDef.QName name, @NotNull SerTerm.CallData data) {
+      node.writeByte(tag);
+      qname(node, name);
+      callData(node, data);
+    }
+
+    private void callData(@NotNull Output out, @NotNull SerTerm.CallData data) {
+      seq(out, data.sortArgs(), this::max);
+      seq(out, data.args(), this::arg);
+    }
+
+    private void param(@NotNull Output out, @NotNull SerTerm.SerParam param) {
+      out.writeBool(param.explicit());
+      simpVar(out, param.var());
+      term(out, param.term());
+    }
+
+    private void arg(@NotNull Output out, @NotNull SerTerm.SerArg arg) {
+      term(out, arg.arg());
+      out.writeBool(arg.explicit());
+    }
+
+    private void max(@NotNull Output out, @NotNull SerLevel.Max max) {
+      seq(out, max.levels(), this::level);
+    }
+
+    private void level(@NotNull Output out, @NotNull SerLevel level) {
+      switch (level) {
+        case SerLevel.Const c -> {
+          out.writeByte(LVL_CONST);
+          out.writeSignedVarInt(c.num());
+        }
+        case SerLevel.Ref ref -> {
+          out.writeByte(LVL_REF);
+          out.writeVarInt(ref.var().id());
+          out.writeSignedVarInt(ref.lift());
+        }
+      }
+    }
+
+    private void lvlVar(@NotNull Output out, @NotNull SerLevel.LvlVar var) {
+      out.writeVarInt(var.id());
+    }
+
+    private void pat(@NotNull Output out, @NotNull SerPat pat) {
+      switch (pat) {
+        case SerPat.Absurd absurd -> {
+          out.writeByte(PAT_ABSURD);
+          out.writeBool(absurd.explicit());
+          term(out, absurd.ty());
+        }
+        case SerPat.Tuple tuple -> {
+          out.writeByte(PAT_TUPLE);
+          out.writeBool(tuple.explicit());
+          seq(out, tuple.pats(), this::pat);
+          simpVar(out, tuple.as());
+          term(out, tuple.ty());
+        }
+        case SerPat.Bind bind -> {
+          out.writeByte(PAT_BIND);
+          out.writeBool(bind.explicit());
+          simpVar(out, bind.var());
+          term(out, bind.ty());
+        }
+        case SerPat.Prim prim -> {
+          out.writeByte(PAT_PRIM);
+          out.writeBool(prim.explicit());
+          qname(out, prim.name());
+          term(out, prim.ty());
+        }
+        case SerPat.Ctor ctor -> {
+          out.writeByte(PAT_CTOR);
+          out.writeBool(ctor.explicit());
+          qname(out, ctor.name());
+          seq(out, ctor.params(), this::pat);
+          simpVar(out, ctor.as());
+          term(out, ctor.ty());
+        }
+      }
+    }
+
+    private void matchy(@NotNull Output out, @NotNull SerPat.Matchy matchy) {
+      seq(out, matchy.pats(), this::pat);
+      term(out, matchy.body());
+    }
+
+    private void def(@NotNull Output out, @NotNull SerDef def) {
+      switch (def) {
+        case SerDef.Fn fn -> fn(out, fn.name(), fn.telescope(), fn.levels(), fn.result(), fn.height(), fn.body());
+        case SerDef.LazyFn fn -> fn(out, fn.name(), fn.telescope(), fn.levels(), fn.result(), fn.height(), fn.body().get());
+        case SerDef.Ctor ctor -> {
+          out.writeByte(CTOR);
+          ctor(out, ctor);
+        }
+        case SerDef.Data data -> {
+          out.writeByte(DATA);
+          qname(out, data.name());
+          seq(out, data.telescope(), this::param);
+          seq(out, data.levels(), this::lvlVar);
+          term(out, data.result());
+          seq(out, data.bodies(), this::ctor);
+        }
+        case SerDef.Field field -> {
+          out.writeByte(FIELD);
+          field(out, field);
+        }
+        case SerDef.Struct struct -> {
+          out.writeByte(STRUCT);
+          qname(out, struct.name());
+          seq(out, struct.telescope(), this::param);
+          seq(out, struct.levels(), this::lvlVar);
+          term(out, struct.result());
+          seq(out, struct.fields(), this::field);
+        }
+        case SerDef.Prim prim -> {
+          out.writeByte(PRIM);
+          qname(out, prim.self());
+          seq(out, prim.telescope(), this::param);
+          seq(out, prim.levels(), this::lvlVar);
+          term(out, prim.result());
+          string(out, prim.name().name());
+        }
+      }
+    }
+
+    private void fn(
+      @NotNull Output out, @NotNull SerDef.QName name,
+      @NotNull ImmutableSeq<SerTerm.SerParam> telescope, @NotNull ImmutableSeq<SerLevel.LvlVar> levels,
+      @NotNull SerTerm result, int height, @NotNull Either<SerTerm, ImmutableSeq<SerPat.Matchy>> body
+    ) {
+      out.writeByte(FN);
+      qname(out, name);
+      seq(out, telescope, this::param);
+      seq(out, levels, this::lvlVar);
+      term(out, result);
+      out.writeVarInt(height);
+      out.writeVarInt(bodies.size());
+      bodies.append(body);
+    }
+
+    private void ctor(@NotNull Output out, @NotNull SerDef.Ctor ctor) {
+      qname(out, ctor.data());
+      qname(out, ctor.self());
+      seq(out, ctor.pats(), this::pat);
+      seq(out, ctor.ownerTele(), this::param);
+      seq(out, ctor.selfTele(), this::param);
+      seq(out, ctor.clauses(), this::matchy);
+      term(out, ctor.result());
+      out.writeBool(ctor.coerce());
+    }
+
+    private void field(@NotNull Output out, @NotNull SerDef.Field field) {
+      qname(out, field.struct());
+      qname(out, field.self());
+      seq(out, field.ownerTele(), this::param);
+      seq(out, field.selfTele(), this::param);
+      term(out, field.result());
+      seq(out, field.clauses(), this::matchy);
+      out.writeBool(field.body().isDefined());
+      if (field.body().isDefined()) term(out, field.body().get());
+      out.writeBool(field.coerce());
+    }
+  }
+
+  @FunctionalInterface private interface Writer<T> {
+    void write(@NotNull Output out, @NotNull T t);
+  }
+
+  private static final class Decoder {
+    private final @NotNull ByteBuffer source;
+    private String @NotNull [] strings = new String[0];
+    private SerDef.QName @NotNull [] qnames = new SerDef.QName[0];
+    private int @NotNull [] bodyOffsets = new int[0];
+    /** The position of the signature section, where the body offsets start from */
+    private int base;
+
+    private Decoder(@NotNull ByteBuffer source) {
+      this.source = source;
+    }
+
+    @NotNull CompiledAya decode(boolean lazy) throws IOException {
+      var header = new Section(source.duplicate());
+      if (header.readVarInt() != MAGIC) throw new IOException("Not a core file");
+      var version = header.readVarInt();
+      if (version != VERSION) throw new IOException("Unsupported core version " + version);
+      strings = new String[header.readCount(1)];
+      for (int i = 0; i < strings.length; i++) {
+        var utf8 = new byte[header.readCount(1)];
+        header.input.get(utf8);
+        strings[i] = new String(utf8, StandardCharsets.UTF_8);
+      }
+      qnames = new SerDef.QName[header.readCount(3)];
+      for (int i = 0; i < qnames.length; i++)
+        qnames[i] = new SerDef.QName(header.module(), header.string(), header.readVarInt());
+      var imports = header.seq(header::module);
+      var exports = header.seq(() -> new CompiledAya.SerExport(header.module(), header.string(), header.qname()));
+      bodyOffsets = new int[header.readCount(Integer.BYTES)];
+      for (int i = 0; i < bodyOffsets.length; i++) bodyOffsets[i] = header.input.getInt();
+      base = header.input.position();
+      var signatures = new Section(header.input);
+      signatures.readTermTable();
+      var defs = signatures.seq(() -> signatures.def(lazy));
+      return new CompiledAya(imports, exports, defs);
+    }
+
+    private @NotNull Either<SerTerm, ImmutableSeq<SerPat.Matchy>> body(int index) {
+      var input = source.duplicate();
+      input.position(base + bodyOffsets[index]);
+      var section = new Section(input);
+      section.readTermTable();
+      return section.readBool() ? Either.left(section.term()) : Either.right(section.seq(section::matchy));
+    }
+
+    /** Reads a section of the file, terms are resolved in the term table of the section */
+    private final class Section {
+      private final @NotNull ByteBuffer input;
+      private SerTerm @NotNull [] terms = new SerTerm[0];
+      /** The number of terms of the table read so far, the only ones a term may refer to */
+      private int decoded = 0;
+
+      private Section(@NotNull ByteBuffer input) {
+        this.input = input;
+      }
+
+      private void readTermTable() {
+        terms = new SerTerm[readCount(1)];
+        for (decoded = 0; decoded < terms.length; decoded++) terms[decoded] = termNode();
+      }
+
+      private int readVarInt() {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+          var b = input.get();
+          value |= (b & 0x7F) << shift;
+          if ((b & 0x80) == 0) return value;
+        }
+        throw new IllegalArgumentException("Malformed varint");
+      }
+
+      /**
+       * Checked before allocating anything, so that a broken count is reported as a broken file
+       *
+       * @param minBytes the fewest bytes an element takes
+       */
+      private int readCount(int minBytes) {
+        var count = readVarInt();
+        if (count < 0 || (long) count * minBytes > input.remaining())
+          throw new IllegalArgumentException("Malformed count " + count);
+        return count;
+      }
+
+      private int readSignedVarInt() {
+        var raw = readVarInt();
+        return (raw >>> 1) ^ -(raw & 1);
+      }
+
+      private boolean readBool() {
+        return input.get() != 0;
+      }
+
+      private <T> @NotNull ImmutableSeq<T> seq(@NotNull Reader<T> reader) {
+        var size = readCount(1);
+        var buffer = Buffer.<T>create();
+        for (int i = 0; i < size; i++) buffer.append(reader.read());
+        return buffer.toImmutableSeq();
+      }
+
+      private @NotNull String string() {
+        return strings[readVarInt()];
+      }
+
+      private @NotNull ImmutableSeq<String> module() {
+        return seq(this::string);
+      }
+
+      private @NotNull SerDef.QName qname() {
+        return qnames[readVarInt()];
+      }
+
+      private @NotNull SerTerm.SimpVar simpVar() {
+        return new SerTerm.SimpVar(readSignedVarInt(), string());
+      }
+
+      private @NotNull SerTerm term() {
+        var index = readVarInt();
+        // A forward or self reference would leave the term incomplete
+        if (index < 0 || index >= decoded) throw new IllegalArgumentException("Malformed term reference " + index);
+        return terms[index];
+      }
+
+      private <T extends SerTerm> @NotNull T term(@NotNull Class<T> clazz) {
+        return clazz.cast(term());
+      }
+
+      private @NotNull SerTerm termNode() {
+        var tag = input.get();
+        return switch (tag) {
+          case PI -> new SerTerm.Pi(seq(this::param), term());
+          case SIGMA -> new SerTerm.Sigma(seq(this::param));
+          case UNIV -> new SerTerm.Univ(max());
+          case REF -> new SerTerm.Ref(simpVar(), term());
+          case LAM -> new SerTerm.Lam(seq(this::param), term());
+          case NEW -> new SerTerm.New(term(SerTerm.StructCall.class),
+            seq(() -> new SerTerm.NewField(qname(), term())));
+          case PROJ -> new SerTerm.Proj(term(), readVarInt());
+          case APP -> new SerTerm.App(term(), seq(this::arg));
+          case STRUCT_CALL -> new SerTerm.StructCall(qname(), callData());
+          case FN_CALL -> new SerTerm.FnCall(qname(), callData());
+          case DATA_CALL -> new SerTerm.DataCall(qname(), callData());
+          case PRIM_CALL -> new SerTerm.PrimCall(qname(), callData());
+          case CON_CALL -> new SerTerm.ConCall(qname(), qname(), callData(), seq(this::arg));
+          case TUP -> new SerTerm.Tup(seq(this::term));
+          case NAT_LIT -> {
+            var bytes = new byte[readCount(1)];
+            input.get(bytes);
+            yield new SerTerm.NatLit(new BigInteger(bytes), term(SerTerm.DataCall.class));
+          }
+          case ACCESS -> new SerTerm.Access(term(), qname(), seq(this::max), seq(this::arg), seq(this::arg));
+          case FIELD_REF -> new SerTerm.FieldRef(qname());
+          default -> throw new IllegalArgumentException("Unknown term tag " + tag);
+        };
+      }
+
+      private @NotNull SerTerm.CallData callData() {
+        return new SerTerm.CallData(seq(this::max), seq(this::arg));
+      }
+
+      private @NotNull SerTerm.SerParam param() {
+        return new SerTerm.SerParam(readBool(), simpVar(), term());
+      }
+
+      private @NotNull SerTerm.SerArg arg() {
+        return new SerTerm.SerArg(term(), readBool());
+      }
+
+      private @NotNull SerLevel.Max max() {
+        return new SerLevel.Max(seq(this::level));
+      }
+
+      private @NotNull SerLevel level() {
+        var tag = input.get();
+        return switch (tag) {
+          case LVL_CONST -> new SerLevel.Const(readSignedVarInt());
+          case LVL_REF -> new SerLevel.Ref(lvlVar(), readSignedVarInt());
+          default -> throw new IllegalArgumentException("Unknown level tag " + tag);
+        };
+      }
+
+      private @NotNull SerLevel.LvlVar lvlVar() {
+        return new SerLevel.LvlVar(readVarInt());
+      }
+
+      private @NotNull SerPat pat() {
+        var tag = input.get();
+        return switch (tag) {
+          case PAT_ABSURD -> new SerPat.Absurd(readBool(), term());
+          case PAT_TUPLE -> new SerPat.Tuple(readBool(), seq(this::pat), simpVar(), term());
+          case PAT_BIND -> new SerPat.Bind(readBool(), simpVar(), term());
+          case PAT_PRIM -> new SerPat.Prim(readBool(), qname(), term());
+          case PAT_CTOR -> new SerPat.Ctor(readBool(), qname(), seq(this::pat), simpVar(), term(SerTerm.DataCall.class));
+          default -> throw new IllegalArgumentException("Unknown pattern tag " + tag);
+        };
+      }
+
+      private @NotNull SerPat.Matchy matchy() {
+        return new SerPat.Matchy(seq(this::pat), term());
+      }
+
+      private @NotNull SerDef def(boolean lazy) {
+        var tag = input.get();
+        return switch (tag) {
+          case FN -> {
+            var name = qname();
+            var telescope = seq(this::param);
+            var levels = seq(this::lvlVar);
+            var result = term();
+            var height = readVarInt();
+            var bodyIndex = readVarInt();
+            yield lazy ? new SerDef.LazyFn(name, telescope, levels, () -> body(bodyIndex), result, height)
+              : new SerDef.Fn(name, telescope, levels, body(bodyIndex), result, height);
+          }
+          case CTOR -> ctor();
+          case DATA -> new SerDef.Data(qname(), seq(this::param), seq(this::lvlVar), term(), seq(this::ctor));
+          case FIELD -> field();
+          case STRUCT -> new SerDef.Struct(qname(), seq(this::param), seq(this::lvlVar), term(), seq(this::field));
+          case PRIM -> new SerDef.Prim(qname(), seq(this::param), seq(this::lvlVar), term(), PrimDef.ID.valueOf(string()));
+          default -> throw new IllegalArgumentException("Unknown definition tag " + tag);
+        };
+      }
+
+      private @NotNull SerDef.Ctor ctor() {
+        return new SerDef.Ctor(qname(), qname(), seq(this::pat), seq(this::param), seq(this::param),
+          seq(this::matchy), term(), readBool());
+      }
+
+      private @NotNull SerDef.Field field() {
+        return new SerDef.Field(qname(), qname(), seq(this::param), seq(this::param), term(),
+          seq(this::matchy), readBool() ? Option.some(term()) : Option.none(), readBool());
+      }
+    }
+  }
+
+  @FunctionalInterface private interface Reader<T> {
+    @NotNull T read();
+  }
+}
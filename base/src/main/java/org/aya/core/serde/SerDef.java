@@ -8,7 +8,9 @@ import kala.control.Option;
 import org.aya.core.def.*;
 import org.jetbrains.annotations.NotNull;
 
+import java.io.Serial;
 import java.io.Serializable;
+import java.util.function.Supplier;
 
 /**
  * @author ice1000
@@ -16,6 +18,10 @@ import java.io.Serializable;
 public sealed interface SerDef extends Serializable {
   @NotNull Def de(@NotNull SerTerm.DeState state);
 
+  /** Introduce the definitions of this core to <code>state</code> before any reference to them is decoded */
+  default void declare(@NotNull SerTerm.DeState state) {
+  }
+
   record QName(@NotNull ImmutableSeq<String> mod, @NotNull String name, int id) implements Serializable {
   }
 
@@ -24,17 +30,60 @@ public sealed interface SerDef extends Serializable {
     @NotNull ImmutableSeq<SerTerm.SerParam> telescope,
     @NotNull ImmutableSeq<SerLevel.LvlVar> levels,
     @NotNull Either<SerTerm, ImmutableSeq<SerPat.Matchy>> body,
-    @NotNull SerTerm result
+    @NotNull SerTerm result, int height
   ) implements SerDef {
+    @Override public void declare(SerTerm.@NotNull DeState state) {
+      state.declare(name);
+    }
+
     @Override public @NotNull Def de(SerTerm.@NotNull DeState state) {
       return new FnDef(
         state.def(name), telescope.map(tele -> tele.de(state)),
         levels.map(level -> level.de(state.levelCache())),
-        result.de(state),
+        result.de(state), height,
         body.map(term -> term.de(state), mischa -> mischa.map(matchy -> matchy.de(state))));
     }
   }
 
+  /**
+   * A function whose body is decoded on demand, only produced by {@link CoreFormat#readLazily}.
+   * The body is deserialized on the first {@link FnDef#body()}, usually when it is unfolded.
+   * It is serialized as the {@link Fn} with its body read, since the supplier cannot be.
+   */
+  record LazyFn(
+    @NotNull QName name,
+    @NotNull ImmutableSeq<SerTerm.SerParam> telescope,
+    @NotNull ImmutableSeq<SerLevel.LvlVar> levels,
+    @NotNull Supplier<Either<SerTerm, ImmutableSeq<SerPat.Matchy>>> body,
+    @NotNull SerTerm result, int height
+  ) implements SerDef {
+    @Override public void declare(SerTerm.@NotNull DeState state) {
+      state.declare(name);
+    }
+
+    @Override public @NotNull Def de(SerTerm.@NotNull DeState state) {
+      return new FnDef(
+        state.def(name), telescope.map(tele -> tele.de(state)),
+        levels.map(level -> level.de(state.levelCache())),
+        result.de(state), height,
+        () -> {
+          // The local variables of the body are shared with the telescope
+          synchronized (state) {
+            return body.get().map(term -> term.de(state), mischa -> mischa.map(matchy -> matchy.de(state)));
+          }
+        });
+    }
+
+    /** @return the function with its body read */
+    public @NotNull Fn force() {
+      return new Fn(name, telescope, levels, body.get(), result, height);
+    }
+
+    @Serial private @NotNull Object writeReplace() {
+      return force();
+    }
+  }
+
   record Ctor(
     @NotNull QName data, @NotNull QName self,
     @NotNull ImmutableSeq<SerPat> pats,
@@ -59,6 +108,11 @@ public sealed interface SerDef extends Serializable {
     @NotNull SerTerm result,
     @NotNull ImmutableSeq<Ctor> bodies
   ) implements SerDef {
+    @Override public void declare(SerTerm.@NotNull DeState state) {
+      state.declare(name);
+      bodies.forEach(ctor -> state.declare(ctor.self()));
+    }
+
     @Override public @NotNull Def de(SerTerm.@NotNull DeState state) {
       return new DataDef(
         state.def(name), telescope.map(tele -> tele.de(state)),
@@ -100,6 +154,11 @@ public sealed interface SerDef extends Serializable {
     @NotNull SerTerm result,
     @NotNull ImmutableSeq<Field> fields
   ) implements SerDef {
+    @Override public void declare(SerTerm.@NotNull DeState state) {
+      state.declare(name);
+      fields.forEach(field -> state.declare(field.self()));
+    }
+
     @Override public @NotNull Def de(SerTerm.@NotNull DeState state) {
       return new StructDef(
         state.def(name),
@@ -112,19 +171,21 @@ public sealed interface SerDef extends Serializable {
   }
 
   record Prim(
+    @NotNull QName self,
     @NotNull ImmutableSeq<SerTerm.SerParam> telescope,
     @NotNull ImmutableSeq<SerLevel.LvlVar> levels,
     @NotNull SerTerm result,
     @NotNull PrimDef.ID name
   ) implements SerDef {
+    /** Primitives are unique in a session, so we reuse the one from its factory instead of creating another */
     @Override
     public @NotNull Def de(SerTerm.@NotNull DeState state) {
-      return new PrimDef(
-        telescope.map(tele -> tele.de(state)),
-        levels.map(level -> level.de(state.levelCache())),
-        result.de(state),
-        name
-      );
+      var prim = state.session().primFactory().getOrCreate(name);
+      if (prim.ref.module == null) prim.ref.module = self.mod();
+      if (prim.factory.natArith(prim) && prim.signature() == null) prim.loadedSignature = new Def.Signature(
+        levels.map(level -> level.de(state.levelCache())), telescope.map(tele -> tele.de(state)), result.de(state));
+      state.register(prim.ref);
+      return prim;
     }
   }
 }
@@ -2,33 +2,43 @@
 // Use of this source code is governed by the GNU GPLv3 license that can be found in the LICENSE file.
 package org.aya.core.serde;
 
-import kala.collection.Seq;
 import kala.collection.immutable.ImmutableSeq;
 import kala.collection.mutable.MutableHashMap;
 import kala.collection.mutable.MutableMap;
+import kala.tuple.Tuple;
 import org.aya.api.concrete.ConcreteDecl;
 import org.aya.api.core.CoreDef;
 import org.aya.api.ref.DefVar;
 import org.aya.api.ref.LocalVar;
 import org.aya.api.util.Arg;
+import org.aya.concrete.stmt.Decl;
+import org.aya.core.def.FieldDef;
 import org.aya.core.sort.Sort;
 import org.aya.core.term.*;
+import org.aya.tyck.CompilationSession;
 import org.jetbrains.annotations.NotNull;
 
 import java.io.Serializable;
+import java.math.BigInteger;
 import java.util.Objects;
 
 /**
  * @author ice1000
  */
 public sealed interface SerTerm extends Serializable {
+  /**
+   * @param session   shared among the modules loaded in one compilation, so that cross-module
+   *                  references are linked through its {@link CompilationSession#defCache()}
+   * @param ownedDefs the definitions of this core, by their {@link SerDef.QName#id()}, see {@link #declare}
+   */
   record DeState(
-    @NotNull MutableMap<Seq<String>, MutableMap<Integer, DefVar<?, ?>>> defCache,
+    @NotNull CompilationSession session,
     @NotNull MutableMap<Integer, Sort.LvlVar> levelCache,
-    @NotNull MutableMap<Integer, LocalVar> localCache
+    @NotNull MutableMap<Integer, LocalVar> localCache,
+    @NotNull MutableMap<Integer, DefVar<?, ?>> ownedDefs
   ) {
-    public DeState() {
-      this(MutableMap.create(), MutableMap.create(), MutableMap.create());
+    public DeState(@NotNull CompilationSession session) {
+      this(session, MutableMap.create(), MutableMap.create(), MutableMap.create());
     }
 
     public @NotNull LocalVar var(@NotNull SimpVar var) {
@@ -38,12 +48,46 @@ public sealed interface SerTerm extends Serializable {
     @SuppressWarnings("unchecked")
     public <Core extends CoreDef, Concrete extends ConcreteDecl>
     @NotNull DefVar<Core, Concrete> def(@NotNull SerDef.QName name) {
-      // We assume this cast to be safe
-      var dv = (DefVar<Core, Concrete>) defCache
-        .getOrPut(name.mod(), MutableHashMap::new)
-        .getOrPut(name.id(), () -> DefVar.empty(name.name()));
-      assert Objects.equals(name.name(), dv.name());
-      return dv;
+      // The cache may be shared with lazily loaded bodies in other threads
+      var defCache = session.defCache();
+      synchronized (defCache) {
+        var owned = ownedDefs.getOrNull(name.id());
+        // We assume this cast to be safe
+        if (owned != null) return (DefVar<Core, Concrete>) owned;
+        var dv = (DefVar<Core, Concrete>) defCache
+          .getOrPut(name.mod(), MutableHashMap::new)
+          .getOrPut(name.name(), () -> {
+            var fresh = DefVar.empty(name.name());
+            fresh.module = name.mod();
+            return fresh;
+          });
+        assert Objects.equals(name.name(), dv.name());
+        return dv;
+      }
+    }
+
+    /**
+     * Create the definition introduced by this core, so that it is not confused with
+     * a definition of the same name from another core with the same module name.
+     * It is also published in the session for the cores loaded later.
+     */
+    public void declare(@NotNull SerDef.QName name) {
+      var defCache = session.defCache();
+      synchronized (defCache) {
+        var fresh = DefVar.empty(name.name());
+        fresh.module = name.mod();
+        ownedDefs.put(name.id(), fresh);
+        defCache.getOrPut(name.mod(), MutableHashMap::new).put(name.name(), fresh);
+      }
+    }
+
+    /** Make definitions that are not deserialized (like those loaded from source) visible to {@link #def} */
+    public void register(@NotNull DefVar<?, ?> var) {
+      assert var.module != null;
+      var defCache = session.defCache();
+      synchronized (defCache) {
+        defCache.getOrPut(var.module, MutableHashMap::new).put(var.name(), var);
+      }
     }
   }
 
@@ -58,9 +102,9 @@ public sealed interface SerTerm extends Serializable {
     }
   }
 
-  record Pi(@NotNull SerTerm.SerParam param, @NotNull SerTerm body) implements SerTerm {
+  record Pi(@NotNull ImmutableSeq<SerParam> params, @NotNull SerTerm body) implements SerTerm {
     @Override public @NotNull Term de(@NotNull DeState state) {
-      return new FormTerm.Pi(param.de(state), body.de(state));
+      return FormTerm.Pi.make(params.map(p -> p.de(state)), body.de(state));
     }
   }
 
@@ -82,19 +126,23 @@ public sealed interface SerTerm extends Serializable {
     }
   }
 
-  record Lam(@NotNull SerParam param, @NotNull SerTerm body) implements SerTerm {
+  record Lam(@NotNull ImmutableSeq<SerParam> params, @NotNull SerTerm body) implements SerTerm {
     @Override public @NotNull Term de(@NotNull DeState state) {
-      return new IntroTerm.Lambda(param.de(state), body.de(state));
+      return IntroTerm.Lambda.make(params.map(p -> p.de(state)), body.de(state));
     }
   }
 
-  // TODO
-  record New(@NotNull StructCall call) implements SerTerm {
+  record New(@NotNull StructCall call, @NotNull ImmutableSeq<NewField> fields) implements SerTerm {
     @Override public @NotNull Term de(@NotNull DeState state) {
-      throw new UnsupportedOperationException("TODO");
+      return new IntroTerm.New((CallTerm.Struct) call.de(state), fields.view()
+        .map(field -> Tuple.of(state.<FieldDef, Decl.StructField>def(field.name), field.body.de(state)))
+        .<DefVar<FieldDef, Decl.StructField>, Term>toImmutableMap());
     }
   }
 
+  record NewField(@NotNull SerDef.QName name, @NotNull SerTerm body) implements Serializable {
+  }
+
   record Proj(@NotNull SerTerm of, int ix) implements SerTerm {
     @Override public @NotNull Term de(@NotNull DeState state) {
       return new ElimTerm.Proj(of.de(state), ix);
@@ -107,9 +155,9 @@ public sealed interface SerTerm extends Serializable {
     }
   }
 
-  record App(@NotNull SerTerm of, @NotNull SerArg arg) implements SerTerm {
+  record App(@NotNull SerTerm of, @NotNull ImmutableSeq<SerArg> args) implements SerTerm {
     @Override public @NotNull Term de(@NotNull DeState state) {
-      return new ElimTerm.App(of.de(state), arg.de(state));
+      return ElimTerm.App.make(of.de(state), args.map(arg -> arg.de(state)));
     }
   }
 
@@ -168,6 +216,12 @@ public sealed interface SerTerm extends Serializable {
     }
   }
 
+  record NatLit(@NotNull BigInteger value, @NotNull DataCall type) implements SerTerm {
+    @Override public @NotNull Term de(@NotNull DeState state) {
+      return new IntroTerm.NatLit(value, type.de(state));
+    }
+  }
+
   record Access(
     @NotNull SerTerm of,
     @NotNull SerDef.QName ref,
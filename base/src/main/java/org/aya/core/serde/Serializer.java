@@ -3,6 +3,7 @@
 package org.aya.core.serde;
 
 import kala.collection.immutable.ImmutableSeq;
+import kala.collection.mutable.Buffer;
 import kala.collection.mutable.MutableMap;
 import kala.tuple.Unit;
 import org.aya.api.ref.DefVar;
@@ -92,11 +93,15 @@ public record Serializer(@NotNull Serializer.State state) implements
   }
 
   @Override public SerTerm visitLam(IntroTerm.@NotNull Lambda term, Unit unit) {
-    return new SerTerm.Lam(serialize(term.param()), serialize(term.body()));
+    var params = Buffer.<Term.Param>create();
+    var body = term.parameters(params);
+    return new SerTerm.Lam(serializeParams(params.toImmutableSeq()), serialize(body));
   }
 
   @Override public SerTerm visitPi(FormTerm.@NotNull Pi term, Unit unit) {
-    return new SerTerm.Pi(serialize(term.param()), serialize(term.body()));
+    var params = Buffer.<Term.Param>create();
+    var body = term.parameters(params);
+    return new SerTerm.Pi(serializeParams(params.toImmutableSeq()), serialize(body));
   }
 
   @Override public SerTerm visitSigma(FormTerm.@NotNull Sigma term, Unit unit) {
@@ -124,7 +129,9 @@ public record Serializer(@NotNull Serializer.State state) implements
   }
 
   @Override public SerTerm visitApp(ElimTerm.@NotNull App term, Unit unit) {
-    return new SerTerm.App(serialize(term.of()), serialize(term.arg()));
+    var spine = Buffer.<Arg<Term>>create();
+    var head = term.spine(spine);
+    return new SerTerm.App(serialize(head), serializeArgs(spine.toImmutableSeq()));
   }
 
   private @NotNull SerTerm.CallData serializeCall(
@@ -167,11 +174,16 @@ public record Serializer(@NotNull Serializer.State state) implements
     return new SerTerm.Tup(term.items().map(this::serialize));
   }
 
+  @Override public SerTerm visitNatLit(IntroTerm.@NotNull NatLit term, Unit unit) {
+    return new SerTerm.NatLit(term.value(), visitDataCall(term.type(), unit));
+  }
+
   @Override public SerTerm visitNew(IntroTerm.@NotNull New newTerm, Unit unit) {
     return new SerTerm.New(new SerTerm.StructCall(
       state.def(newTerm.struct().ref()),
       serializeCall(newTerm.struct().sortArgs(), newTerm.struct().args())
-    ));
+    ), newTerm.params().view().map((field, body) ->
+      new SerTerm.NewField(state.def(field), serialize(body))).toImmutableSeq());
   }
 
   @Override public SerTerm visitProj(ElimTerm.@NotNull Proj term, Unit unit) {
@@ -216,8 +228,8 @@ public record Serializer(@NotNull Serializer.State state) implements
   @Override public SerDef visitFn(@NotNull FnDef def, Unit unit) {
     return new SerDef.Fn(state.def(def.ref), serializeParams(def.telescope),
       def.levels.map(lvl -> SerLevel.ser(lvl, state.levelCache)),
-      def.body.map(this::serialize, matchings -> matchings.map(this::serialize)),
-      serialize(def.result));
+      def.body().map(this::serialize, matchings -> matchings.map(this::serialize)),
+      serialize(def.result), def.height);
   }
 
   @Override public SerDef visitData(@NotNull DataDef def, Unit unit) {
@@ -267,10 +279,14 @@ public record Serializer(@NotNull Serializer.State state) implements
   }
 
   @Override public SerDef visitPrim(@NotNull PrimDef def, Unit unit) {
+    // The core signature of the arithmetic primitives is a placeholder
+    var signature = def.factory.natArith(def) ? def.signature() : null;
+    if (signature == null) signature = new Def.Signature(def.levels, def.telescope, def.result);
     return new SerDef.Prim(
-      serializeParams(def.telescope),
-      def.levels.map(lvl -> SerLevel.ser(lvl, state.levelCache)),
-      serialize(def.result),
+      state.def(def.ref),
+      serializeParams(signature.param()),
+      signature.sortParam().map(lvl -> SerLevel.ser(lvl, state.levelCache)),
+      serialize(signature.result()),
       Objects.requireNonNull(PrimDef.ID.find(def.ref.name()))
     );
   }
@@ -2,8 +2,10 @@
 // Use of this source code is governed by the GNU GPLv3 license that can be found in the LICENSE file.
 package org.aya.core.term;
 
+import kala.collection.SeqLike;
 import kala.collection.SeqView;
 import kala.collection.immutable.ImmutableSeq;
+import kala.collection.mutable.MutableMap;
 import org.aya.api.ref.DefVar;
 import org.aya.api.ref.HoleVar;
 import org.aya.api.ref.Var;
@@ -13,6 +15,7 @@ import org.aya.concrete.stmt.Signatured;
 import org.aya.core.Meta;
 import org.aya.core.def.*;
 import org.aya.core.sort.Sort;
+import org.aya.core.visitor.Substituter;
 import org.jetbrains.annotations.Contract;
 import org.jetbrains.annotations.NotNull;
 
@@ -49,6 +52,31 @@ public sealed interface CallTerm extends Term {
     return lam.body().subst(param.ref(), arg.term());
   }
 
+  /**
+   * Applies to a spine of arguments. The arguments consumed by a run of lambdas
+   * are substituted into the body of the innermost one in a single pass.
+   */
+  @Contract(pure = true) static @NotNull Term make(@NotNull Term f, @NotNull SeqLike<Arg<Term>> args) {
+    var i = 0;
+    var size = args.size();
+    while (i < size) {
+      if (!(f instanceof IntroTerm.Lambda)) {
+        f = make(f, args.get(i++));
+        continue;
+      }
+      var subst = new Substituter.TermSubst(MutableMap.create());
+      while (i < size && f instanceof IntroTerm.Lambda lam) {
+        var arg = args.get(i++);
+        assert arg.explicit() == lam.param().explicit();
+        // The arguments are outside of the lambdas, so they need not be substituted
+        subst.map().put(lam.param().ref(), arg.term());
+        f = lam.body();
+      }
+      f = f.subst(subst);
+    }
+    return f;
+  }
+
   record Fn(
     @NotNull DefVar<FnDef, Decl.FnDecl> ref,
     @NotNull ImmutableSeq<@NotNull Sort> sortArgs,
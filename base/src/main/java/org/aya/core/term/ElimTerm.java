@@ -2,7 +2,9 @@
 // Use of this source code is governed by the GNU GPLv3 license that can be found in the LICENSE file.
 package org.aya.core.term;
 
+import kala.collection.SeqLike;
 import kala.collection.immutable.ImmutableSeq;
+import kala.collection.mutable.Buffer;
 import kala.collection.mutable.MutableMap;
 import org.aya.api.util.Arg;
 import org.aya.core.visitor.Substituter;
@@ -38,5 +40,27 @@ public sealed interface ElimTerm extends Term {
     @Override public <P, R> R doAccept(@NotNull Visitor<P, R> visitor, P p) {
       return visitor.visitApp(this, p);
     }
+
+    /**
+     * Views nested applications as a spine.
+     *
+     * @param spine the arguments, outermost last
+     * @return the head, which is not an application
+     */
+    public @NotNull Term spine(@NotNull Buffer<Arg<@NotNull Term>> spine) {
+      var reversed = Buffer.<Arg<Term>>create();
+      Term t = this;
+      while (t instanceof App app) {
+        reversed.append(app.arg);
+        t = app.of;
+      }
+      spine.appendAll(reversed.view().reversed());
+      return t;
+    }
+
+    /** Applies the head to the arguments without reducing, the inverse of {@link #spine} */
+    public static @NotNull Term make(@NotNull Term head, @NotNull SeqLike<Arg<@NotNull Term>> spine) {
+      return spine.view().foldLeft(head, App::new);
+    }
   }
 }
@@ -5,10 +5,18 @@ package org.aya.core.term;
 import kala.collection.SeqLike;
 import kala.collection.immutable.ImmutableMap;
 import kala.collection.immutable.ImmutableSeq;
+import kala.collection.mutable.Buffer;
 import org.aya.api.ref.DefVar;
+import org.aya.api.util.Arg;
+import org.aya.api.util.NormalizeMode;
 import org.aya.concrete.stmt.Decl;
+import org.aya.core.def.DataDef;
 import org.aya.core.def.FieldDef;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.math.BigInteger;
+import java.util.Objects;
 
 /**
  * Introduction rules.
@@ -24,6 +32,16 @@ public sealed interface IntroTerm extends Term {
       return visitor.visitLam(this, p);
     }
 
+    public @NotNull Term parameters(@NotNull Buffer<Term.@NotNull Param> params) {
+      params.append(param);
+      var t = body;
+      while (t instanceof Lambda lambda) {
+        params.append(lambda.param);
+        t = lambda.body;
+      }
+      return t;
+    }
+
     public static @NotNull Term make(@NotNull SeqLike<@NotNull Param> telescope, @NotNull Term body) {
       return telescope.view().foldRight(body, Lambda::new);
     }
@@ -49,4 +67,47 @@ public sealed interface IntroTerm extends Term {
       return visitor.visitTup(this, p);
     }
   }
+
+  /**
+   * A natural number in binary, of a data type with a {@link DataDef.NatShape}.
+   * It stays a literal until a pattern or the unifier asks for a constructor, see {@link #toCon()}.
+   */
+  record NatLit(@NotNull BigInteger value, @NotNull CallTerm.Data type) implements IntroTerm {
+    @Override public <P, R> R doAccept(@NotNull Visitor<P, R> visitor, P p) {
+      return visitor.visitNatLit(this, p);
+    }
+
+    public @NotNull DataDef.NatShape shape() {
+      return Objects.requireNonNull(type.ref().core.natShape);
+    }
+
+    /** @return the outermost constructor of the number, with the predecessor still a literal */
+    public @NotNull CallTerm.Con toCon() {
+      var shape = shape();
+      if (value.signum() == 0) return new CallTerm.Con(type.conHead(shape.zero()), ImmutableSeq.empty());
+      var pred = new NatLit(value.subtract(BigInteger.ONE), type);
+      return new CallTerm.Con(type.conHead(shape.suc()), ImmutableSeq.of(new Arg<>(pred, true)));
+    }
+
+    /**
+     * @return the literal the term reduces to, where constructors applied to a literal count as well,
+     * or null if it is not a closed natural number
+     */
+    public static @Nullable NatLit from(@NotNull Term term) {
+      var sucs = 0L;
+      for (; ; ) {
+        // Constructor calls and literals are in WHNF already, and the argument of a successor is normalized next round
+        if (!(term instanceof CallTerm.Con) && !(term instanceof NatLit)) term = term.normalize(NormalizeMode.WHNF);
+        if (term instanceof NatLit lit) return new NatLit(lit.value.add(BigInteger.valueOf(sucs)), lit.type);
+        if (!(term instanceof CallTerm.Con conCall)) return null;
+        var data = conCall.head().dataRef().core;
+        var shape = data != null ? data.natShape : null;
+        if (shape == null) return null;
+        if (conCall.ref() == shape.zero())
+          return new NatLit(BigInteger.valueOf(sucs), conCall.head().underlyingDataCall());
+        sucs++;
+        term = conCall.conArgs().first().term();
+      }
+    }
+  }
 }
@@ -43,10 +43,7 @@ public sealed interface Term extends CoreTerm permits CallTerm, ElimTerm, ErrorT
   <P, R> R doAccept(@NotNull Visitor<P, R> visitor, P p);
 
   default <P, R> R accept(@NotNull Visitor<P, R> visitor, P p) {
-    visitor.traceEntrance(this, p);
-    var ret = doAccept(visitor, p);
-    visitor.traceExit(ret);
-    return ret;
+    return doAccept(visitor, p);
   }
 
   @Override default @Nullable Pat toPat(boolean explicit) {
@@ -62,11 +59,11 @@ public sealed interface Term extends CoreTerm permits CallTerm, ElimTerm, ErrorT
   }
 
   default @NotNull Term subst(@NotNull Map<Var, Term> subst) {
-    return accept(new Substituter(subst, LevelSubst.EMPTY), Unit.unit());
+    return new Substituter(subst, LevelSubst.EMPTY).traverse(this, Unit.unit());
   }
 
   default @NotNull Term subst(@NotNull Substituter.TermSubst subst, @NotNull LevelSubst levelSubst) {
-    return accept(new Substituter(subst, levelSubst), Unit.unit());
+    return new Substituter(subst, levelSubst).traverse(this, Unit.unit());
   }
 
   default @NotNull Term zonk(@NotNull ExprTycker tycker, @Nullable SourcePos pos) {
@@ -75,7 +72,7 @@ public sealed interface Term extends CoreTerm permits CallTerm, ElimTerm, ErrorT
 
   @Override default int findUsages(@NotNull Var var) {
     var counter = new VarConsumer.UsageCounter(var);
-    accept(counter, Unit.unit());
+    counter.traverse(this, Unit.unit());
     return counter.usageCount();
   }
 
@@ -87,9 +84,22 @@ public sealed interface Term extends CoreTerm permits CallTerm, ElimTerm, ErrorT
   }
 
   @Override default @NotNull Term normalize(@NotNull NormalizeMode mode) {
+    if (mode == NormalizeMode.NBE) return Evaluator.normalize(this);
+    if (mode == NormalizeMode.COMPILED) return ClosureCompiler.normalize(this);
+    if (mode == NormalizeMode.NEED) return accept(Normalizer.byNeed(), NormalizeMode.NF);
     return accept(Normalizer.INSTANCE, mode);
   }
 
+  /**
+   * Normalizes with no more reductions than the fuel allows, see {@link Fuel#exhausted()}.
+   * Only {@link Normalizer} counts its reductions, so {@link NormalizeMode#NBE} and
+   * {@link NormalizeMode#COMPILED} are computed by it, which gives the same normal forms.
+   */
+  default @NotNull Term normalize(@NotNull NormalizeMode mode, @NotNull Fuel fuel) {
+    var normalizer = Normalizer.fueled(fuel, mode == NormalizeMode.NEED);
+    return accept(normalizer, mode == NormalizeMode.WHNF ? NormalizeMode.WHNF : NormalizeMode.NF);
+  }
+
   default @NotNull Term freezeHoles(@Nullable LevelEqnSet eqnSet) {
     return accept(new TermFixpoint<>() {
       @Override public @NotNull Sort visitSort(@NotNull Sort sort, Unit unit) {
@@ -106,10 +116,6 @@ public sealed interface Term extends CoreTerm permits CallTerm, ElimTerm, ErrorT
   }
 
   interface Visitor<P, R> {
-    default void traceEntrance(@NotNull Term term, P p) {
-    }
-    default void traceExit(R r) {
-    }
     R visitRef(@NotNull RefTerm term, P p);
     R visitLam(@NotNull IntroTerm.Lambda term, P p);
     R visitPi(@NotNull FormTerm.Pi term, P p);
@@ -122,6 +128,7 @@ public sealed interface Term extends CoreTerm permits CallTerm, ElimTerm, ErrorT
     R visitStructCall(CallTerm.@NotNull Struct structCall, P p);
     R visitPrimCall(@NotNull CallTerm.Prim prim, P p);
     R visitTup(@NotNull IntroTerm.Tuple term, P p);
+    R visitNatLit(@NotNull IntroTerm.NatLit term, P p);
     R visitNew(@NotNull IntroTerm.New newTerm, P p);
     R visitProj(@NotNull ElimTerm.Proj term, P p);
     R visitAccess(@NotNull CallTerm.Access term, P p);
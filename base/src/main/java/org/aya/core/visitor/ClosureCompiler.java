@@ -0,0 +1,298 @@
+// Copyright (c) 2020-2021 Yinsen (Tesla) Zhang.
+// Use of this source code is governed by the GNU GPLv3 license that can be found in the LICENSE file.
+package org.aya.core.visitor;
+
+import kala.collection.SeqLike;
+import kala.collection.immutable.ImmutableSeq;
+import kala.collection.mutable.Buffer;
+import kala.collection.mutable.MutableMap;
+import org.aya.api.ref.LocalVar;
+import org.aya.api.ref.Var;
+import org.aya.api.util.Arg;
+import org.aya.core.def.FnDef;
+import org.aya.core.pat.CaseTree;
+import org.aya.core.sort.LevelSubst;
+import org.aya.core.sort.Sort;
+import org.aya.core.term.*;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Compiles terms into trees of closures, used for {@link org.aya.api.util.NormalizeMode#COMPILED}.
+ * Like {@link Evaluator}, terms are evaluated into values and read back, but the dispatch on the
+ * shape of the terms and the lookup of the variables are done once when compiling:
+ * variables become indices into an array of values, and the bodies of functions
+ * (see {@link FnDef#compiled()}) are compiled once and matched against values directly.
+ * <p>
+ * Only the computational part of the language is compiled: variables, lambdas, applications,
+ * tuples, projections and calls to functions and constructors. Other terms (types, primitives,
+ * holes, structures) fall back to {@link Evaluator} after their variables are instantiated.
+ *
+ * @see #normalize(Term)
+ */
+public final class ClosureCompiler {
+  private static final @NotNull Value @NotNull [] NO_VALUES = new Value[0];
+
+  private ClosureCompiler() {
+  }
+
+  /** A compiled term, run with the values of the variables in scope and the levels of the definition */
+  @FunctionalInterface
+  public interface Code {
+    @NotNull Value run(@NotNull Value @NotNull [] slots, @NotNull LevelSubst levels);
+  }
+
+  public sealed interface Value {
+  }
+
+  /** A term in normal form */
+  public record Neutral(@NotNull Term term) implements Value {
+  }
+
+  /** A lambda, whose body is run with {@link #slots} extended with the argument */
+  public record Lam(
+    @NotNull Term.Param param, @NotNull Code type, @NotNull Code body,
+    @NotNull Value @NotNull [] slots, @NotNull LevelSubst levels
+  ) implements Value {
+    public @NotNull Value apply(@NotNull Value arg) {
+      var extended = Arrays.copyOf(slots, slots.length + 1);
+      extended[slots.length] = arg;
+      return body.run(extended, levels);
+    }
+  }
+
+  /** A constructor call, the data arguments are already in normal form */
+  public record Con(@NotNull CallTerm.ConHead head, @NotNull ImmutableSeq<ValueArg> args) implements Value {
+  }
+
+  public record Tup(@NotNull ImmutableSeq<Value> items) implements Value {
+  }
+
+  public record ValueArg(@NotNull Value value, boolean explicit) {
+  }
+
+  /**
+   * @param body   the body of a function defined without patterns, run with the arguments
+   * @param leaves the clause bodies, run with the values bound to the pattern variables
+   */
+  public record Fn(@NotNull FnDef def, @Nullable Code body, @NotNull Map<CaseTree.Leaf, Code> leaves) {
+    public static @NotNull Fn compile(@NotNull FnDef def) {
+      var body = def.body();
+      if (body.isLeft())
+        return new Fn(def, ClosureCompiler.compile(body.getLeftValue(), def.telescope().<Var>map(Term.Param::ref)), Map.of());
+      var leaves = new IdentityHashMap<CaseTree.Leaf, Code>();
+      collectLeaves(def.caseTree().root(), leaves);
+      return new Fn(def, null, leaves);
+    }
+
+    private static void collectLeaves(@Nullable CaseTree.Node node, @NotNull Map<CaseTree.Leaf, Code> leaves) {
+      if (node instanceof CaseTree.Leaf leaf) leaves.put(leaf,
+        ClosureCompiler.compile(leaf.clause().body(), leaf.bindings().<Var>map(binding -> binding._1)));
+      else if (node instanceof CaseTree.Switch branching) {
+        for (var branch : branching.branches()) collectLeaves(branch.next(), leaves);
+        collectLeaves(branching.otherwise(), leaves);
+      }
+    }
+
+    private @NotNull Value call(@NotNull ImmutableSeq<Sort> sortArgs, @NotNull ImmutableSeq<ValueArg> args) {
+      var levels = Unfolder.buildSubst(def.levels, sortArgs);
+      var values = new Value[args.size()];
+      for (int i = 0; i < values.length; i++) values[i] = args.get(i).value;
+      if (body != null) return body.run(values, levels);
+      var tree = def.caseTree();
+      var result = tree.root() == null ? null : match(tree, values, levels);
+      return result != null ? result : new Neutral(new CallTerm.Fn(def.ref, sortArgs, readback(args)));
+    }
+
+    private @Nullable Value match(@NotNull CaseTree tree, @NotNull Value @NotNull [] args, @NotNull LevelSubst levels) {
+      var slots = Arrays.copyOf(args, tree.slotCount());
+      var node = tree.root();
+      while (node instanceof CaseTree.Switch branching) {
+        var value = slots[branching.slot()];
+        node = branching.otherwise();
+        for (var branch : branching.branches())
+          if (test(branch, value, slots)) {
+            node = branch.next();
+            break;
+          }
+      }
+      if (!(node instanceof CaseTree.Leaf leaf)) return null;
+      var bindings = leaf.bindings();
+      var frame = new Value[bindings.size()];
+      for (int i = 0; i < frame.length; i++) frame[i] = slots[bindings.get(i)._2];
+      return leaves.get(leaf).run(frame, levels);
+    }
+
+    /** Agrees with testing the read back value against the branch */
+    private static boolean test(@NotNull CaseTree.Branch branch, @NotNull Value value, @Nullable Value @NotNull [] slots) {
+      var childSlots = branch.childSlots();
+      var head = branch.head();
+      switch (value) {
+        case Tup tup && head == null -> {
+          for (int i = 0; i < childSlots.length; i++) slots[childSlots[i]] = tup.items.get(i);
+          return true;
+        }
+        case Con con && con.head.ref() == head -> {
+          for (int i = 0; i < childSlots.length; i++) slots[childSlots[i]] = con.args.get(i).value;
+          return true;
+        }
+        case Neutral neutral -> {
+          switch (neutral.term) {
+            case IntroTerm.Tuple tuple && head == null -> {
+              for (int i = 0; i < childSlots.length; i++) slots[childSlots[i]] = new Neutral(tuple.items().get(i));
+              return true;
+            }
+            case CallTerm.Con conCall && conCall.ref() == head -> {
+              var conArgs = conCall.conArgs();
+              for (int i = 0; i < childSlots.length; i++) slots[childSlots[i]] = new Neutral(conArgs.get(i).term());
+              return true;
+            }
+            case CallTerm.Prim primCall -> {
+              return primCall.ref() == head;
+            }
+            case IntroTerm.NatLit lit -> {
+              return test(branch, new Neutral(lit.toCon()), slots);
+            }
+            default -> {
+              return false;
+            }
+          }
+        }
+        default -> {
+          return false;
+        }
+      }
+    }
+  }
+
+  public static @NotNull Term normalize(@NotNull Term term) {
+    return readback(compile(term, ImmutableSeq.empty()).run(NO_VALUES, LevelSubst.EMPTY));
+  }
+
+  public static @NotNull Term readback(@NotNull Value value) {
+    return switch (value) {
+      case Neutral neutral -> neutral.term;
+      case Lam lam -> {
+        var ref = lam.param.ref();
+        var type = readback(lam.type.run(lam.slots, lam.levels));
+        var param = new Term.Param(new LocalVar(ref.name(), ref.definition()), type, lam.param.explicit());
+        yield new IntroTerm.Lambda(param, readback(lam.apply(new Neutral(param.toTerm()))));
+      }
+      case Con con -> new CallTerm.Con(con.head, readback(con.args));
+      case Tup tup -> new IntroTerm.Tuple(tup.items.map(ClosureCompiler::readback));
+    };
+  }
+
+  private static @NotNull ImmutableSeq<Arg<Term>> readback(@NotNull ImmutableSeq<ValueArg> args) {
+    return args.map(arg -> new Arg<>(readback(arg.value), arg.explicit));
+  }
+
+  private static @NotNull Value apply(@NotNull Value fn, @NotNull Value arg, boolean explicit) {
+    // A lambda in normal form, say, from the fallback, is compiled again
+    if (fn instanceof Neutral neutral && neutral.term instanceof IntroTerm.Lambda lambda)
+      fn = compile(lambda, ImmutableSeq.empty()).run(NO_VALUES, LevelSubst.EMPTY);
+    if (fn instanceof Lam lam) return lam.apply(arg);
+    return new Neutral(CallTerm.make(readback(fn), new Arg<>(readback(arg), explicit)));
+  }
+
+  private static @NotNull Value project(@NotNull Value of, int ix) {
+    if (of instanceof Tup tup) return tup.items.get(ix - 1);
+    var term = readback(of);
+    if (term instanceof IntroTerm.Tuple tuple) return new Neutral(tuple.items().get(ix - 1));
+    return new Neutral(new ElimTerm.Proj(term, ix));
+  }
+
+  private record ArgCode(@NotNull Code code, boolean explicit) {
+  }
+
+  private static @NotNull ImmutableSeq<ArgCode> compileArgs(@NotNull SeqLike<Arg<Term>> args, @NotNull ImmutableSeq<Var> scope) {
+    return args.view().map(arg -> new ArgCode(compile(arg.term(), scope), arg.explicit())).toImmutableSeq();
+  }
+
+  private static @NotNull ImmutableSeq<ValueArg> run(
+    @NotNull ImmutableSeq<ArgCode> args,
+    @NotNull Value @NotNull [] slots, @NotNull LevelSubst levels
+  ) {
+    return args.map(arg -> new ValueArg(arg.code.run(slots, levels), arg.explicit));
+  }
+
+  private static @NotNull ImmutableSeq<Sort> subst(@NotNull ImmutableSeq<Sort> sortArgs, @NotNull LevelSubst levels) {
+    return levels.isEmpty() ? sortArgs : sortArgs.map(sort -> levels.applyTo(sort));
+  }
+
+  /** @param scope the variables stored in the slots, in order */
+  public static @NotNull Code compile(@NotNull Term term, @NotNull ImmutableSeq<Var> scope) {
+    return switch (term) {
+      case RefTerm ref -> {
+        for (int i = scope.size() - 1; i >= 0; i--)
+          if (scope.get(i) == ref.var()) {
+            var slot = i;
+            yield (slots, levels) -> slots[slot];
+          }
+        yield (slots, levels) -> new Neutral(ref);
+      }
+      case IntroTerm.Lambda lambda -> {
+        var param = lambda.param();
+        var type = compile(param.type(), scope);
+        var body = compile(lambda.body(), scope.appended(param.ref()));
+        yield (slots, levels) -> new Lam(param, type, body, slots, levels);
+      }
+      case ElimTerm.App app -> {
+        var spine = Buffer.<Arg<Term>>create();
+        var head = compile(app.spine(spine), scope);
+        var args = compileArgs(spine, scope);
+        yield (slots, levels) -> {
+          var value = head.run(slots, levels);
+          for (var arg : args) value = apply(value, arg.code.run(slots, levels), arg.explicit);
+          return value;
+        };
+      }
+      case IntroTerm.Tuple tuple -> {
+        var items = tuple.items().map(item -> compile(item, scope));
+        yield (slots, levels) -> new Tup(items.map(item -> item.run(slots, levels)));
+      }
+      case ElimTerm.Proj proj -> {
+        var of = compile(proj.of(), scope);
+        var ix = proj.ix();
+        yield (slots, levels) -> project(of.run(slots, levels), ix);
+      }
+      case CallTerm.Fn fnCall && fnCall.ref().core != null -> {
+        var ref = fnCall.ref();
+        var sortArgs = fnCall.sortArgs();
+        var args = compileArgs(fnCall.args(), scope);
+        yield (slots, levels) -> ref.core.compiled().call(subst(sortArgs, levels), run(args, slots, levels));
+      }
+      // Constructors with conditions may reduce, see the fallback
+      case CallTerm.Con conCall && (conCall.ref().core == null || conCall.ref().core.caseTree.root() == null) -> {
+        var head = conCall.head();
+        var dataArgs = compileArgs(head.dataArgs(), scope);
+        var conArgs = compileArgs(conCall.conArgs(), scope);
+        yield (slots, levels) -> {
+          var newHead = new CallTerm.ConHead(head.dataRef(), head.ref(), subst(head.sortArgs(), levels),
+            readback(run(dataArgs, slots, levels)));
+          return new Con(newHead, run(conArgs, slots, levels));
+        };
+      }
+      case FormTerm.Univ univ -> (slots, levels) -> new Neutral(levels.isEmpty() ? univ
+        : new FormTerm.Univ(levels.applyTo(univ.sort())));
+      case ErrorTerm error -> (slots, levels) -> new Neutral(error);
+      case IntroTerm.NatLit lit && lit.type().sortArgs().isEmpty() -> (slots, levels) -> new Neutral(lit);
+      default -> fallback(term, scope);
+    };
+  }
+
+  private static @NotNull Code fallback(@NotNull Term term, @NotNull ImmutableSeq<Var> scope) {
+    // Only the variables which may occur are read back
+    var used = Buffer.<Integer>create();
+    for (int i = 0; i < scope.size(); i++) if (Occurrences.mayOccur(term, scope.get(i))) used.append(i);
+    return (slots, levels) -> {
+      var subst = new Substituter.TermSubst(MutableMap.create());
+      for (var i : used) subst.map().put(scope.get(i), readback(slots[i]));
+      return new Neutral(Evaluator.normalize(term.subst(subst, levels)));
+    };
+  }
+}
@@ -0,0 +1,257 @@
+// Copyright (c) 2020-2021 Yinsen (Tesla) Zhang.
+// Use of this source code is governed by the GNU GPLv3 license that can be found in the LICENSE file.
+package org.aya.core.visitor;
+
+import kala.collection.SeqLike;
+import kala.collection.immutable.ImmutableMap;
+import kala.collection.immutable.ImmutableSeq;
+import kala.collection.mutable.Buffer;
+import kala.tuple.Tuple;
+import org.aya.api.ref.LocalVar;
+import org.aya.api.ref.Var;
+import org.aya.api.util.Arg;
+import org.aya.core.def.Def;
+import org.aya.core.pat.CaseTree;
+import org.aya.core.sort.LevelSubst;
+import org.aya.core.term.*;
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Normalization by evaluation, used for {@link org.aya.api.util.NormalizeMode#NBE}.
+ * Instead of substituting the argument into the body of a lambda like {@link Normalizer},
+ * the body is evaluated later in an environment binding the parameter to the argument.
+ * The results are read back into terms in normal form, with freshly named binders.
+ * <p>
+ * Terms use unique {@link LocalVar}s instead of de Bruijn indices, so the environment is
+ * keyed by variables, and the readback creates a new variable for each binder it goes under.
+ *
+ * @see #normalize(Term)
+ */
+public final class Evaluator implements Term.Visitor<Evaluator.@Nullable Env, Evaluator.Value> {
+  public static final @NotNull Evaluator INSTANCE = new Evaluator();
+
+  @Contract(pure = true) private Evaluator() {
+  }
+
+  public sealed interface Value {
+  }
+
+  /** A lambda, whose body is evaluated in {@link #env} extended with the argument */
+  public record Closure(@NotNull Term.Param param, @NotNull Term body, @Nullable Env env) implements Value {
+    public @NotNull Value apply(@NotNull Value arg) {
+      return body.accept(INSTANCE, new Env(param.ref(), arg, env));
+    }
+  }
+
+  /** A term in normal form, which does not refer to the variables in any environment */
+  public record Normal(@NotNull Term term) implements Value {
+  }
+
+  /** A persistent list of bindings, the empty environment is <code>null</code> */
+  public record Env(@NotNull Var var, @NotNull Value value, @Nullable Env parent) {
+    public static @Nullable Value lookup(@Nullable Env env, @NotNull Var var) {
+      for (; env != null; env = env.parent)
+        if (env.var == var) return env.value;
+      return null;
+    }
+  }
+
+  public static @NotNull Term normalize(@NotNull Term term) {
+    return readback(term.accept(INSTANCE, null));
+  }
+
+  public static @NotNull Term readback(@NotNull Value value) {
+    return switch (value) {
+      case Normal normal -> normal.term;
+      case Closure closure -> {
+        var param = INSTANCE.fresh(closure.param, closure.env);
+        yield new IntroTerm.Lambda(param, readback(closure.apply(new Normal(param.toTerm()))));
+      }
+    };
+  }
+
+  private @NotNull Term norm(@NotNull Term term, @Nullable Env env) {
+    return readback(term.accept(this, env));
+  }
+
+  private @NotNull Arg<Term> norm(@NotNull Arg<Term> arg, @Nullable Env env) {
+    return new Arg<>(norm(arg.term(), env), arg.explicit());
+  }
+
+  private @NotNull ImmutableSeq<Arg<Term>> norm(@NotNull ImmutableSeq<Arg<Term>> args, @Nullable Env env) {
+    return args.map(arg -> norm(arg, env));
+  }
+
+  /** @return the parameter renamed, with its type normalized */
+  private @NotNull Term.Param fresh(@NotNull Term.Param param, @Nullable Env env) {
+    var ref = param.ref();
+    return new Term.Param(new LocalVar(ref.name(), ref.definition()), norm(param.type(), env), param.explicit());
+  }
+
+  /** Evaluate a term that is already normal, to turn the lambdas inside back into closures */
+  private @NotNull Value reflect(@NotNull Term term) {
+    return term.accept(this, null);
+  }
+
+  private static @Nullable Env bind(@Nullable Env env, @NotNull SeqLike<Term.Param> tele, @NotNull SeqLike<Value> values) {
+    assert tele.sizeEquals(values);
+    var iter = values.iterator();
+    for (var param : tele) env = new Env(param.ref(), iter.next(), env);
+    return env;
+  }
+
+  private static @NotNull Term subst(@NotNull Term term, @NotNull LevelSubst levelSubst) {
+    return levelSubst.isEmpty() ? term : term.subst(Substituter.TermSubst.EMPTY, levelSubst);
+  }
+
+  private @Nullable Value tryUnfoldClauses(
+    @Nullable Env env, @NotNull SeqLike<Arg<Term>> args,
+    @NotNull LevelSubst levelSubst, @NotNull CaseTree caseTree
+  ) {
+    var match = caseTree.match(args);
+    if (match == null) return null;
+    var bodyEnv = env;
+    for (var entry : match.subst().map().asJava().entrySet())
+      bodyEnv = new Env(entry.getKey(), reflect(entry.getValue()), bodyEnv);
+    return subst(match.clause().body(), levelSubst).accept(this, bodyEnv);
+  }
+
+  @Override public Value visitRef(@NotNull RefTerm term, @Nullable Env env) {
+    var value = Env.lookup(env, term.var());
+    return value != null ? value : new Normal(term);
+  }
+
+  @Override public Value visitLam(IntroTerm.@NotNull Lambda term, @Nullable Env env) {
+    return new Closure(term.param(), term.body(), env);
+  }
+
+  @Override public Value visitPi(FormTerm.@NotNull Pi term, @Nullable Env env) {
+    var param = fresh(term.param(), env);
+    var body = norm(term.body(), new Env(term.param().ref(), new Normal(param.toTerm()), env));
+    return new Normal(new FormTerm.Pi(param, body));
+  }
+
+  @Override public Value visitSigma(FormTerm.@NotNull Sigma term, @Nullable Env env) {
+    var params = Buffer.<Term.Param>create();
+    for (var param : term.params()) {
+      var renamed = fresh(param, env);
+      params.append(renamed);
+      env = new Env(param.ref(), new Normal(renamed.toTerm()), env);
+    }
+    return new Normal(new FormTerm.Sigma(params.toImmutableSeq()));
+  }
+
+  @Override public Value visitUniv(FormTerm.@NotNull Univ term, @Nullable Env env) {
+    return new Normal(term);
+  }
+
+  @Override public Value visitApp(ElimTerm.@NotNull App term, @Nullable Env env) {
+    var fn = term.of().accept(this, env);
+    var arg = term.arg().term().accept(this, env);
+    if (fn instanceof Closure closure) return closure.apply(arg);
+    return new Normal(CallTerm.make(readback(fn), new Arg<>(readback(arg), term.arg().explicit())));
+  }
+
+  @Override public Value visitFnCall(CallTerm.@NotNull Fn fnCall, @Nullable Env env) {
+    var def = fnCall.ref().core;
+    // Not yet type checked
+    if (def == null) return new Normal(new CallTerm.Fn(fnCall.ref(), fnCall.sortArgs(), norm(fnCall.args(), env)));
+    var levelSubst = Unfolder.buildSubst(def.levels, fnCall.sortArgs());
+    var body = def.body();
+    if (body.isLeft()) {
+      var args = fnCall.args().map(arg -> arg.term().accept(this, env));
+      return subst(body.getLeftValue(), levelSubst).accept(this, bind(null, def.telescope(), args));
+    }
+    var args = norm(fnCall.args(), env);
+    var volynskaya = tryUnfoldClauses(null, args, levelSubst, def.caseTree());
+    return volynskaya != null ? volynskaya : new Normal(new CallTerm.Fn(fnCall.ref(), fnCall.sortArgs(), args));
+  }
+
+  @Override public Value visitDataCall(CallTerm.@NotNull Data dataCall, @Nullable Env env) {
+    return new Normal(new CallTerm.Data(dataCall.ref(), dataCall.sortArgs(), norm(dataCall.args(), env)));
+  }
+
+  @Override public Value visitConCall(CallTerm.@NotNull Con conCall, @Nullable Env env) {
+    var head = conCall.head();
+    var dataArgs = norm(head.dataArgs(), env);
+    var conArgs = norm(conCall.conArgs(), env);
+    var def = conCall.ref().core;
+    if (def != null) {
+      var levelSubst = Unfolder.buildSubst(Def.defLevels(def.ref()), conCall.sortArgs());
+      var volynskaya = tryUnfoldClauses(null, conArgs, levelSubst, def.caseTree);
+      if (volynskaya != null) return volynskaya;
+    }
+    var newHead = new CallTerm.ConHead(head.dataRef(), head.ref(), head.sortArgs(), dataArgs);
+    return new Normal(new CallTerm.Con(newHead, conArgs));
+  }
+
+  @Override public Value visitStructCall(CallTerm.@NotNull Struct structCall, @Nullable Env env) {
+    return new Normal(new CallTerm.Struct(structCall.ref(), structCall.sortArgs(), norm(structCall.args(), env)));
+  }
+
+  @Override public Value visitPrimCall(CallTerm.@NotNull Prim prim, @Nullable Env env) {
+    var call = new CallTerm.Prim(prim.ref(), prim.sortArgs(), norm(prim.args(), env));
+    var unfolded = prim.ref().core.unfold(call);
+    // A stuck primitive may still be rebuilt, with its arguments simplified
+    if (unfolded instanceof CallTerm.Prim stuck && stuck.ref() == prim.ref()) return new Normal(stuck);
+    return reflect(unfolded);
+  }
+
+  @Override public Value visitTup(IntroTerm.@NotNull Tuple term, @Nullable Env env) {
+    return new Normal(new IntroTerm.Tuple(term.items().map(item -> norm(item, env))));
+  }
+
+  @Override public Value visitNatLit(IntroTerm.@NotNull NatLit term, @Nullable Env env) {
+    return new Normal(term);
+  }
+
+  @Override public Value visitNew(IntroTerm.@NotNull New newTerm, @Nullable Env env) {
+    var struct = (CallTerm.Struct) readback(visitStructCall(newTerm.struct(), env));
+    var params = newTerm.params().view().map((field, term) -> Tuple.of(field, norm(term, env)));
+    return new Normal(new IntroTerm.New(struct, ImmutableMap.from(params)));
+  }
+
+  @Override public Value visitProj(ElimTerm.@NotNull Proj term, @Nullable Env env) {
+    var of = readback(term.of().accept(this, env));
+    if (of instanceof IntroTerm.Tuple tuple) return reflect(tuple.items().get(term.ix() - 1));
+    return new Normal(new ElimTerm.Proj(of, term.ix()));
+  }
+
+  @Override public Value visitAccess(CallTerm.@NotNull Access term, @Nullable Env env) {
+    var of = readback(term.of().accept(this, env));
+    var field = term.ref();
+    var core = field.core;
+    var structArgs = term.structArgs().map(arg -> arg.term().accept(this, env));
+    var fieldArgs = norm(term.fieldArgs(), env);
+    if (of instanceof IntroTerm.New n) {
+      var fieldBody = fieldArgs.foldLeft(n.params().get(field), CallTerm::make);
+      return fieldBody.accept(this, bind(null, core.ownerTele, structArgs));
+    }
+    var levelSubst = Unfolder.buildSubst(Def.defLevels(field), term.sortArgs());
+    var fieldEnv = bind(bind(null, core.ownerTele, structArgs), core.selfTele, fieldArgs.map(arg -> reflect(arg.term())));
+    var mischa = tryUnfoldClauses(fieldEnv, fieldArgs, levelSubst, core.caseTree);
+    if (mischa != null) return mischa;
+    var structTerms = term.structArgs().zip(structArgs).map(t -> new Arg<>(readback(t._2), t._1.explicit()));
+    return new Normal(new CallTerm.Access(of, field, term.sortArgs(), structTerms, fieldArgs));
+  }
+
+  @Override public Value visitHole(CallTerm.@NotNull Hole term, @Nullable Env env) {
+    var meta = term.ref().core();
+    var body = meta.body;
+    if (body == null)
+      return new Normal(new CallTerm.Hole(term.ref(), norm(term.contextArgs(), env), norm(term.args(), env)));
+    var args = term.fullArgs().map(arg -> arg.term().accept(this, env)).toImmutableSeq();
+    return body.accept(this, bind(null, meta.fullTelescope(), args));
+  }
+
+  @Override public Value visitFieldRef(RefTerm.@NotNull Field term, @Nullable Env env) {
+    var value = Env.lookup(env, term.ref());
+    return value != null ? value : new Normal(term);
+  }
+
+  @Override public Value visitError(@NotNull ErrorTerm term, @Nullable Env env) {
+    return new Normal(term);
+  }
+}
@@ -0,0 +1,49 @@
+// Copyright (c) 2020-2021 Yinsen (Tesla) Zhang.
+// Use of this source code is governed by the GNU GPLv3 license that can be found in the LICENSE file.
+package org.aya.core.visitor;
+
+import org.aya.util.cancel.CancellationException;
+import org.aya.util.cancel.CancellationIndicator;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * A bound on the reductions (unfolding a definition, matching a clause, a beta step) of a normalization,
+ * along with a way to cancel it. When the fuel runs out, the normalization goes on without reducing,
+ * so the result is a partially reduced term.
+ *
+ * @see org.aya.core.term.Term#normalize(org.aya.api.util.NormalizeMode, Fuel)
+ */
+public final class Fuel {
+  /** Enough for what people look at interactively */
+  public static final long INTERACTIVE = 1 << 20;
+  private final long limit;
+  private final @Nullable CancellationIndicator indicator;
+  private long used = 0;
+  private boolean exhausted = false;
+
+  public Fuel(long limit, @Nullable CancellationIndicator indicator) {
+    this.limit = limit;
+    this.indicator = indicator;
+  }
+
+  /** @return false if the fuel ran out, otherwise consumes one step */
+  public boolean step() throws CancellationException {
+    if (indicator != null) indicator.checkCanceled();
+    if (used >= limit) {
+      exhausted = true;
+      return false;
+    }
+    used++;
+    return true;
+  }
+
+  /** @return the number of reductions done */
+  public long used() {
+    return used;
+  }
+
+  /** @return true if some reductions were not done, so the result may not be normal */
+  public boolean exhausted() {
+    return exhausted;
+  }
+}
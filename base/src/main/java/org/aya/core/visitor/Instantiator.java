@@ -0,0 +1,69 @@
+// Copyright (c) 2020-2021 Yinsen (Tesla) Zhang.
+// Use of this source code is governed by the GNU GPLv3 license that can be found in the LICENSE file.
+package org.aya.core.visitor;
+
+import kala.collection.SeqLike;
+import kala.collection.immutable.ImmutableSeq;
+import kala.collection.mutable.MutableMap;
+import org.aya.core.sort.LevelSubst;
+import org.aya.core.term.Term;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Instantiates a telescope with arguments supplied from left to right.
+ * The arguments go into one substitution, and the type of each parameter is substituted once,
+ * when it is reached, instead of substituting every argument into all the remaining types.
+ * The arguments live outside the telescope, so the substitution is simultaneous.
+ *
+ * @see Unfolder#buildSubst(SeqLike, SeqLike)
+ */
+public final class Instantiator {
+  private final @NotNull ImmutableSeq<Term.Param> telescope;
+  private final @NotNull Substituter.TermSubst subst;
+  private final @NotNull LevelSubst levelSubst;
+  private int index = 0;
+  private @Nullable Term nextType;
+
+  public Instantiator(@NotNull SeqLike<Term.@NotNull Param> telescope, @NotNull LevelSubst levelSubst) {
+    this.telescope = telescope.toImmutableSeq();
+    this.subst = new Substituter.TermSubst(MutableMap.create());
+    this.levelSubst = levelSubst;
+  }
+
+  public boolean hasNext() {
+    return index < telescope.size();
+  }
+
+  /** @return the next parameter, whose type is {@link #nextType()} */
+  public @NotNull Term.Param next() {
+    var param = telescope.get(index);
+    return new Term.Param(param.ref(), nextType(), param.explicit());
+  }
+
+  /** @return the type of the next parameter, with the arguments supplied so far */
+  public @NotNull Term nextType() {
+    if (nextType == null) nextType = telescope.get(index).type().subst(subst, levelSubst);
+    return nextType;
+  }
+
+  /** Instantiates the next parameter with the argument */
+  public void supply(@NotNull Term arg) {
+    subst.map().put(telescope.get(index++).ref(), arg);
+    nextType = null;
+  }
+
+  /** @return the parameters not instantiated yet, with the arguments supplied so far */
+  public @NotNull ImmutableSeq<Term.Param> remaining() {
+    return Term.Param.subst(telescope.drop(index), subst, levelSubst);
+  }
+
+  /** @return a term under the telescope, with the arguments supplied so far */
+  public @NotNull Term instantiate(@NotNull Term term) {
+    return term.subst(subst, levelSubst);
+  }
+
+  public @NotNull Substituter.TermSubst subst() {
+    return subst;
+  }
+}
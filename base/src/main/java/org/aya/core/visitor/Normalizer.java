@@ -2,27 +2,113 @@
 // Use of this source code is governed by the GNU GPLv3 license that can be found in the LICENSE file.
 package org.aya.core.visitor;
 
+import kala.collection.mutable.Buffer;
 import org.aya.api.distill.DistillerOptions;
+import org.aya.api.util.Arg;
 import org.aya.api.util.NormalizeMode;
 import org.aya.core.term.*;
 import org.jetbrains.annotations.Contract;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.IdentityHashMap;
 
 public final class Normalizer implements Unfolder<NormalizeMode> {
-  public static final @NotNull Normalizer INSTANCE = new Normalizer();
+  public static final @NotNull Normalizer INSTANCE = new Normalizer(null, null);
+  /**
+   * The arguments of the reductions so far, which are substituted into the bodies
+   * as the very same objects, so they are recognized by identity.
+   * Only present in {@link NormalizeMode#NEED}.
+   */
+  private final @Nullable IdentityHashMap<Term, Thunk> thunks;
+  private final @Nullable Fuel fuel;
+
+  @Contract(pure = true)
+  private Normalizer(@Nullable IdentityHashMap<Term, Thunk> thunks, @Nullable Fuel fuel) {
+    this.thunks = thunks;
+    this.fuel = fuel;
+  }
+
+  /** @return a normalizer sharing the arguments of reductions, for one normalization only */
+  @Contract(" -> new") public static @NotNull Normalizer byNeed() {
+    return new Normalizer(new IdentityHashMap<>(), null);
+  }
+
+  /** @return a normalizer doing no more reductions than the fuel allows */
+  @Contract("_, _ -> new") public static @NotNull Normalizer fueled(@NotNull Fuel fuel, boolean byNeed) {
+    return new Normalizer(byNeed ? new IdentityHashMap<>() : null, fuel);
+  }
+
+  @Override public boolean step() {
+    return fuel == null || fuel.step();
+  }
 
-  @Contract(pure = true) private Normalizer() {
+  /** The normal forms of a shared term, computed when first needed */
+  private static final class Thunk {
+    private @Nullable Term whnf;
+    private @Nullable Term nf;
+  }
+
+  /**
+   * Normalizes a term the reductions may have substituted, that is a head, an argument, a projected term or a reduct,
+   * reusing the normal forms of the shared arguments.
+   * The other subterms, like the bodies of lambdas, are visited directly: a shared argument there is normalized again.
+   */
+  private @NotNull Term force(@NotNull Term term, NormalizeMode mode) {
+    if (thunks == null) return term.accept(this, mode);
+    var thunk = thunks.get(term);
+    if (thunk == null) return term.accept(this, mode);
+    var value = mode == NormalizeMode.NF ? thunk.nf : thunk.whnf;
+    if (value != null) return value;
+    value = term.accept(this, mode);
+    if (mode == NormalizeMode.NF) thunk.nf = value;
+    else thunk.whnf = value;
+    // Normal forms are normal forms of themselves, and they will be substituted further
+    var self = thunks.computeIfAbsent(value, t -> new Thunk());
+    self.whnf = value;
+    if (mode == NormalizeMode.NF) self.nf = value;
+    return value;
+  }
+
+  @Override public @NotNull Arg<Term> visitArg(@NotNull Arg<Term> arg, NormalizeMode mode) {
+    var term = force(arg.term(), mode);
+    if (term == arg.term()) return arg;
+    return new Arg<>(term, arg.explicit());
+  }
+
+  /** @return the argument unchanged and remembered in {@link NormalizeMode#NEED}, or normalized in place */
+  private @NotNull Arg<Term> share(@NotNull Arg<Term> arg, NormalizeMode mode) {
+    if (thunks == null) return visitArg(arg, mode);
+    thunks.putIfAbsent(arg.term(), new Thunk());
+    return arg;
   }
 
   @Override public @NotNull Term visitApp(@NotNull ElimTerm.App term, NormalizeMode mode) {
-    var fn = term.of().accept(this, mode);
-    if (fn instanceof IntroTerm.Lambda lambda)
-      return CallTerm.make(lambda, visitArg(term.arg(), mode)).accept(this, mode);
+    var spine = Buffer.<Arg<Term>>create();
+    var fn = force(term.spine(spine), mode);
+    if (fn instanceof IntroTerm.Lambda lambda) {
+      if (step()) return force(CallTerm.make(lambda, spine.map(arg -> share(arg, mode))), mode);
+      // Out of fuel, so the redex stays
+      return ElimTerm.App.make(lambda, mode == NormalizeMode.NF ? spine.map(arg -> visitArg(arg, mode)) : spine);
+    }
     if (mode == NormalizeMode.NF) // FIXME: in case it's not NF, reduce again
-      return CallTerm.make(fn, visitArg(term.arg(), mode));
+      return CallTerm.make(fn, spine.map(arg -> visitArg(arg, mode)));
     else return term;
   }
 
+  @Override public @NotNull Term visitFnCall(@NotNull CallTerm.Fn fnCall, NormalizeMode mode) {
+    var def = fnCall.ref().core;
+    // Pattern matching needs the arguments anyway
+    if (thunks == null || def == null || def.body().isRight())
+      return Unfolder.super.visitFnCall(fnCall, mode);
+    // Out of fuel, the call stays with its arguments normalized
+    if (!step()) return new CallTerm.Fn(fnCall.ref(), fnCall.sortArgs(), fnCall.args().map(arg -> visitArg(arg, mode)));
+    var args = fnCall.args().map(arg -> share(arg, mode));
+    var termSubst = Unfolder.buildSubst(def.telescope(), args);
+    var levelSubst = Unfolder.buildSubst(def.levels, fnCall.sortArgs());
+    return force(def.body().getLeftValue().subst(termSubst, levelSubst), mode);
+  }
+
   @Override public @NotNull Term visitRef(@NotNull RefTerm term, NormalizeMode mode) {
     return term;
   }
@@ -53,11 +139,15 @@ public final class Normalizer implements Unfolder<NormalizeMode> {
   }
 
   @Override public @NotNull Term visitProj(@NotNull ElimTerm.Proj term, NormalizeMode mode) {
-    var tup = term.of().accept(this, NormalizeMode.WHNF);
+    var tup = force(term.of(), NormalizeMode.WHNF);
     var ix = term.ix();
-    if (!(tup instanceof IntroTerm.Tuple t)) return tup == term.of() ? term : new ElimTerm.Proj(tup, ix);
+    if (!(tup instanceof IntroTerm.Tuple t)) {
+      // A stuck projection is normal when what it projects is
+      if (mode == NormalizeMode.NF) tup = force(tup, mode);
+      return tup == term.of() ? term : new ElimTerm.Proj(tup, ix);
+    }
     // should not fail due to tycking
     assert t.items().sizeGreaterThanOrEquals(ix) && ix > 0 : term.toDoc(DistillerOptions.DEBUG).debugRender();
-    return t.items().get(ix - 1).accept(this, mode);
+    return force(t.items().get(ix - 1), mode);
   }
 }
@@ -0,0 +1,282 @@
+// Copyright (c) 2020-2021 Yinsen (Tesla) Zhang.
+// Use of this source code is governed by the GNU GPLv3 license that can be found in the LICENSE file.
+package org.aya.core.visitor;
+
+import kala.collection.SeqLike;
+import kala.collection.immutable.ImmutableSeq;
+import kala.collection.mutable.Buffer;
+import org.aya.api.ref.Var;
+import org.aya.api.util.Arg;
+import org.aya.core.term.*;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.IdentityHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * A summary of the variables a term refers to: local variables, holes, fields and definitions,
+ * the same ones {@link VarConsumer#visitVar} sees. Bound variables are not removed, and the bodies
+ * of solved holes are not included (they may be solved after the summary is computed),
+ * see {@link #hasHoles()}.
+ * <p>
+ * Terms are records, so the summaries are kept in a weak identity table instead of on the terms.
+ * Only the terms of more than {@link #SIZE_THRESHOLD} nodes are kept, the others are cheaper to summarize
+ * again than to look up, and most of them are thrown away right after being built.
+ * The variables are only weakly referenced, because a {@link org.aya.api.ref.DefVar} reaches
+ * the bodies of its definition, whose terms would otherwise never leave the table.
+ *
+ * @param mask     a bloom filter of the variables, a variable is present only if its bit is set
+ * @param vars     all the variables, <code>null</code> if there are more than {@link #EXACT_LIMIT}
+ * @param hasHoles whether there are holes, which may be solved to terms referring to anything
+ */
+public record Occurrences(long mask, @Nullable ImmutableSeq<WeakReference<Var>> vars, boolean hasHoles) {
+  public static final int EXACT_LIMIT = 8;
+  public static final int SIZE_THRESHOLD = 32;
+  public static final @NotNull Occurrences EMPTY = new Occurrences(0, ImmutableSeq.empty(), false);
+  private static final @NotNull ConcurrentHashMap<Object, Occurrences> TABLE = new ConcurrentHashMap<>();
+  private static final @NotNull ReferenceQueue<Term> COLLECTED = new ReferenceQueue<>();
+
+  private static long bit(@NotNull Var var) {
+    var hash = System.identityHashCode(var) * 0x9E3779B9;
+    return 1L << (hash >>> 26);
+  }
+
+  public boolean isEmpty() {
+    return mask == 0 && !hasHoles;
+  }
+
+  /** @return false if the variable does not occur */
+  public boolean mayContain(@NotNull Var var) {
+    if ((mask & bit(var)) == 0) return false;
+    // A collected variable cannot be the one asked about
+    return vars == null || vars.anyMatch(ref -> ref.get() == var);
+  }
+
+  /** @return false if none of the variables occur */
+  public boolean mayContainAny(@NotNull Iterable<? extends Var> candidates) {
+    if (mask == 0) return false;
+    for (var var : candidates) if (mayContain(var)) return true;
+    return false;
+  }
+
+  /**
+   * @return false if the variable does not occur in the term,
+   * not even in the solutions of the holes in it
+   */
+  public static boolean mayOccur(@NotNull Term term, @NotNull Var var) {
+    var occurrences = of(term);
+    return occurrences.hasHoles || occurrences.mayContain(var);
+  }
+
+  public static @NotNull Occurrences of(@NotNull Term term) {
+    return switch (term) {
+      case FormTerm.Univ univ -> EMPTY;
+      case ErrorTerm error -> EMPTY;
+      case RefTerm.Field field -> new Builder().add(field.ref()).build();
+      default -> {
+        var cached = TABLE.get(new Lookup(term));
+        yield cached != null ? cached : summarize(term);
+      }
+    };
+  }
+
+  /** @return true if the term has at most {@link #SIZE_THRESHOLD} nodes, which is found without summarizing it */
+  public static boolean isSmall(@NotNull Term term) {
+    if (TABLE.containsKey(new Lookup(term))) return false;
+    var stack = Buffer.of(term);
+    for (int size = 1; stack.isNotEmpty(); size++) {
+      if (size > SIZE_THRESHOLD) return false;
+      var next = stack.last();
+      stack.removeAt(stack.size() - 1);
+      subterms(next, stack::append);
+    }
+    return true;
+  }
+
+  /** A term whose subterms are summarized before it, with the summaries of the first {@link #next} ones added */
+  private static final class Frame {
+    private final @NotNull Term term;
+    private final @NotNull Builder builder = new Builder();
+    private final @NotNull Buffer<Term> children = Buffer.create();
+    private int next = 0;
+    private int size = 1;
+
+    private Frame(@NotNull Term term) {
+      this.term = term;
+      var head = head(term);
+      if (head != null) builder.add(head);
+      builder.holes = term instanceof CallTerm.Hole;
+      subterms(term, children::append);
+    }
+  }
+
+  /** The summary of a term not in the table, with its size up to {@link #SIZE_THRESHOLD} + 1 */
+  private record Sized(@NotNull Occurrences occurrences, int size) {
+  }
+
+  /**
+   * Summarizes the subterms first, with an explicit stack, so deep terms do not overflow the Java stack.
+   * The summaries of the small subterms are only kept until the term is summarized.
+   */
+  private static @NotNull Occurrences summarize(@NotNull Term root) {
+    var small = new IdentityHashMap<Term, Sized>();
+    var stack = Buffer.of(new Frame(root));
+    for (; ; ) {
+      var frame = stack.last();
+      if (frame.next < frame.children.size()) {
+        var child = frame.children.get(frame.next);
+        var stored = TABLE.get(new Lookup(child));
+        var sized = stored != null ? new Sized(stored, SIZE_THRESHOLD + 1) : small.get(child);
+        if (sized == null) {
+          stack.append(new Frame(child));
+          continue;
+        }
+        frame.builder.add(sized.occurrences);
+        frame.size = Math.min(frame.size + sized.size, SIZE_THRESHOLD + 1);
+        frame.next++;
+        continue;
+      }
+      stack.removeAt(stack.size() - 1);
+      var occurrences = frame.builder.build();
+      if (frame.size > SIZE_THRESHOLD) {
+        expunge();
+        TABLE.put(new Key(frame.term), occurrences);
+      } else small.put(frame.term, new Sized(occurrences, frame.size));
+      if (stack.isEmpty()) return occurrences;
+    }
+  }
+
+  private static void expunge() {
+    for (Reference<? extends Term> ref; (ref = COLLECTED.poll()) != null; ) TABLE.remove(ref);
+  }
+
+  /** @return the variable a term refers to by itself, besides its subterms */
+  private static @Nullable Var head(@NotNull Term term) {
+    return switch (term) {
+      case RefTerm ref -> ref.var();
+      case RefTerm.Field field -> field.ref();
+      case CallTerm call -> call.ref();
+      default -> null;
+    };
+  }
+
+  /** Gives the subterms of a term to the consumer */
+  private static void subterms(@NotNull Term term, @NotNull Consumer<Term> subterms) {
+    switch (term) {
+      case RefTerm ref -> subterms.accept(ref.type());
+      case IntroTerm.Lambda lambda -> {
+        subterms.accept(lambda.param().type());
+        subterms.accept(lambda.body());
+      }
+      case FormTerm.Pi pi -> {
+        subterms.accept(pi.param().type());
+        subterms.accept(pi.body());
+      }
+      case FormTerm.Sigma sigma -> sigma.params().forEach(param -> subterms.accept(param.type()));
+      case ElimTerm.App app -> {
+        subterms.accept(app.of());
+        subterms.accept(app.arg().term());
+      }
+      case ElimTerm.Proj proj -> subterms.accept(proj.of());
+      case IntroTerm.Tuple tuple -> tuple.items().forEach(subterms);
+      case IntroTerm.NatLit lit -> subterms.accept(lit.type());
+      case IntroTerm.New newTerm -> {
+        subterms.accept(newTerm.struct());
+        newTerm.params().forEach((field, value) -> subterms.accept(value));
+      }
+      case CallTerm.Hole hole -> {
+        args(hole.contextArgs(), subterms);
+        args(hole.args(), subterms);
+      }
+      case CallTerm.Con con -> {
+        args(con.head().dataArgs(), subterms);
+        args(con.conArgs(), subterms);
+      }
+      case CallTerm.Access access -> {
+        subterms.accept(access.of());
+        args(access.structArgs(), subterms);
+        args(access.fieldArgs(), subterms);
+      }
+      case CallTerm call -> args(call.args(), subterms);
+      default -> {
+      }
+    }
+  }
+
+  private static void args(@NotNull SeqLike<Arg<Term>> args, @NotNull Consumer<Term> subterms) {
+    for (var arg : args) subterms.accept(arg.term());
+  }
+
+  private static final class Builder {
+    private long mask = 0;
+    private @Nullable Buffer<WeakReference<Var>> vars = Buffer.create();
+    private boolean holes = false;
+
+    private @NotNull Builder add(@NotNull Var var) {
+      mask |= bit(var);
+      return add(var, null);
+    }
+
+    /** @param ref a reference to the variable to share, or null to create one */
+    private @NotNull Builder add(@NotNull Var var, @Nullable WeakReference<Var> ref) {
+      if (vars != null && !vars.anyMatch(r -> r.get() == var)) {
+        if (vars.size() == EXACT_LIMIT) vars = null;
+        else vars.append(ref != null ? ref : new WeakReference<>(var));
+      }
+      return this;
+    }
+
+    private @NotNull Builder add(@NotNull Occurrences occurrences) {
+      mask |= occurrences.mask;
+      holes |= occurrences.hasHoles;
+      if (vars == null) return this;
+      if (occurrences.vars == null) vars = null;
+      else for (var ref : occurrences.vars) {
+        var var = ref.get();
+        if (var != null) add(var, ref);
+      }
+      return this;
+    }
+
+    private @NotNull Occurrences build() {
+      if (mask == 0 && !holes) return EMPTY;
+      return new Occurrences(mask, vars == null ? null : vars.toImmutableSeq(), holes);
+    }
+  }
+
+  /** The keys in the table, compared by the identity of the terms */
+  private static final class Key extends WeakReference<Term> {
+    private final int hash;
+
+    private Key(@NotNull Term term) {
+      super(term, COLLECTED);
+      hash = System.identityHashCode(term);
+    }
+
+    @Override public boolean equals(Object o) {
+      if (this == o) return true;
+      var term = get();
+      return term != null && o instanceof Key key && key.get() == term;
+    }
+
+    @Override public int hashCode() {
+      return hash;
+    }
+  }
+
+  /** Used to look up the table without creating a weak reference */
+  private record Lookup(@NotNull Term term) {
+    @Override public boolean equals(Object o) {
+      return o instanceof Key key && key.get() == term;
+    }
+
+    @Override public int hashCode() {
+      return System.identityHashCode(term);
+    }
+  }
+}
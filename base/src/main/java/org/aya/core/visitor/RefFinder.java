@@ -30,7 +30,7 @@ public record RefFinder(boolean withBody) implements
   @Override public Unit visitFn(@NotNull FnDef fn, @NotNull Buffer<Def> references) {
     tele(references, fn.telescope());
     fn.result().accept(this, references);
-    if (withBody) fn.body.map(
+    if (withBody) fn.body().map(
       term -> term.accept(this, references),
       clauses -> {
         clauses.forEach(clause -> matchy(clause, references));
@@ -13,22 +13,23 @@ import org.aya.api.distill.DistillerOptions;
 import org.aya.api.ref.Var;
 import org.aya.core.sort.LevelSubst;
 import org.aya.core.sort.Sort;
-import org.aya.core.term.RefTerm;
-import org.aya.core.term.Term;
+import org.aya.core.term.*;
 import org.aya.distill.BaseDistiller;
 import org.aya.pretty.doc.Doc;
 import org.jetbrains.annotations.Debug;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 /**
  * This doesn't substitute references underlying function calls.
+ * Subterms where none of the variables occur are returned as-is, see {@link Occurrences}.
  *
  * @author ice1000
  */
 public record Substituter(
   @NotNull Map<Var, Term> termSubst,
   @NotNull LevelSubst levelSubst
-) implements TermFixpoint<Unit> {
+) implements TermFixpoint.Iterative<Unit> {
   public Substituter(@NotNull TermSubst termSubst, @NotNull LevelSubst levelSubst) {
     this(termSubst.map, levelSubst);
   }
@@ -42,9 +43,17 @@ public record Substituter(
     return termSubst.getOrDefault(term.ref(), term);
   }
 
-  @Override public @NotNull Term visitRef(@NotNull RefTerm term, Unit unused) {
-    return termSubst.getOrElse(term.var(), () ->
-      TermFixpoint.super.visitRef(term, Unit.unit()));
+  @Override public @Nullable Term pre(@NotNull Term term, Unit unit) {
+    if (term instanceof RefTerm ref) {
+      var mapped = termSubst.getOrNull(ref.var());
+      if (mapped != null) return mapped;
+    }
+    return skip(term) ? term : null;
+  }
+
+  /** @return true if the term does not change, since none of the variables occur in it */
+  private boolean skip(@NotNull Term term) {
+    return levelSubst.isEmpty() && !Occurrences.of(term).mayContainAny(termSubst.keysView());
   }
 
   /**
@@ -97,6 +97,10 @@ public interface TermConsumer<P> extends Term.Visitor<P, Unit> {
     return Unit.unit();
   }
 
+  @Override default Unit visitNatLit(@NotNull IntroTerm.NatLit term, P p) {
+    return term.type().accept(this, p);
+  }
+
   default void visitArgs(P p, SeqLike<Arg<@NotNull Term>> args) {
     args.forEach(arg -> visitArg(arg, p));
   }
@@ -120,4 +124,25 @@ public interface TermConsumer<P> extends Term.Visitor<P, Unit> {
     for (var sortArg : term.sortArgs()) visitSort(sortArg, p);
     return term.of().accept(this, p);
   }
+
+  /**
+   * Visits the terms with an explicit stack, see {@link TermTraversal}.
+   * The visitors opting into this describe their work in {@link #pre} and {@link #post}
+   * rather than in the visit methods, which are only used for the terms without subterms.
+   * They are run with {@link #traverse}, since {@link Term#accept} calls the visit methods only.
+   */
+  interface Iterative<P> extends TermConsumer<P> {
+    /** @return whether to visit the subterms of the term */
+    default boolean pre(@NotNull Term term, P p) {
+      return true;
+    }
+
+    /** Called after the subterms of a term are visited, if it has any and {@link #pre} allowed it */
+    default void post(@NotNull Term term, P p) {
+    }
+
+    default void traverse(@NotNull Term term, P p) {
+      TermTraversal.consume(this, term, p);
+    }
+  }
 }
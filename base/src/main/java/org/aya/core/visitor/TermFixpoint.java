@@ -143,6 +143,12 @@ public interface TermFixpoint<P> extends Term.Visitor<P, @NotNull Term> {
     return new IntroTerm.Tuple(items);
   }
 
+  @Override default @NotNull Term visitNatLit(@NotNull IntroTerm.NatLit term, P p) {
+    var type = term.type().accept(this, p);
+    if (type == term.type()) return term;
+    return type instanceof CallTerm.Data data ? new IntroTerm.NatLit(term.value(), data) : new ErrorTerm(term);
+  }
+
   @Override default @NotNull Term visitNew(@NotNull IntroTerm.New struct, P p) {
     var itemsView = struct.params().view()
       .map((k, v) -> Tuple.of(k, v.accept(this, p)));
@@ -166,4 +172,26 @@ public interface TermFixpoint<P> extends Term.Visitor<P, @NotNull Term> {
       && tuple == term.of()) return term;
     return new CallTerm.Access(tuple, term.ref(), term.sortArgs(), structArgs, args);
   }
+
+  /**
+   * Visits the terms with an explicit stack, see {@link TermTraversal}.
+   * The visitors opting into this describe their work in {@link #pre} and {@link #post}
+   * rather than in the visit methods, which are only used for the terms without subterms.
+   * They are run with {@link #traverse}, since {@link Term#accept} calls the visit methods only.
+   */
+  interface Iterative<P> extends TermFixpoint<P> {
+    /** @return the result of a term computed without visiting its subterms, or null to visit them */
+    default @Nullable Term pre(@NotNull Term term, P p) {
+      return null;
+    }
+
+    /** @return the result of a term, given the term rebuilt from its visited subterms */
+    default @NotNull Term post(@NotNull Term term, P p) {
+      return term;
+    }
+
+    default @NotNull Term traverse(@NotNull Term term, P p) {
+      return TermTraversal.fixpoint(this, term, p);
+    }
+  }
 }
@@ -0,0 +1,203 @@
+// Copyright (c) 2020-2021 Yinsen (Tesla) Zhang.
+// Use of this source code is governed by the GNU GPLv3 license that can be found in the LICENSE file.
+package org.aya.core.visitor;
+
+import kala.collection.SeqLike;
+import kala.tuple.Unit;
+import org.aya.api.util.Arg;
+import org.aya.core.term.*;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Hash-consing of core terms: syntactically equal terms passed through {@link #intern(Term)}
+ * become the same object. Terms are interned bottom-up, so a term is looked up by its own
+ * data and the identities of its (already interned) subterms, with a hash computed once.
+ * The table only holds the terms weakly.
+ * Thread-safe, one instance is shared by a {@link org.aya.tyck.CompilationSession}.
+ */
+public final class TermInterner implements TermFixpoint<Unit> {
+  private final @NotNull ConcurrentHashMap<Key, Entry> table = new ConcurrentHashMap<>();
+  private final @NotNull ReferenceQueue<Term> collected = new ReferenceQueue<>();
+  public final @NotNull LongAdder hits = new LongAdder();
+  public final @NotNull LongAdder misses = new LongAdder();
+
+  public @NotNull Term intern(@NotNull Term term) {
+    return term.accept(this, Unit.unit());
+  }
+
+  /** @return the number of distinct terms alive */
+  public int size() {
+    expunge();
+    return table.size();
+  }
+
+  private void expunge() {
+    for (Reference<? extends Term> ref; (ref = collected.poll()) != null; )
+      table.remove(((Entry) ref).key, ref);
+  }
+
+  private @NotNull Term canonical(@NotNull Term term) {
+    var key = Key.of(term);
+    if (key == null) return term;
+    expunge();
+    while (true) {
+      var entry = table.computeIfAbsent(key, k -> new Entry(term, k, collected));
+      var canonical = entry.get();
+      if (canonical != null) {
+        if (canonical == term) misses.increment();
+        else hits.increment();
+        return canonical;
+      }
+      table.remove(key, entry);
+    }
+  }
+
+  private static final class Entry extends WeakReference<Term> {
+    private final @NotNull Key key;
+
+    private Entry(@NotNull Term term, @NotNull Key key, @NotNull ReferenceQueue<Term> queue) {
+      super(term, queue);
+      this.key = key;
+    }
+  }
+
+  /** Compared by identity, for subterms which are already interned */
+  private record Id(@NotNull Term term) {
+    @Override public boolean equals(Object o) {
+      return o instanceof Id id && id.term == term;
+    }
+
+    @Override public int hashCode() {
+      return System.identityHashCode(term);
+    }
+  }
+
+  /** The class and the shallow data of a term, subterms are represented by {@link Id} */
+  private record Key(@NotNull Class<?> kind, @NotNull List<Object> parts, int hash) {
+    private Key(@NotNull Class<?> kind, @NotNull List<Object> parts) {
+      this(kind, parts, kind.hashCode() * 31 + parts.hashCode());
+    }
+
+    @Override public boolean equals(Object o) {
+      return o instanceof Key key && key.hash == hash && key.kind == kind && key.parts.equals(parts);
+    }
+
+    @Override public int hashCode() {
+      return hash;
+    }
+
+    private static @NotNull List<Object> args(@NotNull SeqLike<Arg<Term>> args) {
+      var parts = new ArrayList<>(args.size() * 2);
+      for (var arg : args) {
+        parts.add(new Id(arg.term()));
+        parts.add(arg.explicit());
+      }
+      return parts;
+    }
+
+    private static @NotNull List<Object> param(Term.@NotNull Param param) {
+      return List.of(param.ref(), new Id(param.type()), param.explicit());
+    }
+
+    private static @Nullable Key of(@NotNull Term term) {
+      List<Object> parts = switch (term) {
+        case RefTerm ref -> List.of(ref.var(), new Id(ref.type()));
+        case RefTerm.Field field -> List.<Object>of(field.ref());
+        case IntroTerm.Lambda lambda -> List.of(param(lambda.param()), new Id(lambda.body()));
+        case FormTerm.Pi pi -> List.of(param(pi.param()), new Id(pi.body()));
+        case FormTerm.Sigma sigma -> List.<Object>of(sigma.params().map(Key::param));
+        case FormTerm.Univ univ -> List.<Object>of(univ.sort());
+        case ElimTerm.App app -> List.of(new Id(app.of()), new Id(app.arg().term()), app.arg().explicit());
+        case ElimTerm.Proj proj -> List.of(new Id(proj.of()), proj.ix());
+        case IntroTerm.Tuple tuple -> List.<Object>of(tuple.items().map(Id::new));
+        case IntroTerm.NatLit lit -> List.of(lit.value(), new Id(lit.type()));
+        case CallTerm.Con con -> List.of(con.head().dataRef(), con.ref(), con.sortArgs(),
+          args(con.head().dataArgs()), args(con.conArgs()));
+        case CallTerm.Hole hole -> List.of(hole.ref(), args(hole.contextArgs()), args(hole.args()));
+        case CallTerm.Access access -> List.of(new Id(access.of()), access.ref(), access.sortArgs(),
+          args(access.structArgs()), args(access.fieldArgs()));
+        case CallTerm call -> List.of(call.ref(), call.sortArgs(), args(call.args()));
+        // New terms are rare, and error terms are compared by their descriptions
+        default -> null;
+      };
+      return parts == null ? null : new Key(term.getClass(), parts);
+    }
+  }
+
+  @Override public @NotNull Term visitRef(@NotNull RefTerm term, Unit unit) {
+    return canonical(TermFixpoint.super.visitRef(term, unit));
+  }
+
+  @Override public @NotNull Term visitFieldRef(RefTerm.@NotNull Field term, Unit unit) {
+    return canonical(TermFixpoint.super.visitFieldRef(term, unit));
+  }
+
+  @Override public @NotNull Term visitLam(IntroTerm.@NotNull Lambda term, Unit unit) {
+    return canonical(TermFixpoint.super.visitLam(term, unit));
+  }
+
+  @Override public @NotNull Term visitPi(FormTerm.@NotNull Pi term, Unit unit) {
+    return canonical(TermFixpoint.super.visitPi(term, unit));
+  }
+
+  @Override public @NotNull Term visitSigma(FormTerm.@NotNull Sigma term, Unit unit) {
+    return canonical(TermFixpoint.super.visitSigma(term, unit));
+  }
+
+  @Override public @NotNull Term visitUniv(FormTerm.@NotNull Univ term, Unit unit) {
+    return canonical(TermFixpoint.super.visitUniv(term, unit));
+  }
+
+  @Override public @NotNull Term visitApp(ElimTerm.@NotNull App term, Unit unit) {
+    return canonical(TermFixpoint.super.visitApp(term, unit));
+  }
+
+  @Override public @NotNull Term visitProj(ElimTerm.@NotNull Proj term, Unit unit) {
+    return canonical(TermFixpoint.super.visitProj(term, unit));
+  }
+
+  @Override public @NotNull Term visitTup(IntroTerm.@NotNull Tuple term, Unit unit) {
+    return canonical(TermFixpoint.super.visitTup(term, unit));
+  }
+
+  @Override public @NotNull Term visitNatLit(IntroTerm.@NotNull NatLit term, Unit unit) {
+    return canonical(TermFixpoint.super.visitNatLit(term, unit));
+  }
+
+  @Override public @NotNull Term visitFnCall(CallTerm.@NotNull Fn fnCall, Unit unit) {
+    return canonical(TermFixpoint.super.visitFnCall(fnCall, unit));
+  }
+
+  @Override public @NotNull Term visitDataCall(CallTerm.@NotNull Data dataCall, Unit unit) {
+    return canonical(TermFixpoint.super.visitDataCall(dataCall, unit));
+  }
+
+  @Override public @NotNull Term visitConCall(CallTerm.@NotNull Con conCall, Unit unit) {
+    return canonical(TermFixpoint.super.visitConCall(conCall, unit));
+  }
+
+  @Override public @NotNull Term visitStructCall(CallTerm.@NotNull Struct structCall, Unit unit) {
+    return canonical(TermFixpoint.super.visitStructCall(structCall, unit));
+  }
+
+  @Override public @NotNull Term visitPrimCall(CallTerm.@NotNull Prim prim, Unit unit) {
+    return canonical(TermFixpoint.super.visitPrimCall(prim, unit));
+  }
+
+  @Override public @NotNull Term visitAccess(CallTerm.@NotNull Access term, Unit unit) {
+    return canonical(TermFixpoint.super.visitAccess(term, unit));
+  }
+
+  @Override public @NotNull Term visitHole(CallTerm.@NotNull Hole term, Unit unit) {
+    return canonical(TermFixpoint.super.visitHole(term, unit));
+  }
+}
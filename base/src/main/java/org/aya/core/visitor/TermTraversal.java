@@ -0,0 +1,317 @@
+// Copyright (c) 2020-2021 Yinsen (Tesla) Zhang.
+// Use of this source code is governed by the GNU GPLv3 license that can be found in the LICENSE file.
+package org.aya.core.visitor;
+
+import kala.collection.immutable.ImmutableMap;
+import kala.collection.immutable.ImmutableSeq;
+import kala.collection.mutable.Buffer;
+import kala.tuple.Tuple;
+import org.aya.api.util.Arg;
+import org.aya.core.sort.Sort;
+import org.aya.core.term.*;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+
+/**
+ * Drives {@link TermFixpoint.Iterative} and {@link TermConsumer.Iterative} with an explicit stack
+ * instead of the Java stack, so deep terms (large normal forms, long constructor chains) do not overflow it.
+ * The subterms are visited in the same order as the default visit methods,
+ * and a term is rebuilt only if some of its subterms changed, like in {@link TermFixpoint}.
+ */
+public final class TermTraversal {
+  private TermTraversal() {
+  }
+
+  /** A term with its subterms, of which the first {@link #next} ones are visited */
+  private static final class Frame {
+    private final @NotNull Term term;
+    private final @NotNull Term @NotNull [] children;
+    private final @NotNull Term @Nullable [] results;
+    private int next = 0;
+
+    private Frame(@NotNull Term term, @NotNull Term @NotNull [] children, boolean rebuild) {
+      this.term = term;
+      this.children = children;
+      this.results = rebuild ? new Term[children.length] : null;
+    }
+  }
+
+  public static <P> @NotNull Term fixpoint(@NotNull TermFixpoint.Iterative<P> visitor, @NotNull Term term, P p) {
+    var root = visitor.pre(term, p);
+    if (root != null) return root;
+    var rootChildren = fixpointChildren(term);
+    if (rootChildren == null) return term.doAccept(visitor, p);
+    var stack = Buffer.of(new Frame(term, rootChildren, true));
+    for (; ; ) {
+      var frame = stack.last();
+      if (frame.next < frame.children.length) {
+        var child = frame.children[frame.next];
+        var result = visitor.pre(child, p);
+        if (result == null) {
+          var children = fixpointChildren(child);
+          if (children != null) {
+            stack.append(new Frame(child, children, true));
+            continue;
+          }
+          result = child.doAccept(visitor, p);
+        }
+        assert frame.results != null;
+        frame.results[frame.next++] = result;
+        continue;
+      }
+      stack.removeAt(stack.size() - 1);
+      assert frame.results != null;
+      var result = visitor.post(rebuild(visitor, frame.term, frame.results, p), p);
+      if (stack.isEmpty()) return result;
+      var parent = stack.last();
+      assert parent.results != null;
+      parent.results[parent.next++] = result;
+    }
+  }
+
+  public static <P> void consume(@NotNull TermConsumer.Iterative<P> visitor, @NotNull Term term, P p) {
+    if (!visitor.pre(term, p)) return;
+    var rootChildren = consumerChildren(visitor, term, p);
+    if (rootChildren == null) {
+      term.doAccept(visitor, p);
+      return;
+    }
+    var stack = Buffer.of(new Frame(term, rootChildren, false));
+    while (stack.isNotEmpty()) {
+      var frame = stack.last();
+      if (frame.next == frame.children.length) {
+        stack.removeAt(stack.size() - 1);
+        visitor.post(frame.term, p);
+        continue;
+      }
+      var child = frame.children[frame.next++];
+      if (!visitor.pre(child, p)) continue;
+      var children = consumerChildren(visitor, child, p);
+      if (children != null) stack.append(new Frame(child, children, false));
+      else child.doAccept(visitor, p);
+    }
+  }
+
+  private static @NotNull Term @NotNull [] array(@NotNull ArrayList<Term> terms) {
+    return terms.toArray(new Term[0]);
+  }
+
+  private static @NotNull ArrayList<Term> terms(@NotNull ImmutableSeq<Arg<Term>> args) {
+    var terms = new ArrayList<Term>(args.size());
+    for (var arg : args) terms.add(arg.term());
+    return terms;
+  }
+
+  private static @NotNull ArrayList<Term> terms(@NotNull ImmutableSeq<Arg<Term>> first, @NotNull ImmutableSeq<Arg<Term>> second) {
+    var terms = terms(first);
+    for (var arg : second) terms.add(arg.term());
+    return terms;
+  }
+
+  private static @NotNull ArrayList<Term> types(@NotNull ImmutableSeq<Term.Param> params) {
+    var terms = new ArrayList<Term>(params.size());
+    for (var param : params) terms.add(param.type());
+    return terms;
+  }
+
+  /** @return the subterms {@link TermFixpoint} visits, or null for the leaves */
+  private static @NotNull Term @Nullable [] fixpointChildren(@NotNull Term term) {
+    return switch (term) {
+      case RefTerm ref -> new Term[]{ref.type()};
+      case IntroTerm.Lambda lambda -> new Term[]{lambda.param().type(), lambda.body()};
+      case FormTerm.Pi pi -> new Term[]{pi.param().type(), pi.body()};
+      case FormTerm.Sigma sigma -> array(types(sigma.params()));
+      case ElimTerm.App app -> new Term[]{app.of(), app.arg().term()};
+      case ElimTerm.Proj proj -> new Term[]{proj.of()};
+      case CallTerm.Fn fn -> array(terms(fn.args()));
+      case CallTerm.Prim prim -> array(terms(prim.args()));
+      case CallTerm.Data data -> array(terms(data.args()));
+      case CallTerm.Struct struct -> array(terms(struct.args()));
+      case CallTerm.Con con -> array(terms(con.head().dataArgs(), con.conArgs()));
+      case CallTerm.Hole hole -> array(terms(hole.contextArgs(), hole.args()));
+      case CallTerm.Access access -> {
+        var children = terms(access.fieldArgs(), access.structArgs());
+        children.add(0, access.of());
+        yield array(children);
+      }
+      case IntroTerm.Tuple tuple -> tuple.items().asJava().toArray(new Term[0]);
+      case IntroTerm.NatLit lit -> new Term[]{lit.type()};
+      case IntroTerm.New neu -> {
+        var children = new ArrayList<Term>(neu.params().size());
+        neu.params().forEach((field, value) -> children.add(value));
+        yield array(children);
+      }
+      default -> null;
+    };
+  }
+
+  /** @return the arguments with the visited terms, which are the same arguments if nothing changed */
+  private static @NotNull ImmutableSeq<Arg<Term>> args(
+    @NotNull ImmutableSeq<Arg<Term>> args, @NotNull Term @NotNull [] results, int from
+  ) {
+    var changed = false;
+    for (int i = 0; i < args.size(); i++) changed |= results[from + i] != args.get(i).term();
+    if (!changed) return args;
+    var visited = Buffer.<Arg<Term>>create();
+    for (int i = 0; i < args.size(); i++) {
+      var arg = args.get(i);
+      var term = results[from + i];
+      visited.append(term == arg.term() ? arg : new Arg<>(term, arg.explicit()));
+    }
+    return visited.toImmutableSeq();
+  }
+
+  private static <P> @Nullable ImmutableSeq<Sort> sorts(
+    @NotNull TermFixpoint<P> visitor, @NotNull ImmutableSeq<Sort> sorts, P p
+  ) {
+    var visited = sorts.mapNotNull(sort -> visitor.visitSort(sort, p));
+    if (!visited.sizeEquals(sorts.size())) return null;
+    return visited.sameElements(sorts, true) ? sorts : visited;
+  }
+
+  private static @NotNull Term.Param param(@NotNull Term.Param param, @NotNull Term type) {
+    return type == param.type() ? param : new Term.Param(param.ref(), type, param.explicit());
+  }
+
+  /** Rebuilds the term like the default methods in {@link TermFixpoint} */
+  private static <P> @NotNull Term rebuild(
+    @NotNull TermFixpoint<P> visitor, @NotNull Term term, @NotNull Term @NotNull [] results, P p
+  ) {
+    return switch (term) {
+      case RefTerm ref -> results[0] == ref.type() ? ref : new RefTerm(ref.var(), results[0]);
+      case IntroTerm.Lambda lambda -> results[0] == lambda.param().type() && results[1] == lambda.body() ? lambda
+        : new IntroTerm.Lambda(param(lambda.param(), results[0]), results[1]);
+      case FormTerm.Pi pi -> results[0] == pi.param().type() && results[1] == pi.body() ? pi
+        : new FormTerm.Pi(param(pi.param(), results[0]), results[1]);
+      case FormTerm.Sigma sigma -> {
+        var params = Buffer.<Term.Param>create();
+        for (int i = 0; i < results.length; i++) params.append(param(sigma.params().get(i), results[i]));
+        yield params.sameElements(sigma.params(), true) ? sigma : new FormTerm.Sigma(params.toImmutableSeq());
+      }
+      case ElimTerm.App app -> {
+        var arg = args(ImmutableSeq.of(app.arg()), results, 1).first();
+        yield results[0] == app.of() && arg == app.arg() ? app : CallTerm.make(results[0], arg);
+      }
+      case ElimTerm.Proj proj -> results[0] == proj.of() ? proj : new ElimTerm.Proj(results[0], proj.ix());
+      case CallTerm.Fn fn -> {
+        var args = args(fn.args(), results, 0);
+        var sortArgs = sorts(visitor, fn.sortArgs(), p);
+        if (sortArgs == null) yield new ErrorTerm(fn);
+        yield sortArgs == fn.sortArgs() && args == fn.args() ? fn : new CallTerm.Fn(fn.ref(), sortArgs, args);
+      }
+      case CallTerm.Prim prim -> {
+        var args = args(prim.args(), results, 0);
+        var sortArgs = sorts(visitor, prim.sortArgs(), p);
+        if (sortArgs == null) yield new ErrorTerm(prim);
+        yield sortArgs == prim.sortArgs() && args == prim.args() ? prim : new CallTerm.Prim(prim.ref(), sortArgs, args);
+      }
+      case CallTerm.Data data -> {
+        var args = args(data.args(), results, 0);
+        var sortArgs = sorts(visitor, data.sortArgs(), p);
+        if (sortArgs == null) yield new ErrorTerm(data);
+        yield sortArgs == data.sortArgs() && args == data.args() ? data : new CallTerm.Data(data.ref(), sortArgs, args);
+      }
+      case CallTerm.Struct struct -> {
+        var args = args(struct.args(), results, 0);
+        var sortArgs = sorts(visitor, struct.sortArgs(), p);
+        if (sortArgs == null) yield new ErrorTerm(struct);
+        yield sortArgs == struct.sortArgs() && args == struct.args() ? struct
+          : new CallTerm.Struct(struct.ref(), sortArgs, args);
+      }
+      case CallTerm.Con con -> {
+        var head = con.head();
+        var dataArgs = args(head.dataArgs(), results, 0);
+        var conArgs = args(con.conArgs(), results, head.dataArgs().size());
+        var sortArgs = sorts(visitor, head.sortArgs(), p);
+        if (sortArgs == null) yield new ErrorTerm(con);
+        if (sortArgs == head.sortArgs() && dataArgs == head.dataArgs() && conArgs == con.conArgs()) yield con;
+        yield new CallTerm.Con(new CallTerm.ConHead(head.dataRef(), head.ref(), sortArgs, dataArgs), conArgs);
+      }
+      case CallTerm.Hole hole -> {
+        var contextArgs = args(hole.contextArgs(), results, 0);
+        var args = args(hole.args(), results, hole.contextArgs().size());
+        yield contextArgs == hole.contextArgs() && args == hole.args() ? hole
+          : new CallTerm.Hole(hole.ref(), contextArgs, args);
+      }
+      case CallTerm.Access access -> {
+        var fieldArgs = args(access.fieldArgs(), results, 1);
+        var structArgs = args(access.structArgs(), results, 1 + access.fieldArgs().size());
+        yield results[0] == access.of() && fieldArgs == access.fieldArgs() && structArgs == access.structArgs()
+          ? access : new CallTerm.Access(results[0], access.ref(), access.sortArgs(), structArgs, fieldArgs);
+      }
+      case IntroTerm.Tuple tuple -> {
+        var items = ImmutableSeq.from(results);
+        yield items.sameElements(tuple.items(), true) ? tuple : new IntroTerm.Tuple(items);
+      }
+      case IntroTerm.NatLit lit -> results[0] == lit.type() ? lit : results[0] instanceof CallTerm.Data data
+        ? new IntroTerm.NatLit(lit.value(), data) : new ErrorTerm(lit);
+      case IntroTerm.New neu -> {
+        var index = new int[]{0};
+        var fields = neu.params().view().map((field, value) -> Tuple.of(field, results[index[0]++]));
+        yield new IntroTerm.New(neu.struct(), ImmutableMap.from(fields));
+      }
+      default -> throw new IllegalStateException("Not a term with subterms: " + term);
+    };
+  }
+
+  /**
+   * @return the subterms {@link TermConsumer} visits, or null for the leaves,
+   * with the sorts of the term given to {@link TermConsumer#visitSort} on the way
+   */
+  private static <P> @NotNull Term @Nullable [] consumerChildren(
+    @NotNull TermConsumer<P> visitor, @NotNull Term term, P p
+  ) {
+    return switch (term) {
+      case RefTerm ref -> new Term[]{ref.type()};
+      case IntroTerm.Lambda lambda -> new Term[]{lambda.param().type(), lambda.body()};
+      case FormTerm.Pi pi -> new Term[]{pi.param().type(), pi.body()};
+      case FormTerm.Sigma sigma -> array(types(sigma.params()));
+      case ElimTerm.App app -> new Term[]{app.arg().term(), app.of()};
+      case ElimTerm.Proj proj -> new Term[]{proj.of()};
+      case CallTerm.Fn fn -> {
+        fn.sortArgs().forEach(sort -> visitor.visitSort(sort, p));
+        yield array(terms(fn.args()));
+      }
+      case CallTerm.Prim prim -> {
+        prim.sortArgs().forEach(sort -> visitor.visitSort(sort, p));
+        yield array(terms(prim.args()));
+      }
+      case CallTerm.Data data -> {
+        data.sortArgs().forEach(sort -> visitor.visitSort(sort, p));
+        yield array(terms(data.args()));
+      }
+      case CallTerm.Struct struct -> {
+        struct.sortArgs().forEach(sort -> visitor.visitSort(sort, p));
+        yield array(terms(struct.args()));
+      }
+      case CallTerm.Con con -> {
+        con.sortArgs().forEach(sort -> visitor.visitSort(sort, p));
+        yield array(terms(con.head().dataArgs(), con.conArgs()));
+      }
+      case CallTerm.Hole hole -> {
+        hole.sortArgs().forEach(sort -> visitor.visitSort(sort, p));
+        var children = terms(hole.args(), hole.contextArgs());
+        var body = hole.ref().core().body;
+        if (body != null) children.add(body);
+        yield array(children);
+      }
+      case CallTerm.Access access -> {
+        access.sortArgs().forEach(sort -> visitor.visitSort(sort, p));
+        var children = terms(access.fieldArgs());
+        children.add(access.of());
+        yield array(children);
+      }
+      case IntroTerm.Tuple tuple -> tuple.items().asJava().toArray(new Term[0]);
+      case IntroTerm.NatLit lit -> new Term[]{lit.type()};
+      case IntroTerm.New neu -> {
+        var children = new ArrayList<Term>(neu.params().size() + 1);
+        children.add(neu.struct());
+        neu.params().forEach((field, value) -> children.add(value));
+        yield array(children);
+      }
+      default -> null;
+    };
+  }
+}
@@ -10,10 +10,12 @@ import kala.collection.mutable.MutableSet;
 import kala.tuple.Unit;
 import org.aya.api.ref.Var;
 import org.aya.api.util.Arg;
+import org.aya.api.util.NormalizeMode;
 import org.aya.api.util.WithPos;
 import org.aya.core.Matching;
 import org.aya.core.def.Def;
 import org.aya.core.def.PrimDef;
+import org.aya.core.pat.CaseTree;
 import org.aya.core.pat.PatMatcher;
 import org.aya.core.sort.LevelSubst;
 import org.aya.core.sort.Sort;
@@ -33,11 +35,35 @@ public interface Unfolder<P> extends TermFixpoint<P> {
     @NotNull SeqLike<Term.@NotNull Param> self,
     @NotNull SeqLike<@NotNull Arg<@NotNull Term>> args
   ) {
+    // The arguments are outside the telescope, so they are substituted simultaneously, see Instantiator
     var subst = new Substituter.TermSubst(MutableMap.create());
-    self.view().zip(args).forEach(t -> subst.add(t._1.ref(), t._2.term()));
+    self.view().zip(args).forEach(t -> subst.map().put(t._1.ref(), t._2.term()));
     return subst;
   }
 
+  /**
+   * @return the body of the function with the arguments substituted and not normalized,
+   * or the body of the clause matching the arguments for the functions with clauses,
+   * null if the call is stuck
+   */
+  static @Nullable Term unfoldOnce(@NotNull CallTerm.Fn fnCall) {
+    var def = fnCall.ref().core;
+    // Not yet type checked
+    if (def == null) return null;
+    var levelSubst = buildSubst(def.levels, fnCall.sortArgs());
+    var body = def.body();
+    if (body.isLeft()) return body.getLeftValue().subst(buildSubst(def.telescope(), fnCall.args()), levelSubst);
+    // Matching looks at the heads of the arguments only
+    var args = fnCall.args().map(arg -> new Arg<>(arg.term().normalize(NormalizeMode.WHNF), arg.explicit()));
+    var match = def.caseTree().match(args);
+    return match != null ? match.clause().body().subst(match.subst(), levelSubst) : null;
+  }
+
+  /** @return false if the reduction about to happen should not, and the term should stay as it is */
+  default boolean step() {
+    return true;
+  }
+
   @Override @NotNull default Term visitConCall(CallTerm.@NotNull Con conCall, P p) {
     var def = conCall.ref().core;
     // Not yet type checked
@@ -47,7 +73,7 @@ public interface Unfolder<P> extends TermFixpoint<P> {
     var levelArgs = conCall.sortArgs();
     var levelSubst = buildSubst(levelParams, levelArgs);
     var dropped = args.drop(conCall.head().dataArgs().size());
-    var volynskaya = tryUnfoldClauses(p, dropped, levelSubst, def.clauses);
+    var volynskaya = tryUnfoldClauses(p, dropped, levelSubst, def.caseTree);
     return volynskaya != null ? volynskaya.data() : new CallTerm.Con(conCall.head(), dropped);
   }
 
@@ -64,12 +90,13 @@ public interface Unfolder<P> extends TermFixpoint<P> {
     if (def == null) return fnCall;
     var args = fnCall.args().map(arg -> visitArg(arg, p));
     var levelSubst = buildSubst(def.levels, fnCall.sortArgs());
-    var body = def.body;
+    var body = def.body();
     if (body.isLeft()) {
+      if (!step()) return new CallTerm.Fn(fnCall.ref(), fnCall.sortArgs(), args);
       var termSubst = checkAndBuildSubst(def.telescope(), args);
       return body.getLeftValue().subst(termSubst, levelSubst).accept(this, p);
     }
-    var volynskaya = tryUnfoldClauses(p, args, levelSubst, body.getRightValue());
+    var volynskaya = tryUnfoldClauses(p, args, levelSubst, def.caseTree());
     return volynskaya != null ? volynskaya.data().accept(this, p) : new CallTerm.Fn(fnCall.ref(), fnCall.sortArgs(), args);
   }
   private @NotNull Substituter.TermSubst
@@ -82,7 +109,9 @@ public interface Unfolder<P> extends TermFixpoint<P> {
   }
 
   @Override @NotNull default Term visitPrimCall(@NotNull CallTerm.Prim prim, P p) {
-    return prim.ref().core.unfold(prim);
+    // The primitives look at their arguments, and the stuck ones keep them
+    var call = TermFixpoint.super.visitPrimCall(prim, p);
+    return call instanceof CallTerm.Prim primCall ? primCall.ref().core.unfold(primCall) : call;
   }
 
   @Override default @NotNull Term visitHole(@NotNull CallTerm.Hole hole, P p) {
@@ -91,7 +120,7 @@ public interface Unfolder<P> extends TermFixpoint<P> {
     var args = hole.fullArgs().map(arg -> visitArg(arg, p)).toImmutableSeq();
     var subst = checkAndBuildSubst(def.fullTelescope(), args);
     var body = def.body;
-    if (body == null) return hole;
+    if (body == null) return TermFixpoint.super.visitHole(hole, p);
     return body.subst(subst).accept(this, p);
   }
 
@@ -110,6 +139,7 @@ public interface Unfolder<P> extends TermFixpoint<P> {
     for (var matchy : clauses) {
       var termSubst = PatMatcher.tryBuildSubstArgs(matchy.patterns(), args);
       if (termSubst != null) {
+        if (!step()) return null;
         subst.add(termSubst);
         var newBody = matchy.body().subst(subst, levelSubst).accept(this, p);
         return new WithPos<>(matchy.sourcePos(), newBody);
@@ -119,6 +149,25 @@ public interface Unfolder<P> extends TermFixpoint<P> {
     return null;
   }
 
+  default @Nullable WithPos<Term> tryUnfoldClauses(
+    P p, SeqLike<Arg<Term>> args, LevelSubst levelSubst, @NotNull CaseTree caseTree
+  ) {
+    return tryUnfoldClauses(p, args, new Substituter.TermSubst(MutableMap.create()), levelSubst, caseTree);
+  }
+
+  default @Nullable WithPos<Term> tryUnfoldClauses(
+    P p, SeqLike<Arg<Term>> args,
+    Substituter.@NotNull TermSubst subst, LevelSubst levelSubst,
+    @NotNull CaseTree caseTree
+  ) {
+    var match = caseTree.match(args);
+    // Unfold failed
+    if (match == null || !step()) return null;
+    subst.add(match.subst());
+    var newBody = match.clause().body().subst(subst, levelSubst).accept(this, p);
+    return new WithPos<>(match.clause().sourcePos(), newBody);
+  }
+
   default @NotNull Term visitAccess(CallTerm.@NotNull Access term, P p) {
     var nevv = term.of().accept(this, p);
     var field = term.ref();
@@ -128,9 +177,9 @@ public interface Unfolder<P> extends TermFixpoint<P> {
       var fieldSubst = checkAndBuildSubst(core.fullTelescope(), args);
       var levelSubst = buildSubst(Def.defLevels(field), term.sortArgs());
       var dropped = args.drop(term.structArgs().size());
-      var mischa = tryUnfoldClauses(p, dropped, fieldSubst, levelSubst, core.clauses);
+      var mischa = tryUnfoldClauses(p, dropped, fieldSubst, levelSubst, core.caseTree);
       return mischa != null ? mischa.data() : new CallTerm.Access(nevv, field,
-        term.sortArgs(), term.structArgs(), dropped);
+        term.sortArgs(), args.take(term.structArgs().size()), dropped);
     }
     var arguments = buildSubst(core.ownerTele, term.structArgs());
     var fieldBody = term.fieldArgs().foldLeft(n.params().get(field), CallTerm::make);
@@ -61,10 +61,13 @@ public interface VarConsumer<P> extends TermConsumer<P> {
   @Contract(mutates = "this,param2") void visitVar(Var usage, P p);
 
   /**
+   * Skips the subterms where the variable does not occur, see {@link Occurrences}.
+   * Visits the terms with an explicit stack, see {@link TermTraversal}.
+   *
    * @author ice1000
    * @see Term#findUsages(Var)
    */
-  final class UsageCounter implements VarConsumer<Unit> {
+  final class UsageCounter implements VarConsumer<Unit>, TermConsumer.Iterative<Unit> {
     public final @NotNull Var var;
     private int usageCount = 0;
 
@@ -79,6 +82,18 @@ public interface VarConsumer<P> extends TermConsumer<P> {
     @Contract(mutates = "this") @Override public void visitVar(Var usage, Unit unit) {
       if (var == usage) usageCount++;
     }
+
+    private boolean skip(@NotNull Term term) {
+      return !Occurrences.mayOccur(term, var);
+    }
+
+    @Override public boolean pre(@NotNull Term term, Unit unit) {
+      if (skip(term)) return false;
+      // The same variables as the visit methods of VarConsumer
+      if (term instanceof RefTerm ref) visitVar(ref.var(), unit);
+      else if (term instanceof CallTerm call && !(call instanceof CallTerm.Access)) visitVar(call.ref(), unit);
+      return !(term instanceof RefTerm);
+    }
   }
 
   final class ScopeChecker implements VarConsumer<Unit> {
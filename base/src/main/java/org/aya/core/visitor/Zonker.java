@@ -37,6 +37,8 @@ public final class Zonker implements TermFixpoint<Unit> {
 
   public @NotNull Term zonk(@NotNull Term term, @Nullable SourcePos pos) {
     term = term.accept(this, Unit.unit());
+    var interner = tycker.session.interner();
+    if (interner != null) term = interner.intern(term);
     var eqns = tycker.levelEqns.eqns();
     if (eqns.isNotEmpty() && !reported) {
       // There are level errors, but not reported since all levels are solved
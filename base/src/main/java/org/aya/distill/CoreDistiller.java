@@ -81,7 +81,11 @@ public record CoreDistiller(@NotNull DistillerOptions options) implements
   }
 
   @Override public Doc visitApp(@NotNull ElimTerm.App term, Boolean nestedCall) {
-    return visitCalls(term.of(), term.arg(), nestedCall);
+    var spine = Buffer.<Arg<Term>>create();
+    var doc = term.spine(spine).accept(this, false);
+    for (int i = 0, last = spine.size() - 1; i <= last; i++)
+      doc = visitCalls(doc, Seq.of(spine.get(i)), (nest, t) -> t.accept(this, nest), i == last && nestedCall);
+    return doc;
   }
 
   @Override public Doc visitFnCall(@NotNull CallTerm.Fn fnCall, Boolean nestedCall) {
@@ -109,6 +113,10 @@ public record CoreDistiller(@NotNull DistillerOptions options) implements
       .map(t -> t.accept(this, false))));
   }
 
+  @Override public Doc visitNatLit(@NotNull IntroTerm.NatLit term, Boolean nestedCall) {
+    return Doc.plain(term.value().toString());
+  }
+
   @Override public Doc visitNew(@NotNull IntroTerm.New newTerm, Boolean aBoolean) {
     return Doc.sep(
       Doc.styled(KEYWORD, "new"),
@@ -153,11 +161,6 @@ public record CoreDistiller(@NotNull DistillerOptions options) implements
     return !term.isReallyError() ? doc : Doc.angled(doc);
   }
 
-  private Doc visitCalls(@NotNull Term fn, @NotNull Arg<@NotNull Term> arg, boolean nestedCall) {
-    return visitCalls(fn.accept(this, false), Seq.of(arg),
-      (nest, term) -> term.accept(this, nest), nestedCall);
-  }
-
   private Doc visitCalls(
     @NotNull DefVar<?, ?> fn, @NotNull Style style,
     @NotNull SeqLike<@NotNull Arg<@NotNull Term>> args,
@@ -206,7 +209,7 @@ public record CoreDistiller(@NotNull DistillerOptions options) implements
       visitTele(def.telescope()),
       Doc.symbol(":"),
       def.result().accept(this, false));
-    return def.body.fold(
+    return def.body().fold(
       term -> Doc.sep(Doc.sepNonEmpty(line1), Doc.symbol("=>"), term.accept(this, false)),
       clauses -> Doc.vcat(Doc.sepNonEmpty(line1), Doc.nest(2, visitClauses(clauses))));
   }
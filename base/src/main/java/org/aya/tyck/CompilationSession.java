@@ -0,0 +1,82 @@
+// Copyright (c) 2020-2021 Yinsen (Tesla) Zhang.
+// Use of this source code is governed by the GNU GPLv3 license that can be found in the LICENSE file.
+package org.aya.tyck;
+
+import kala.collection.Seq;
+import kala.collection.mutable.MutableMap;
+import org.aya.api.error.SourcePos;
+import org.aya.api.ref.DefVar;
+import org.aya.api.ref.LocalVar;
+import org.aya.core.def.PrimDef;
+import org.aya.core.visitor.TermInterner;
+import org.aya.tyck.unify.ConvCache;
+import org.aya.tyck.unify.EqnSet;
+import org.aya.tyck.unify.WhnfCache;
+import org.aya.util.Constants;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * The state shared by the modules compiled together.
+ * Sessions are independent of each other, so they can be used in parallel in one JVM.
+ *
+ * @param primFactory       the primitives, which are unique within a session
+ * @param defCache          the definitions loaded from compiled cores, see {@link org.aya.core.serde.SerTerm.DeState}
+ * @param noRandomName      use {@link Constants#ANONYMOUS_PREFIX} for generated names, for stable test outputs
+ * @param whnfCacheCapacity the size of the {@link WhnfCache} of each tycker, 0 to disable it
+ * @param convCacheCapacity the size of the {@link ConvCache} of each tycker, 0 to disable it
+ * @param whnfStats         the hits and misses of the WHNF caches
+ * @param convStats         the hits and misses of the conversion caches
+ * @param eqnStats          the equations postponed and woken up while tycking, see {@link EqnSet}
+ * @param interner          shares the syntactically equal terms of the tycked definitions, <code>null</code> to disable it
+ */
+public record CompilationSession(
+  @NotNull PrimDef.Factory primFactory,
+  @NotNull MutableMap<Seq<String>, MutableMap<String, DefVar<?, ?>>> defCache,
+  boolean noRandomName,
+  int whnfCacheCapacity,
+  int convCacheCapacity,
+  @NotNull WhnfCache.Stats whnfStats,
+  @NotNull ConvCache.Stats convStats,
+  @NotNull EqnSet.Stats eqnStats,
+  @Nullable TermInterner interner
+) {
+  public CompilationSession() {
+    this(false);
+  }
+
+  public CompilationSession(boolean noRandomName) {
+    this(noRandomName, 0, 0, false);
+  }
+
+  public CompilationSession(boolean noRandomName, int whnfCacheCapacity, int convCacheCapacity, boolean intern) {
+    this(new PrimDef.Factory(), MutableMap.create(), noRandomName, whnfCacheCapacity, convCacheCapacity,
+      new WhnfCache.Stats(), new ConvCache.Stats(), new EqnSet.Stats(), intern ? new TermInterner() : null);
+  }
+
+  /**
+   * @return a session sharing everything with this one but the primitives declared in the file,
+   * the primitives of this session (loaded from compiled cores) are still visible
+   */
+  public @NotNull CompilationSession forFile() {
+    return new CompilationSession(new PrimDef.Factory(primFactory), defCache, noRandomName,
+      whnfCacheCapacity, convCacheCapacity, whnfStats, convStats, eqnStats, interner);
+  }
+
+  public @Nullable WhnfCache newWhnfCache() {
+    return whnfCacheCapacity > 0 ? new WhnfCache(whnfCacheCapacity, whnfStats) : null;
+  }
+
+  public @Nullable ConvCache newConvCache() {
+    return convCacheCapacity > 0 ? new ConvCache(convCacheCapacity, convStats) : null;
+  }
+
+  public @NotNull LocalVar randomlyNamed(@NotNull SourcePos pos) {
+    return new LocalVar(randomName(pos), pos);
+  }
+
+  public @NotNull String randomName(@NotNull Object pos) {
+    if (noRandomName) return Constants.ANONYMOUS_PREFIX;
+    return Constants.ANONYMOUS_PREFIX + Math.abs(pos.hashCode()) % 10;
+  }
+}
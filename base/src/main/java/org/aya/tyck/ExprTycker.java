@@ -29,6 +29,7 @@ import org.aya.core.def.*;
 import org.aya.core.sort.LevelSubst;
 import org.aya.core.sort.Sort;
 import org.aya.core.term.*;
+import org.aya.core.visitor.Instantiator;
 import org.aya.core.visitor.Substituter;
 import org.aya.core.visitor.Unfolder;
 import org.aya.generic.Level;
@@ -37,6 +38,8 @@ import org.aya.tyck.error.*;
 import org.aya.tyck.trace.Trace;
 import org.aya.tyck.unify.DefEq;
 import org.aya.tyck.unify.EqnSet;
+import org.aya.tyck.unify.ConvCache;
+import org.aya.tyck.unify.WhnfCache;
 import org.aya.tyck.unify.level.LevelEqnSet;
 import org.aya.util.Constants;
 import org.aya.util.Ordering;
@@ -44,9 +47,9 @@ import org.jetbrains.annotations.Contract;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.math.BigInteger;
 import java.util.LinkedHashMap;
 import java.util.Objects;
-import java.util.function.Consumer;
 
 import static org.aya.util.Constants.ANONYMOUS_PREFIX;
 
@@ -56,18 +59,17 @@ import static org.aya.util.Constants.ANONYMOUS_PREFIX;
  * and do <em>not</em> reuse instances of this class in the tycking of multiple {@link Decl}s.
  */
 public final class ExprTycker {
+  public final @NotNull CompilationSession session;
   public final @NotNull Reporter reporter;
   public @NotNull LocalCtx localCtx = new LocalCtx();
   public final @Nullable Trace.Builder traceBuilder;
   public final @NotNull LevelEqnSet levelEqns = new LevelEqnSet();
-  public final @NotNull EqnSet termEqns = new EqnSet();
+  public final @NotNull EqnSet termEqns;
+  public final @Nullable WhnfCache whnfCache;
+  public final @Nullable ConvCache convCache;
   public final @NotNull Sort.LvlVar universe = new Sort.LvlVar("u", null);
   public final @NotNull MutableMap<PreLevelVar, Sort.LvlVar> levelMapping = MutableMap.wrapJava(new LinkedHashMap<>());
 
-  private void tracing(@NotNull Consumer<Trace.@NotNull Builder> consumer) {
-    if (traceBuilder != null) consumer.accept(traceBuilder);
-  }
-
   private @NotNull Result doSynthesize(@NotNull Expr expr) {
     return switch (expr) {
       case Expr.LamExpr lam -> inherit(lam, generatePi(lam));
@@ -87,7 +89,7 @@ public final class ExprTycker {
       case Expr.SigmaExpr sigma -> inherit(sigma, FormTerm.Univ.OMEGA);
       case Expr.NewExpr newExpr -> {
         var struct = synthesize(newExpr.struct()).wellTyped;
-        while (struct.normalize(NormalizeMode.WHNF) instanceof IntroTerm.Lambda intro && !intro.param().explicit()) {
+        while (whnf(struct) instanceof IntroTerm.Lambda intro && !intro.param().explicit()) {
           var holeApp = mockTerm(intro.param(), newExpr.struct().sourcePos());
           struct = CallTerm.make(intro, new Arg<>(holeApp, false));
         }
@@ -114,7 +116,8 @@ public final class ExprTycker {
               // use default value from defField
               var field = defField.body.get().subst(subst, levelSubst);
               fields.append(Tuple.of(defField.ref(), field));
-              subst.add(defField.ref(), field);
+              // The values do not refer to the fields, so the substitution is not composed
+              subst.map().put(defField.ref(), field);
             }
             continue;
           }
@@ -131,7 +134,7 @@ public final class ExprTycker {
             new Expr.LamExpr(conField.body().sourcePos(), new Expr.Param(pair._1.sourcePos(), pair._1.data(), pair._2.explicit()), lamExpr));
           var field = inherit(fieldExpr, type).wellTyped;
           fields.append(Tuple.of(defField.ref(), field));
-          subst.add(defField.ref(), field);
+          subst.map().put(defField.ref(), field);
         }
 
         if (missing.isNotEmpty())
@@ -143,7 +146,7 @@ public final class ExprTycker {
       case Expr.ProjExpr proj -> {
         var struct = proj.tup();
         var projectee = synthesize(struct);
-        var whnf = projectee.type.normalize(NormalizeMode.WHNF);
+        var whnf = whnf(projectee.type);
         yield proj.ix().fold(ix -> {
             if (!(whnf instanceof FormTerm.Sigma sigma))
               return fail(struct, whnf, BadTypeError.sigmaAcc(struct, ix, whnf));
@@ -195,7 +198,7 @@ public final class ExprTycker {
           univArgs(app, univArgs);
           yield f;
         }
-        if (!(f.type.normalize(NormalizeMode.WHNF) instanceof FormTerm.Pi piTerm))
+        if (!(whnf(f.type) instanceof FormTerm.Pi piTerm))
           yield fail(appE, f.type, BadTypeError.pi(appE, f.type));
         var pi = piTerm;
         var subst = new Substituter.TermSubst(MutableMap.create());
@@ -218,7 +221,7 @@ public final class ExprTycker {
         yield new Result(app, subst.isEmpty() ? pi : pi.body().subst(subst));
       }
       case Expr.HoleExpr hole -> inherit(hole, localCtx.freshHole(
-        FormTerm.Univ.OMEGA, Constants.randomName(hole), expr.sourcePos())._2);
+        FormTerm.Univ.OMEGA, session.randomName(hole), expr.sourcePos())._2);
       default -> new Result(ErrorTerm.unexpected(expr), new ErrorTerm($ -> Doc.english("no rule"), false));
     };
   }
@@ -242,42 +245,43 @@ public final class ExprTycker {
       case Expr.TupExpr tuple -> {
         var items = Buffer.<Term>create();
         var resultTele = Buffer.<Term.@NotNull Param>create();
-        var typeWHNF = term.normalize(NormalizeMode.WHNF);
+        var typeWHNF = whnf(term);
         if (typeWHNF instanceof CallTerm.Hole hole) yield unifyTyMaybeInsert(hole, synthesize(tuple), tuple);
         if (!(typeWHNF instanceof FormTerm.Sigma dt))
           yield fail(tuple, term, BadTypeError.sigmaCon(tuple, term));
-        var againstTele = dt.params().view();
-        var last = dt.params().last().type();
+        var againstTele = new Instantiator(dt.params(), LevelSubst.EMPTY);
         for (var iter = tuple.items().iterator(); iter.hasNext(); ) {
           var item = iter.next();
-          var result = inherit(item, againstTele.first().type());
+          var against = againstTele.next();
+          var result = inherit(item, against.type());
           items.append(result.wellTyped);
-          var ref = againstTele.first().ref();
-          resultTele.append(new Term.Param(ref, result.type, againstTele.first().explicit()));
-          againstTele = againstTele.drop(1);
-          if (againstTele.isNotEmpty()) {
-            var subst = new Substituter.TermSubst(ref, result.wellTyped);
-            againstTele = againstTele.map(param -> param.subst(subst)).toSeq().view();
-            last = last.subst(subst);
-          } else {
+          resultTele.append(new Term.Param(against.ref(), result.type, against.explicit()));
+          againstTele.supply(result.wellTyped);
+          if (!againstTele.hasNext()) {
             if (iter.hasNext()) {
               // TODO[ice]: too few tuple elements
               throw new TyckerException();
-            } else items.append(inherit(item, last).wellTyped);
+            } else items.append(inherit(item, against.type()).wellTyped);
           }
         }
         var resTy = new FormTerm.Sigma(resultTele.toImmutableSeq());
         yield new Result(new IntroTerm.Tuple(items.toImmutableSeq()), resTy);
       }
+      case Expr.LitIntExpr lit -> {
+        if (!(whnf(term) instanceof CallTerm.Data dataCall)
+          || dataCall.ref().core == null || dataCall.ref().core.natShape == null)
+          yield fail(lit, term, BadTypeError.natLit(lit, term));
+        yield new Result(new IntroTerm.NatLit(BigInteger.valueOf(lit.integer()), dataCall), term);
+      }
       case Expr.HoleExpr hole -> {
         // TODO[ice]: deal with unit type
-        var freshHole = localCtx.freshHole(term, Constants.randomName(hole), hole.sourcePos());
+        var freshHole = localCtx.freshHole(term, session.randomName(hole), hole.sourcePos());
         if (hole.explicit()) reporter.report(new Goal(freshHole._1, hole.accessibleLocal().value));
         yield new Result(freshHole._2, term);
       }
       case Expr.UnivExpr univExpr -> {
         var sort = transformLevel(univExpr.level());
-        var normTerm = term.normalize(NormalizeMode.WHNF);
+        var normTerm = whnf(term);
         if (normTerm instanceof FormTerm.Univ univ) {
           levelEqns.add(sort.lift(1), univ.sort(), Ordering.Lt, univExpr.sourcePos());
           yield new Result(new FormTerm.Univ(sort), univ);
@@ -289,7 +293,7 @@ public final class ExprTycker {
       }
       case Expr.LamExpr lam -> {
         if (term instanceof CallTerm.Hole) unifyTy(term, generatePi(lam), lam.sourcePos());
-        if (!(term.normalize(NormalizeMode.WHNF) instanceof FormTerm.Pi dt)) {
+        if (!(whnf(term) instanceof FormTerm.Pi dt)) {
           yield fail(lam, term, BadTypeError.pi(lam, term));
         }
         var param = lam.param();
@@ -340,9 +344,7 @@ public final class ExprTycker {
           localCtx.put(ref, result.wellTyped);
           resultTele.append(Tuple.of(ref, tuple.explicit(), result.wellTyped));
         });
-        sigma.params().view()
-          .map(Expr.Param::ref)
-          .forEach(localCtx.localMap()::remove);
+        localCtx.remove(sigma.params().view().map(Expr.Param::ref));
         yield new Result(new FormTerm.Sigma(Term.Param.fromBuffer(resultTele)), term);
       }
       default -> unifyTyMaybeInsert(term, synthesize(expr), expr);
@@ -357,10 +359,10 @@ public final class ExprTycker {
   }
 
   private void traceExit(Result result, @NotNull Expr expr) {
-    tracing(builder -> {
-      builder.append(new Trace.TyckT(result.wellTyped.freezeHoles(levelEqns), result.type.freezeHoles(levelEqns), expr.sourcePos()));
-      builder.reduce();
-    });
+    if (traceBuilder != null) {
+      traceBuilder.append(new Trace.TyckT(result.wellTyped.freezeHoles(levelEqns), result.type.freezeHoles(levelEqns), expr.sourcePos()));
+      traceBuilder.reduce();
+    }
     // assert validate(result.wellTyped);
     // assert validate(result.type);
     if (expr instanceof Expr.WithTerm withTerm) withTerm.theCore().set(result.wellTyped);
@@ -383,19 +385,27 @@ public final class ExprTycker {
   }
   */
 
-  public ExprTycker(@NotNull Reporter reporter, Trace.@Nullable Builder traceBuilder) {
+  public ExprTycker(@NotNull CompilationSession session, @NotNull Reporter reporter, Trace.@Nullable Builder traceBuilder) {
+    this.session = session;
     this.reporter = reporter;
     this.traceBuilder = traceBuilder;
+    this.termEqns = new EqnSet(session.eqnStats());
+    this.whnfCache = session.newWhnfCache();
+    this.convCache = session.newConvCache();
+  }
+
+  public @NotNull Term whnf(@NotNull Term term) {
+    return whnfCache != null ? whnfCache.whnf(term) : term.normalize(NormalizeMode.WHNF);
   }
 
   public void solveMetas() {
-    while (termEqns.eqns().isNotEmpty()) {
+    while (!termEqns.eqns().isEmpty()) {
       //noinspection StatementWithEmptyBody
-      while (termEqns.simplify(levelEqns, reporter, traceBuilder)) ;
+      while (termEqns.simplify(levelEqns, whnfCache, convCache, reporter, traceBuilder)) ;
       // If the standard 'pattern' fragment cannot solve all equations, try to use a nonstandard method
-      var eqns = termEqns.eqns().toImmutableSeq();
+      var eqns = ImmutableSeq.from(termEqns.eqns());
       if (eqns.isNotEmpty()) {
-        for (var eqn : eqns) termEqns.solveEqn(levelEqns, reporter, traceBuilder, eqn, true);
+        for (var eqn : eqns) termEqns.solveEqn(levelEqns, whnfCache, convCache, reporter, traceBuilder, eqn, true);
         reporter.report(new HoleProblem.CannotFindGeneralSolution(eqns));
       }
     }
@@ -403,7 +413,7 @@ public final class ExprTycker {
   }
 
   public @NotNull Result inherit(@NotNull Expr expr, @NotNull Term type) {
-    tracing(builder -> builder.shift(new Trace.ExprT(expr, type.freezeHoles(levelEqns))));
+    if (traceBuilder != null) traceBuilder.shift(new Trace.ExprT(expr, type.freezeHoles(levelEqns)));
     Result result;
     if (type instanceof FormTerm.Pi pi && needImplicitParamIns(expr, pi)) {
       var implicitParam = new Term.Param(new LocalVar(ANONYMOUS_PREFIX), pi.param().type(), false);
@@ -416,7 +426,7 @@ public final class ExprTycker {
   }
 
   public @NotNull Result synthesize(@NotNull Expr expr) {
-    tracing(builder -> builder.shift(new Trace.ExprT(expr, null)));
+    if (traceBuilder != null) traceBuilder.shift(new Trace.ExprT(expr, null));
     var res = doSynthesize(expr);
     traceExit(res, expr);
     return res;
@@ -523,12 +533,12 @@ public final class ExprTycker {
   }
 
   private boolean unifyTy(@NotNull Term upper, @NotNull Term lower, @NotNull SourcePos pos) {
-    tracing(builder -> builder.append(new Trace.UnifyT(lower, upper, pos)));
+    if (traceBuilder != null) traceBuilder.append(new Trace.UnifyT(lower, upper, pos));
     return unifier(pos, Ordering.Lt).compare(lower, upper, FormTerm.Univ.OMEGA);
   }
 
   public @NotNull DefEq unifier(@NotNull SourcePos pos, @NotNull Ordering ord) {
-    return new DefEq(ord, reporter, false, levelEqns, termEqns, traceBuilder, pos);
+    return new DefEq(ord, reporter, false, levelEqns, termEqns, whnfCache, convCache, traceBuilder, pos);
   }
 
   /**
@@ -552,7 +562,7 @@ public final class ExprTycker {
   private Result unifyTyMaybeInsert(@NotNull Term upper, @NotNull Result result, Expr loc) {
     var lower = result.type;
     var term = result.wellTyped;
-    while (lower.normalize(NormalizeMode.WHNF) instanceof FormTerm.Pi pi && !pi.param().explicit()) {
+    while (whnf(lower) instanceof FormTerm.Pi pi && !pi.param().explicit()) {
       var mock = mockTerm(pi.param(), loc.sourcePos());
       term = CallTerm.make(term, new Arg<>(mock, false));
       lower = pi.substBody(mock);
@@ -571,7 +581,7 @@ public final class ExprTycker {
   private Either<FormTerm.Pi, Term>
   instPi(@NotNull FormTerm.Pi pi, Substituter.TermSubst subst, @NotNull Term arg) {
     subst.add(pi.param().ref(), arg);
-    var term = pi.body().subst(subst).normalize(NormalizeMode.WHNF);
+    var term = whnf(pi.body().subst(subst));
     return term instanceof FormTerm.Pi pai ? Either.left(pai) : Either.right(term);
   }
 
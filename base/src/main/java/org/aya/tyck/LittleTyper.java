@@ -97,6 +97,10 @@ public final class LittleTyper implements Term.Visitor<Unit, Term> {
       new Term.Param(Constants.anonymous(), item.accept(this, Unit.unit()), true)));
   }
 
+  @Override public Term visitNatLit(IntroTerm.@NotNull NatLit term, Unit unit) {
+    return term.type();
+  }
+
   @Override public Term visitNew(IntroTerm.@NotNull New newTerm, Unit unit) {
     return newTerm.struct();
   }
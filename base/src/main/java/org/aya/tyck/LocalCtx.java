@@ -2,13 +2,15 @@
 // Use of this source code is governed by the GNU GPLv3 license that can be found in the LICENSE file.
 package org.aya.tyck;
 
+import kala.collection.SeqView;
 import kala.collection.immutable.ImmutableSeq;
-import kala.collection.mutable.Buffer;
+import kala.collection.immutable.ImmutableVector;
 import kala.collection.mutable.MutableMap;
 import kala.tuple.Tuple2;
 import org.aya.api.error.SourcePos;
 import org.aya.api.ref.HoleVar;
 import org.aya.api.ref.LocalVar;
+import org.aya.api.util.Arg;
 import org.aya.core.Meta;
 import org.aya.core.term.CallTerm;
 import org.aya.core.term.IntroTerm;
@@ -19,17 +21,41 @@ import org.jetbrains.annotations.Debug;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
-import java.util.LinkedHashMap;
+import java.util.HashMap;
 import java.util.function.Supplier;
 
 /**
+ * The typing context, as a persistent vector of the local variables indexed by their levels,
+ * outer scopes first. A derived scope starts with the vector of its parent and only appends to it,
+ * so the telescope of a new meta is the current vector itself, shared with the previous metas
+ * instead of copied.
+ *
  * @author re-xyr, ice1000
  */
 @Debug.Renderer(hasChildren = "true", childrenArray = "extract().toArray()")
-public record LocalCtx(@NotNull MutableMap<LocalVar, Term> localMap, @Nullable LocalCtx parent) {
+public final class LocalCtx {
+  private final @NotNull MutableMap<LocalVar, Integer> levels = MutableMap.wrapJava(new HashMap<>());
+  private final @Nullable LocalCtx parent;
+  private @NotNull ImmutableSeq<Term.Param> tele;
+  /** The variables in {@link #tele} as arguments, for the holes */
+  private @NotNull ImmutableSeq<Arg<Term>> args;
+
   public LocalCtx() {
-    // See https://github.com/Glavo/kala-common/issues/41
-    this(MutableMap.wrapJava(new LinkedHashMap<>()), null);
+    this(null, ImmutableVector.empty(), ImmutableVector.empty());
+  }
+
+  private LocalCtx(
+    @Nullable LocalCtx parent,
+    @NotNull ImmutableSeq<Term.Param> tele,
+    @NotNull ImmutableSeq<Arg<Term>> args
+  ) {
+    this.parent = parent;
+    this.tele = tele;
+    this.args = args;
+  }
+
+  public @Nullable LocalCtx parent() {
+    return parent;
   }
 
   public @NotNull Tuple2<CallTerm.Hole, Term> freshHole(@NotNull Term type, @NotNull SourcePos sourcePos) {
@@ -37,10 +63,9 @@ public record LocalCtx(@NotNull MutableMap<LocalVar, Term> localMap, @Nullable L
   }
 
   public @NotNull Tuple2<CallTerm.Hole, Term> freshHole(@NotNull Term type, @NotNull String name, @NotNull SourcePos sourcePos) {
-    var ctxTele = extract();
-    var meta = Meta.from(ctxTele, type, sourcePos);
+    var meta = Meta.from(tele, type, sourcePos);
     var ref = new HoleVar<>(name, meta);
-    var hole = new CallTerm.Hole(ref, ctxTele.map(Term.Param::toArg), meta.telescope.map(Term.Param::toArg));
+    var hole = new CallTerm.Hole(ref, args, meta.telescope.map(Term.Param::toArg));
     return Tuple2.of(hole, IntroTerm.Lambda.make(meta.telescope, hole));
   }
 
@@ -49,35 +74,49 @@ public record LocalCtx(@NotNull MutableMap<LocalVar, Term> localMap, @Nullable L
   }
 
   public <T> T with(@NotNull ImmutableSeq<Term.Param> params, @NotNull Supplier<T> action) {
-    for (var param : params) localMap.put(param.ref(), param.type());
+    var savedTele = tele;
+    var savedArgs = args;
+    for (var param : params) put(param.ref(), param.type());
     try {
       return action.get();
     } finally {
-      for (var param : params) localMap.remove(param.ref());
+      restore(savedTele, savedArgs);
     }
   }
 
   public <T> T with(@NotNull LocalVar var, @NotNull Term type, @NotNull Supplier<T> action) {
-    localMap.put(var, type);
+    var savedTele = tele;
+    var savedArgs = args;
+    put(var, type);
     try {
       return action.get();
     } finally {
-      localMap.remove(var);
+      restore(savedTele, savedArgs);
     }
   }
 
-  public @NotNull ImmutableSeq<Term.Param> extract() {
-    var ctx = Buffer.<Term.Param>create();
-    var map = this;
-    while (map != null) {
-      map.localMap.mapTo(ctx, (k, v) -> new Term.Param(k, v, false));
-      map = map.parent;
+  /**
+   * Goes back to a previous state of this scope. The variables at the levels added since are forgotten,
+   * including the ones the action put, and the outer variables given a new type get their old type back.
+   */
+  private void restore(@NotNull ImmutableSeq<Term.Param> savedTele, @NotNull ImmutableSeq<Arg<Term>> savedArgs) {
+    // The levels always index the current vector, so the newer ones are those past the saved size
+    for (var param : tele.view().drop(savedTele.size())) {
+      var level = levels.getOrNull(param.ref());
+      if (level != null && level >= savedTele.size()) levels.remove(param.ref());
     }
-    return ctx.toImmutableSeq();
+    tele = savedTele;
+    args = savedArgs;
+  }
+
+  /** @return the whole context, outer scopes first, which is not copied */
+  public @NotNull ImmutableSeq<Term.Param> extract() {
+    return tele;
   }
 
   @Contract(pure = true) public @NotNull Term get(LocalVar var) {
-    var result = localMap.getOrElse(var, () -> parentGet(var));
+    var level = levels.getOrNull(var);
+    var result = level != null ? tele.get(level).type() : parentGet(var);
     assert result != null : var.name();
     return result;
   }
@@ -87,15 +126,43 @@ public record LocalCtx(@NotNull MutableMap<LocalVar, Term> localMap, @Nullable L
   }
 
   public void put(@NotNull LocalVar var, @NotNull Term term) {
-    localMap.set(var, term);
+    var param = new Term.Param(var, term, false);
+    var level = levels.getOrNull(var);
+    if (level != null) {
+      tele = tele.updated(level, param);
+      args = args.updated(level, param.toArg());
+    } else {
+      levels.set(var, tele.size());
+      tele = tele.appended(param);
+      args = args.appended(param.toArg());
+    }
+  }
+
+  /** Removes the variables from this scope, cheap if they are the last ones added */
+  public void remove(@NotNull SeqView<LocalVar> vars) {
+    var from = tele.size();
+    for (var var : vars) {
+      var level = levels.getOrNull(var);
+      if (level == null) continue;
+      levels.remove(var);
+      from = Math.min(from, level);
+    }
+    if (from == tele.size()) return;
+    var rest = tele.view().drop(from).filter(param -> levels.containsKey(param.ref())).toImmutableSeq();
+    tele = tele.take(from);
+    args = args.take(from);
+    for (var param : rest) {
+      levels.remove(param.ref());
+      put(param.ref(), param.type());
+    }
   }
 
   public boolean isEmpty() {
-    return localMap.isEmpty() && (parent == null || parent.isEmpty());
+    return tele.isEmpty();
   }
 
   @Contract(" -> new") public @NotNull LocalCtx derive() {
-    return new LocalCtx(MutableMap.wrapJava(new LinkedHashMap<>()), this);
+    return new LocalCtx(this, tele, args);
   }
 
   public boolean isNotEmpty() {
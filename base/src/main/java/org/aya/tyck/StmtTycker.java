@@ -20,11 +20,14 @@ import org.aya.core.pat.Pat;
 import org.aya.core.sort.LevelSubst;
 import org.aya.core.sort.Sort;
 import org.aya.core.term.CallTerm;
+import org.aya.core.term.ErrorTerm;
 import org.aya.core.term.FormTerm;
 import org.aya.core.term.Term;
 import org.aya.core.visitor.Substituter;
 import org.aya.generic.GenericBuilder;
 import org.aya.generic.Level;
+import org.aya.tyck.error.BadTypeError;
+import org.aya.tyck.error.PrimProblem;
 import org.aya.tyck.pat.Conquer;
 import org.aya.tyck.pat.PatClassifier;
 import org.aya.tyck.pat.PatTycker;
@@ -41,11 +44,12 @@ import java.util.function.Consumer;
  * of expr tyckers.
  */
 public record StmtTycker(
+  @NotNull CompilationSession session,
   @NotNull Reporter reporter,
   Trace.@Nullable Builder traceBuilder
 ) implements Decl.Visitor<ExprTycker, Def> {
   public @NotNull ExprTycker newTycker() {
-    return new ExprTycker(reporter, traceBuilder);
+    return new ExprTycker(session, reporter, traceBuilder);
   }
 
   private void tracing(@NotNull Consumer<Trace.@NotNull Builder> consumer) {
@@ -53,12 +57,12 @@ public record StmtTycker(
   }
 
   @Override public void traceEntrance(@NotNull Signatured sig, ExprTycker tycker) {
-    tracing(builder -> builder.shift(new Trace.DeclT(sig.ref(), sig.sourcePos)));
+    if (traceBuilder != null) traceBuilder.shift(new Trace.DeclT(sig.ref(), sig.sourcePos));
     tycker.localCtx = tycker.localCtx.derive();
   }
 
   @Override public void traceExit(ExprTycker tycker, Def def) {
-    tracing(Trace.Builder::reduce);
+    if (traceBuilder != null) traceBuilder.reduce();
     var parent = tycker.localCtx.parent();
     assert parent != null;
     tycker.localCtx = parent;
@@ -79,10 +83,13 @@ public record StmtTycker(
       var levels = tycker.extractLevels();
       for (var lvl : core.levels.zip(levels))
         levelSubst.solution().put(lvl._1, new Sort(new Level.Reference<>(lvl._2)));
-      var target = FormTerm.Pi.make(core.telescope(), core.result())
-        .subst(Substituter.TermSubst.EMPTY, levelSubst);
+      var target = core.factory.natArith(core) ? natArithType(tycker, core, result, decl.result)
+        : FormTerm.Pi.make(core.telescope(), core.result()).subst(Substituter.TermSubst.EMPTY, levelSubst);
       tycker.unifyTyReported(FormTerm.Pi.make(tele, result), target, decl.result);
       decl.signature = new Def.Signature(levels, tele, result);
+    } else if (core.factory.natArith(core)) {
+      reporter.report(new PrimProblem.NoNatSignatureError(decl.sourcePos, decl.ref));
+      decl.signature = new Def.Signature(ImmutableSeq.empty(), core.telescope(), core.result());
     } else if (decl.result != null) {
       var result = tycker.synthesize(decl.result).wellTyped();
       tycker.unifyTyReported(result, core.result(), decl.result);
@@ -91,6 +98,17 @@ public record StmtTycker(
     return core;
   }
 
+  /** Naturals are user-defined, so the arithmetic primitives are typed by the naturals in their result */
+  private @NotNull Term natArithType(@NotNull ExprTycker tycker, @NotNull PrimDef core, @NotNull Term nat, @NotNull Expr loc) {
+    if (!(tycker.whnf(nat) instanceof CallTerm.Data dataCall)
+      || dataCall.ref().core == null || dataCall.ref().core.natShape == null) {
+      reporter.report(BadTypeError.natPrim(loc, nat));
+      return new ErrorTerm(nat);
+    }
+    return FormTerm.Pi.make(core.telescope.map(param ->
+      new Term.Param(param.ref(), dataCall, param.explicit())), dataCall);
+  }
+
   @Override public CtorDef visitCtor(Decl.@NotNull DataCtor ctor, ExprTycker tycker) {
     var dataRef = ctor.dataRef;
     var dataSig = dataRef.concrete.signature;
@@ -184,7 +202,7 @@ public record StmtTycker(
     tracing(GenericBuilder::reduce);
     decl.signature = new Def.Signature(tycker.extractLevels(), resultTele, resultRes);
     var factory = FnDef.factory((resultTy, body) ->
-      new FnDef(decl.ref, resultTele, decl.signature.sortParam(), resultTy, body));
+      new FnDef(decl.ref, resultTele, decl.signature.sortParam(), resultTy, FnDef.height(decl.ref, body), body));
     return decl.body.fold(
       body -> {
         var result = tycker.zonk(body, tycker.inherit(body, resultRes));
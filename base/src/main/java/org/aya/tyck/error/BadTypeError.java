@@ -49,6 +49,20 @@ public record BadTypeError(
       Doc.english("Sigma type"));
   }
 
+  public static @NotNull BadTypeError natLit(@NotNull Expr expr, @NotNull Term actualType) {
+    return new BadTypeError(expr, actualType,
+      Doc.sep(Doc.plain("construct")),
+      Doc.english("you checks it against"),
+      Doc.english("natural number type"));
+  }
+
+  public static @NotNull BadTypeError natPrim(@NotNull Expr expr, @NotNull Term actualType) {
+    return new BadTypeError(expr, actualType,
+      Doc.english("declare an arithmetic primitive returning"),
+      Doc.english("it refers to"),
+      Doc.english("natural number type"));
+  }
+
   public static @NotNull BadTypeError structAcc(@NotNull Expr expr, @NotNull String fieldName, @NotNull Term actualType) {
     return new BadTypeError(expr, actualType,
       Doc.sep(Doc.english("access field"), Doc.styled(Style.code(), Doc.plain(fieldName)), Doc.plain("of")),
@@ -90,6 +90,35 @@ public sealed interface PatternProblem extends Problem {
     }
   }
 
+  record NumberNonNat(@Override @NotNull Pattern.Number pattern, @NotNull Term type) implements PatternProblem {
+    @Override public @NotNull Doc describe() {
+      return Doc.vcat(
+        Doc.english("The number pattern"),
+        Doc.par(1, pattern.toDoc(DistillerOptions.DEFAULT)),
+        Doc.english("splits only on natural number types, while the actual type"),
+        Doc.par(1, type.freezeHoles(null).toDoc(DistillerOptions.DEFAULT)),
+        Doc.english("does not look like one"));
+    }
+
+    @Override public @NotNull Severity level() {
+      return Severity.ERROR;
+    }
+  }
+
+  record NumberTooLarge(@Override @NotNull Pattern.Number pattern, int limit) implements PatternProblem {
+    @Override public @NotNull Doc describe() {
+      return Doc.vcat(
+        Doc.english("The number pattern"),
+        Doc.par(1, pattern.toDoc(DistillerOptions.DEFAULT)),
+        Doc.sep(Doc.english("is larger than"), Doc.plain(limit + ","),
+          Doc.english("consider matching on the constructors and computing the rest")));
+    }
+
+    @Override public @NotNull Severity level() {
+      return Severity.ERROR;
+    }
+  }
+
   record TooManyPattern(@Override @NotNull Pattern pattern, @NotNull Term retTy) implements PatternProblem {
     @Override public @NotNull Doc describe() {
       return Doc.vcat(
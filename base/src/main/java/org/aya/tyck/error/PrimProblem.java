@@ -0,0 +1,26 @@
+// Copyright (c) 2020-2021 Yinsen (Tesla) Zhang.
+// Use of this source code is governed by the GNU GPLv3 license that can be found in the LICENSE file.
+package org.aya.tyck.error;
+
+import org.aya.api.error.Problem;
+import org.aya.api.error.SourcePos;
+import org.aya.api.ref.Var;
+import org.aya.distill.BaseDistiller;
+import org.aya.pretty.doc.Doc;
+import org.aya.pretty.doc.Style;
+import org.jetbrains.annotations.NotNull;
+
+public sealed interface PrimProblem extends Problem {
+  /** The naturals are user-defined, so the arithmetic primitives cannot be declared without them */
+  record NoNatSignatureError(@Override @NotNull SourcePos sourcePos, @NotNull Var prim) implements PrimProblem {
+    @Override public @NotNull Doc describe() {
+      return Doc.sep(Doc.english("The arithmetic primitive"),
+        Doc.styled(Style.code(), BaseDistiller.varDoc(prim)),
+        Doc.english("should be declared with its parameters and result, in terms of a natural number type"));
+    }
+  }
+
+  @Override default @NotNull Severity level() {
+    return Severity.ERROR;
+  }
+}
@@ -0,0 +1,198 @@
+// Copyright (c) 2020-2021 Yinsen (Tesla) Zhang.
+// Use of this source code is governed by the GNU GPLv3 license that can be found in the LICENSE file.
+package org.aya.tyck.order;
+
+import kala.collection.Seq;
+import kala.collection.immutable.ImmutableSeq;
+import kala.collection.mutable.Buffer;
+import kala.collection.mutable.MutableMap;
+import kala.tuple.Unit;
+import org.aya.api.error.DelayedReporter;
+import org.aya.api.error.Problem;
+import org.aya.api.error.Reporter;
+import org.aya.api.ref.DefVar;
+import org.aya.api.ref.Var;
+import org.aya.concrete.Expr;
+import org.aya.concrete.Pattern;
+import org.aya.concrete.remark.Remark;
+import org.aya.concrete.stmt.Decl;
+import org.aya.concrete.stmt.Sample;
+import org.aya.concrete.stmt.Stmt;
+import org.aya.concrete.visitor.StmtConsumer;
+import org.aya.core.def.Def;
+import org.aya.tyck.CompilationSession;
+import org.aya.tyck.ExprTycker;
+import org.aya.tyck.trace.Trace;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Typecheck the top-level statements of a module, running the ones that
+ * do not refer to each other concurrently.
+ * A statement waits for every earlier statement it refers to or is referred by,
+ * so it sees exactly the definitions it would see when checked in source order.
+ *
+ * @see BodyOrder
+ */
+public final class TyckScheduler {
+  private static boolean isTyckable(@NotNull Stmt stmt) {
+    return stmt instanceof Decl || stmt instanceof Sample
+      || stmt instanceof Remark remark && remark.literate != null;
+  }
+
+  private static void define(@NotNull Stmt stmt, int index, @NotNull MutableMap<Var, Integer> owner) {
+    if (stmt instanceof Sample sample) define(sample.delegate(), index, owner);
+    if (!(stmt instanceof Decl decl)) return;
+    owner.put(decl.ref(), index);
+    if (decl instanceof Decl.DataDecl data) data.body.forEach(ctor -> owner.put(ctor.ref, index));
+    else if (decl instanceof Decl.StructDecl struct) struct.fields.forEach(field -> owner.put(field.ref, index));
+  }
+
+  /** Resets the definitions of a statement checked after the first error, which are discarded */
+  private static void forget(@NotNull Stmt stmt) {
+    if (stmt instanceof Sample sample) forget(sample.delegate());
+    if (!(stmt instanceof Decl decl)) return;
+    decl.ref().core = null;
+    if (decl instanceof Decl.DataDecl data) data.body.forEach(ctor -> ctor.ref.core = null);
+    else if (decl instanceof Decl.StructDecl struct) struct.fields.forEach(field -> field.ref.core = null);
+  }
+
+  /** @return the statements grouped into waves, each only depending on the previous ones */
+  private static @NotNull Buffer<Buffer<Integer>> waves(@NotNull Seq<Stmt> units) {
+    var owner = MutableMap.<Var, Integer>create();
+    units.forEachIndexed((i, unit) -> define(unit, i, owner));
+    var layer = new int[units.size()];
+    var waves = Buffer.<Buffer<Integer>>create();
+    var dependsOn = Buffer.<Buffer<Integer>>create();
+    units.forEach(unit -> dependsOn.append(Buffer.create()));
+    units.forEachIndexed((i, unit) -> {
+      var references = Buffer.<Var>create();
+      unit.accept(RefCollector.INSTANCE, references);
+      for (var ref : references) {
+        var j = owner.getOrNull(ref);
+        if (j == null || j == i) continue;
+        dependsOn.get(Math.max(i, j)).append(Math.min(i, j));
+      }
+    });
+    for (int i = 0; i < layer.length; i++) {
+      for (var j : dependsOn.get(i)) layer[i] = Math.max(layer[i], layer[j] + 1);
+      while (waves.size() <= layer[i]) waves.append(Buffer.create());
+      waves.get(layer[i]).append(i);
+    }
+    return waves;
+  }
+
+  /**
+   * Problems are reported in source order, and checking stops at the first
+   * statement with an error, the same as checking them one by one.
+   * The statements after it in the same wave are not started once it is found,
+   * and the definitions of the ones already checked are reset.
+   * With a trace builder the statements are checked sequentially.
+   *
+   * @return the definitions up to and including the first erroring one
+   */
+  public static @NotNull ImmutableSeq<Def> tyck(
+    @NotNull CompilationSession session,
+    @NotNull ImmutableSeq<Stmt> program,
+    @NotNull Reporter reporter,
+    Trace.@Nullable Builder builder
+  ) {
+    var units = program.filter(TyckScheduler::isTyckable);
+    var firstError = new AtomicInteger(units.size());
+    var tasks = Buffer.<Task>create();
+    for (int i = 0; i < units.size(); i++)
+      tasks.append(new Task(session, units.get(i), i, firstError, new DelayedReporter(reporter), builder));
+    var waves = builder == null ? waves(units) : Buffer.<Buffer<Integer>>create();
+    if (builder != null) for (int i = 0; i < units.size(); i++) waves.append(Buffer.of(i));
+    for (var wave : waves) {
+      var bound = firstError.get();
+      var pending = wave.view().filter(i -> i < bound).map(tasks::get).toImmutableSeq();
+      if (builder == null) ForkJoinTask.invokeAll(pending.asJava());
+      else pending.forEach(ForkJoinTask::invoke);
+    }
+    var last = firstError.get();
+    tasks.view().drop(last + 1).filter(task -> task.started).forEach(task -> forget(task.stmt));
+    var wellTyped = Buffer.<Def>create();
+    for (var task : tasks.view().take(last + 1)) {
+      task.reporter.reportNow();
+      task.rethrow();
+      if (!(task.stmt instanceof Remark)) wellTyped.append(task.def);
+    }
+    return wellTyped.toImmutableSeq();
+  }
+
+  private static final class Task extends RecursiveAction {
+    private final @NotNull CompilationSession session;
+    private final @NotNull Stmt stmt;
+    private final int index;
+    /** The index of the first statement with an error so far, shared by the tasks of a module */
+    private final @NotNull AtomicInteger firstError;
+    private final @NotNull DelayedReporter reporter;
+    private final Trace.@Nullable Builder builder;
+    private @Nullable Def def;
+    private @Nullable Throwable failure;
+    private boolean started;
+
+    private Task(
+      @NotNull CompilationSession session, @NotNull Stmt stmt, int index, @NotNull AtomicInteger firstError,
+      @NotNull DelayedReporter reporter, Trace.@Nullable Builder builder
+    ) {
+      this.session = session;
+      this.stmt = stmt;
+      this.index = index;
+      this.firstError = firstError;
+      this.reporter = reporter;
+      this.builder = builder;
+    }
+
+    @Override protected void compute() {
+      // Discarded anyway, since an earlier statement has an error
+      if (firstError.get() < index) return;
+      started = true;
+      try {
+        if (stmt instanceof Decl decl) def = decl.tyck(session, reporter, builder);
+        else if (stmt instanceof Sample sample) def = sample.tyck(session, reporter, builder);
+        else if (stmt instanceof Remark remark && remark.literate != null)
+          remark.literate.tyck(new ExprTycker(session, reporter, builder));
+      } catch (RuntimeException | Error e) {
+        // rethrown in source order, after the problems of the previous statements
+        failure = e;
+      }
+      if (failure != null || reporter.problems().anyMatch(Problem::isError))
+        firstError.accumulateAndGet(index, Math::min);
+    }
+
+    private void rethrow() {
+      if (failure instanceof RuntimeException e) throw e;
+      if (failure instanceof Error e) throw e;
+    }
+  }
+
+  private static final class RefCollector implements StmtConsumer<Buffer<Var>> {
+    private static final @NotNull RefCollector INSTANCE = new RefCollector();
+
+    @Override public Unit visitRef(Expr.@NotNull RefExpr expr, Buffer<Var> refs) {
+      if (expr.resolvedVar() instanceof DefVar<?, ?> defVar) refs.append(defVar);
+      return Unit.unit();
+    }
+
+    @Override public Unit visitProj(Expr.@NotNull ProjExpr expr, Buffer<Var> refs) {
+      if (expr.resolvedIx().value instanceof DefVar<?, ?> defVar) refs.append(defVar);
+      return StmtConsumer.super.visitProj(expr, refs);
+    }
+
+    @Override public Unit visitBind(Pattern.@NotNull Bind bind, Buffer<Var> refs) {
+      if (bind.resolved().value instanceof DefVar<?, ?> defVar) refs.append(defVar);
+      return StmtConsumer.super.visitBind(bind, refs);
+    }
+
+    @Override public Unit visitCtor(Pattern.@NotNull Ctor ctor, Buffer<Var> refs) {
+      if (ctor.resolved().value instanceof DefVar<?, ?> defVar) refs.append(defVar);
+      return StmtConsumer.super.visitCtor(ctor, refs);
+    }
+  }
+}
@@ -10,7 +10,6 @@ import org.aya.api.util.Arg;
 import org.aya.api.util.NormalizeMode;
 import org.aya.core.Matching;
 import org.aya.core.def.Def;
-import org.aya.core.def.PrimDef;
 import org.aya.core.pat.Pat;
 import org.aya.core.pat.PatMatcher;
 import org.aya.core.pat.PatToTerm;
@@ -57,6 +56,10 @@ public record Conquer(
   }
 
   @Override public Unit visitCtor(Pat.@NotNull Ctor ctor, Integer nth) {
+    // Neither the constructors of naturals nor the patterns inside them have conditions,
+    // so number patterns are not walked through
+    var data = ctor.type().ref().core;
+    if (data != null && data.natShape != null) return Unit.unit();
     var params = ctor.params();
     for (var pat : params) pat.accept(this, nth);
     var conditions = ctor.ref().core.clauses;
@@ -102,7 +105,7 @@ public record Conquer(
 
   @Override public Unit visitPrim(Pat.@NotNull Prim prim, Integer nth) {
     var core = prim.ref().core;
-    assert PrimDef.Factory.INSTANCE.leftOrRight(core);
+    assert core.factory.leftOrRight(core);
     return Unit.unit();
   }
 }
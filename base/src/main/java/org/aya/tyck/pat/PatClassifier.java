@@ -145,10 +145,11 @@ public record PatClassifier(
           // Interval pattern matching is only available in conditions,
           // so in case we need coverage, report an error on this pattern matching
           if (coverage) reporter.report(new ClausesProblem.SplitInterval(pos, lrSplit.get()));
-          // For `left` and `right`,
+          // For `left` and `right`, from the same session as the split pattern
+          var factory = lrSplit.get().ref().core.factory;
           for (var primName : PrimDef.Factory.LEFT_RIGHT) {
             builder.append(new PatTree(primName.id, explicit, 0));
-            var prim = PrimDef.Factory.INSTANCE.getOption(primName);
+            var prim = factory.getOption(primName);
             var patClass = new PatClass.Ok(subPatsSeq.view()
               // Filter out all patterns that matches it,
               .mapIndexedNotNull((ix, subPats) -> matches(subPats, ix, prim)).map(SubPats::ix).toImmutableSeq());
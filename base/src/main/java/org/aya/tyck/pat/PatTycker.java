@@ -23,10 +23,12 @@ import org.aya.core.def.Def;
 import org.aya.core.def.PrimDef;
 import org.aya.core.pat.Pat;
 import org.aya.core.pat.PatMatcher;
+import org.aya.core.sort.LevelSubst;
 import org.aya.core.term.CallTerm;
 import org.aya.core.term.ErrorTerm;
 import org.aya.core.term.FormTerm;
 import org.aya.core.term.Term;
+import org.aya.core.visitor.Instantiator;
 import org.aya.core.visitor.Substituter;
 import org.aya.core.visitor.Unfolder;
 import org.aya.generic.GenericBuilder;
@@ -49,16 +51,19 @@ public record PatTycker(
   @NotNull Substituter.TermSubst termSubst,
   @Nullable Trace.Builder traceBuilder
 ) implements Pattern.Visitor<Term, Pat> {
+  /** The largest number pattern, whose constructors are nested as deep as the recursive visitors of patterns allow */
+  public static final int NUMBER_PATTERN_LIMIT = 256;
+
   private void tracing(@NotNull Consumer<Trace.@NotNull Builder> consumer) {
     if (traceBuilder != null) consumer.accept(traceBuilder);
   }
 
   @Override public void traceEntrance(@NotNull Pattern pat, Term term) {
-    tracing(builder -> builder.shift(new Trace.PatT(term, pat, pat.sourcePos())));
+    if (traceBuilder != null) traceBuilder.shift(new Trace.PatT(term, pat, pat.sourcePos()));
   }
 
   @Override public void traceExit(Pat pat, @NotNull Pattern pattern, Term term) {
-    tracing(GenericBuilder::reduce);
+    if (traceBuilder != null) traceBuilder.reduce();
   }
 
   public PatTycker(@NotNull ExprTycker exprTycker) {
@@ -113,36 +118,44 @@ public record PatTycker(
     return new Pat.PrototypeClause(match.sourcePos, patterns, result);
   }
 
+  /**
+   * The parameter types are instantiated one at a time, see {@link Instantiator}.
+   * Afterwards, <code>sig</code> is the signature left with the patterns substituted.
+   */
   public @NotNull ImmutableSeq<Pat> visitPatterns(Ref<Def.Signature> sig, ImmutableSeq<Pattern> stream) {
     var results = Buffer.<Pat>create();
+    var tele = new Instantiator(sig.value.param(), LevelSubst.EMPTY);
     stream.forEach(pat -> {
-      if (sig.value.param().isEmpty()) {
-        withError(new PatternProblem.TooManyPattern(pat, sig.value.result()),
+      if (!tele.hasNext()) {
+        withError(new PatternProblem.TooManyPattern(pat, tele.instantiate(sig.value.result())),
           pat, "?", ErrorTerm.typeOf(pat));
         return;
       }
-      var param = sig.value.param().first();
+      var param = tele.next();
       while (param.explicit() != pat.explicit()) if (pat.explicit()) {
         // TODO: implicitly generated patterns might be inferred to something else?
         var bind = new Pat.Bind(false, new LocalVar(param.ref().name(), param.ref().definition()), param.type());
         results.append(bind);
         exprTycker.localCtx.put(bind.as(), param.type());
-        termSubst.add(param.ref(), bind.toTerm());
-        sig.value = sig.value.inst(termSubst);
-        if (sig.value.param().isEmpty()) {
+        var bindTerm = bind.toTerm();
+        termSubst.add(param.ref(), bindTerm);
+        tele.supply(bindTerm);
+        if (!tele.hasNext()) {
           // TODO[ice]: report error
           throw new ExprTycker.TyckerException();
         }
-        param = sig.value.param().first();
+        param = tele.next();
       } else {
         // TODO[ice]: unexpected implicit pattern
         throw new ExprTycker.TyckerException();
       }
       var res = pat.accept(this, param.type());
-      termSubst.add(param.ref(), res.toTerm());
-      sig.value = sig.value.inst(termSubst);
+      var resTerm = res.toTerm();
+      termSubst.add(param.ref(), resTerm);
+      tele.supply(resTerm);
       results.append(res);
     });
+    sig.value = new Def.Signature(sig.value.sortParam(), tele.remaining(), tele.instantiate(sig.value.result()));
     return results.toImmutableSeq();
   }
 
@@ -150,8 +163,22 @@ public record PatTycker(
     throw new UnsupportedOperationException();
   }
 
+  /**
+   * Number patterns become constructors, so matching a literal unfolds only as many layers as the pattern has.
+   * The patterns are visited recursively everywhere, so the big numbers are rejected, see {@link #NUMBER_PATTERN_LIMIT}.
+   */
   @Override public Pat visitNumber(Pattern.@NotNull Number number, Term t) {
-    throw new UnsupportedOperationException();
+    if (!(t.normalize(NormalizeMode.WHNF) instanceof CallTerm.Data dataCall)
+      || dataCall.ref().core == null || dataCall.ref().core.natShape == null)
+      return withError(new PatternProblem.NumberNonNat(number, t), number, String.valueOf(number.number()), t);
+    var n = number.number();
+    if (n > NUMBER_PATTERN_LIMIT)
+      return withError(new PatternProblem.NumberTooLarge(number, NUMBER_PATTERN_LIMIT), number, String.valueOf(n), t);
+    var shape = dataCall.ref().core.natShape;
+    Pat pat = new Pat.Ctor(n > 0 || number.explicit(), shape.zero(), ImmutableSeq.empty(), null, dataCall);
+    for (int i = 1; i <= n; i++)
+      pat = new Pat.Ctor(i < n || number.explicit(), shape.suc(), ImmutableSeq.of(pat), null, dataCall);
+    return pat;
   }
 
   @Override public Pat visitTuple(Pattern.@NotNull Tuple tuple, Term t) {
@@ -170,13 +197,14 @@ public record PatTycker(
 
   @Override public Pat visitBind(Pattern.@NotNull Bind bind, Term t) {
     var v = bind.bind();
-    var interval = PrimDef.Factory.INSTANCE.getOption(PrimDef.ID.INTERVAL);
+    var factory = exprTycker.session.primFactory();
+    var interval = factory.getOption(PrimDef.ID.INTERVAL);
     if (t instanceof CallTerm.Prim prim && interval.isNotEmpty() &&
       prim.ref() == interval.get().ref())
       for (var primName : PrimDef.Factory.LEFT_RIGHT)
         if (Objects.equals(bind.bind().name(), primName.id)) {
           refSubst.bad().add(bind.bind());
-          return new Pat.Prim(bind.explicit(), PrimDef.Factory.INSTANCE.getOption(primName).get().ref(), t);
+          return new Pat.Prim(bind.explicit(), factory.getOption(primName).get().ref(), t);
         }
     var selected = selectCtor(t, v.name(), IgnoringReporter.INSTANCE, bind);
     if (selected == null) {
@@ -0,0 +1,71 @@
+// Copyright (c) 2020-2021 Yinsen (Tesla) Zhang.
+// Use of this source code is governed by the GNU GPLv3 license that can be found in the LICENSE file.
+package org.aya.tyck.unify;
+
+import org.aya.core.term.Term;
+import org.aya.util.Ordering;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.HashSet;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Remembers the successful conversion checks done while tycking one {@link org.aya.concrete.stmt.Decl}.
+ * Only the checks without holes and adding no level constraints are remembered,
+ * so solving a meta never makes an entry outdated and a hit never misses a constraint.
+ * Terms are keyed by identity, so the hit rate is much better when the session interns terms,
+ * see {@link org.aya.tyck.CompilationSession#interner()}.
+ * Not thread-safe, create one for each {@link org.aya.tyck.ExprTycker}.
+ *
+ * @see DefEq#compare(Term, Term, Term)
+ */
+public final class ConvCache {
+  private final @NotNull HashSet<Key> proven = new HashSet<>();
+  private final int capacity;
+  private final @NotNull Stats stats;
+
+  public ConvCache(int capacity, @NotNull Stats stats) {
+    this.capacity = capacity;
+    this.stats = stats;
+  }
+
+  /** @return true if <code>lhs</code> is known to be convertible to <code>rhs</code> */
+  public boolean proven(@NotNull Ordering cmp, @NotNull Term lhs, @NotNull Term rhs, @NotNull Term type) {
+    var hit = proven.contains(new Key(cmp, lhs, rhs, type))
+      // Equality is symmetric
+      || cmp == Ordering.Eq && proven.contains(new Key(cmp, rhs, lhs, type));
+    if (hit) stats.hits.increment();
+    else stats.misses.increment();
+    return hit;
+  }
+
+  public void prove(@NotNull Ordering cmp, @NotNull Term lhs, @NotNull Term rhs, @NotNull Term type) {
+    // Start over instead of tracking the usages, like the WHNF cache
+    if (proven.size() >= capacity) proven.clear();
+    proven.add(new Key(cmp, lhs, rhs, type));
+  }
+
+  private record Key(@NotNull Ordering cmp, @NotNull Term lhs, @NotNull Term rhs, @NotNull Term type) {
+    @Override public boolean equals(Object o) {
+      return o instanceof Key key && key.cmp == cmp && key.lhs == lhs && key.rhs == rhs && key.type == type;
+    }
+
+    @Override public int hashCode() {
+      var hash = cmp.ordinal();
+      hash = 31 * hash + System.identityHashCode(lhs);
+      hash = 31 * hash + System.identityHashCode(rhs);
+      return 31 * hash + System.identityHashCode(type);
+    }
+  }
+
+  /** Shared by the caches of a session, so they can be updated concurrently. */
+  public record Stats(@NotNull LongAdder hits, @NotNull LongAdder misses) {
+    public Stats() {
+      this(new LongAdder(), new LongAdder());
+    }
+
+    @Override public String toString() {
+      return "Conversion cache: " + hits.sum() + " hits, " + misses.sum() + " misses";
+    }
+  }
+}
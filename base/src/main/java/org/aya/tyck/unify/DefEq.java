@@ -4,9 +4,9 @@ package org.aya.tyck.unify;
 
 import kala.collection.SeqLike;
 import kala.collection.immutable.ImmutableSeq;
+import kala.collection.mutable.Buffer;
 import kala.collection.mutable.MutableHashMap;
 import kala.collection.mutable.MutableMap;
-import kala.tuple.Tuple2;
 import org.aya.api.error.Reporter;
 import org.aya.api.error.SourcePos;
 import org.aya.api.ref.DefVar;
@@ -22,6 +22,8 @@ import org.aya.core.ops.Eta;
 import org.aya.core.sort.LevelSubst;
 import org.aya.core.sort.Sort;
 import org.aya.core.term.*;
+import org.aya.core.visitor.Instantiator;
+import org.aya.core.visitor.Occurrences;
 import org.aya.core.visitor.Substituter;
 import org.aya.core.visitor.Unfolder;
 import org.aya.tyck.error.HoleProblem;
@@ -31,7 +33,6 @@ import org.aya.util.Ordering;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
-import java.util.Objects;
 import java.util.function.Consumer;
 import java.util.function.Supplier;
 
@@ -41,6 +42,8 @@ public final class DefEq {
   boolean allowVague;
   private final @NotNull LevelEqnSet levelEqns;
   private final @NotNull EqnSet termEqns;
+  private final @Nullable WhnfCache whnfCache;
+  private final @Nullable ConvCache convCache;
   private final @NotNull Reporter reporter;
   private final @NotNull SourcePos pos;
   private final @NotNull Ordering cmp;
@@ -48,12 +51,15 @@ public final class DefEq {
   public DefEq(
     @NotNull Ordering cmp, @NotNull Reporter reporter, boolean allowVague,
     @NotNull LevelEqnSet levelEqns, @NotNull EqnSet termEqns,
+    @Nullable WhnfCache whnfCache, @Nullable ConvCache convCache,
     @Nullable Trace.Builder traceBuilder, @NotNull SourcePos pos
   ) {
     this.cmp = cmp;
     this.allowVague = allowVague;
     this.levelEqns = levelEqns;
     this.termEqns = termEqns;
+    this.whnfCache = whnfCache;
+    this.convCache = convCache;
     this.reporter = reporter;
     this.traceBuilder = traceBuilder;
     this.pos = pos;
@@ -63,43 +69,82 @@ public final class DefEq {
     if (traceBuilder != null) consumer.accept(traceBuilder);
   }
 
-  private void traceEntrance(@NotNull Trace trace) {
-    tracing(builder -> builder.shift(trace));
+  private void traceExit() {
+    if (traceBuilder != null) traceBuilder.reduce();
   }
 
-  private void traceExit() {
-    tracing(Trace.Builder::reduce);
+  @NotNull Term whnf(@NotNull Term term) {
+    return whnfCache != null ? whnfCache.whnf(term) : term.normalize(NormalizeMode.WHNF);
   }
 
   public boolean compare(@NotNull Term lhs, @NotNull Term rhs, @NotNull Term type) {
     if (lhs == rhs) return true;
+    // Small terms are compared faster than they are summarized and looked up
+    var memoize = convCache != null && !(Occurrences.isSmall(lhs) && Occurrences.isSmall(rhs))
+      && isClosed(lhs) && isClosed(rhs) && isClosed(type);
+    if (memoize && convCache.proven(cmp, lhs, rhs, type)) return true;
+    var levelEqnCount = levelEqns.eqns().size();
+    var result = compareNoMemo(lhs, rhs, type);
+    // A hit would skip the level constraints of this comparison, so only the ones adding none are remembered
+    if (result && memoize && levelEqns.eqns().size() == levelEqnCount) convCache.prove(cmp, lhs, rhs, type);
+    return result;
+  }
+
+  /**
+   * @return false if the result of comparing the term may change, because it has holes
+   * or it refers to the binders being compared, see {@link #varSubst}
+   */
+  private boolean isClosed(@NotNull Term term) {
+    var occurrences = Occurrences.of(term);
+    return !occurrences.hasHoles() && !occurrences.mayContainAny(varSubst.keysView());
+  }
+
+  private boolean compareNoMemo(@NotNull Term lhs, @NotNull Term rhs, @NotNull Term type) {
     if (compareApprox(lhs, rhs) != null) return true;
-    lhs = lhs.normalize(NormalizeMode.WHNF);
-    rhs = rhs.normalize(NormalizeMode.WHNF);
+    // Lazy delta reduction: unfold the higher call first, they may meet at a common call
+    while (lhs instanceof CallTerm.Fn lhsCall && rhs instanceof CallTerm.Fn rhsCall) {
+      var lhsHeight = height(lhsCall);
+      var rhsHeight = height(rhsCall);
+      var lhsUnfolded = lhsHeight >= rhsHeight ? unfold(lhsCall) : null;
+      var rhsUnfolded = rhsHeight >= lhsHeight ? unfold(rhsCall) : null;
+      // The higher one is stuck, try the other one
+      if (lhsUnfolded == null && rhsUnfolded == null) {
+        if (lhsHeight < rhsHeight) lhsUnfolded = unfold(lhsCall);
+        else if (rhsHeight < lhsHeight) rhsUnfolded = unfold(rhsCall);
+      }
+      if (lhsUnfolded == null && rhsUnfolded == null) break;
+      if (lhsUnfolded != null) lhs = lhsUnfolded;
+      if (rhsUnfolded != null) rhs = rhsUnfolded;
+      if (lhs == rhs || compareApprox(lhs, rhs) != null) return true;
+    }
+    lhs = whnf(lhs);
+    rhs = whnf(rhs);
     if (compareApprox(lhs, rhs) != null) return true;
     if (rhs instanceof CallTerm.Hole) return compareUntyped(rhs, lhs) != null;
     if (lhs instanceof CallTerm.Hole) return compareUntyped(lhs, rhs) != null;
     if (lhs instanceof ErrorTerm || rhs instanceof ErrorTerm) return true;
-    return doCompareTyped(type.normalize(NormalizeMode.WHNF), lhs, rhs);
+    return doCompareTyped(whnf(type), lhs, rhs);
   }
 
   public @Nullable Term compareUntyped(@NotNull Term lhs, @NotNull Term rhs) {
     // lhs & rhs will both be WHNF if either is not a potentially reducible call
     if (isCall(lhs) || isCall(rhs)) {
       final var ty = doCompareUntyped(lhs, rhs);
-      if (ty != null) return ty.normalize(NormalizeMode.WHNF);
+      if (ty != null) return whnf(ty);
     }
-    lhs = lhs.normalize(NormalizeMode.WHNF);
-    rhs = rhs.normalize(NormalizeMode.WHNF);
+    lhs = whnf(lhs);
+    rhs = whnf(rhs);
     final var x = doCompareUntyped(lhs, rhs);
-    return x != null ? x.normalize(NormalizeMode.WHNF) : null;
+    return x != null ? whnf(x) : null;
   }
 
-  private boolean compareWHNF(Term lhs, Term preRhs, @NotNull Term type) {
-    var whnf = lhs.normalize(NormalizeMode.WHNF);
-    var rhsWhnf = preRhs.normalize(NormalizeMode.WHNF);
-    if (Objects.equals(whnf, lhs) && Objects.equals(rhsWhnf, preRhs)) return false;
-    return compare(whnf, rhsWhnf, type);
+  private static int height(@NotNull CallTerm.Fn call) {
+    var def = call.ref().core;
+    return def != null ? def.height : 0;
+  }
+
+  private @Nullable Term unfold(@NotNull CallTerm.Fn call) {
+    return whnfCache != null ? whnfCache.unfold(call) : Unfolder.unfoldOnce(call);
   }
 
   private @Nullable Term compareApprox(@NotNull Term preLhs, @NotNull Term preRhs) {
@@ -124,26 +169,39 @@ public final class DefEq {
 
   private <T> T checkParams(SeqLike<Term.@NotNull Param> l, SeqLike<Term.@NotNull Param> r, Supplier<T> fail, Supplier<T> success) {
     if (!l.sizeEquals(r)) return fail.get();
-    if (l.isEmpty()) return success.get();
-    return checkParam(l.first(), r.first(), FormTerm.Univ.OMEGA, fail, () ->
-      checkParams(l.view().drop(1), r.view().drop(1), fail, success));
+    var lu = l.toImmutableSeq();
+    var ru = r.toImmutableSeq();
+    // Same as nesting checkParam, the parameters are in scope until the end
+    var bound = 0;
+    for (; bound < lu.size(); bound++) {
+      var lp = lu.get(bound);
+      var rp = ru.get(bound);
+      if (lp.explicit() != rp.explicit() || !compare(lp.type(), rp.type(), FormTerm.Univ.OMEGA)) break;
+      varSubst.put(rp.ref(), lp.toTerm());
+      varSubst.put(lp.ref(), rp.toTerm());
+    }
+    var result = bound == lu.size() ? success.get() : fail.get();
+    for (int i = 0; i < bound; i++) {
+      varSubst.remove(ru.get(i).ref());
+      varSubst.remove(lu.get(i).ref());
+    }
+    return result;
   }
 
-  private boolean visitArgs(SeqLike<Arg<Term>> l, SeqLike<Arg<Term>> r, SeqLike<Term.Param> params) {
-    return visitLists(l.view().map(Arg::term), r.view().map(Arg::term), params);
+  private boolean visitArgs(SeqLike<Arg<Term>> l, SeqLike<Arg<Term>> r, SeqLike<Term.Param> params, LevelSubst levelSubst) {
+    return visitLists(l.view().map(Arg::term), r.view().map(Arg::term), params, levelSubst);
   }
 
-  private boolean visitLists(SeqLike<Term> l, SeqLike<Term> r, @NotNull SeqLike<Term.Param> types) {
-    if (!l.sizeEquals(r)) return false;
-    if (!r.sizeEquals(types)) return false;
-    var typesSubst = types.view();
+  private boolean visitLists(SeqLike<Term> l, SeqLike<Term> r, SeqLike<Term.Param> params, LevelSubst levelSubst) {
+    // One argument for each parameter on both sides
+    if (!l.sizeEquals(params) || !r.sizeEquals(params)) return false;
+    var types = new Instantiator(params, levelSubst);
     var lu = l.toImmutableSeq();
     var ru = r.toImmutableSeq();
     for (int i = 0; i < lu.size(); i++) {
       var li = lu.get(i);
-      var head = typesSubst.first();
-      if (!compare(li, ru.get(i), head.type())) return false;
-      typesSubst = typesSubst.drop(1).map(type -> type.subst(head.ref(), li));
+      if (!compare(li, ru.get(i), types.nextType())) return false;
+      types.supply(li);
     }
     return true;
   }
@@ -155,9 +213,9 @@ public final class DefEq {
     var retType = getType(lhs, lhsRef);
     // Lossy comparison
     var subst = levels(lhsRef, lhs.sortArgs(), rhs.sortArgs());
-    if (visitArgs(lhs.args(), rhs.args(), Term.Param.subst(Def.defTele(lhsRef), subst))) return retType;
-    if (compareWHNF(lhs, rhs, retType)) return retType;
-    else return null;
+    if (visitArgs(lhs.args(), rhs.args(), Def.defTele(lhsRef), subst)) return retType;
+    // The callers unfold the calls then
+    return null;
   }
 
   @NotNull private LevelSubst levels(
@@ -202,15 +260,15 @@ public final class DefEq {
   }
 
   private boolean doCompareTyped(@NotNull Term type, @NotNull Term lhs, @NotNull Term rhs) {
-    traceEntrance(new Trace.UnifyT(lhs.freezeHoles(levelEqns), rhs.freezeHoles(levelEqns),
-      pos, type.freezeHoles(levelEqns)));
+    // Freezing the holes traverses the terms, so only do it when tracing
+    if (traceBuilder != null) traceBuilder.shift(new Trace.UnifyT(lhs.freezeHoles(levelEqns),
+      rhs.freezeHoles(levelEqns), pos, type.freezeHoles(levelEqns)));
     var ret = switch (type) {
       default -> compareUntyped(lhs, rhs) != null;
       case CallTerm.Struct type1 -> {
         var fieldSigs = type1.ref().core.fields;
-        var paramSubst = type1.ref().core.telescope().view().zip(type1.args().view()).map(x ->
-          Tuple2.of(x._1.ref(), x._2.term())).<Var, Term>toImmutableMap();
-        var fieldSubst = new Substituter.TermSubst(MutableHashMap.of());
+        // The fields are instantiated along with the parameters
+        var fieldSubst = Unfolder.buildSubst(type1.ref().core.telescope(), type1.args());
         for (var fieldSig : fieldSigs) {
           var dummyVars = fieldSig.selfTele.map(par ->
             new LocalVar(par.ref().name(), par.ref().definition()));
@@ -218,8 +276,8 @@ public final class DefEq {
             new Arg<Term>(new RefTerm(vpa._1, vpa._2.type()), vpa._2.explicit()));
           var l = new CallTerm.Access(lhs, fieldSig.ref(), type1.sortArgs(), type1.args(), dummy);
           var r = new CallTerm.Access(rhs, fieldSig.ref(), type1.sortArgs(), type1.args(), dummy);
-          fieldSubst.add(fieldSig.ref(), l);
-          if (!compare(l, r, fieldSig.result().subst(paramSubst).subst(fieldSubst))) yield false;
+          fieldSubst.map().put(fieldSig.ref(), l);
+          if (!compare(l, r, fieldSig.result().subst(fieldSubst))) yield false;
         }
         yield true;
       }
@@ -227,14 +285,14 @@ public final class DefEq {
       case CallTerm.Con $ -> throw new IllegalStateException("ConCall is never type");
       case IntroTerm.Tuple $ -> throw new IllegalStateException("TupTerm is never type");
       case IntroTerm.New $ -> throw new IllegalStateException("NewTerm is never type");
+      case IntroTerm.NatLit $ -> throw new IllegalStateException("NatLit is never type");
       case ErrorTerm $ -> true;
       case FormTerm.Sigma type1 -> {
-        var params = type1.params().view();
-        for (int i = 1, size = type1.params().size(); i <= size; i++) {
+        var params = new Instantiator(type1.params(), LevelSubst.EMPTY);
+        for (int i = 1; params.hasNext(); i++) {
           var l = new ElimTerm.Proj(lhs, i);
-          var currentParam = params.first();
-          if (!compare(l, new ElimTerm.Proj(rhs, i), currentParam.type())) yield false;
-          params = params.drop(1).map(x -> x.subst(currentParam.ref(), l));
+          if (!compare(l, new ElimTerm.Proj(rhs, i), params.nextType())) yield false;
+          params.supply(l);
         }
         yield true;
       }
@@ -251,7 +309,7 @@ public final class DefEq {
   }
 
   private Term doCompareUntyped(@NotNull Term type, @NotNull Term preRhs) {
-    traceEntrance(new Trace.UnifyT(type.freezeHoles(levelEqns),
+    if (traceBuilder != null) traceBuilder.shift(new Trace.UnifyT(type.freezeHoles(levelEqns),
       preRhs.freezeHoles(levelEqns), this.pos));
     var ret = switch (type) {
       default -> throw new IllegalStateException();
@@ -264,25 +322,41 @@ public final class DefEq {
       }
       case ElimTerm.App lhs -> {
         if (!(preRhs instanceof ElimTerm.App rhs)) yield null;
-        var preFnType = compareUntyped(lhs.of(), rhs.of());
-        if (!(preFnType instanceof FormTerm.Pi fnType)) yield null;
-        if (!compare(lhs.arg().term(), rhs.arg().term(), fnType.param().type())) yield null;
-        yield fnType.substBody(lhs.arg().term());
+        var lhsSpine = Buffer.<Arg<Term>>create();
+        var rhsSpine = Buffer.<Arg<Term>>create();
+        var lhsHead = lhs.spine(lhsSpine);
+        var rhsHead = rhs.spine(rhsSpine);
+        if (!lhsSpine.sizeEquals(rhsSpine)) {
+          // The heads may still be unified with partial applications
+          var preFnType = compareUntyped(lhs.of(), rhs.of());
+          if (!(preFnType instanceof FormTerm.Pi fnType)) yield null;
+          if (!compare(lhs.arg().term(), rhs.arg().term(), fnType.param().type())) yield null;
+          yield fnType.substBody(lhs.arg().term());
+        }
+        var fnType = compareUntyped(lhsHead, rhsHead);
+        // The arguments are substituted into the codomain all at once
+        var subst = new Substituter.TermSubst(MutableMap.create());
+        for (int i = 0; i < lhsSpine.size(); i++) {
+          if (!(fnType instanceof FormTerm.Pi) && !subst.isEmpty()) {
+            fnType = fnType.subst(subst);
+            subst = new Substituter.TermSubst(MutableMap.create());
+          }
+          if (!(fnType instanceof FormTerm.Pi pi)) yield null;
+          var arg = lhsSpine.get(i).term();
+          if (!compare(arg, rhsSpine.get(i).term(), pi.param().type().subst(subst))) yield null;
+          subst.map().put(pi.param().ref(), arg);
+          fnType = pi.body();
+        }
+        yield fnType.subst(subst);
       }
       case ElimTerm.Proj lhs -> {
         if (!(preRhs instanceof ElimTerm.Proj rhs)) yield null;
         var preTupType = compareUntyped(lhs.of(), rhs.of());
         if (!(preTupType instanceof FormTerm.Sigma tupType)) yield null;
         if (lhs.ix() != rhs.ix()) yield null;
-        var params = tupType.params();
-        for (int i = 1; i < lhs.ix(); i++) {
-          var l = new ElimTerm.Proj(lhs, i);
-          var currentParam = params.first();
-          params = params.view().drop(1)
-            .map(x -> x.subst(currentParam.ref(), l)).toImmutableSeq();
-        }
-        if (params.isNotEmpty()) yield params.first().type();
-        yield params.last().type();
+        var params = new Instantiator(tupType.params(), LevelSubst.EMPTY);
+        for (int i = 1; i < lhs.ix() && params.hasNext(); i++) params.supply(new ElimTerm.Proj(lhs, i));
+        yield params.hasNext() ? params.nextType() : null;
       }
       case ErrorTerm term -> ErrorTerm.typeOf(term.freezeHoles(levelEqns));
       case FormTerm.Pi lhs -> {
@@ -310,22 +384,29 @@ public final class DefEq {
       case CallTerm.Data lhs -> {
         if (!(preRhs instanceof CallTerm.Data rhs) || lhs.ref() != rhs.ref()) yield null;
         var subst = levels(lhs.ref(), lhs.sortArgs(), rhs.sortArgs());
-        var args = visitArgs(lhs.args(), rhs.args(), Term.Param.subst(Def.defTele(lhs.ref()), subst));
+        var args = visitArgs(lhs.args(), rhs.args(), Def.defTele(lhs.ref()), subst);
         // Do not need to be computed precisely because unification won't need this info
         yield args ? FormTerm.Univ.OMEGA : null;
       }
       case CallTerm.Struct lhs -> {
         if (!(preRhs instanceof CallTerm.Struct rhs) || lhs.ref() != rhs.ref()) yield null;
         var subst = levels(lhs.ref(), lhs.sortArgs(), rhs.sortArgs());
-        var args = visitArgs(lhs.args(), rhs.args(), Term.Param.subst(Def.defTele(lhs.ref()), subst));
+        var args = visitArgs(lhs.args(), rhs.args(), Def.defTele(lhs.ref()), subst);
         yield args ? FormTerm.Univ.OMEGA : null;
       }
+      case IntroTerm.NatLit lhs -> {
+        if (preRhs instanceof IntroTerm.NatLit rhs) yield lhs.value().equals(rhs.value()) ? lhs.type() : null;
+        // Against constructors, the literal is unfolded one layer at a time
+        if (preRhs instanceof CallTerm.Con rhs) yield doCompareUntyped(lhs.toCon(), rhs);
+        yield null;
+      }
       case CallTerm.Con lhs -> {
+        if (preRhs instanceof IntroTerm.NatLit rhs) yield doCompareUntyped(lhs, rhs.toCon());
         if (!(preRhs instanceof CallTerm.Con rhs) || lhs.ref() != rhs.ref()) yield null;
         var retType = getType(lhs, lhs.ref());
         // Lossy comparison
         var subst = levels(lhs.head().dataRef(), lhs.sortArgs(), rhs.sortArgs());
-        if (visitArgs(lhs.conArgs(), rhs.conArgs(), Term.Param.subst(CtorDef.conTele(lhs.ref()), subst)))
+        if (visitArgs(lhs.conArgs(), rhs.conArgs(), CtorDef.conTele(lhs.ref()), subst))
           yield retType;
         yield null;
       }
@@ -372,7 +453,7 @@ public final class DefEq {
           reporter.report(new HoleProblem.BadlyScopedError(lhs, solved, scopeCheck, pos));
           yield new ErrorTerm(solved);
         }
-        if (!meta.solve(lhs.ref(), solved)) {
+        if (!WhnfCache.solve(whnfCache, lhs.ref(), solved)) {
           reporter.report(new HoleProblem.RecursionError(lhs, solved, pos));
           yield new ErrorTerm(solved);
         }
@@ -4,6 +4,7 @@ package org.aya.tyck.unify;
 
 import kala.collection.immutable.ImmutableMap;
 import kala.collection.mutable.Buffer;
+import kala.collection.mutable.MutableMap;
 import kala.tuple.Tuple;
 import kala.tuple.Tuple2;
 import kala.tuple.Unit;
@@ -13,14 +14,11 @@ import org.aya.api.error.Reporter;
 import org.aya.api.error.SourcePos;
 import org.aya.api.ref.HoleVar;
 import org.aya.api.ref.LocalVar;
-import org.aya.api.util.NormalizeMode;
-import org.aya.api.util.WithPos;
 import org.aya.core.Meta;
 import org.aya.core.term.CallTerm;
 import org.aya.core.term.RefTerm;
 import org.aya.core.term.Term;
 import org.aya.core.visitor.TermConsumer;
-import org.aya.core.visitor.VarConsumer;
 import org.aya.pretty.doc.Doc;
 import org.aya.tyck.trace.Trace;
 import org.aya.tyck.unify.level.LevelEqnSet;
@@ -28,64 +26,77 @@ import org.aya.util.Ordering;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
 /**
  * Currently we only deal with ambiguous equations (so no 'stuck' equations).
+ * Equations are indexed by the unsolved metas in them, so that solving a meta
+ * only wakes up the equations waiting for it.
  *
+ * @param eqns    the equations not solved yet, in the order they are added, told apart by identity
+ * @param waiting the equations blocked on each meta, in the order they are added
  * @author ice1000
  */
 public record EqnSet(
-  @NotNull Buffer<Eqn> eqns,
-  @NotNull Buffer<WithPos<HoleVar<Meta>>> activeMetas
+  @NotNull Set<Eqn> eqns,
+  @NotNull MutableMap<HoleVar<Meta>, Buffer<Eqn>> waiting,
+  @NotNull Stats stats
 ) {
-  public EqnSet() {
-    this(Buffer.create(), Buffer.create());
+  /** @param stats usually {@link org.aya.tyck.CompilationSession#eqnStats()} */
+  public EqnSet(@NotNull Stats stats) {
+    this(new LinkedHashSet<>(), MutableMap.wrapJava(new LinkedHashMap<>()), stats);
   }
 
   public void addEqn(@NotNull Eqn eqn) {
-    eqns.append(eqn);
-    var currentActiveMetas = activeMetas.size();
+    eqns.add(eqn);
+    stats.postponed.increment();
+    var blocked = new boolean[]{false};
     eqn.accept(new TermConsumer<>() {
       @Override public Unit visitHole(CallTerm.@NotNull Hole term, Unit unit) {
         var ref = term.ref();
-        if (ref.core().body == null) activeMetas.append(new WithPos<>(eqn.pos, ref));
+        if (ref.core().body == null) {
+          waiting.getOrPut(ref, Buffer::create).append(eqn);
+          blocked[0] = true;
+        }
         return unit;
       }
     }, Unit.unit());
-    assert activeMetas.sizeGreaterThan(currentActiveMetas) : "Adding a bad equation";
+    assert blocked[0] : "Adding a bad equation";
   }
 
   /**
    * @return true if <code>this</code> is mutated.
    */
   public boolean simplify(
-    @NotNull LevelEqnSet levelEqns, @NotNull Reporter reporter, @Nullable Trace.Builder tracer
+    @NotNull LevelEqnSet levelEqns, @Nullable WhnfCache whnfCache, @Nullable ConvCache convCache,
+    @NotNull Reporter reporter, @Nullable Trace.Builder tracer
   ) {
-    var removingMetas = Buffer.<WithPos<HoleVar<Meta>>>create();
-    for (var activeMeta : activeMetas) {
-      var solution = activeMeta.data().core().body;
-      if (solution != null) {
-        eqns.filterInPlace(eqn -> {
-          var usageCounter = new VarConsumer.UsageCounter(activeMeta.data());
-          eqn.accept(usageCounter, Unit.unit());
-          if (usageCounter.usageCount() > 0) {
-            solveEqn(levelEqns, reporter, tracer, eqn, false);
-            return false;
-          } else return true;
-        });
-        removingMetas.append(activeMeta);
+    // Solving the equations may add new ones
+    var solved = waiting.keysView().filter(meta -> meta.core().body != null).toImmutableSeq();
+    for (var meta : solved) {
+      var blocked = waiting.getOrNull(meta);
+      waiting.remove(meta);
+      if (blocked == null) continue;
+      for (var eqn : blocked) {
+        // An equation is woken by the first solved meta in it
+        if (!eqns.remove(eqn)) continue;
+        stats.woken.increment();
+        solveEqn(levelEqns, whnfCache, convCache, reporter, tracer, eqn, false);
       }
     }
-    activeMetas.filterNotInPlace(removingMetas::contains);
-    return removingMetas.isNotEmpty();
+    return solved.isNotEmpty();
   }
 
   public void solveEqn(
-    @NotNull LevelEqnSet levelEqns, @NotNull Reporter reporter,
-    Trace.@Nullable Builder tracer, @NotNull Eqn eqn, boolean allowVague
+    @NotNull LevelEqnSet levelEqns, @Nullable WhnfCache whnfCache, @Nullable ConvCache convCache,
+    @NotNull Reporter reporter, Trace.@Nullable Builder tracer, @NotNull Eqn eqn, boolean allowVague
   ) {
-    var defEq = new DefEq(eqn.cmp, reporter, allowVague, levelEqns, this, tracer, eqn.pos);
+    var defEq = new DefEq(eqn.cmp, reporter, allowVague, levelEqns, this, whnfCache, convCache, tracer, eqn.pos);
     defEq.varSubst.putAll(eqn.varSubst);
-    defEq.compareUntyped(eqn.lhs.normalize(NormalizeMode.WHNF), eqn.rhs.normalize(NormalizeMode.WHNF));
+    defEq.compareUntyped(defEq.whnf(eqn.lhs), defEq.whnf(eqn.rhs));
   }
 
   public record Eqn(
@@ -100,5 +111,25 @@ public record EqnSet(
     public @NotNull Doc toDoc(@NotNull DistillerOptions options) {
       return Doc.stickySep(lhs.toDoc(options), Doc.symbol(cmp.symbol), rhs.toDoc(options));
     }
+
+    /** Every equation is a different constraint, so that they are removed from {@link EqnSet#eqns} by identity */
+    @Override public boolean equals(@Nullable Object o) {
+      return this == o;
+    }
+
+    @Override public int hashCode() {
+      return System.identityHashCode(this);
+    }
+  }
+
+  /** The number of equations postponed, and the ones woken up by solving a meta, shared like {@link WhnfCache.Stats} */
+  public record Stats(@NotNull LongAdder postponed, @NotNull LongAdder woken) {
+    public Stats() {
+      this(new LongAdder(), new LongAdder());
+    }
+
+    @Override public String toString() {
+      return "Equations: " + postponed.sum() + " postponed, " + woken.sum() + " woken";
+    }
   }
 }
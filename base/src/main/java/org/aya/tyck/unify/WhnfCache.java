@@ -0,0 +1,99 @@
+// Copyright (c) 2020-2021 Yinsen (Tesla) Zhang.
+// Use of this source code is governed by the GNU GPLv3 license that can be found in the LICENSE file.
+package org.aya.tyck.unify;
+
+import org.aya.api.ref.HoleVar;
+import org.aya.api.util.NormalizeMode;
+import org.aya.core.Meta;
+import org.aya.core.term.CallTerm;
+import org.aya.core.term.Term;
+import org.aya.core.visitor.Unfolder;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.IdentityHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Remembers the weak head normal forms computed while tycking one {@link org.aya.concrete.stmt.Decl}.
+ * Terms are immutable, so they are keyed by identity, and the only thing that can
+ * make a cached result outdated is a meta being solved, see {@link #solve}.
+ * Not thread-safe, create one for each {@link org.aya.tyck.ExprTycker}.
+ *
+ * @see org.aya.tyck.CompilationSession#whnfCacheCapacity()
+ */
+public final class WhnfCache {
+  private final @NotNull IdentityHashMap<Term, Term> cache = new IdentityHashMap<>();
+  /** The calls unfolded once, mapped to null if they are stuck */
+  private final @NotNull IdentityHashMap<CallTerm.Fn, Term> unfolded = new IdentityHashMap<>();
+  private final int capacity;
+  private final @NotNull Stats stats;
+
+  public WhnfCache(int capacity, @NotNull Stats stats) {
+    this.capacity = capacity;
+    this.stats = stats;
+  }
+
+  public @NotNull Term whnf(@NotNull Term term) {
+    var cached = cache.get(term);
+    if (cached != null) {
+      stats.hits.increment();
+      return cached;
+    }
+    stats.misses.increment();
+    var whnf = term.normalize(NormalizeMode.WHNF);
+    // Start over instead of tracking the usages, most entries are short-lived
+    if (cache.size() >= capacity) cache.clear();
+    cache.put(term, whnf);
+    return whnf;
+  }
+
+  /** @return the call unfolded once, see {@link Unfolder#unfoldOnce} */
+  public @Nullable Term unfold(@NotNull CallTerm.Fn call) {
+    if (unfolded.containsKey(call)) {
+      stats.unfoldHits.increment();
+      return unfolded.get(call);
+    }
+    stats.unfoldMisses.increment();
+    var result = Unfolder.unfoldOnce(call);
+    if (unfolded.size() >= capacity) unfolded.clear();
+    unfolded.put(call, result);
+    return result;
+  }
+
+  /**
+   * Solves a meta, which may unblock the reduction of the cached terms, so they are forgotten.
+   * Metas are solved only through this while tycking, so no cache is left outdated.
+   *
+   * @param cache the cache of the tycker solving the meta, null if it has none
+   * @return false if the solution refers to the meta itself, see {@link Meta#solve}
+   */
+  public static boolean solve(@Nullable WhnfCache cache, @NotNull HoleVar<Meta> hole, @NotNull Term solution) {
+    if (!hole.core().solve(hole, solution)) return false;
+    if (cache != null) cache.invalidate();
+    return true;
+  }
+
+  private void invalidate() {
+    unfolded.clear();
+    if (cache.isEmpty()) return;
+    cache.clear();
+    stats.invalidations.increment();
+  }
+
+  /** Shared by the caches of a session, so they can be updated concurrently. */
+  public record Stats(
+    @NotNull LongAdder hits, @NotNull LongAdder misses, @NotNull LongAdder invalidations,
+    @NotNull LongAdder unfoldHits, @NotNull LongAdder unfoldMisses
+  ) {
+    public Stats() {
+      this(new LongAdder(), new LongAdder(), new LongAdder(), new LongAdder(), new LongAdder());
+    }
+
+    @Override public String toString() {
+      return "WHNF cache: " + hits.sum() + " hits, " + misses.sum() + " misses, "
+        + invalidations.sum() + " invalidations; unfolded calls: "
+        + unfoldHits.sum() + " hits, " + unfoldMisses.sum() + " misses";
+    }
+  }
+}
@@ -13,7 +13,16 @@ import org.aya.tyck.unify.level.LevelEqnSet.Eqn;
 import org.aya.util.Ordering;
 import org.jetbrains.annotations.NotNull;
 
+import java.util.Arrays;
+import java.util.PriorityQueue;
+
 /**
+ * Solves level equations as difference constraints: an edge <code>u -> v</code> of weight
+ * <code>w</code> means <code>v - u <= w</code>, and node 0 is the constant 0.
+ * The graph is sparse, with one node per level variable. Inconsistency is detected by
+ * relaxing a feasible potential (Bellman-Ford), which is kept across edge insertions,
+ * and distances are computed by Dijkstra on the costs reduced by the potential.
+ *
  * @author danihao123, ice1000
  */
 public class LevelSolver {
@@ -22,88 +31,78 @@ public class LevelSolver {
 
   static final int INF = 100000000;
   static final int LOW_BOUND = INF;
-  int nodeSize; // the number of nodes in the graph
 
-  boolean floyd(int[][] d) { // return true when it's satisfied
-    for (int k = 0; k <= nodeSize; k++)
-      for (int i = 0; i <= nodeSize; i++)
-        for (int j = 0; j <= nodeSize; j++)
-          d[i][j] = Math.min(d[i][j], d[i][k] + d[k][j]);
-    for (int i = 0; i <= nodeSize; i++) if (d[i][i] < 0) return true;
+  private final @NotNull Graph graph = new Graph();
+  private final MutableSet<LvlVar> unfreeNodes = MutableSet.of();
+  private final MutableSet<LvlVar> freeNodes = MutableSet.of();
+  private final MutableMap<LvlVar, Integer> graphMap = MutableMap.create();
+  private final MutableMap<LvlVar, Integer> defaultValues = MutableMap.create();
+  public final Buffer<Eqn> avoidableEqns = Buffer.create();
+
+  /** @return true if the constraints are not satisfiable */
+  boolean unsatisfied() {
+    if (graph.relax()) return true;
+    if (unfreeNodes.isEmpty()) return false;
+    var fromZero = graph.distances(0, true);
     for (var nu : unfreeNodes) {
       int u = graphMap.get(nu);
-      if (d[u][0] < 0) return true;
-      if (d[0][u] < LOW_BOUND / 2) return true;
+      if (fromZero[u] < LOW_BOUND / 2) return true;
+      var fromU = graph.distances(u, true);
+      if (fromU[0] < 0) return true;
       for (var nv : unfreeNodes) {
         int v = graphMap.get(nv);
-        if (u != v && d[u][v] < LOW_BOUND / 2) return true;
+        if (u != v && fromU[v] < LOW_BOUND / 2) return true;
       }
-      for (int v = 1; v <= nodeSize; v++) {
-        if (d[u][v] < 0) return true;
+      for (int v = 1; v < graph.size; v++) {
+        if (fromU[v] < 0) return true;
       }
     }
     return false;
   }
 
-  void addEdge(int[][] g, int u, int v, int dist) {
-    g[u][v] = Math.min(g[u][v], dist);
-  }
-
-  private final MutableSet<LvlVar> unfreeNodes = MutableSet.of();
-  private final MutableSet<LvlVar> freeNodes = MutableSet.of();
-  private final MutableMap<LvlVar, Integer> graphMap = MutableMap.create();
-  private final MutableMap<LvlVar, Integer> defaultValues = MutableMap.create();
-  public final Buffer<Eqn> avoidableEqns = Buffer.create();
-
   private void genGraphNode(SeqLike<Level<LvlVar>> l) {
     for (var e : l) {
       if (e instanceof Level.Reference<LvlVar> th) {
-        graphMap.put(th.ref(), ++nodeSize);
+        graphMap.getOrPut(th.ref(), graph::addNode);
       }
     }
   }
 
   /** @return true if fail */
-  private boolean dealSingleLt(int[][] g, Level<LvlVar> a, Level<LvlVar> b) {
+  private boolean dealSingleLt(Level<LvlVar> a, Level<LvlVar> b) {
     if (a instanceof Level.Constant<LvlVar> ca) {
       if (b instanceof Level.Constant<LvlVar> cb) {
         return ca.value() > cb.value();
       } else if (b instanceof Level.Reference<LvlVar> rb) {
-        // if(!rb.ref().free()) return;
         int u = ca.value();
         int v = rb.lift();
         int x = graphMap.get(rb.ref());
-        addEdge(g, x, 0, v - u);
+        graph.addEdge(x, 0, v - u);
       }
     } else if (a instanceof Level.Reference<LvlVar> ra) {
-      // if(!ra.ref().free()) return;
       int x = graphMap.get(ra.ref());
       int u = ra.lift();
       if (b instanceof Level.Constant<LvlVar> cb) {
         int v = cb.value();
-        addEdge(g, 0, x, v - u);
+        graph.addEdge(0, x, v - u);
       } else if (b instanceof Level.Reference<LvlVar> rb) {
-        // if(!rb.ref().free()) return;
         int y = graphMap.get(rb.ref());
         int v = rb.lift();
-        addEdge(g, y, x, v - u);
+        graph.addEdge(y, x, v - u);
       }
     }
     return false;
   }
 
-  void prepareGraphNode(int[][] g, SeqLike<Level<LvlVar>> l) {
+  void prepareGraphNode(SeqLike<Level<LvlVar>> l) {
     for (var e : l) {
       if (e instanceof Level.Reference<LvlVar> th) {
-        int defaultValue = -th.lift();
         int u = graphMap.get(th.ref());
         if (th.ref().free()) {
-          // addEdge(g, u, 0, -defaultValue);
           defaultValues.put(th.ref(), 0);
-          freeNodes.add(th.ref());
           // Universe level can't be inf, homotopy can
           // Now there are no homotopy level
-          addEdge(g, 0, u, LOW_BOUND);
+          if (freeNodes.add(th.ref())) graph.addEdge(0, u, LOW_BOUND);
         } else {
           unfreeNodes.add(th.ref());
         }
@@ -111,77 +110,66 @@ public class LevelSolver {
     }
   }
 
-  private int[][] dfs(SeqLike<Eqn> l, int pos, int[][] g) throws UnsatException {
-    if (l.sizeLessThanOrEquals(pos)) {
-      if (floyd(g)) {
-        throw new UnsatException();
-      } else {
-        return g;
-      }
-    }
+  /**
+   * Try every choice of the maximum of each equation, in order.
+   * Adding edges only makes the distances shorter, so a choice is given up
+   * as soon as it is unsatisfiable.
+   *
+   * @return true if satisfied, with the edges of the choices left in the graph
+   */
+  private boolean dfs(SeqLike<Eqn> l, int pos) {
+    if (l.sizeLessThanOrEquals(pos)) return true;
     var th = l.get(pos);
     var lhsVar = th.lhs().levels();
     var rhsVar = th.rhs().levels();
-    if (lhsVar.isEmpty() || rhsVar.isEmpty()) return dfs(l, pos + 1, g);
+    if (lhsVar.isEmpty() || rhsVar.isEmpty()) return dfs(l, pos + 1);
     for (var max : rhsVar) {
-      var gg = new int[nodeSize + 1][nodeSize + 1];
-      for (int i = 0; i <= nodeSize; i++) {
-        if (nodeSize + 1 >= 0) System.arraycopy(g[i], 0, gg[i], 0, nodeSize + 1);
-      }
-      for (var v : lhsVar) dealSingleLt(gg, v, max);
-      for (var v : rhsVar) dealSingleLt(gg, v, max);
-      try {
-        return dfs(l, pos + 1, gg);
-      } catch (UnsatException ignored) {
-      }
+      var snapshot = graph.snapshot();
+      for (var v : lhsVar) dealSingleLt(v, max);
+      for (var v : rhsVar) dealSingleLt(v, max);
+      if (!unsatisfied() && dfs(l, pos + 1)) return true;
+      graph.restore(snapshot);
     }
-    throw new UnsatException();
+    return false;
   }
 
   public void solve(@NotNull LevelEqnSet eqns) throws UnsatException {
     var equations = eqns.eqns();
-    nodeSize = 0;
     for (var e : equations) {
       genGraphNode(e.lhs().levels());
       genGraphNode(e.rhs().levels());
     }
-    var g = new int[nodeSize + 1][nodeSize + 1];
-    for (int i = 0; i <= nodeSize; i++) {
-      for (int j = 0; j <= nodeSize; j++) {
-        if (i == j) g[i][j] = 0;
-        else g[i][j] = INF;
-      }
-    }
     for (var e : equations) {
-      prepareGraphNode(g, e.lhs().levels());
-      prepareGraphNode(g, e.rhs().levels());
+      prepareGraphNode(e.lhs().levels());
+      prepareGraphNode(e.rhs().levels());
     }
     var specialEq = Buffer.<Eqn>create();
     var hasError = equations.toImmutableSeq()
       // Do NOT make this lazy -- the `populate` function has side effects
       // We need to run populate on all equations
-      .map(e -> populate(g, specialEq, e))
+      .map(e -> populate(specialEq, e))
       .anyMatch(b -> b);
-    if (hasError || floyd(g))
+    if (hasError || unsatisfied() || !dfs(specialEq, 0))
       throw new UnsatException();
-    var gg = dfs(specialEq, 0, g);
     for (var name : freeNodes) {
       int u = graphMap.get(name);
       int thDefault = defaultValues.get(name);
-      int upperBound = gg[0][u];
+      int upperBound = graph.distances(0, true)[u];
       if (upperBound >= thDefault) {
-        addEdge(gg, u, 0, thDefault);
-        floyd(gg);
-        upperBound = gg[0][u];
+        graph.addEdge(u, 0, thDefault);
+        graph.relax();
+        upperBound = graph.distances(0, true)[u];
       }
-      int lowerBound = -gg[u][0];
+      var fromU = graph.distances(u, true);
+      var toU = graph.distances(u, false);
+      int lowerBound = -fromU[0];
       if (lowerBound < 0) lowerBound = 0;
       var upperNodes = Buffer.<Level<LvlVar>>create();
       var lowerNodes = Buffer.<Level<LvlVar>>create();
       for (var nu : unfreeNodes) {
         int v = graphMap.get(nu);
-        if (gg[v][u] != INF) upperNodes.append(new Level.Reference<>(nu, gg[v][u]));
-        if (gg[u][v] < LOW_BOUND / 2) lowerNodes.append(new Level.Reference<>(nu, -gg[u][v]));
+        if (toU[v] < LOW_BOUND / 2) upperNodes.append(new Level.Reference<>(nu, toU[v]));
+        if (fromU[v] < LOW_BOUND / 2) lowerNodes.append(new Level.Reference<>(nu, -fromU[v]));
       }
       var retList = Buffer.<Level<LvlVar>>create();
       if (!lowerNodes.isEmpty() || upperNodes.isEmpty()) {
@@ -199,18 +187,18 @@ public class LevelSolver {
   }
 
   /** @return true if fail */
-  private boolean populate(int[][] g, Buffer<Eqn> specialEq, Eqn e) {
+  private boolean populate(Buffer<Eqn> specialEq, Eqn e) {
     var lhs = e.lhs();
     var rhs = e.rhs();
     return switch (e.cmp()) {
-      case Gt -> populateLt(g, specialEq, e, rhs, lhs);
-      case Lt -> populateLt(g, specialEq, e, lhs, rhs);
-      case Eq -> populateLt(g, specialEq, e, rhs, lhs) && populateLt(g, specialEq, e, lhs, rhs);
+      case Gt -> populateLt(specialEq, e, rhs, lhs);
+      case Lt -> populateLt(specialEq, e, lhs, rhs);
+      case Eq -> populateLt(specialEq, e, rhs, lhs) && populateLt(specialEq, e, lhs, rhs);
     };
   }
 
   /** @return true if fail */
-  private boolean populateLt(int[][] g, Buffer<Eqn> specialEq, Eqn e, Sort lhs, Sort rhs) {
+  private boolean populateLt(Buffer<Eqn> specialEq, Eqn e, Sort lhs, Sort rhs) {
     var lhsLevels = lhs.levels().filter(vr -> {
       if (vr instanceof Level.Reference<LvlVar> ref) {
         var th = ref.ref();
@@ -230,7 +218,7 @@ public class LevelSolver {
         var th = ref.ref();
         if (!th.free()) {
           insert = false;
-          if (lhsLevels.anyMatch(left -> dealSingleLt(g, left, vr)))
+          if (lhsLevels.anyMatch(left -> dealSingleLt(left, vr)))
             return true;
         }
       }
@@ -242,7 +230,7 @@ public class LevelSolver {
         avoidableEqns.append(e);
         return false;
       }
-      return rhsLevels.anyMatch(right -> dealSingleLt(g, left, right));
+      return rhsLevels.anyMatch(right -> dealSingleLt(left, right));
     }
     if (rhsLevels.sizeEquals(1)) {
       var right = rhsLevels.get(0);
@@ -250,9 +238,159 @@ public class LevelSolver {
         avoidableEqns.append(e);
         return false;
       }
-      return lhsLevels.anyMatch(left -> dealSingleLt(g, left, right));
+      return lhsLevels.anyMatch(left -> dealSingleLt(left, right));
     }
     specialEq.append(new Eqn(new Sort(lhsLevels), new Sort(rhsLevels.toImmutableSeq()), Ordering.Lt, e.sourcePos()));
     return false;
   }
+
+  /** The edges added since a snapshot can be removed, restoring the potential */
+  record Snapshot(int edgeCount, int @NotNull [] potential) {
+  }
+
+  /**
+   * A sparse graph of difference constraints, with the edges kept in insertion order
+   * so that the latest ones can be removed when backtracking.
+   */
+  static final class Graph {
+    int size = 1;
+    private int edgeCount = 0;
+    private int[] from = new int[16], to = new int[16], weight = new int[16];
+    private int[] next = new int[16], prev = new int[16];
+    private int[] out = {-1}, in = {-1};
+    /** <code>potential[v] <= potential[u] + w</code> for every edge, if {@link #relax()} succeeded */
+    private int[] potential = {0};
+    /** The edges added since the last {@link #relax()} */
+    private int relaxed = 0;
+
+    int addNode() {
+      if (size == out.length) {
+        out = Arrays.copyOf(out, size * 2);
+        in = Arrays.copyOf(in, size * 2);
+        potential = Arrays.copyOf(potential, size * 2);
+      }
+      out[size] = -1;
+      in[size] = -1;
+      potential[size] = 0;
+      return size++;
+    }
+
+    void addEdge(int u, int v, int w) {
+      if (edgeCount == from.length) {
+        var capacity = edgeCount * 2;
+        from = Arrays.copyOf(from, capacity);
+        to = Arrays.copyOf(to, capacity);
+        weight = Arrays.copyOf(weight, capacity);
+        next = Arrays.copyOf(next, capacity);
+        prev = Arrays.copyOf(prev, capacity);
+      }
+      var e = edgeCount++;
+      from[e] = u;
+      to[e] = v;
+      weight[e] = w;
+      next[e] = out[u];
+      out[u] = e;
+      prev[e] = in[v];
+      in[v] = e;
+    }
+
+    @NotNull Snapshot snapshot() {
+      return new Snapshot(edgeCount, Arrays.copyOf(potential, size));
+    }
+
+    void restore(@NotNull Snapshot snapshot) {
+      while (edgeCount > snapshot.edgeCount) {
+        var e = --edgeCount;
+        out[from[e]] = next[e];
+        in[to[e]] = prev[e];
+      }
+      System.arraycopy(snapshot.potential, 0, potential, 0, snapshot.potential.length);
+      relaxed = Math.min(relaxed, edgeCount);
+    }
+
+    /**
+     * Restore the potential after adding edges, starting from their sources.
+     *
+     * @return true if there is a negative cycle
+     */
+    boolean relax() {
+      var queue = new int[size];
+      var queued = new boolean[size];
+      // The number of edges of the path which gives the current potential
+      var length = new int[size];
+      int head = 0, tail = 0, count = 0;
+      for (var e = relaxed; e < edgeCount; e++) {
+        var u = from[e];
+        if (!queued[u]) {
+          queued[u] = true;
+          queue[tail] = u;
+          tail = (tail + 1) % size;
+          count++;
+        }
+      }
+      relaxed = edgeCount;
+      while (count > 0) {
+        var u = queue[head];
+        head = (head + 1) % size;
+        count--;
+        queued[u] = false;
+        for (var e = out[u]; e != -1; e = next[e]) {
+          var v = to[e];
+          if (potential[u] + weight[e] >= potential[v]) continue;
+          potential[v] = potential[u] + weight[e];
+          length[v] = length[u] + 1;
+          if (length[v] >= size) {
+            // Later calls start over from all the edges
+            relaxed = 0;
+            return true;
+          }
+          if (!queued[v]) {
+            queued[v] = true;
+            queue[tail] = v;
+            tail = (tail + 1) % size;
+            count++;
+          }
+        }
+      }
+      return false;
+    }
+
+    /**
+     * Requires the potential to be feasible.
+     *
+     * @param forward the distances from the source if true, the distances to it otherwise
+     * @return the distances, or {@link #INF} if too large
+     */
+    int @NotNull [] distances(int source, boolean forward) {
+      // Reduced costs: weight[e] + potential[from] - potential[to] >= 0
+      var reduced = new long[size];
+      Arrays.fill(reduced, Long.MAX_VALUE);
+      reduced[source] = 0;
+      var queue = new PriorityQueue<long[]>((a, b) -> Long.compare(a[0], b[0]));
+      queue.add(new long[]{0, source});
+      while (!queue.isEmpty()) {
+        var top = queue.poll();
+        var u = (int) top[1];
+        if (top[0] > reduced[u]) continue;
+        for (var e = forward ? out[u] : in[u]; e != -1; e = forward ? next[e] : prev[e]) {
+          var v = forward ? to[e] : from[e];
+          var cost = (long) weight[e] + potential[from[e]] - potential[to[e]];
+          if (reduced[u] + cost >= reduced[v]) continue;
+          reduced[v] = reduced[u] + cost;
+          queue.add(new long[]{reduced[v], v});
+        }
+      }
+      var distances = new int[size];
+      for (int v = 0; v < size; v++) {
+        if (reduced[v] == Long.MAX_VALUE) distances[v] = INF;
+        else {
+          var d = forward
+            ? reduced[v] - potential[source] + potential[v]
+            : reduced[v] - potential[v] + potential[source];
+          distances[v] = (int) Math.min(d, INF);
+        }
+      }
+      return distances;
+    }
+  }
 }
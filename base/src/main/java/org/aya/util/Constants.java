@@ -2,7 +2,6 @@
 // Use of this source code is governed by the GNU GPLv3 license that can be found in the LICENSE file.
 package org.aya.util;
 
-import org.aya.api.Global;
 import org.aya.api.error.SourcePos;
 import org.aya.api.ref.LocalVar;
 import org.jetbrains.annotations.NonNls;
@@ -16,11 +15,4 @@ public interface Constants {
   static @NotNull LocalVar anonymous() {
     return new LocalVar(ANONYMOUS_PREFIX, SourcePos.NONE);
   }
-  static @NotNull LocalVar randomlyNamed(@NotNull SourcePos pos) {
-    return new LocalVar(randomName(pos), pos);
-  }
-  static @NotNull String randomName(@NotNull Object pos) {
-    if (Global.NO_RANDOM_NAME) return ANONYMOUS_PREFIX;
-    return ANONYMOUS_PREFIX + Math.abs(pos.hashCode()) % 10;
-  }
 }
@@ -18,6 +18,7 @@ import org.aya.concrete.stmt.Decl;
 import org.aya.concrete.stmt.Stmt;
 import org.aya.pretty.doc.Doc;
 import org.aya.test.ThrowingReporter;
+import org.aya.tyck.CompilationSession;
 import org.intellij.lang.annotations.Language;
 import org.jetbrains.annotations.NonNls;
 import org.jetbrains.annotations.NotNull;
@@ -30,11 +31,11 @@ import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class ParseTest {
-  public static final @NotNull AyaProducer INSTANCE = new AyaProducer(SourceFile.NONE,
+  public static final @NotNull CompilationSession SESSION = new CompilationSession(true);
+  public static final @NotNull AyaProducer INSTANCE = new AyaProducer(SESSION, SourceFile.NONE,
     ThrowingReporter.INSTANCE);
 
   @BeforeAll public static void enableTest() {
-    Global.NO_RANDOM_NAME = true;
     Global.UNITE_SOURCE_POS = true;
   }
 
@@ -3,12 +3,10 @@
 package org.aya.core;
 
 import org.aya.api.distill.DistillerOptions;
-import org.aya.core.def.PrimDef;
 import org.aya.pretty.doc.Doc;
 import org.aya.tyck.TyckDeclTest;
 import org.intellij.lang.annotations.Language;
 import org.jetbrains.annotations.NotNull;
-import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Test;
 
 import static org.junit.jupiter.api.Assertions.assertFalse;
@@ -78,14 +76,9 @@ public class DistillerTest {
         | id_l (a: A) : op id a = a
       """;
     assertFalse(declDoc(code).renderToTeX().isEmpty());
-    tearDown();
     assertFalse(declCDoc(code).renderToTeX().isEmpty());
   }
 
-  @AfterEach public void tearDown() {
-    PrimDef.Factory.INSTANCE.clear();
-  }
-
   private @NotNull Doc declDoc(@Language("TEXT") String text) {
     return Doc.vcat(TyckDeclTest.successTyckDecls(text).map(d -> d.toDoc(DistillerOptions.DEBUG)));
   }
@@ -2,26 +2,46 @@
 // Use of this source code is governed by the GNU GPLv3 license that can be found in the LICENSE file.
 package org.aya.core;
 
+import kala.collection.immutable.ImmutableSeq;
+import kala.collection.mutable.Buffer;
+import org.aya.api.distill.DistillerOptions;
+import org.aya.api.error.IgnoringReporter;
+import org.aya.api.ref.LocalVar;
+import org.aya.api.util.Arg;
 import org.aya.api.util.NormalizeMode;
+import org.aya.cli.single.CompilerFlags;
+import org.aya.cli.single.SingleFileCompiler;
+import org.aya.concrete.resolve.module.FileModuleLoader;
+import org.aya.concrete.stmt.Stmt;
+import org.aya.core.def.Def;
 import org.aya.core.def.FnDef;
 import org.aya.core.def.PrimDef;
+import org.aya.core.def.StructDef;
+import org.aya.core.pat.PatMatcher;
 import org.aya.core.term.CallTerm;
+import org.aya.core.term.IntroTerm;
 import org.aya.core.term.RefTerm;
 import org.aya.core.term.Term;
+import org.aya.core.visitor.Fuel;
+import org.aya.core.visitor.Normalizer;
+import org.aya.core.visitor.Unfolder;
+import org.aya.test.TestRunner;
 import org.aya.tyck.TyckDeclTest;
-import org.junit.jupiter.api.BeforeAll;
+import org.aya.util.cancel.CancellationException;
+import org.aya.util.cancel.CancellationIndicator;
+import org.jetbrains.annotations.NotNull;
 import org.junit.jupiter.api.Test;
 
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.Objects;
 import java.util.function.IntFunction;
 
-import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.*;
 
 public class NormalizeTest {
-  @BeforeAll public static void enter() {
-    PrimDef.Factory.INSTANCE.clear();
-  }
-
   @Test public void unfoldPatterns() {
     var defs = TyckDeclTest.successTyckDecls("""
       open data Nat : Type | zero | suc Nat
@@ -34,7 +54,7 @@ public class NormalizeTest {
       def kiva : Nat => tracy (suc zero) zero
       def overlap (a : Nat) : Nat => tracy a zero
       def overlap2 (a : Nat) : Nat => tracy zero a""");
-    IntFunction<Term> normalizer = i -> ((FnDef) defs.get(i)).body.getLeftValue().normalize(NormalizeMode.NF);
+    IntFunction<Term> normalizer = i -> ((FnDef) defs.get(i)).body().getLeftValue().normalize(NormalizeMode.NF);
     assertTrue(normalizer.apply(2) instanceof CallTerm.Con conCall
       && Objects.equals(conCall.ref().name(), "suc"));
     assertTrue(normalizer.apply(3) instanceof CallTerm.Con conCall
@@ -54,11 +74,261 @@ public class NormalizeTest {
       prim arcoe
       def xyr : Nat => arcoe (\\ i => Nat) Nat::zero left
       def kiva : Nat => arcoe (\\ i => Nat) (Nat::suc Nat::zero) right""");
-    IntFunction<Term> normalizer = i -> ((FnDef) defs.get(i)).body.getLeftValue().normalize(NormalizeMode.NF);
+    IntFunction<Term> normalizer = i -> ((FnDef) defs.get(i)).body().getLeftValue().normalize(NormalizeMode.NF);
     assertTrue(normalizer.apply(5) instanceof CallTerm.Con conCall
       && Objects.equals(conCall.ref().name(), "zero")
       && conCall.conArgs().isEmpty());
     assertTrue(normalizer.apply(6) instanceof CallTerm.Con conCall
       && Objects.equals(conCall.ref().name(), "suc"));
   }
+
+  @Test public void caseTreeAgreesWithPatMatcher() {
+    var defs = TyckDeclTest.successTyckDecls("""
+      open data Nat : Type | zero | suc Nat
+      def tracy (a b : Nat) : Nat
+       | zero, a => a
+       | a, zero => a
+       | suc a, b => suc (tracy a b)
+       | a, suc b => suc (tracy a b)
+      def xyr : Nat => tracy zero (suc zero)
+      def overlap (a : Nat) : Nat => tracy a zero""");
+    var tracy = (FnDef) defs.get(1);
+    var candidates = ((CallTerm.Fn) ((FnDef) defs.get(2)).body().getLeftValue()).args()
+      .appended(((CallTerm.Fn) ((FnDef) defs.get(3)).body().getLeftValue()).args().first());
+    var clauses = tracy.body().getRightValue();
+    for (var lhs : candidates)
+      for (var rhs : candidates) {
+        var args = ImmutableSeq.of(lhs, rhs);
+        var expected = clauses.find(clause -> PatMatcher.tryBuildSubstArgs(clause.patterns(), args) != null);
+        var match = tracy.caseTree().match(args);
+        assertEquals(expected.getOrNull(), match == null ? null : match.clause());
+      }
+  }
+
+  /** One delta step for the functions with clauses is one match, the recursive call stays */
+  @Test public void unfoldOnce() {
+    var defs = TyckDeclTest.successTyckDecls("""
+      open data Nat : Type | zero | suc Nat
+      def succ (a : Nat) : Nat => suc a
+      def down (a : Nat) : Nat
+       | zero => zero
+       | suc a => down a
+      def twice : Nat => down (succ (suc zero))
+      def stuck (a : Nat) : Nat => down a""");
+    var call = (CallTerm.Fn) ((FnDef) defs.get(3)).body().getLeftValue();
+    var once = Unfolder.unfoldOnce(call);
+    // down (suc zero), with the argument of the clause as it was matched
+    assertTrue(once instanceof CallTerm.Fn fn && fn.ref() == call.ref()
+      && fn.args().first().term() instanceof CallTerm.Con suc
+      && suc.conArgs().first().term() instanceof CallTerm.Con zero && zero.conArgs().isEmpty());
+    assertTrue(once.normalize(NormalizeMode.WHNF) instanceof CallTerm.Con conCall
+      && Objects.equals(conCall.ref().name(), "zero"));
+    assertNull(Unfolder.unfoldOnce((CallTerm.Fn) ((FnDef) defs.get(4)).body().getLeftValue()));
+  }
+
+  @Test public void nbeChurch() {
+    var defs = TyckDeclTest.successTyckDecls("""
+      def Num => Pi (x : Type 0) -> (x -> x) -> (x -> x)
+      def zero : Num => \\ A f x => x
+      def suc (a : Num) : Num => \\ A f x => a A f (f x)
+      def mul (a b : Num) : Num => \\A f x => a A (b A f) x
+      def #2 : Num => suc (suc zero)
+      def #16 : Num => mul (mul #2 #2) (mul #2 #2)""");
+    for (var def : defs) {
+      var body = ((FnDef) def).body().getLeftValue();
+      assertEquals(render(body.normalize(NormalizeMode.NF)), render(body.normalize(NormalizeMode.NBE)));
+    }
+  }
+
+  /** Normal forms are unique, so {@link Normalizer} and the evaluator must agree on every term */
+  @Test public void nbeAgreesWithNormalizer() throws IOException {
+    var terms = successCorpusTerms();
+    assertFalse(terms.isEmpty());
+    for (var term : terms) assertEquals(
+      render(term.normalize(NormalizeMode.NF)),
+      render(term.normalize(NormalizeMode.NBE)));
+  }
+
+  @Test public void compiledAgreesWithEvaluator() throws IOException {
+    var terms = successCorpusTerms();
+    assertFalse(terms.isEmpty());
+    for (var term : terms) assertEquals(
+      render(term.normalize(NormalizeMode.NBE)),
+      render(term.normalize(NormalizeMode.COMPILED)));
+  }
+
+  @Test public void needAgreesWithNormalizer() throws IOException {
+    var terms = successCorpusTerms();
+    assertFalse(terms.isEmpty());
+    for (var term : terms) assertEquals(
+      render(term.normalize(NormalizeMode.NF)),
+      render(term.normalize(NormalizeMode.NEED)));
+  }
+
+  @Test public void needChurch() {
+    var defs = TyckDeclTest.successTyckDecls("""
+      def Num => Pi (x : Type 0) -> (x -> x) -> (x -> x)
+      def zero : Num => \\ A f x => x
+      def suc (a : Num) : Num => \\ A f x => a A f (f x)
+      def mul (a b : Num) : Num => \\A f x => a A (b A f) x
+      def square (a : Num) : Num => mul a a
+      def #2 : Num => suc (suc zero)
+      def #16 : Num => square (square #2)""");
+    for (var def : defs) {
+      var body = ((FnDef) def).body().getLeftValue();
+      assertEquals(render(body.normalize(NormalizeMode.NF)), render(body.normalize(NormalizeMode.NEED)));
+    }
+  }
+
+  @Test public void fuel() {
+    var defs = TyckDeclTest.successTyckDecls("""
+      def Num => Pi (x : Type 0) -> (x -> x) -> (x -> x)
+      def zero : Num => \\ A f x => x
+      def suc (a : Num) : Num => \\ A f x => a A f (f x)
+      def mul (a b : Num) : Num => \\A f x => a A (b A f) x
+      def #2 : Num => suc (suc zero)
+      def #16 : Num => mul (mul #2 #2) (mul #2 #2)""");
+    var body = ((FnDef) defs.last()).body().getLeftValue();
+    var nf = render(body.normalize(NormalizeMode.NF));
+    for (var mode : new NormalizeMode[]{NormalizeMode.NF, NormalizeMode.NEED}) {
+      var enough = new Fuel(Long.MAX_VALUE, null);
+      assertEquals(nf, render(body.normalize(mode, enough)));
+      assertFalse(enough.exhausted());
+      assertTrue(enough.used() > 0);
+      var little = new Fuel(enough.used() / 2, null);
+      assertNotEquals(nf, render(body.normalize(mode, little)));
+      assertTrue(little.exhausted());
+      assertEquals(enough.used() / 2, little.used());
+    }
+    var canceled = new CancellationIndicator() {
+      @Override public boolean isCanceled() {
+        return true;
+      }
+
+      @Override public void cancel() {
+      }
+    };
+    assertThrows(CancellationException.class, () -> body.normalize(NormalizeMode.NF, new Fuel(Long.MAX_VALUE, canceled)));
+  }
+
+  @Test public void compiledChurch() {
+    var defs = TyckDeclTest.successTyckDecls("""
+      def Num => Pi (x : Type 0) -> (x -> x) -> (x -> x)
+      def zero : Num => \\ A f x => x
+      def suc (a : Num) : Num => \\ A f x => a A f (f x)
+      def mul (a b : Num) : Num => \\A f x => a A (b A f) x
+      def #2 : Num => suc (suc zero)
+      def #16 : Num => mul (mul #2 #2) (mul #2 #2)""");
+    for (var def : defs) {
+      var body = ((FnDef) def).body().getLeftValue();
+      assertEquals(render(body.normalize(NormalizeMode.NF)), render(body.normalize(NormalizeMode.COMPILED)));
+    }
+  }
+
+  @Test public void compiledClauses() {
+    var defs = TyckDeclTest.successTyckDecls("""
+      open data Nat : Type | zero | suc Nat
+      def add (a b : Nat) : Nat
+       | zero, b => b
+       | suc a, b => suc (add a b)
+      def mul (a b : Nat) : Nat
+       | zero, b => zero
+       | suc a, b => add b (mul a b)
+      def #3 : Nat => suc (suc (suc zero))
+      def #27 : Nat => mul #3 (mul #3 #3)
+      def pair : Sig Nat ** Nat => (#3, add #3 #3)
+      def swapped : Sig Nat ** Nat => (pair.2, pair.1)
+      def open-term (n : Nat) : Nat => add #3 (add n #3)""");
+    for (var def : defs) if (def instanceof FnDef fn) {
+      var body = fn.body();
+      var terms = body.isLeft() ? ImmutableSeq.of(body.getLeftValue()) : body.getRightValue().map(Matching::body);
+      for (var term : terms)
+        assertEquals(render(term.normalize(NormalizeMode.NF)), render(term.normalize(NormalizeMode.COMPILED)));
+    }
+  }
+
+  @Test public void natLiterals() {
+    var defs = TyckDeclTest.successTyckDecls("""
+      open data Nat : Type | zero | suc Nat
+      prim natAdd (a b : Nat) : Nat
+      prim natMul (a b : Nat) : Nat
+      def pred (n : Nat) : Nat
+       | 0 => 0
+       | suc n => n
+      def big : Nat => natMul 123456789 (natAdd 987654321 (suc 1))
+      def smaller : Nat => pred big
+      def stuck (n : Nat) : Nat => natAdd n 1""");
+    IntFunction<Term> body = i -> ((FnDef) defs.get(i)).body().getLeftValue();
+    var expected = BigInteger.valueOf(123456789L).multiply(BigInteger.valueOf(987654323L));
+    assertTrue(body.apply(4).normalize(NormalizeMode.NF) instanceof IntroTerm.NatLit lit
+      && lit.value().equals(expected));
+    assertTrue(body.apply(5).normalize(NormalizeMode.WHNF) instanceof IntroTerm.NatLit lit
+      && lit.value().equals(expected.subtract(BigInteger.ONE)));
+    assertTrue(body.apply(6).normalize(NormalizeMode.NF) instanceof CallTerm.Prim);
+    for (var i = 4; i <= 6; i++) {
+      var nf = render(body.apply(i).normalize(NormalizeMode.NF));
+      assertEquals(nf, render(body.apply(i).normalize(NormalizeMode.NBE)));
+      assertEquals(nf, render(body.apply(i).normalize(NormalizeMode.COMPILED)));
+    }
+  }
+
+  /** The arguments are the parameters themselves in another order, like a call <code>pair B A y x</code> inside <code>pair</code> */
+  @Test public void permutedArgs() {
+    var defs = TyckDeclTest.successTyckDecls("""
+      prim I prim left prim right
+      def pair (A B : Type 0) (x : A) (y : B) : Sig A ** B => (x, y)
+      struct Swap (A B : Type 0) (x : A) (y : B) : Type 0
+       | pick (i : I) : A {
+         | left => x
+         | right => x
+       }""");
+    var left = new CallTerm.Prim(((PrimDef) defs.get(1)).ref, ImmutableSeq.empty(), ImmutableSeq.empty());
+    var pair = (FnDef) defs.get(3);
+    var pick = ((StructDef) defs.get(4)).fields.first();
+    var call = new CallTerm.Fn(pair.ref, ImmutableSeq.empty(), permute(pair.telescope()));
+    var structCall = new CallTerm.Struct(pick.structRef, ImmutableSeq.empty(), permute(pick.ownerTele));
+    var access = new CallTerm.Access(new RefTerm(new LocalVar("s"), structCall), pick.ref,
+      ImmutableSeq.empty(), structCall.args(), ImmutableSeq.of(new Arg<>(left, true)));
+    var swapped = render(new IntroTerm.Tuple(ImmutableSeq.of(
+      pair.telescope().get(3).toTerm(), pair.telescope().get(2).toTerm())));
+    for (var mode : new NormalizeMode[]{NormalizeMode.NF, NormalizeMode.NEED, NormalizeMode.NBE}) {
+      assertEquals(swapped, render(call.normalize(mode)));
+      assertEquals(render(pick.ownerTele.get(3).toTerm()), render(access.normalize(mode)));
+    }
+  }
+
+  /** @return the arguments <code>B A y x</code> for the telescope <code>(A B : Type 0) (x : A) (y : B)</code> */
+  private static @NotNull ImmutableSeq<Arg<Term>> permute(@NotNull ImmutableSeq<Term.Param> tele) {
+    return ImmutableSeq.of(tele.get(1).toArg(), tele.get(0).toArg(), tele.get(3).toArg(), tele.get(2).toArg());
+  }
+
+  public static @NotNull Buffer<Term> successCorpusTerms() throws IOException {
+    var sources = Files.walk(TestRunner.TEST_SOURCE_DIR.resolve("success"))
+      .filter(file -> file.toString().endsWith(".aya"))
+      .collect(ImmutableSeq.factory());
+    var terms = Buffer.<Term>create();
+    var compiler = new SingleFileCompiler(IgnoringReporter.INSTANCE, TestRunner.LOCATOR, null);
+    for (var file : sources) compiler.compile(file, new CompilerFlags(
+      CompilerFlags.Message.ASCII, false, null, ImmutableSeq.empty()
+    ), new FileModuleLoader.FileModuleLoaderCallback() {
+      @Override
+      public void onResolved(@NotNull Path sourcePath, FileModuleLoader.@NotNull FileResolveInfo resolveInfo, @NotNull ImmutableSeq<Stmt> stmts) {
+      }
+
+      @Override
+      public void onTycked(@NotNull Path sourcePath, @NotNull ImmutableSeq<Stmt> stmts, @NotNull ImmutableSeq<Def> defs) {
+        for (var def : defs) if (def instanceof FnDef fn) {
+          terms.append(fn.result());
+          var body = fn.body();
+          if (body.isLeft()) terms.append(body.getLeftValue());
+          else body.getRightValue().forEach(clause -> terms.append(clause.body()));
+        }
+      }
+    });
+    return terms;
+  }
+
+  private static @NotNull String render(@NotNull Term term) {
+    return term.toDoc(DistillerOptions.DEBUG).debugRender();
+  }
 }
@@ -2,22 +2,38 @@
 // Use of this source code is governed by the GNU GPLv3 license that can be found in the LICENSE file.
 package org.aya.core;
 
+import kala.collection.immutable.ImmutableSeq;
 import kala.tuple.Unit;
-import org.aya.core.def.PrimDef;
+import org.aya.concrete.stmt.Decl;
+import org.aya.core.def.DataDef;
+import org.aya.core.def.FnDef;
+import org.aya.core.serde.CompiledAya;
+import org.aya.core.serde.CoreFormat;
+import org.aya.core.serde.SerDef;
 import org.aya.core.serde.SerTerm;
 import org.aya.core.serde.Serializer;
+import org.aya.tyck.CompilationSession;
 import org.aya.tyck.TyckDeclTest;
 import org.intellij.lang.annotations.Language;
 import org.jetbrains.annotations.NotNull;
 import org.junit.jupiter.api.Assertions;
-import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
-public class SuedeTest {
-  @BeforeEach public void cleanup() {
-    PrimDef.Factory.INSTANCE.clear();
-  }
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Objects;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.fail;
+
+public class SuedeTest {
   @Test public void nat() {
     suedeAll("""
       open data Nat : Type | zero | suc Nat
@@ -69,11 +85,71 @@ public class SuedeTest {
       """);
   }
 
+  @Test public void brokenCount() throws IOException {
+    var bytes = CoreFormat.write(new CompiledAya(ImmutableSeq.empty(), ImmutableSeq.empty(), ImmutableSeq.empty()));
+    // Skip the magic number and the version, then claim a huge string table instead of an empty one
+    var start = skipVarInt(bytes, skipVarInt(bytes, 0));
+    var broken = ByteBuffer.allocate(bytes.length + 4);
+    broken.put(bytes, 0, start).put(new byte[]{(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x07})
+      .put(bytes, start + 1, bytes.length - start - 1).flip();
+    assertThrows(IOException.class, () -> CoreFormat.read(broken));
+  }
+
+  private static int skipVarInt(byte @NotNull [] bytes, int index) {
+    while ((bytes[index] & 0x80) != 0) index++;
+    return index + 1;
+  }
+
+  @Test public void sameModuleName() {
+    // Both are tycked in the module `decl`, like the cores of two files compiled as the same module
+    var session = new CompilationSession();
+    var two = loadNat(session, "open data Nat : Type | zero | suc Nat");
+    var one = loadNat(session, "open data Nat : Type | zero");
+    assertNotSame(two, one);
+    assertEquals(2, two.body.size());
+    assertEquals(1, one.body.size());
+  }
+
+  private @NotNull DataDef loadNat(@NotNull CompilationSession session, @Language("TEXT") @NotNull String code) {
+    var serializer = new Serializer(new Serializer.State());
+    var serDefs = TyckDeclTest.successTyckDecls(code).map(def -> def.accept(serializer, Unit.unit()));
+    var state = new SerTerm.DeState(session);
+    new CompiledAya(ImmutableSeq.empty(), ImmutableSeq.empty(), serDefs).toExports(state);
+    var nat = state.<DataDef, Decl.DataDecl>def(((SerDef.Data) serDefs.first()).name());
+    return Objects.requireNonNull(nat.core);
+  }
+
+  private static @NotNull Object javaRoundTrip(@NotNull Object object) throws IOException, ClassNotFoundException {
+    var bytes = new ByteArrayOutputStream();
+    try (var output = new ObjectOutputStream(bytes)) {
+      output.writeObject(object);
+    }
+    try (var input = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+      return input.readObject();
+    }
+  }
+
   private void suedeAll(@Language("TEXT") @NotNull String code) {
-    var state = new SerTerm.DeState();
+    var state = new SerTerm.DeState(new CompilationSession());
     var serializer = new Serializer(new Serializer.State());
-    TyckDeclTest.successTyckDecls(code).view()
-      .map(def -> def.accept(serializer, Unit.unit()))
+    var serDefs = TyckDeclTest.successTyckDecls(code).map(def -> def.accept(serializer, Unit.unit()));
+    var compiled = new CompiledAya(ImmutableSeq.empty(), ImmutableSeq.empty(), serDefs);
+    try {
+      var bytes = CoreFormat.write(compiled);
+      assertEquals(compiled, CoreFormat.read(ByteBuffer.wrap(bytes)));
+      var lazyState = new SerTerm.DeState(new CompilationSession());
+      var lazy = CoreFormat.readLazily(ByteBuffer.wrap(bytes));
+      // The lazy functions are serialized with their bodies read
+      assertEquals(compiled, javaRoundTrip(lazy));
+      lazy.defs().view()
+        .map(ser -> ser.de(lazyState))
+        .forEach(def -> {
+          if (def instanceof FnDef fn) assertNotNull(fn.body());
+        });
+    } catch (IOException | ClassNotFoundException e) {
+      fail(e);
+    }
+    serDefs.view()
       .map(ser -> ser.de(state))
       .forEach(Assertions::assertNotNull);
   }
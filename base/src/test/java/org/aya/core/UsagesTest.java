@@ -7,6 +7,9 @@ import kala.collection.mutable.Buffer;
 import org.aya.api.ref.LocalVar;
 import org.aya.core.def.Def;
 import org.aya.core.def.FnDef;
+import org.aya.core.pat.Pat;
+import org.aya.core.term.*;
+import org.aya.core.visitor.Occurrences;
 import org.aya.core.visitor.RefFinder;
 import org.aya.tyck.TyckDeclTest;
 import org.junit.jupiter.api.Test;
@@ -32,8 +35,61 @@ public class UsagesTest {
       def.accept(RefFinder.HEADER_ONLY, of);
       if (Seq.of("Nat", "Int").contains(def.ref().name())) assertTrue(of.isEmpty());
       else assertFalse(of.isEmpty());
-        if (def instanceof FnDef fn && fn.body.isLeft())
-            assertEquals(0, fn.body.getLeftValue().findUsages(new LocalVar("233")));
+        if (def instanceof FnDef fn && fn.body().isLeft())
+            assertEquals(0, fn.body().getLeftValue().findUsages(new LocalVar("233")));
     });
   }
+
+  @Test public void occurrences() {
+    var defs = TyckDeclTest.successTyckDecls("""
+      open data Nat : Type 0 | zero | suc Nat
+      def add (a b : Nat) : Nat
+       | zero, b => b
+       | suc a, b => suc (add a b)
+      def three : Nat => add (suc zero) (suc (suc zero))
+      """);
+    var three = ((FnDef) defs.get(2)).body().getLeftValue();
+    var occurrences = Occurrences.of(three);
+    // Small terms are summarized again, to the same summary
+    assertEquals(occurrences.mask(), Occurrences.of(three).mask());
+    assertFalse(occurrences.hasHoles());
+    assertTrue(occurrences.mayContain(defs.get(1).ref()));
+    var x = new LocalVar("x");
+    assertFalse(occurrences.mayContain(x));
+    assertEquals(0, three.findUsages(x));
+    assertSame(three, three.subst(x, three));
+    var add = (FnDef) defs.get(1);
+    var a = add.telescope().first().ref();
+    add.body().getRightValue().forEach(clause -> {
+      var body = clause.body();
+      // The clauses refer to the pattern variables, and the summaries of small terms are exact
+      var b = ((Pat.Bind) clause.patterns().get(1)).as();
+      assertTrue(Occurrences.mayOccur(body, b));
+      assertEquals(1, body.findUsages(b));
+      assertFalse(Occurrences.mayOccur(body, a));
+      assertEquals(0, body.findUsages(a));
+    });
+    var suc = add.body().getRightValue().get(1);
+    var predecessor = ((Pat.Bind) ((Pat.Ctor) suc.patterns().first()).params().first()).as();
+    assertTrue(Occurrences.mayOccur(suc.body(), predecessor));
+    assertEquals(1, suc.body().findUsages(predecessor));
+  }
+
+  /** Deeper than the Java stack allows for the recursive visitors */
+  @Test public void deepTerms() {
+    var x = new LocalVar("x");
+    var y = new LocalVar("y");
+    Term term = new RefTerm(x, FormTerm.Univ.OMEGA);
+    for (int i = 0; i < 100000; i++) {
+      var param = new Term.Param(new LocalVar("z" + i), FormTerm.Univ.OMEGA, true);
+      term = new IntroTerm.Lambda(param, new ElimTerm.App(term, param.toArg()));
+    }
+    assertTrue(Occurrences.mayOccur(term, x));
+    assertEquals(1, term.findUsages(x));
+    assertSame(term, term.subst(new LocalVar("w"), term));
+    var subst = term.subst(x, new RefTerm(y, FormTerm.Univ.OMEGA));
+    assertNotSame(term, subst);
+    assertEquals(0, subst.findUsages(x));
+    assertEquals(1, subst.findUsages(y));
+  }
 }
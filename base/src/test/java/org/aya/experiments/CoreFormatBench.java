@@ -0,0 +1,78 @@
+// Copyright (c) 2020-2021 Yinsen (Tesla) Zhang.
+// Use of this source code is governed by the GNU GPLv3 license that can be found in the LICENSE file.
+package org.aya.experiments;
+
+import kala.collection.immutable.ImmutableSeq;
+import kala.collection.mutable.Buffer;
+import org.aya.api.error.IgnoringReporter;
+import org.aya.cli.single.CompilerFlags;
+import org.aya.cli.single.SingleFileCompiler;
+import org.aya.concrete.resolve.module.FileModuleLoader;
+import org.aya.concrete.stmt.Stmt;
+import org.aya.core.def.Def;
+import org.aya.core.serde.CompiledAya;
+import org.aya.core.serde.CoreFormat;
+import org.aya.test.TestRunner;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.aya.test.BenchOutput.println;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/** Compares the binary core format with java serialization on the success corpus */
+public class CoreFormatBench {
+  @Test public void sizeAndLoadTime() throws IOException, ClassNotFoundException {
+    var corpus = Buffer.<CompiledAya>create();
+    var sources = Files.walk(TestRunner.TEST_SOURCE_DIR.resolve("success"))
+      .filter(file -> file.toString().endsWith(".aya"))
+      .collect(ImmutableSeq.factory());
+    var compiler = new SingleFileCompiler(IgnoringReporter.INSTANCE, TestRunner.LOCATOR, null);
+    for (var file : sources) compiler.compile(file, new CompilerFlags(
+      CompilerFlags.Message.ASCII, false, null, ImmutableSeq.empty()
+    ), new FileModuleLoader.FileModuleLoaderCallback() {
+      private ImmutableSeq<Def> defs = ImmutableSeq.empty();
+
+      @Override
+      public void onResolved(@NotNull Path sourcePath, FileModuleLoader.@NotNull FileResolveInfo resolveInfo, @NotNull ImmutableSeq<Stmt> stmts) {
+        corpus.append(CompiledAya.from(resolveInfo, defs));
+      }
+
+      @Override
+      public void onTycked(@NotNull Path sourcePath, @NotNull ImmutableSeq<Stmt> stmts, @NotNull ImmutableSeq<Def> defs) {
+        this.defs = defs;
+      }
+    });
+
+    long javaSize = 0, binarySize = 0, javaTime = 0, binaryTime = 0;
+    for (var compiled : corpus) {
+      var bytes = new ByteArrayOutputStream();
+      try (var output = new ObjectOutputStream(bytes)) {
+        output.writeObject(compiled);
+      }
+      var javaBytes = bytes.toByteArray();
+      var binaryBytes = CoreFormat.write(compiled);
+      javaSize += javaBytes.length;
+      binarySize += binaryBytes.length;
+
+      var startup = System.nanoTime();
+      Object fromJava;
+      try (var input = new ObjectInputStream(new ByteArrayInputStream(javaBytes))) {
+        fromJava = input.readObject();
+      }
+      javaTime += System.nanoTime() - startup;
+      startup = System.nanoTime();
+      var fromBinary = CoreFormat.read(ByteBuffer.wrap(binaryBytes));
+      binaryTime += System.nanoTime() - startup;
+      assertEquals(compiled, fromJava);
+      assertEquals(compiled, fromBinary);
+    }
+    println("Files: " + corpus.size());
+    println("Java serialization: " + javaSize + " bytes, loaded in " + javaTime / 1000 + "us");
+    println("Binary format: " + binarySize + " bytes, loaded in " + binaryTime / 1000 + "us");
+  }
+}
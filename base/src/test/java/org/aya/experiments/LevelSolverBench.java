@@ -0,0 +1,148 @@
+// Copyright (c) 2020-2021 Yinsen (Tesla) Zhang.
+// Use of this source code is governed by the GNU GPLv3 license that can be found in the LICENSE file.
+package org.aya.experiments;
+
+import kala.collection.immutable.ImmutableSeq;
+import kala.collection.mutable.Buffer;
+import kala.collection.mutable.MutableMap;
+import org.aya.api.error.SourcePos;
+import org.aya.core.sort.Sort;
+import org.aya.generic.Level;
+import org.aya.tyck.unify.level.LevelEqnSet;
+import org.aya.tyck.unify.level.LevelSolver;
+import org.aya.util.Ordering;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+import java.util.function.Supplier;
+
+import static org.aya.test.BenchOutput.println;
+import static org.junit.jupiter.api.Assertions.*;
+
+/** Solves generated level equations with {@link LevelSolver} and {@link FloydLevelSolver} */
+public class LevelSolverBench {
+  /** The bound variables are given the values below this when the solutions are checked */
+  public static final int BOUND_VALUES = 3;
+
+  private static @NotNull ImmutableSeq<LevelEqnSet.Eqn> generate(Random random, int free, int bound, int eqns) {
+    var vars = Buffer.<Sort.LvlVar>create();
+    for (int i = 0; i < free; i++) vars.append(new Sort.LvlVar("u" + i, SourcePos.NONE));
+    for (int i = 0; i < bound; i++) vars.append(new Sort.LvlVar("l" + i, null));
+    var result = Buffer.<LevelEqnSet.Eqn>create();
+    for (int i = 0; i < eqns; i++) {
+      // The smaller sides mostly refer to the variables to solve
+      var lhs = random.nextInt(8) == 0 ? new Level.Constant<Sort.LvlVar>(random.nextInt(3))
+        : new Level.Reference<>(vars.get(random.nextInt(free)), random.nextInt(2));
+      var rhs = Buffer.<Level<Sort.LvlVar>>create();
+      var width = random.nextInt(6) == 0 ? 2 : 1;
+      for (int j = 0; j < width; j++)
+        rhs.append(random.nextInt(4) == 0 ? new Level.Constant<>(random.nextInt(4))
+          : new Level.Reference<>(vars.get(random.nextInt(vars.size())), random.nextInt(2)));
+      result.append(new LevelEqnSet.Eqn(new Sort(lhs), new Sort(rhs.toImmutableSeq()), Ordering.Lt, SourcePos.NONE));
+    }
+    return result.toImmutableSeq();
+  }
+
+  /** @return the equations with their solution, or null if they are unsatisfiable */
+  private static @Nullable LevelEqnSet solve(@NotNull ImmutableSeq<LevelEqnSet.Eqn> eqns, boolean floyd) {
+    var set = new LevelEqnSet(Buffer.create(), Buffer.create(), MutableMap.create());
+    set.eqns().appendAll(eqns);
+    try {
+      if (floyd) new FloydLevelSolver().solve(set);
+      else new LevelSolver().solve(set);
+      return set;
+    } catch (LevelSolver.UnsatException | FloydLevelSolver.UnsatException e) {
+      return null;
+    }
+  }
+
+  /** @return the value of the level, with the bound variables given and the free ones solved */
+  private static int eval(
+    @NotNull Level<Sort.LvlVar> level, @NotNull LevelEqnSet solved, @NotNull MutableMap<Sort.LvlVar, Integer> bound
+  ) {
+    if (level instanceof Level.Constant<Sort.LvlVar> constant) return constant.value();
+    if (level instanceof Level.Reference<Sort.LvlVar> ref) {
+      if (!ref.ref().free()) return bound.get(ref.ref()) + ref.lift();
+      var solution = solved.solution().getOrNull(ref.ref());
+      assertNotNull(solution, ref.ref().name());
+      return eval(solution, solved, bound) + ref.lift();
+    }
+    return Integer.MAX_VALUE / 2;
+  }
+
+  private static int eval(@NotNull Sort sort, @NotNull LevelEqnSet solved, @NotNull MutableMap<Sort.LvlVar, Integer> bound) {
+    var max = 0;
+    for (var level : sort.levels()) max = Math.max(max, eval(level, solved, bound));
+    return max;
+  }
+
+  private static boolean holds(
+    @NotNull LevelEqnSet.Eqn eqn, @NotNull LevelEqnSet solved, @NotNull MutableMap<Sort.LvlVar, Integer> bound
+  ) {
+    var lhs = eval(eqn.lhs(), solved, bound);
+    var rhs = eval(eqn.rhs(), solved, bound);
+    return switch (eqn.cmp()) {
+      case Lt -> lhs <= rhs;
+      case Gt -> lhs >= rhs;
+      case Eq -> lhs == rhs;
+    };
+  }
+
+  private static @NotNull Buffer<Sort.LvlVar> vars(@NotNull ImmutableSeq<LevelEqnSet.Eqn> eqns, boolean free) {
+    var vars = Buffer.<Sort.LvlVar>create();
+    for (var eqn : eqns)
+      for (var level : eqn.lhs().levels().appendedAll(eqn.rhs().levels()))
+        if (level instanceof Level.Reference<Sort.LvlVar> ref && ref.ref().free() == free && !vars.contains(ref.ref()))
+          vars.append(ref.ref());
+    return vars;
+  }
+
+  /**
+   * The solvers agree on satisfiability, the solutions satisfy every equation
+   * for the values of the bound variables up to {@link #BOUND_VALUES},
+   * and the solutions of the two solvers give the same values.
+   */
+  @Test public void agreeOnSmall() {
+    var random = new Random(114514);
+    for (int i = 0; i < 200; i++) {
+      var eqns = generate(random, 8, 2, 12);
+      Supplier<String> message = () -> eqns.joinToString("\n");
+      var floyd = solve(eqns, true);
+      var sparse = solve(eqns, false);
+      assertEquals(floyd != null, sparse != null, message);
+      if (sparse == null) continue;
+      var bound = vars(eqns, false);
+      var free = vars(eqns, true);
+      var combinations = (int) Math.pow(BOUND_VALUES, bound.size());
+      for (int code = 0; code < combinations; code++) {
+        var values = MutableMap.<Sort.LvlVar, Integer>create();
+        var rest = code;
+        for (var var : bound) {
+          values.put(var, rest % BOUND_VALUES);
+          rest /= BOUND_VALUES;
+        }
+        for (var eqn : eqns) assertTrue(holds(eqn, sparse, values), message);
+        for (var var : free)
+          assertEquals(eval(new Level.Reference<>(var), floyd, values),
+            eval(new Level.Reference<>(var), sparse, values), message);
+      }
+    }
+  }
+
+  @Test public void polymorphicLibrary() {
+    var random = new Random(1919810);
+    for (var size : new int[]{10, 20, 40}) {
+      var eqns = generate(random, size, size / 10, size * 2);
+      var startup = System.currentTimeMillis();
+      var floyd = solve(eqns, true) != null;
+      var floydTime = System.currentTimeMillis() - startup;
+      startup = System.currentTimeMillis();
+      var sparse = solve(eqns, false) != null;
+      var sparseTime = System.currentTimeMillis() - startup;
+      println(size + " variables, Floyd: " + floydTime + "ms, sparse: " + sparseTime + "ms");
+      assertEquals(floyd, sparse);
+    }
+  }
+}
@@ -4,17 +4,18 @@ package org.aya.experiments;
 
 import org.aya.api.distill.DistillerOptions;
 import org.aya.api.util.NormalizeMode;
+import org.aya.core.NormalizeTest;
 import org.aya.core.def.FnDef;
 import org.aya.tyck.TyckDeclTest;
-import org.jetbrains.annotations.NotNull;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.Timeout;
 
-public class NormalizeHugeChurch {
-  public static void println(@NotNull String s) {
-    // System.out.println(s);
-  }
+import java.io.IOException;
 
+import static org.aya.test.BenchOutput.println;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class NormalizeHugeChurch {
   @Test @Timeout(value = 5000) public void ppBench() {
     var startup = System.currentTimeMillis();
     var decls = TyckDeclTest.successTyckDecls("""
@@ -28,7 +29,7 @@ public class NormalizeHugeChurch {
       def #16 : Num => mul #4 #4
       def #256 : Num => add #16 #16
       """);
-    var last = ((FnDef) decls.last()).body.getLeftValue();
+    var last = ((FnDef) decls.last()).body().getLeftValue();
     println("Tyck: " + (System.currentTimeMillis() - startup));
     startup = System.currentTimeMillis();
     var nf = last.normalize(NormalizeMode.NF);
@@ -41,4 +42,29 @@ public class NormalizeHugeChurch {
     println("Stringify: " + (System.currentTimeMillis() - startup));
     println(text);
   }
+
+  @Test public void needBench() throws IOException {
+    var decls = TyckDeclTest.successTyckDecls("""
+      def Num => Pi (x : Type 0) -> (x -> x) -> (x -> x)
+      def zero : Num => \\ A f x => x
+      def suc (a : Num) : Num => \\ A f x => a A f (f x)
+      def add (a b : Num) : Num => \\A f x => a A f (b A f x)
+      def mul (a b : Num) : Num => \\A f x => a A (b A f) x
+      def square (a : Num) : Num => mul a a
+      def #2 : Num => suc (suc zero)
+      def #256 : Num => square (square (square #2))
+      """);
+    var last = ((FnDef) decls.last()).body().getLeftValue();
+    var corpus = NormalizeTest.successCorpusTerms();
+    for (var mode : new NormalizeMode[]{NormalizeMode.NF, NormalizeMode.NEED}) {
+      var startup = System.currentTimeMillis();
+      var nf = last.normalize(mode);
+      println(mode + ", Church: " + (System.currentTimeMillis() - startup) + "ms");
+      startup = System.currentTimeMillis();
+      for (var term : corpus) term.normalize(mode);
+      println(mode + ", corpus: " + (System.currentTimeMillis() - startup) + "ms");
+      assertEquals(last.normalize(NormalizeMode.NBE).toDoc(DistillerOptions.DEBUG).debugRender(),
+        nf.toDoc(DistillerOptions.DEBUG).debugRender());
+    }
+  }
 }
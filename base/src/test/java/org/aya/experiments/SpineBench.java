@@ -0,0 +1,94 @@
+// Copyright (c) 2020-2021 Yinsen (Tesla) Zhang.
+// Use of this source code is governed by the GNU GPLv3 license that can be found in the LICENSE file.
+package org.aya.experiments;
+
+import kala.collection.mutable.Buffer;
+import org.aya.api.ref.LocalVar;
+import org.aya.api.util.Arg;
+import org.aya.api.util.NormalizeMode;
+import org.aya.core.term.*;
+import org.aya.tyck.CompilationSession;
+import org.aya.tyck.TyckDeclTest;
+import org.junit.jupiter.api.Test;
+
+import static org.aya.test.BenchOutput.println;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/** Applies deeply curried functions one argument at a time and to whole spines, and instantiates wide telescopes */
+public class SpineBench {
+  public static final int ROUNDS = 16;
+
+  @Test public void curriedLambda() {
+    for (var arity : new int[]{8, 64, 256}) {
+      var params = Buffer.<Term.Param>create();
+      var args = Buffer.<Arg<Term>>create();
+      for (int i = 0; i < arity; i++) {
+        var param = new Term.Param(new LocalVar("x" + i), FormTerm.Univ.OMEGA, true);
+        params.append(param);
+        args.append(new Arg<>(new RefTerm(new LocalVar("a" + i), FormTerm.Univ.OMEGA), true));
+      }
+      // The body mentions every parameter, so every substitution pass has to visit it all
+      var body = new IntroTerm.Tuple(params.toImmutableSeq().map(Term.Param::toTerm));
+      var lambda = IntroTerm.Lambda.make(params, body);
+      var startup = System.nanoTime();
+      Term unary = lambda;
+      for (int r = 0; r < ROUNDS; r++) {
+        unary = lambda;
+        for (var arg : args) unary = CallTerm.make(unary, arg);
+      }
+      var unaryTime = System.nanoTime() - startup;
+      startup = System.nanoTime();
+      Term spine = lambda;
+      for (int r = 0; r < ROUNDS; r++) spine = CallTerm.make(lambda, args);
+      var spineTime = System.nanoTime() - startup;
+      println(arity + " arguments, one by one: " + unaryTime / 1000 + "us, spine: " + spineTime / 1000 + "us");
+      assertEquals(unary, spine);
+    }
+  }
+
+  @Test public void stuckSpine() {
+    var head = new RefTerm(new LocalVar("f"), FormTerm.Univ.OMEGA);
+    var args = Buffer.<Arg<Term>>create();
+    for (int i = 0; i < 1024; i++) args.append(new Arg<>(new RefTerm(new LocalVar("a" + i), FormTerm.Univ.OMEGA), true));
+    var app = (ElimTerm.App) ElimTerm.App.make(head, args);
+    var spine = Buffer.<Arg<Term>>create();
+    assertEquals(head, app.spine(spine));
+    assertEquals(args.toImmutableSeq(), spine.toImmutableSeq());
+    assertEquals(app, app.normalize(NormalizeMode.NF));
+  }
+
+  @Test public void curriedDecls() {
+    var startup = System.currentTimeMillis();
+    TyckDeclTest.successTyckDecls(new CompilationSession(), """
+      open data Nat : Type
+        | zero
+        | suc Nat
+      def K8 (a b c d e f g h : Nat) : Nat => h
+      def apply (k : Nat -> Nat -> Nat -> Nat -> Nat -> Nat -> Nat -> Nat -> Nat) : Nat
+        => k zero zero zero zero zero zero zero (suc zero)
+      def lam : Nat => apply (\\ a b c d e f g h => suc h)
+      def direct : Nat => apply K8
+      """);
+    println("Curried declarations: " + (System.currentTimeMillis() - startup) + "ms");
+  }
+
+  @Test public void wideTelescope() {
+    var params = new StringBuilder();
+    var args = new StringBuilder();
+    for (int i = 0; i < 256; i++) {
+      params.append(" (n").append(i).append(" : Nat)");
+      args.append(" zero");
+    }
+    var startup = System.currentTimeMillis();
+    // The types of d and e are compared argument by argument against the telescope of D
+    TyckDeclTest.successTyckDecls(new CompilationSession(), """
+      open data Nat : Type
+        | zero
+        | suc Nat
+      open data D%s : Type | mk
+      def d : D%s => mk
+      def e : D%s => d
+      """.formatted(params, args, args));
+    println("Wide telescope: " + (System.currentTimeMillis() - startup) + "ms");
+  }
+}
@@ -0,0 +1,79 @@
+// Copyright (c) 2020-2021 Yinsen (Tesla) Zhang.
+// Use of this source code is governed by the GNU GPLv3 license that can be found in the LICENSE file.
+package org.aya.experiments;
+
+import kala.tuple.Unit;
+import org.aya.api.distill.DistillerOptions;
+import org.aya.api.util.NormalizeMode;
+import org.aya.core.def.FnDef;
+import org.aya.core.sort.LevelSubst;
+import org.aya.core.term.RefTerm;
+import org.aya.core.term.Term;
+import org.aya.core.visitor.Substituter;
+import org.aya.core.visitor.TermFixpoint;
+import org.aya.tyck.TyckDeclTest;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.junit.jupiter.api.Test;
+
+import static org.aya.test.BenchOutput.println;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/** Substitutes into a body with a large closed subterm, skipping it with {@link org.aya.core.visitor.Occurrences} or not */
+public class SubstBench {
+  public static final int ROUNDS = 64;
+
+  /** Counts the terms the substitution looks at */
+  private static final class Counting implements TermFixpoint.Iterative<Unit> {
+    private final @NotNull Substituter substituter;
+    private final boolean skip;
+    private long count = 0;
+
+    private Counting(@NotNull Substituter substituter, boolean skip) {
+      this.substituter = substituter;
+      this.skip = skip;
+    }
+
+    @Override public @Nullable Term pre(@NotNull Term term, Unit unit) {
+      count++;
+      if (skip) return substituter.pre(term, unit);
+      return term instanceof RefTerm ref ? substituter.termSubst().getOrNull(ref.var()) : null;
+    }
+  }
+
+  @Test public void skipClosedSubterms() {
+    var decls = TyckDeclTest.successTyckDecls("""
+      def Num => Pi (x : Type 0) -> (x -> x) -> (x -> x)
+      def zero : Num => \\ A f x => x
+      def suc (a : Num) : Num => \\ A f x => a A f (f x)
+      def mul (a b : Num) : Num => \\A f x => a A (b A f) x
+      def #2 : Num => suc (suc zero)
+      def #256 : Num => mul (mul (mul #2 #2) (mul #2 #2)) (mul (mul #2 #2) (mul #2 #2))
+      def addBig (n : Num) : Num => \\A f x => n A f (#256 A f x)
+      """);
+    var addBig = (FnDef) decls.last();
+    var body = addBig.body().getLeftValue().normalize(NormalizeMode.NF);
+    var zero = ((FnDef) decls.get(1)).body().getLeftValue();
+    var subst = new Substituter(new Substituter.TermSubst(addBig.telescope().first().ref(), zero), LevelSubst.EMPTY);
+    var counts = new long[2];
+    var times = new long[2];
+    var results = new Term[2];
+    for (int i = 0; i < 2; i++) {
+      var skip = i == 0;
+      var startup = System.nanoTime();
+      for (int r = 0; r < ROUNDS; r++) {
+        var counting = new Counting(subst, skip);
+        results[i] = counting.traverse(body, Unit.unit());
+        counts[i] += counting.count;
+      }
+      times[i] = System.nanoTime() - startup;
+    }
+    println("Skipping: " + counts[0] + " terms, " + times[0] / 1000 + "us; visiting all: "
+      + counts[1] + " terms, " + times[1] / 1000 + "us");
+    assertEquals(results[1].toDoc(DistillerOptions.DEBUG).debugRender(),
+      results[0].toDoc(DistillerOptions.DEBUG).debugRender());
+    // The applications of f do not mention n, and are skipped as a whole
+    assertTrue(counts[0] * 16 < counts[1]);
+  }
+}
@@ -0,0 +1,79 @@
+// Copyright (c) 2020-2021 Yinsen (Tesla) Zhang.
+// Use of this source code is governed by the GNU GPLv3 license that can be found in the LICENSE file.
+package org.aya.experiments;
+
+import kala.collection.mutable.Buffer;
+import org.aya.concrete.stmt.Decl;
+import org.aya.test.ThrowingReporter;
+import org.aya.tyck.CompilationSession;
+import org.aya.tyck.TyckDeclTest;
+import org.aya.tyck.trace.Trace;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static org.aya.test.BenchOutput.println;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/** Tycks the same program with and without a trace builder, and compares the time and the memory allocated */
+public class TracingBench {
+  public static final int ROUNDS = 8;
+  /** The fewest bytes a trace entry takes: its object and the buffer of its children */
+  public static final int ENTRY_BYTES = 32;
+  public static final String CODE = """
+    def Num => Pi (x : Type 0) -> (x -> x) -> (x -> x)
+    def zero : Num => \\ A f x => x
+    def suc (a : Num) : Num => \\ A f x => a A f (f x)
+    def add (a b : Num) : Num => \\A f x => a A f (b A f x)
+    def mul (a b : Num) : Num => \\A f x => a A (b A f) x
+    def #2 : Num => suc (suc zero)
+    def #4 : Num => mul #2 #2
+    def #16 : Num => mul #4 #4
+    def #256 : Num => add #16 #16
+    """;
+
+  private record Run(long millis, long bytes) {
+  }
+
+  /** @return the bytes the current thread allocated so far, or -1 if the JVM does not tell */
+  private static long allocated() {
+    return ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean bean
+      && bean.isThreadAllocatedMemoryEnabled() ? bean.getCurrentThreadAllocatedBytes() : -1;
+  }
+
+  private static @NotNull Run tyck(Trace.@Nullable Builder builder) {
+    var bytes = allocated();
+    var startup = System.nanoTime();
+    for (int i = 0; i < ROUNDS; i++) {
+      var session = new CompilationSession();
+      TyckDeclTest.successDesugarDecls(session, CODE).forEach(stmt -> {
+        if (stmt instanceof Decl decl) decl.tyck(session, ThrowingReporter.INSTANCE, builder);
+      });
+    }
+    var millis = (System.nanoTime() - startup) / 1_000_000;
+    return new Run(millis, bytes < 0 ? -1 : allocated() - bytes);
+  }
+
+  private static int count(@NotNull Buffer<Trace> traces) {
+    var count = traces.size();
+    for (var trace : traces) count += count(trace.children());
+    return count;
+  }
+
+  @Test public void church() {
+    // Warm up
+    tyck(null);
+    var builder = new Trace.Builder();
+    var traced = tyck(builder);
+    var untraced = tyck(null);
+    var entries = count(builder.root());
+    println("Church, traced: " + traced + ", untraced: " + untraced + ", " + entries + " trace entries");
+    assertTrue(entries > 0);
+    assumeTrue(traced.bytes >= 0 && untraced.bytes >= 0);
+    // Without a builder, neither the entries nor their payloads are built
+    assertTrue(traced.bytes - untraced.bytes >= (long) entries * ENTRY_BYTES);
+  }
+}
@@ -0,0 +1,103 @@
+// Copyright (c) 2020-2021 Yinsen (Tesla) Zhang.
+// Use of this source code is governed by the GNU GPLv3 license that can be found in the LICENSE file.
+package org.aya.experiments;
+
+import kala.tuple.Unit;
+import org.aya.api.distill.DistillerOptions;
+import org.aya.api.util.NormalizeMode;
+import org.aya.core.NormalizeTest;
+import org.aya.core.def.FnDef;
+import org.aya.core.term.ElimTerm;
+import org.aya.core.term.RefTerm;
+import org.aya.core.term.Term;
+import org.aya.core.visitor.TermConsumer;
+import org.aya.core.visitor.TermFixpoint;
+import org.aya.tyck.TyckDeclTest;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+
+import static org.aya.test.BenchOutput.println;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+/** Traverses the same terms on the Java stack and with {@link org.aya.core.visitor.TermTraversal} */
+public class TraversalBench {
+  public static final int ROUNDS = 16;
+
+  /** Counts the references and the applications, which most of the terms are */
+  private static final class Counter implements TermConsumer<Unit> {
+    private int count = 0;
+
+    @Override public Unit visitRef(@NotNull RefTerm term, Unit unit) {
+      count++;
+      return TermConsumer.super.visitRef(term, unit);
+    }
+
+    @Override public Unit visitApp(@NotNull ElimTerm.App term, Unit unit) {
+      count++;
+      return TermConsumer.super.visitApp(term, unit);
+    }
+  }
+
+  private static final class IterativeCounter implements TermConsumer.Iterative<Unit> {
+    private int count = 0;
+
+    @Override public boolean pre(@NotNull Term term, Unit unit) {
+      if (term instanceof RefTerm || term instanceof ElimTerm.App) count++;
+      return true;
+    }
+  }
+
+  @Test public void identity() throws IOException {
+    var terms = NormalizeTest.successCorpusTerms();
+    var decls = TyckDeclTest.successTyckDecls("""
+      def Num => Pi (x : Type 0) -> (x -> x) -> (x -> x)
+      def zero : Num => \\ A f x => x
+      def suc (a : Num) : Num => \\ A f x => a A f (f x)
+      def mul (a b : Num) : Num => \\A f x => a A (b A f) x
+      def #2 : Num => suc (suc zero)
+      def #256 : Num => mul (mul (mul #2 #2) (mul #2 #2)) (mul (mul #2 #2) (mul #2 #2))
+      """);
+    terms.append(((FnDef) decls.last()).body().getLeftValue().normalize(NormalizeMode.NF));
+    var recursive = new TermFixpoint<Unit>() {
+    };
+    var iterative = new TermFixpoint.Iterative<Unit>() {
+    };
+    var recursiveResults = new Term[terms.size()];
+    var iterativeResults = new Term[terms.size()];
+    var startup = System.nanoTime();
+    for (int r = 0; r < ROUNDS; r++)
+      for (int i = 0; i < terms.size(); i++) recursiveResults[i] = terms.get(i).accept(recursive, Unit.unit());
+    var recursiveTime = System.nanoTime() - startup;
+    startup = System.nanoTime();
+    for (int r = 0; r < ROUNDS; r++)
+      for (int i = 0; i < terms.size(); i++) iterativeResults[i] = iterative.traverse(terms.get(i), Unit.unit());
+    var iterativeTime = System.nanoTime() - startup;
+    println("Fixpoint, recursive: " + recursiveTime / 1000 + "us, iterative: " + iterativeTime / 1000 + "us");
+    for (int i = 0; i < terms.size(); i++) {
+      // Only the structures are rebuilt, and they are rebuilt by both
+      if (recursiveResults[i] == terms.get(i)) assertSame(terms.get(i), iterativeResults[i]);
+      assertEquals(recursiveResults[i].toDoc(DistillerOptions.DEBUG).debugRender(),
+        iterativeResults[i].toDoc(DistillerOptions.DEBUG).debugRender());
+    }
+    var counts = new long[2];
+    startup = System.nanoTime();
+    for (var term : terms) {
+      var counter = new Counter();
+      term.accept(counter, Unit.unit());
+      counts[0] += counter.count;
+    }
+    recursiveTime = System.nanoTime() - startup;
+    startup = System.nanoTime();
+    for (var term : terms) {
+      var counter = new IterativeCounter();
+      counter.traverse(term, Unit.unit());
+      counts[1] += counter.count;
+    }
+    iterativeTime = System.nanoTime() - startup;
+    println("Consumer, recursive: " + recursiveTime / 1000 + "us, iterative: " + iterativeTime / 1000 + "us");
+    assertEquals(counts[0], counts[1]);
+  }
+}
@@ -0,0 +1,102 @@
+// Copyright (c) 2020-2021 Yinsen (Tesla) Zhang.
+// Use of this source code is governed by the GNU GPLv3 license that can be found in the LICENSE file.
+package org.aya.experiments;
+
+import kala.collection.immutable.ImmutableSeq;
+import kala.collection.mutable.MutableMap;
+import org.aya.api.error.IgnoringReporter;
+import org.aya.cli.single.CompilerFlags;
+import org.aya.cli.single.SingleFileCompiler;
+import org.aya.core.def.PrimDef;
+import org.aya.test.TestRunner;
+import org.aya.tyck.CompilationSession;
+import org.aya.tyck.TyckDeclTest;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+import static org.aya.test.BenchOutput.println;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/** Tycks the same programs with and without the WHNF and conversion caches, and compares the run times */
+public class WhnfCacheBench {
+  public static final int CAPACITY = 4096;
+  public static final int ROUNDS = 3;
+
+  private record Caches(int whnfCacheCapacity, int convCacheCapacity) {
+    private @NotNull CompilationSession session() {
+      return new CompilationSession(false, whnfCacheCapacity, convCacheCapacity, false);
+    }
+  }
+
+  /** Without any cache first, the others are compared to it */
+  private static final Caches[] CACHES = {
+    new Caches(0, 0), new Caches(CAPACITY, 0), new Caches(0, CAPACITY), new Caches(CAPACITY, CAPACITY)
+  };
+
+  /**
+   * Runs the configurations alternately after a warm-up, so the JIT treats them alike,
+   * and keeps the shortest time of each.
+   */
+  private static void compare(@NotNull String name, @NotNull Consumer<CompilationSession> tyck) {
+    tyck.accept(new CompilationSession());
+    var times = new long[CACHES.length];
+    Arrays.fill(times, Long.MAX_VALUE);
+    for (int r = 0; r < ROUNDS; r++)
+      for (int i = 0; i < CACHES.length; i++) {
+        var session = CACHES[i].session();
+        var startup = System.nanoTime();
+        tyck.accept(session);
+        times[i] = Math.min(times[i], System.nanoTime() - startup);
+        if (r > 0) continue;
+        println(name + ", " + CACHES[i] + ": " + session.whnfStats() + ", "
+          + session.convStats() + ", " + session.eqnStats());
+        if (CACHES[i].whnfCacheCapacity > 0) assertTrue(session.whnfStats().hits().sum() > 0);
+      }
+    for (int i = 0; i < CACHES.length; i++) {
+      println(name + ", " + CACHES[i] + ": " + times[i] / 1000 + "us");
+      // The times are noisy, so only a cache slowing tycking down a lot is caught
+      assertTrue(times[i] <= 2 * times[0], CACHES[i] + " is slower than no cache");
+    }
+  }
+
+  @Test public void hugeChurch() {
+    compare("Church", session -> TyckDeclTest.successTyckDecls(session, """
+      def Num => Pi (x : Type 0) -> (x -> x) -> (x -> x)
+      def zero : Num => \\ A f x => x
+      def suc (a : Num) : Num => \\ A f x => a A f (f x)
+      def add (a b : Num) : Num => \\A f x => a A f (b A f x)
+      def mul (a b : Num) : Num => \\A f x => a A (b A f) x
+      def #2 : Num => suc (suc zero)
+      def #4 : Num => mul #2 #2
+      def #16 : Num => mul #4 #4
+      def #256 : Num => add #16 #16
+      """));
+  }
+
+  @Test public void successCorpus() throws IOException {
+    var sources = Files.walk(TestRunner.TEST_SOURCE_DIR.resolve("success"))
+      .filter(file -> file.toString().endsWith(".aya"))
+      .collect(ImmutableSeq.factory());
+    var flags = new CompilerFlags(CompilerFlags.Message.ASCII, false, null, ImmutableSeq.empty());
+    var compiler = new SingleFileCompiler(IgnoringReporter.INSTANCE, TestRunner.LOCATOR, null);
+    compare("Corpus", shared -> {
+      for (var file : sources) {
+        // Each file is a module named Mian, so only the caches and their statistics are shared
+        var session = new CompilationSession(new PrimDef.Factory(), MutableMap.create(), false,
+          shared.whnfCacheCapacity(), shared.convCacheCapacity(),
+          shared.whnfStats(), shared.convStats(), shared.eqnStats(), null);
+        try {
+          compiler.compile(file, ImmutableSeq.of("Mian"), flags, null, session, null);
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      }
+    });
+  }
+}
@@ -0,0 +1,15 @@
+// Copyright (c) 2020-2021 Yinsen (Tesla) Zhang.
+// Use of this source code is governed by the GNU GPLv3 license that can be found in the LICENSE file.
+package org.aya.test;
+
+import org.jetbrains.annotations.NotNull;
+
+/** The measurements of the benchmarks in <code>org.aya.experiments</code>, printed when uncommented */
+public final class BenchOutput {
+  private BenchOutput() {
+  }
+
+  public static void println(@NotNull String s) {
+    // System.out.println(s);
+  }
+}
@@ -3,16 +3,13 @@
 package org.aya.test;
 
 import kala.collection.immutable.ImmutableSeq;
-import org.aya.api.Global;
 import org.aya.api.error.CountingReporter;
 import org.aya.api.error.SourceFileLocator;
 import org.aya.api.error.StreamReporter;
 import org.aya.cli.single.CompilerFlags;
 import org.aya.cli.single.SingleFileCompiler;
-import org.aya.core.def.PrimDef;
+import org.aya.tyck.CompilationSession;
 import org.jetbrains.annotations.NotNull;
-import org.junit.jupiter.api.AfterAll;
-import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 
 import java.io.ByteArrayOutputStream;
@@ -31,15 +28,6 @@ public class TestRunner {
   public static final @NotNull SourceFileLocator LOCATOR = new SourceFileLocator() {
   };
 
-  @BeforeAll public static void startDash() {
-    PrimDef.Factory.INSTANCE.clear();
-    Global.NO_RANDOM_NAME = true;
-  }
-
-  @AfterAll public static void exit() {
-    Global.reset();
-  }
-
   @Test void runAllAyaTests() throws IOException {
     runDir(TEST_SOURCE_DIR.resolve("success"), true);
     runDir(TEST_SOURCE_DIR.resolve("failure"), false);
@@ -62,8 +50,9 @@ public class TestRunner {
         hookOut, true, StandardCharsets.UTF_8)));
 
       System.out.print(file.getFileName() + " ---> ");
-      new SingleFileCompiler(reporter, LOCATOR, null)
-        .compile(file, new CompilerFlags(CompilerFlags.Message.ASCII, false, null, ImmutableSeq.empty()), null);
+      new SingleFileCompiler(reporter, LOCATOR, null).compile(file, ImmutableSeq.of("Mian"),
+        new CompilerFlags(CompilerFlags.Message.ASCII, false, null, ImmutableSeq.empty()),
+        null, new CompilationSession(true), null);
 
       postRun(file, expectSuccess, hookOut.toString(StandardCharsets.UTF_8), reporter);
     } catch (IOException e) {
@@ -18,7 +18,7 @@ import static org.junit.jupiter.api.Assertions.assertEquals;
  */
 public class PatCCTest {
   public static @NotNull ImmutableSeq<PatClassifier.PatClass> testClassify(@NotNull FnDef fnDef) {
-    var clauses = fnDef.body.getRightValue().map(Pat.PrototypeClause::prototypify);
+    var clauses = fnDef.body().getRightValue().map(Pat.PrototypeClause::prototypify);
     return PatClassifier.classify(clauses, fnDef.telescope, ThrowingReporter.INSTANCE, SourcePos.NONE, true);
   }
 
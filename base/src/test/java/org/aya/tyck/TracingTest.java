@@ -32,10 +32,11 @@ public class TracingTest {
   }
 
   @NotNull private Trace.Builder mkBuilder(@Language("TEXT") String code) {
-    var decls = TyckDeclTest.successDesugarDecls(code);
+    var session = new CompilationSession();
+    var decls = TyckDeclTest.successDesugarDecls(session, code);
     var builder = new Trace.Builder();
     decls.forEach(decl -> {
-      if (decl instanceof Decl signatured) signatured.tyck(ThrowingReporter.INSTANCE, builder);
+      if (decl instanceof Decl signatured) signatured.tyck(session, ThrowingReporter.INSTANCE, builder);
     });
     return builder;
   }
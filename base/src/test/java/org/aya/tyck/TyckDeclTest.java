@@ -3,6 +3,8 @@
 package org.aya.tyck;
 
 import kala.collection.immutable.ImmutableSeq;
+import org.aya.api.error.CountingReporter;
+import org.aya.api.error.IgnoringReporter;
 import org.aya.api.error.SourceFile;
 import org.aya.concrete.ParseTest;
 import org.aya.concrete.desugar.BinOpSet;
@@ -16,14 +18,20 @@ import org.aya.concrete.stmt.Stmt;
 import org.aya.core.def.DataDef;
 import org.aya.core.def.Def;
 import org.aya.core.def.FnDef;
+import org.aya.core.def.PrimDef;
 import org.aya.core.term.CallTerm;
 import org.aya.test.ThrowingReporter;
+import org.aya.tyck.order.TyckScheduler;
 import org.intellij.lang.annotations.Language;
 import org.jetbrains.annotations.NonNls;
 import org.jetbrains.annotations.NotNull;
 import org.junit.jupiter.api.Test;
 
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -34,8 +42,8 @@ public class TyckDeclTest {
     var opSet = new BinOpSet(ThrowingReporter.INSTANCE);
     decl.resolve(opSet);
     opSet.sort();
-    decl.desugar(ThrowingReporter.INSTANCE, opSet);
-    var def = decl.tyck(ThrowingReporter.INSTANCE, null);
+    decl.desugar(ParseTest.SESSION, ThrowingReporter.INSTANCE, opSet);
+    var def = decl.tyck(ParseTest.SESSION, ThrowingReporter.INSTANCE, null);
     assertNotNull(def);
     assertTrue(def instanceof FnDef);
     return ((FnDef) def);
@@ -52,15 +60,158 @@ public class TyckDeclTest {
     var xyr = (FnDef) defs.get(1);
     var ctors = nat.body;
     assertEquals(2, ctors.size());
-    var clauses = xyr.body.getRightValue();
+    var clauses = xyr.body().getRightValue();
     var sucToZero = clauses.get(1);
     var sucCtor = ctors.get(1);
     assertEquals(1, sucCtor.selfTele.size());
     assertEquals(((CallTerm.Con) sucToZero.body()).ref(), sucCtor.ref);
   }
 
+  @Test public void tyckOrder() {
+    var session = new CompilationSession();
+    var decls = successDesugarDecls(session, """
+      data Nat : Type | zero | suc Nat
+      data Bool : Type | true | false
+      def two : Nat => suc (suc zero)
+      def not (b : Bool) : Bool
+        | true => false
+        | false => true
+      def twice (n : Nat) : Nat
+        | zero => zero
+        | suc n => suc (suc (twice n))""");
+    var defs = TyckScheduler.tyck(session, decls, ThrowingReporter.INSTANCE, null);
+    assertEquals(decls.map(stmt -> ((Decl) stmt).ref()), defs.map(Def::ref));
+  }
+
+  /** Checked in the same wave as the erroring definition, but after it */
+  @Test public void discardAfterError() {
+    var session = new CompilationSession();
+    var decls = successDesugarDecls(session, """
+      data Nat : Type | zero | suc Nat
+      data Bool : Type | true | false
+      def bad : Nat => true
+      def two : Nat => suc (suc zero)""");
+    var reporter = new CountingReporter(IgnoringReporter.INSTANCE);
+    var defs = TyckScheduler.tyck(session, decls, reporter, null);
+    assertFalse(reporter.isEmpty());
+    assertEquals(decls.take(3).map(stmt -> ((Decl) stmt).ref()), defs.map(Def::ref));
+    assertNull(((Decl) decls.get(3)).ref().core);
+  }
+
+  @Test public void concurrentSessions() throws Exception {
+    @Language("TEXT") var code = """
+      prim I prim left prim right
+      struct Path (A : Pi I -> Type) (a : A left) (b : A right) : Type
+       | at (i : I) : A i {
+         | left => a
+         | right => b
+       }
+      def path {A : Pi I -> Type} (p : Pi (i : I) -> A i)
+        => new Path A (p left) (p right) { | at i => p i }
+      """;
+    var pool = Executors.newFixedThreadPool(4);
+    try {
+      Callable<ImmutableSeq<Def>> tyck = () -> successTyckDecls(code);
+      var results = pool.invokeAll(Collections.nCopies(8, tyck));
+      var intervals = new HashSet<Def>();
+      for (var result : results) intervals.add(result.get().first());
+      // Every session has its own primitives
+      assertEquals(results.size(), intervals.size());
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  /** Sessions tycking the same code side by side count, cache and intern only their own work */
+  @Test public void sessionsSideBySide() throws Exception {
+    @Language("TEXT") var code = """
+      prim I
+      def Num => Pi (x : Type 0) -> (x -> x) -> (x -> x)
+      def zero : Num => \\ A f x => x
+      def suc (a : Num) : Num => \\ A f x => a A f (f x)
+      def mul (a b : Num) : Num => \\A f x => a A (b A f) x
+      def #2 : Num => suc (suc zero)
+      def #16 : Num => mul (mul #2 #2) (mul #2 #2)
+      """;
+    var sessions = ImmutableSeq.of(new CompilationSession(false, 64, 64, true), new CompilationSession(false, 64, 64, true));
+    var pool = Executors.newFixedThreadPool(sessions.size());
+    try {
+      var tycks = sessions.map(session -> (Callable<ImmutableSeq<Def>>) () -> successTyckDecls(session, code));
+      for (var result : pool.invokeAll(tycks.asJava())) result.get();
+    } finally {
+      pool.shutdown();
+    }
+    var first = sessions.first();
+    var second = sessions.last();
+    assertTrue(first.whnfStats().misses().sum() > 0);
+    assertEquals(first.whnfStats().toString(), second.whnfStats().toString());
+    assertEquals(first.convStats().toString(), second.convStats().toString());
+    assertEquals(first.eqnStats().toString(), second.eqnStats().toString());
+    var firstInterner = Objects.requireNonNull(first.interner());
+    var secondInterner = Objects.requireNonNull(second.interner());
+    assertNotSame(firstInterner, secondInterner);
+    assertEquals(firstInterner.size(), secondInterner.size());
+    assertNotSame(first.primFactory().getOption(PrimDef.ID.INTERVAL).get(),
+      second.primFactory().getOption(PrimDef.ID.INTERVAL).get());
+  }
+
+  @Test public void internEqualTerms() {
+    var session = new CompilationSession(false, 0, 0, true);
+    var defs = successTyckDecls(session, """
+      open data Nat : Type | zero | suc Nat
+      def two : Nat => suc (suc zero)
+      def deux : Nat => suc (suc zero)
+      """);
+    var two = (FnDef) defs.get(1);
+    var deux = (FnDef) defs.get(2);
+    assertSame(two.body().getLeftValue(), deux.body().getLeftValue());
+    assertSame(two.result, deux.result);
+    var interner = Objects.requireNonNull(session.interner());
+    assertTrue(interner.hits.sum() > 0);
+    assertTrue(interner.size() > 0);
+  }
+
+  @Test public void primsPerFile() {
+    var session = new CompilationSession();
+    // Like two independent files of a library
+    successTyckDecls(session.forFile(), "prim I prim left prim right");
+    successTyckDecls(session.forFile(), "prim I");
+    var loaded = session.primFactory().getOrCreate(PrimDef.ID.INTERVAL);
+    var file = session.forFile().primFactory();
+    assertTrue(file.have(PrimDef.ID.INTERVAL));
+    assertFalse(file.declared(PrimDef.ID.INTERVAL));
+    assertSame(loaded, file.getOrCreate(PrimDef.ID.INTERVAL));
+  }
+
+  @Test public void heights() {
+    var defs = successTyckDecls("""
+      open data Nat : Type | zero | suc Nat
+      def add (a b : Nat) : Nat
+       | zero, b => b
+       | suc a, b => suc (add a b)
+      def double (a : Nat) : Nat => add a a
+      def quad (a : Nat) : Nat => double (double a)
+      def one : Nat => suc zero
+      """);
+    var add = (FnDef) defs.get(1);
+    var dbl = (FnDef) defs.get(2);
+    var quad = (FnDef) defs.get(3);
+    var one = (FnDef) defs.get(4);
+    assertEquals(1, add.height);
+    assertEquals(2, dbl.height);
+    assertEquals(3, quad.height);
+    assertEquals(1, one.height);
+  }
+
   public static @NotNull ImmutableSeq<Stmt> successDesugarDecls(@Language("TEXT") @NonNls @NotNull String text) {
-    var decls = new AyaProducer(SourceFile.NONE,
+    return successDesugarDecls(new CompilationSession(), text);
+  }
+
+  public static @NotNull ImmutableSeq<Stmt> successDesugarDecls(
+    @NotNull CompilationSession session,
+    @Language("TEXT") @NonNls @NotNull String text
+  ) {
+    var decls = new AyaProducer(session, SourceFile.NONE,
       ThrowingReporter.INSTANCE).visitProgram(AyaParsing.parser(text).program());
     var ssr = new StmtShallowResolver(new EmptyModuleLoader(), null);
     var ctx = new EmptyContext(ThrowingReporter.INSTANCE).derive("decl");
@@ -68,13 +219,20 @@ public class TyckDeclTest {
     var opSet = new BinOpSet(ThrowingReporter.INSTANCE);
     decls.forEach(s -> s.resolve(opSet));
     opSet.sort();
-    decls.forEach(stmt -> stmt.desugar(ThrowingReporter.INSTANCE, opSet));
+    decls.forEach(stmt -> stmt.desugar(session, ThrowingReporter.INSTANCE, opSet));
     return decls;
   }
 
   public static @NotNull ImmutableSeq<Def> successTyckDecls(@Language("TEXT") @NonNls @NotNull String text) {
-    return successDesugarDecls(text).view()
-      .map(i -> i instanceof Decl s ? s.tyck(ThrowingReporter.INSTANCE, null) : null)
+    return successTyckDecls(new CompilationSession(), text);
+  }
+
+  public static @NotNull ImmutableSeq<Def> successTyckDecls(
+    @NotNull CompilationSession session,
+    @Language("TEXT") @NonNls @NotNull String text
+  ) {
+    return successDesugarDecls(session, text).view()
+      .map(i -> i instanceof Decl s ? s.tyck(session, ThrowingReporter.INSTANCE, null) : null)
       .filter(Objects::nonNull).toImmutableSeq();
   }
 }
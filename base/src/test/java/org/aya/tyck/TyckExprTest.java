@@ -2,13 +2,16 @@
 // Use of this source code is governed by the GNU GPLv3 license that can be found in the LICENSE file.
 package org.aya.tyck;
 
-
+import kala.collection.immutable.ImmutableSeq;
+import org.aya.api.error.SourcePos;
+import org.aya.api.ref.LocalVar;
 import org.aya.concrete.stmt.Decl;
+import org.aya.core.term.FormTerm;
 import org.aya.test.ThrowingReporter;
 import org.jetbrains.annotations.NotNull;
 import org.junit.jupiter.api.Test;
 
-import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.*;
 
 /**
  * Test if the tycker is functioning, say, working for simple cases.
@@ -17,11 +20,12 @@ import static org.junit.jupiter.api.Assertions.assertFalse;
  */
 public class TyckExprTest {
   public static @NotNull ExprTycker tycker() {
-    return new ExprTycker(ThrowingReporter.INSTANCE, null);
+    return new ExprTycker(new CompilationSession(), ThrowingReporter.INSTANCE, null);
   }
 
   @Test public void levelEqns() {
-    var decls = TyckDeclTest.successDesugarDecls("""
+    var session = new CompilationSession();
+    var decls = TyckDeclTest.successDesugarDecls(session, """
       universe uu
       def Empty : Type (lsuc uu) => Pi (A : Type uu) -> A
       def neg (A : Type uu) : Type (lsuc (lsuc uu)) => A -> Empty
@@ -29,11 +33,50 @@ public class TyckExprTest {
       def U => Pi (X : Type) (f : P (P X) -> X) -> P (P X)""");
 
     decls.dropLast(1).forEach(decl -> {
-      if (decl instanceof Decl signatured) signatured.tyck(ThrowingReporter.INSTANCE, null);
+      if (decl instanceof Decl signatured) signatured.tyck(session, ThrowingReporter.INSTANCE, null);
     });
     var decl = (Decl.FnDecl) decls.last();
     var tycker = tycker();
     tycker.synthesize(decl.body.getLeftValue());
     assertFalse(tycker.levelEqns.forZZS().isEmpty());
   }
+
+  @Test public void localCtxSharing() {
+    var ctx = new LocalCtx();
+    var a = new LocalVar("a");
+    var b = new LocalVar("b");
+    ctx.put(a, FormTerm.Univ.OMEGA);
+    var clause = ctx.derive();
+    clause.put(b, FormTerm.Univ.OMEGA);
+    var first = clause.freshHole(FormTerm.Univ.OMEGA, SourcePos.NONE)._1.ref().core();
+    var second = clause.freshHole(FormTerm.Univ.OMEGA, SourcePos.NONE)._1.ref().core();
+    assertSame(first.contextTele, second.contextTele);
+    assertEquals(a, first.contextTele.first().ref());
+    assertSame(FormTerm.Univ.OMEGA, clause.get(a));
+    clause.with(new LocalVar("c"), FormTerm.Univ.OMEGA, () -> {
+      assertEquals(3, clause.extract().size());
+      return null;
+    });
+    clause.remove(ImmutableSeq.of(b).view());
+    assertEquals(1, clause.extract().size());
+    assertTrue(ctx.isNotEmpty());
+  }
+
+  /** Leaving a scope restores the shadowed types and forgets what the scope added */
+  @Test public void localCtxWith() {
+    var ctx = new LocalCtx();
+    var a = new LocalVar("a");
+    var b = new LocalVar("b");
+    ctx.put(a, FormTerm.Univ.OMEGA);
+    ctx.with(a, FormTerm.Univ.ZERO, () -> {
+      ctx.put(b, FormTerm.Univ.ZERO);
+      assertSame(FormTerm.Univ.ZERO, ctx.get(a));
+      return null;
+    });
+    assertSame(FormTerm.Univ.OMEGA, ctx.get(a));
+    assertEquals(1, ctx.extract().size());
+    ctx.put(b, FormTerm.Univ.ZERO);
+    assertEquals(2, ctx.extract().size());
+    assertEquals(b, ctx.extract().last().ref());
+  }
 }
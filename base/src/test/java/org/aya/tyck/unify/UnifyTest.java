@@ -0,0 +1,70 @@
+// Copyright (c) 2020-2021 Yinsen (Tesla) Zhang.
+// Use of this source code is governed by the GNU GPLv3 license that can be found in the LICENSE file.
+package org.aya.tyck.unify;
+
+import kala.collection.immutable.ImmutableMap;
+import kala.collection.immutable.ImmutableSeq;
+import org.aya.api.error.SourcePos;
+import org.aya.api.ref.HoleVar;
+import org.aya.core.Meta;
+import org.aya.core.term.CallTerm;
+import org.aya.core.term.FormTerm;
+import org.aya.core.visitor.Occurrences;
+import org.aya.test.ThrowingReporter;
+import org.aya.tyck.CompilationSession;
+import org.aya.tyck.TyckDeclTest;
+import org.aya.tyck.unify.level.LevelEqnSet;
+import org.aya.util.Ordering;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class UnifyTest {
+  private static final @NotNull String BIG = "Nat -> ".repeat(Occurrences.SIZE_THRESHOLD) + "Nat";
+
+  private static @NotNull HoleVar<Meta> meta(@NotNull String name) {
+    return new HoleVar<>(name, Meta.from(ImmutableSeq.empty(), FormTerm.Univ.OMEGA, SourcePos.NONE));
+  }
+
+  private static @NotNull EqnSet.Eqn eqn(@NotNull HoleVar<Meta> meta) {
+    var hole = new CallTerm.Hole(meta, ImmutableSeq.empty(), ImmutableSeq.empty());
+    return new EqnSet.Eqn(hole, FormTerm.Univ.ZERO, Ordering.Eq, SourcePos.NONE, ImmutableMap.empty());
+  }
+
+  /** Solving a meta wakes up the equations mentioning it, and only them */
+  @Test public void wakeByMeta() {
+    var stats = new EqnSet.Stats();
+    var eqns = new EqnSet(stats);
+    var a = meta("a");
+    var b = meta("b");
+    eqns.addEqn(eqn(a));
+    eqns.addEqn(eqn(b));
+    var levelEqns = new LevelEqnSet();
+    assertFalse(eqns.simplify(levelEqns, null, null, ThrowingReporter.INSTANCE, null));
+    assertEquals(0, stats.woken().sum());
+    assertTrue(WhnfCache.solve(null, a, FormTerm.Univ.ZERO));
+    assertTrue(eqns.simplify(levelEqns, null, null, ThrowingReporter.INSTANCE, null));
+    assertEquals(2, stats.postponed().sum());
+    assertEquals(1, stats.woken().sum());
+    assertEquals(1, eqns.eqns().size());
+    assertSame(b, ((CallTerm.Hole) eqns.eqns().iterator().next().lhs()).ref());
+    assertFalse(eqns.simplify(levelEqns, null, null, ThrowingReporter.INSTANCE, null));
+    assertEquals(1, stats.woken().sum());
+  }
+
+  /**
+   * The parameters of <code>f</code> have the same interned type, so both arguments are compared to it alike.
+   * The type is large, since small terms are not remembered.
+   */
+  @Test public void convCacheHits() {
+    var session = new CompilationSession(false, 0, 64, true);
+    TyckDeclTest.successTyckDecls(session, """
+      open data Nat : Type 0 | zero | suc Nat
+      def T : Type 0 => %s
+      def f (a b : %s) : Nat => zero
+      def g (x : T) : Nat => f x x
+      """.formatted(BIG, BIG));
+    assertTrue(session.convStats().hits().sum() > 0);
+  }
+}
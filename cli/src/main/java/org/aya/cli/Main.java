@@ -35,7 +35,7 @@ public class Main extends MainArgs implements Callable<Integer> {
     var filePath = Paths.get(inputFile);
     if (isLibrary) {
       // TODO: move to a new tool
-      return LibraryCompiler.compile(filePath);
+      return LibraryCompiler.compile(filePath, jobs, caches());
     }
     var traceBuilder = traceFormat != null ? new Trace.Builder() : null;
     var compiler = new SingleFileCompiler(CliReporter.INSTANCE, null, traceBuilder);
@@ -46,7 +46,7 @@ public class Main extends MainArgs implements Callable<Integer> {
     ) : null;
     var status = compiler.compile(filePath, new CompilerFlags(
       message, interruptedTrace, distillation,
-      modulePaths().view().map(Paths::get)), null);
+      modulePaths().view().map(Paths::get), caches()), null);
     if (traceBuilder != null) switch (traceFormat) {
       case imgui -> {
         JniLoader.load();
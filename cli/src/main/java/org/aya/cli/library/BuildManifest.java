@@ -0,0 +1,154 @@
+// Copyright (c) 2020-2021 Yinsen (Tesla) Zhang.
+// Use of this source code is governed by the GNU GPLv3 license that can be found in the LICENSE file.
+package org.aya.cli.library;
+
+import kala.collection.SeqLike;
+import kala.collection.immutable.ImmutableSeq;
+import kala.collection.mutable.MutableMap;
+import org.aya.concrete.resolve.module.FileModuleLoader;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+/**
+ * Records what the cores of a library were compiled from: the hash of the source file
+ * and the fingerprints of the imported modules. A fingerprint is the hash of the core,
+ * because importers may unfold any definition in it, combined with the fingerprints of
+ * the modules it imports, since their definitions may be unfolded through it as well.
+ * So a rebuilt module whose core and imports stay the same does not invalidate its importers.
+ * Modules of other libraries are not in the manifest, their fingerprints are only the hash of the core.
+ */
+final class BuildManifest {
+  private static final @NotNull String FILE_NAME = "manifest.ayam";
+  private final @NotNull Path outRoot;
+  private final @NotNull MutableMap<String, Entry> entries;
+  private final @NotNull MutableMap<ImmutableSeq<String>, Entry> modules = MutableMap.create();
+
+  private BuildManifest(@NotNull Path outRoot, @NotNull MutableMap<String, Entry> entries) {
+    this.outRoot = outRoot;
+    this.entries = entries;
+    entries.forEach((source, entry) -> modules.set(entry.module, entry));
+  }
+
+  public static @NotNull BuildManifest read(@NotNull Path outRoot) {
+    var entries = MutableMap.<String, Entry>create();
+    var file = outRoot.resolve(FILE_NAME);
+    if (Files.exists(file)) try (var input = new ObjectInputStream(Files.newInputStream(file))) {
+      if (input.readObject() instanceof Saved saved) saved.entries.forEach(entry -> {
+        // The entries written by older versions miss some components
+        if (entry.module != null && entry.imports.allMatch(dep -> dep.fingerprint != null)) entries.set(entry.source, entry);
+      });
+    } catch (IOException | ClassNotFoundException ignore) {
+      // A broken manifest only makes us rebuild everything
+    }
+    return new BuildManifest(outRoot, entries);
+  }
+
+  public synchronized void write() throws IOException {
+    try (var output = new ObjectOutputStream(Files.newOutputStream(outRoot.resolve(FILE_NAME)))) {
+      output.writeObject(new Saved(entries.valuesView().toImmutableSeq()));
+    }
+  }
+
+  /**
+   * @param source            the source file name relative to the module paths, as the key
+   * @param compiledModulePath where the cores of the imported modules are found
+   */
+  public synchronized boolean needRecompile(
+    @NotNull String source, @NotNull Path file, @NotNull Path core,
+    @NotNull SeqLike<Path> compiledModulePath
+  ) {
+    var entry = entries.getOrNull(source);
+    if (entry == null || !Files.exists(core)) return true;
+    try {
+      if (!entry.sourceHash.equals(hash(file))) return true;
+      var fingerprints = MutableMap.<ImmutableSeq<String>, String>create();
+      for (var dep : entry.imports)
+        if (!dep.fingerprint.equals(fingerprint(dep.module, compiledModulePath, fingerprints))) return true;
+      return false;
+    } catch (IOException ignore) {
+      return true;
+    }
+  }
+
+  public void update(
+    @NotNull String source, @NotNull ImmutableSeq<String> module, @NotNull Path file,
+    @NotNull SeqLike<ImmutableSeq<String>> imports,
+    @NotNull SeqLike<Path> compiledModulePath
+  ) throws IOException {
+    var sourceHash = hash(file);
+    var deps = ImmutableSeq.<Dependency>empty();
+    synchronized (this) {
+      var fingerprints = MutableMap.<ImmutableSeq<String>, String>create();
+      for (var mod : imports) deps = deps.appended(new Dependency(mod, fingerprint(mod, compiledModulePath, fingerprints)));
+      var entry = new Entry(source, module, sourceHash, deps);
+      entries.set(source, entry);
+      modules.set(module, entry);
+    }
+  }
+
+  /**
+   * @param fingerprints computed in this run, so that a module imported in many ways is hashed once
+   * @return the hash of the core of the module and the fingerprints of its imports, recursively
+   */
+  private @NotNull String fingerprint(
+    @NotNull ImmutableSeq<String> mod, @NotNull SeqLike<Path> compiledModulePath,
+    @NotNull MutableMap<ImmutableSeq<String>, String> fingerprints
+  ) throws IOException {
+    var known = fingerprints.getOrNull(mod);
+    if (known != null) return known;
+    // Import cycles are reported when compiling, this only keeps us from looping
+    fingerprints.set(mod, "");
+    var builder = new StringBuilder(coreHash(mod, compiledModulePath));
+    var entry = modules.getOrNull(mod);
+    if (entry != null) for (var dep : entry.imports)
+      builder.append(':').append(fingerprint(dep.module, compiledModulePath, fingerprints));
+    var fingerprint = hash(builder.toString().getBytes(StandardCharsets.UTF_8));
+    fingerprints.set(mod, fingerprint);
+    return fingerprint;
+  }
+
+  /** @return the hash of the first core of the module found, empty if there is no such core */
+  private static @NotNull String coreHash(@NotNull ImmutableSeq<String> mod, @NotNull SeqLike<Path> compiledModulePath) throws IOException {
+    for (var path : compiledModulePath) {
+      var core = FileModuleLoader.resolveFile(path, mod, ".ayac");
+      if (Files.exists(core)) return hash(core);
+    }
+    return "";
+  }
+
+  public static @NotNull String hash(@NotNull Path file) throws IOException {
+    return hash(Files.readAllBytes(file));
+  }
+
+  private static @NotNull String hash(byte @NotNull [] bytes) {
+    try {
+      return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(bytes));
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  record Saved(@NotNull ImmutableSeq<Entry> entries) implements Serializable {
+  }
+
+  record Entry(
+    @NotNull String source,
+    @NotNull ImmutableSeq<String> module,
+    @NotNull String sourceHash,
+    @NotNull ImmutableSeq<Dependency> imports
+  ) implements Serializable {
+  }
+
+  record Dependency(@NotNull ImmutableSeq<String> module, @NotNull String fingerprint) implements Serializable {
+  }
+}
@@ -2,9 +2,14 @@
 // Use of this source code is governed by the GNU GPLv3 license that can be found in the LICENSE file.
 package org.aya.cli.library;
 
+import kala.collection.SeqLike;
 import kala.collection.immutable.ImmutableSeq;
 import kala.collection.mutable.Buffer;
+import kala.collection.mutable.MutableMap;
+import kala.collection.mutable.MutableSet;
+import kala.tuple.Tuple;
 import kala.tuple.Unit;
+import org.aya.api.error.IgnoringReporter;
 import org.aya.api.error.SourceFileLocator;
 import org.aya.cli.library.json.LibraryConfig;
 import org.aya.cli.library.json.LibraryConfigData;
@@ -12,26 +17,32 @@ import org.aya.cli.library.json.LibraryDependency;
 import org.aya.cli.single.CliReporter;
 import org.aya.cli.single.CompilerFlags;
 import org.aya.cli.single.SingleFileCompiler;
-import org.aya.concrete.resolve.module.FileModuleLoader;
+import org.aya.concrete.parse.AyaParsing;
+import org.aya.concrete.parse.ParsingInterruptedException;
+import org.aya.concrete.resolve.module.*;
 import org.aya.concrete.stmt.Stmt;
 import org.aya.core.def.Def;
 import org.aya.core.serde.CompiledAya;
-import org.aya.core.serde.Serializer;
+import org.aya.core.serde.CoreFormat;
+import org.aya.tyck.CompilationSession;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.io.IOException;
-import java.io.ObjectOutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * @author kiva
  */
-public record LibraryCompiler(@NotNull Path buildRoot) {
-  public static int compile(@NotNull Path libraryRoot) throws IOException {
+public record LibraryCompiler(@NotNull Path buildRoot, int jobs, @NotNull CompilerFlags.Caches caches) {
+  public static int compile(@NotNull Path libraryRoot, int jobs, @NotNull CompilerFlags.Caches caches) throws IOException {
     var config = LibraryConfigData.fromLibraryRoot(libraryRoot);
-    new LibraryCompiler(config.libraryBuildRoot()).make(config);
+    new LibraryCompiler(config.libraryBuildRoot(), jobs, caches).make(config);
     return 0;
   }
 
@@ -69,34 +80,124 @@ public record LibraryCompiler(@NotNull Path buildRoot) {
     compiledModulePath.append(srcRoot);
     modulePath.prepend(srcRoot);
 
-    Files.walk(srcRoot).filter(Files::isRegularFile)
-      .forEach(file -> callSingleFileCompiler(file, compiledModulePath, modulePath, outRoot));
+    var locator = new SourceFileLocator.Module(modulePath.view());
+    var sources = Files.walk(srcRoot).filter(Files::isRegularFile).collect(ImmutableSeq.factory());
+    var session = caches.newSession();
+    var sharedLoader = new SynchronizedModuleLoader(new ModuleListLoader(
+      compiledModulePath.view().map(path -> new CompiledModuleLoader(session, path, compiledModulePath)).toImmutableSeq()));
+    var manifest = BuildManifest.read(outRoot);
+    var failed = ConcurrentHashMap.<Path>newKeySet();
+    var pool = new ForkJoinPool(jobs);
+    try {
+      var imports = importGraph(srcRoot, locator, sources);
+      for (var wave : waves(sources, imports)) pool.invokeAll(wave.<Callable<Unit>>map(file -> () -> {
+        if (imports.get(file).anyMatch(failed::contains)) {
+          System.out.println(" -- " + locator.displayName(file) + " : SKIPPED");
+          failed.add(file);
+        } else if (!callSingleFileCompiler(file, srcRoot, compiledModulePath, locator, outRoot, manifest,
+          // Independent files may declare the same primitives
+          session.forFile(), sharedLoader))
+          failed.add(file);
+        return Unit.unit();
+      }).asJava());
+    } finally {
+      pool.shutdown();
+      manifest.write();
+    }
+    caches.stats(session).forEach(System.out::println);
   }
 
-  private void callSingleFileCompiler(
+  /**
+   * The imports are collected syntactically (see {@link AyaParsing#imports}), because
+   * {@link FileModuleLoader.FileResolveInfo#imports()} is only available after loading them.
+   *
+   * @return the files in this library imported by each file
+   */
+  private static @NotNull MutableMap<Path, ImmutableSeq<Path>> importGraph(
+    @NotNull Path srcRoot,
+    @NotNull SourceFileLocator locator,
+    @NotNull ImmutableSeq<Path> sources
+  ) throws IOException {
+    var modules = sources.map(file -> Tuple.of(moduleName(srcRoot, file), file)).<ImmutableSeq<String>, Path>toImmutableMap();
+    var graph = MutableMap.<Path, ImmutableSeq<Path>>create();
+    for (var file : sources) {
+      ImmutableSeq<ImmutableSeq<String>> imports;
+      try {
+        imports = AyaParsing.imports(locator, IgnoringReporter.INSTANCE, file);
+      } catch (ParsingInterruptedException e) {
+        // Reported when the file is compiled
+        imports = ImmutableSeq.empty();
+      }
+      graph.set(file, imports.view().filter(modules::containsKey).map(modules::get).toImmutableSeq());
+    }
+    return graph;
+  }
+
+  /**
+   * Topological layers of the import graph: every file only imports files in previous waves.
+   * Files in an import cycle are put in the last wave, where the cycle gets reported.
+   */
+  private static @NotNull ImmutableSeq<ImmutableSeq<Path>> waves(
+    @NotNull ImmutableSeq<Path> sources,
+    @NotNull MutableMap<Path, ImmutableSeq<Path>> imports
+  ) {
+    var waves = Buffer.<ImmutableSeq<Path>>create();
+    var done = MutableSet.<Path>of();
+    var remaining = sources;
+    while (remaining.isNotEmpty()) {
+      var wave = remaining.filter(file -> imports.get(file).allMatch(done::contains));
+      if (wave.isEmpty()) wave = remaining;
+      wave.forEach(done::add);
+      remaining = remaining.filterNot(done::contains);
+      waves.append(wave);
+    }
+    return waves.toImmutableSeq();
+  }
+
+  /** @return false if the file failed to compile */
+  private boolean callSingleFileCompiler(
     @NotNull Path file,
+    @NotNull Path srcRoot,
     @NotNull Buffer<Path> compiledModulePath,
-    @NotNull Buffer<Path> modulePath,
-    @NotNull Path outRoot
+    @NotNull SourceFileLocator locator,
+    @NotNull Path outRoot,
+    @NotNull BuildManifest manifest,
+    @NotNull CompilationSession session,
+    @NotNull ModuleLoader sharedLoader
   ) {
-    var locator = new SourceFileLocator.Module(modulePath.view());
     var relativeToLibRoot = locator.displayName(file);
-    var timestamp = new Timestamp(locator, outRoot);
-    System.out.print(" -- " + relativeToLibRoot + " : ");
-    if (!timestamp.needRecompile(file)) {
-      System.out.println("UP-TO-DATE");
-      return;
+    try {
+      var core = coreFile(locator, file, outRoot);
+      if (!manifest.needRecompile(relativeToLibRoot.toString(), file, core, compiledModulePath)) {
+        // The source may be touched without being changed, keep it older than the core for CompiledModuleLoader
+        updateTime(file, core);
+        System.out.println(" -- " + relativeToLibRoot + " : UP-TO-DATE");
+        return true;
+      }
+    } catch (IOException e) {
+      e.printStackTrace();
+      return false;
     }
+    System.out.println(" -- " + relativeToLibRoot);
     var compiler = new SingleFileCompiler(CliReporter.INSTANCE, locator, null);
     try {
-      compiler.compile(file, new CompilerFlags(
-        CompilerFlags.Message.EMOJI, false, null, compiledModulePath
-      ), new CoreSaver(locator, outRoot, timestamp));
+      return compiler.compile(file, moduleName(srcRoot, file), new CompilerFlags(
+        CompilerFlags.Message.EMOJI, false, null, compiledModulePath, caches
+      ), new CoreSaver(locator, outRoot, manifest, compiledModulePath, file), session, sharedLoader) == 0;
     } catch (IOException e) {
       e.printStackTrace();
+      return false;
     }
   }
 
+  private static @NotNull ImmutableSeq<String> moduleName(@NotNull Path srcRoot, @NotNull Path file) {
+    var relative = srcRoot.relativize(file);
+    var fileName = relative.getFileName().toString();
+    var dotIndex = fileName.lastIndexOf('.');
+    var mod = ImmutableSeq.from(relative).map(Path::toString);
+    return mod.updated(mod.size() - 1, dotIndex > 0 ? fileName.substring(0, dotIndex) : fileName);
+  }
+
   private static @NotNull Path coreFile(
     @NotNull SourceFileLocator locator, @NotNull Path file, @NotNull Path outRoot
   ) throws IOException {
@@ -106,56 +207,70 @@ public record LibraryCompiler(@NotNull Path buildRoot) {
     return core;
   }
 
-  record Timestamp(@NotNull SourceFileLocator locator, @NotNull Path outRoot) {
-    public boolean needRecompile(@NotNull Path file) {
-      // TODO[kiva]: build file dependency and trigger recompile
-      try {
-        var core = coreFile(locator, file, outRoot);
-        if (!Files.exists(core)) return true;
-        return Files.getLastModifiedTime(file)
-          .compareTo(Files.getLastModifiedTime(core)) > 0;
-      } catch (IOException ignore) {
-        return true;
-      }
-    }
-
-    public void update(@NotNull Path file) {
-      try {
-        var core = coreFile(locator, file, outRoot);
-        Files.setLastModifiedTime(core, Files.getLastModifiedTime(file));
-      } catch (IOException ignore) {
-      }
-    }
+  private static void updateTime(@NotNull Path file, @NotNull Path core) throws IOException {
+    Files.setLastModifiedTime(core, Files.getLastModifiedTime(file));
   }
 
+  /**
+   * {@link #onTycked} is called before {@link #onResolved} (the latter is in a finally block),
+   * so we keep the tycked definitions until the export information is available.
+   * Only the core of {@link #owned} is saved: the dependencies tycked from source on the way
+   * belong to other compilations, which may be writing their cores at the same time.
+   */
   record CoreSaver(
     @NotNull SourceFileLocator locator,
     @NotNull Path outRoot,
-    @NotNull Timestamp timestamp
+    @NotNull BuildManifest manifest,
+    @NotNull SeqLike<Path> compiledModulePath,
+    @NotNull Path owned,
+    @NotNull MutableMap<Path, ImmutableSeq<Def>> tycked
   ) implements FileModuleLoader.FileModuleLoaderCallback {
+    public CoreSaver(
+      @NotNull SourceFileLocator locator, @NotNull Path outRoot,
+      @NotNull BuildManifest manifest, @NotNull SeqLike<Path> compiledModulePath, @NotNull Path owned
+    ) {
+      this(locator, outRoot, manifest, compiledModulePath, owned, MutableMap.create());
+    }
+
     @Override
     public void onResolved(@NotNull Path sourcePath, @NotNull FileModuleLoader.FileResolveInfo resolveInfo, @NotNull ImmutableSeq<Stmt> stmts) {
+      var defs = tycked.remove(sourcePath);
+      if (defs.isEmpty()) return;
+      saveCompiledCore(sourcePath, resolveInfo, defs.get());
+      try {
+        updateTime(sourcePath, coreFile(locator, sourcePath, outRoot));
+        manifest.update(locator.displayName(sourcePath).toString(), resolveInfo.thisModule().moduleName(),
+          sourcePath, resolveInfo.imports(), compiledModulePath);
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
     }
 
     @Override
     public void onTycked(@NotNull Path sourcePath, @NotNull ImmutableSeq<Stmt> stmts, @NotNull ImmutableSeq<Def> defs) {
-      saveCompiledCore(sourcePath, defs);
-      timestamp.update(sourcePath);
+      if (sourcePath.equals(owned)) tycked.put(sourcePath, defs);
     }
 
-    private void saveCompiledCore(@NotNull Path sourcePath, ImmutableSeq<Def> defs) {
-      try (var outputStream = openCompiledCore(sourcePath)) {
-        var serDefs = defs.map(def -> def.accept(new Serializer(new Serializer.State()), Unit.unit()));
-        var compiled = CompiledAya.from(serDefs);
-        outputStream.writeObject(compiled);
+    /**
+     * The core is written to a temporary file and then moved, because the old one
+     * may still be mapped by {@link org.aya.concrete.resolve.module.CompiledModuleLoader}.
+     */
+    private void saveCompiledCore(
+      @NotNull Path sourcePath,
+      @NotNull FileModuleLoader.FileResolveInfo resolveInfo,
+      @NotNull ImmutableSeq<Def> defs
+    ) {
+      try {
+        var core = coreFile(locator, sourcePath, outRoot);
+        var temp = core.resolveSibling(core.getFileName() + ".tmp");
+        try (var outputStream = Files.newOutputStream(temp)) {
+          var compiled = CompiledAya.from(resolveInfo, defs);
+          CoreFormat.write(compiled, outputStream);
+        }
+        Files.move(temp, core, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
       } catch (IOException e) {
         e.printStackTrace();
       }
     }
-
-    private @NotNull ObjectOutputStream openCompiledCore(@NotNull Path sourcePath) throws IOException {
-      return new ObjectOutputStream(Files.newOutputStream(
-        coreFile(locator, sourcePath, outRoot)));
-    }
   }
 }
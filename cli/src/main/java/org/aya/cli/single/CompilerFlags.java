@@ -3,7 +3,9 @@
 package org.aya.cli.single;
 
 import kala.collection.SeqLike;
+import kala.collection.immutable.ImmutableSeq;
 import org.aya.cli.utils.MainArgs;
+import org.aya.tyck.CompilationSession;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
@@ -13,8 +15,16 @@ public record CompilerFlags(
   @NotNull Message message,
   boolean interruptedTrace,
   @Nullable DistillInfo distillInfo,
-  @NotNull SeqLike<Path> modulePaths
+  @NotNull SeqLike<Path> modulePaths,
+  @NotNull Caches caches
 ) {
+  public CompilerFlags(
+    @NotNull Message message, boolean interruptedTrace,
+    @Nullable DistillInfo distillInfo, @NotNull SeqLike<Path> modulePaths
+  ) {
+    this(message, interruptedTrace, distillInfo, modulePaths, Caches.NONE);
+  }
+
   public record DistillInfo(
     @NotNull MainArgs.DistillStage distillStage,
     @NotNull MainArgs.DistillFormat distillFormat,
@@ -22,6 +32,27 @@ public record CompilerFlags(
   ) {
   }
 
+  /**
+   * @param whnfCacheCapacity see {@link CompilationSession#whnfCacheCapacity()}
+   * @param convCacheCapacity see {@link CompilationSession#convCacheCapacity()}
+   * @param intern            see {@link CompilationSession#interner()}
+   */
+  public record Caches(int whnfCacheCapacity, int convCacheCapacity, boolean intern) {
+    public static final @NotNull Caches NONE = new Caches(0, 0, false);
+
+    public @NotNull CompilationSession newSession() {
+      return new CompilationSession(false, whnfCacheCapacity, convCacheCapacity, intern);
+    }
+
+    /** @return the statistics of the enabled caches of the session, to be printed after a build */
+    public @NotNull ImmutableSeq<String> stats(@NotNull CompilationSession session) {
+      var stats = ImmutableSeq.<String>empty();
+      if (whnfCacheCapacity > 0) stats = stats.appended(session.whnfStats().toString());
+      if (convCacheCapacity > 0) stats = stats.appended(session.convStats().toString());
+      return stats;
+    }
+  }
+
   public record Message(
     @NotNull String successNotion,
     @NotNull String failNotion
@@ -14,13 +14,15 @@ import org.aya.api.util.InterruptException;
 import org.aya.cli.utils.MainArgs;
 import org.aya.concrete.parse.AyaParsing;
 import org.aya.concrete.resolve.module.CachedModuleLoader;
+import org.aya.concrete.resolve.module.CompiledModuleLoader;
 import org.aya.concrete.resolve.module.FileModuleLoader;
 import org.aya.concrete.resolve.module.ModuleListLoader;
+import org.aya.concrete.resolve.module.ModuleLoader;
 import org.aya.concrete.stmt.Decl;
 import org.aya.core.def.Def;
-import org.aya.core.def.PrimDef;
 import org.aya.pretty.backend.string.StringPrinterConfig;
 import org.aya.pretty.doc.Doc;
+import org.aya.tyck.CompilationSession;
 import org.aya.tyck.trace.Trace;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -39,16 +41,46 @@ public record SingleFileCompiler(
     @NotNull Path sourceFile,
     @NotNull CompilerFlags flags,
     @Nullable FileModuleLoader.FileModuleLoaderCallback moduleCallback
+  ) throws IOException {
+    return compile(sourceFile, ImmutableSeq.of("Mian"), flags, moduleCallback);
+  }
+
+  public int compile(
+    @NotNull Path sourceFile,
+    @NotNull ImmutableSeq<String> moduleName,
+    @NotNull CompilerFlags flags,
+    @Nullable FileModuleLoader.FileModuleLoaderCallback moduleCallback
+  ) throws IOException {
+    var session = flags.caches().newSession();
+    var status = compile(sourceFile, moduleName, flags, moduleCallback, session, null);
+    flags.caches().stats(session).forEach(reporter::reportString);
+    return status;
+  }
+
+  /**
+   * @param session      shared by the compilations of a build
+   * @param sharedLoader consulted before the module paths, shared by the compilations of a build
+   */
+  public int compile(
+    @NotNull Path sourceFile,
+    @NotNull ImmutableSeq<String> moduleName,
+    @NotNull CompilerFlags flags,
+    @Nullable FileModuleLoader.FileModuleLoaderCallback moduleCallback,
+    @NotNull CompilationSession session,
+    @Nullable ModuleLoader sharedLoader
   ) throws IOException {
     var reporter = new CountingReporter(this.reporter);
     var locator = this.locator != null ? this.locator : new SourceFileLocator.Module(flags.modulePaths());
     try {
-      var program = AyaParsing.program(locator, reporter, sourceFile);
+      var program = AyaParsing.program(session, locator, reporter, sourceFile);
       var distillInfo = flags.distillInfo();
       distill(sourceFile, distillInfo, program, MainArgs.DistillStage.raw);
-      var loader = new ModuleListLoader(flags.modulePaths().view().map(path ->
-        new CachedModuleLoader(new FileModuleLoader(locator, path, reporter, moduleCallback, builder))).toImmutableSeq());
-      FileModuleLoader.tyckModule(ImmutableSeq.of("Mian"), loader, program, reporter,
+      var loaders = flags.modulePaths().view().<ModuleLoader>map(path ->
+        new CachedModuleLoader(new ModuleListLoader(ImmutableSeq.of(
+          new CompiledModuleLoader(session, path, flags.modulePaths()),
+          new FileModuleLoader(session, locator, path, reporter, moduleCallback, builder))))).toImmutableSeq();
+      var loader = new ModuleListLoader(sharedLoader != null ? loaders.prepended(sharedLoader) : loaders);
+      FileModuleLoader.tyckModule(session, moduleName, loader, program, reporter,
         resolveInfo -> {
           distill(sourceFile, distillInfo, program, MainArgs.DistillStage.scoped);
           if (moduleCallback != null) moduleCallback.onResolved(sourceFile, resolveInfo, program);
@@ -64,8 +96,6 @@ public record SingleFileCompiler(
     } catch (InterruptException e) {
       reporter.reportString(e.stage().name() + " interrupted due to error(s).");
       if (flags.interruptedTrace()) e.printStackTrace();
-    } finally {
-      PrimDef.Factory.INSTANCE.clear();
     }
     if (reporter.isEmpty()) {
       reporter.reportString(flags.message().successNotion());
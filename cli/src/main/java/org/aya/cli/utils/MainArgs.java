@@ -3,6 +3,7 @@
 package org.aya.cli.utils;
 
 import kala.collection.immutable.ImmutableSeq;
+import org.aya.cli.single.CompilerFlags;
 import org.aya.prelude.GeneratedVersion;
 import picocli.CommandLine.Command;
 import picocli.CommandLine.Option;
@@ -33,6 +34,14 @@ public class MainArgs {
   public List<String> modulePaths;
   @Option(names = {"--make"}, description = "Compile a library")
   public boolean isLibrary;
+  @Option(names = {"--jobs", "-j"}, description = "Number of modules compiled in parallel when compiling a library.", defaultValue = "1")
+  public int jobs;
+  @Option(names = {"--whnf-cache"}, description = "Capacity of the cache of weak head normal forms of each definition, 0 to disable it.", defaultValue = "0")
+  public int whnfCache;
+  @Option(names = {"--conv-cache"}, description = "Capacity of the cache of conversion checks of each definition, 0 to disable it.", defaultValue = "0")
+  public int convCache;
+  @Option(names = {"--intern"}, description = "Share the syntactically equal terms of the type checked definitions.")
+  public boolean intern;
   @Parameters(paramLabel = "<input-file>")
   public String inputFile;
 
@@ -40,6 +49,10 @@ public class MainArgs {
     return modulePaths == null ? ImmutableSeq.empty() : ImmutableSeq.from(modulePaths);
   }
 
+  public CompilerFlags.Caches caches() {
+    return new CompilerFlags.Caches(whnfCache, convCache, intern);
+  }
+
   public enum DistillStage {
     raw,
     scoped,
@@ -35,7 +35,7 @@ public class LspMain extends LspArgs implements Callable<Integer> {
     };
 
     var executor = Executors.newSingleThreadExecutor(f -> new Thread(f, "client"));
-    var server = new AyaServer();
+    var server = new AyaServer(caches());
     var launcher = Launcher.createLauncher(
       server,
       AyaLanguageClient.class,
@@ -7,39 +7,48 @@ import org.aya.api.util.NormalizeMode;
 import org.aya.api.util.WithPos;
 import org.aya.concrete.Expr;
 import org.aya.core.term.Term;
+import org.aya.core.visitor.Fuel;
 import org.aya.lsp.models.ComputeTermResult;
 import org.aya.lsp.server.AyaService;
+import org.aya.lsp.utils.Log;
 import org.aya.lsp.utils.XY;
+import org.eclipse.lsp4j.MessageType;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
-import java.util.function.Function;
+import java.util.function.BiFunction;
 
 public final class ComputeTerm implements SyntaxNodeAction {
   private @Nullable WithPos<Term> result = null;
   private final @NotNull AyaService.AyaFile loadedFile;
   private final @NotNull Kind kind;
 
+  private final @NotNull Fuel fuel;
+
   public enum Kind {
-    Type(Term::computeType),
-    Id(Function.identity()),
-    Nf(term -> term.normalize(NormalizeMode.NF)),
-    Whnf(term -> term.normalize(NormalizeMode.WHNF)),
+    Type((term, fuel) -> term.computeType()),
+    Id((term, fuel) -> term),
+    Nf((term, fuel) -> term.normalize(NormalizeMode.NF, fuel)),
+    Whnf((term, fuel) -> term.normalize(NormalizeMode.WHNF, fuel)),
     ;
-    private final Function<Term, Term> map;
+    private final BiFunction<Term, Fuel, Term> map;
 
-    Kind(Function<Term, Term> map) {
+    Kind(BiFunction<Term, Fuel, Term> map) {
       this.map = map;
     }
   }
 
-  public ComputeTerm(AyaService.@NotNull AyaFile loadedFile, @NotNull Kind kind) {
+  public ComputeTerm(AyaService.@NotNull AyaFile loadedFile, @NotNull Kind kind, @NotNull Fuel fuel) {
     this.loadedFile = loadedFile;
     this.kind = kind;
+    this.fuel = fuel;
   }
 
   public @NotNull ComputeTermResult invoke(ComputeTermResult.Params params) {
     visitAll(loadedFile.concrete(), new XY(params.position));
+    // The result is only partially reduced, which the user would not notice otherwise
+    if (fuel.exhausted()) Log.show(MessageType.Warning,
+      "Stopped computing %s after %d reductions, the result is not fully reduced", kind, fuel.used());
     return result == null ? ComputeTermResult.bad(params) : ComputeTermResult.good(params, result);
   }
 
@@ -57,7 +66,7 @@ public final class ComputeTerm implements SyntaxNodeAction {
     var sourcePos = cored.sourcePos();
     if (xy.inside(sourcePos)) {
       var core = cored.core();
-      if (core != null) result = new WithPos<>(sourcePos, kind.map.apply(core));
+      if (core != null) result = new WithPos<>(sourcePos, kind.map.apply(core, fuel));
     }
   }
 }
@@ -2,11 +2,15 @@
 // Use of this source code is governed by the GNU GPLv3 license that can be found in the LICENSE file.
 package org.aya.lsp.server;
 
+import org.aya.cli.single.CompilerFlags;
 import org.aya.lsp.actions.ComputeTerm;
 import org.aya.lsp.models.ComputeTermResult;
 import org.aya.lsp.models.HighlightResult;
 import org.aya.lsp.utils.Log;
+import org.aya.util.cancel.CancellationIndicator;
 import org.eclipse.lsp4j.*;
+import org.eclipse.lsp4j.jsonrpc.CancelChecker;
+import org.eclipse.lsp4j.jsonrpc.CompletableFutures;
 import org.eclipse.lsp4j.jsonrpc.messages.Either;
 import org.eclipse.lsp4j.jsonrpc.services.JsonRequest;
 import org.eclipse.lsp4j.services.*;
@@ -18,7 +22,11 @@ import java.util.Collections;
 import java.util.concurrent.CompletableFuture;
 
 public class AyaServer implements LanguageClientAware, LanguageServer {
-  private final AyaService service = new AyaService();
+  private final AyaService service;
+
+  public AyaServer(@NotNull CompilerFlags.Caches caches) {
+    service = new AyaService(caches);
+  }
 
   @JsonRequest("aya/load")
   public @NotNull CompletableFuture<@NotNull HighlightResult> load(Object uri) {
@@ -28,12 +36,34 @@ public class AyaServer implements LanguageClientAware, LanguageServer {
 
   @JsonRequest("aya/computeType")
   public @NotNull CompletableFuture<@NotNull ComputeTermResult> computeType(ComputeTermResult.Params input) {
-    return CompletableFuture.supplyAsync(() -> service.computeTerm(input, ComputeTerm.Kind.Type));
+    return CompletableFutures.computeAsync(checker -> service.computeTerm(input, ComputeTerm.Kind.Type, indicator(checker)));
   }
 
   @JsonRequest("aya/computeNF")
   public @NotNull CompletableFuture<@NotNull ComputeTermResult> computeNF(ComputeTermResult.Params input) {
-    return CompletableFuture.supplyAsync(() -> service.computeTerm(input, ComputeTerm.Kind.Nf));
+    return CompletableFutures.computeAsync(checker -> service.computeTerm(input, ComputeTerm.Kind.Nf, indicator(checker)));
+  }
+
+  private static @NotNull CancellationIndicator indicator(@NotNull CancelChecker checker) {
+    return new RequestCancellation(checker);
+  }
+
+  /** Requests are canceled by the client, which the checker tells, or by the server itself */
+  private static final class RequestCancellation implements CancellationIndicator {
+    private final @NotNull CancelChecker checker;
+    private volatile boolean canceled = false;
+
+    private RequestCancellation(@NotNull CancelChecker checker) {
+      this.checker = checker;
+    }
+
+    @Override public boolean isCanceled() {
+      return canceled || checker.isCanceled();
+    }
+
+    @Override public void cancel() {
+      canceled = true;
+    }
   }
 
   @Override public void connect(@NotNull LanguageClient client) {
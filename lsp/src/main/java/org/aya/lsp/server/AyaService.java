@@ -17,6 +17,7 @@ import org.aya.cli.single.SingleFileCompiler;
 import org.aya.concrete.resolve.module.FileModuleLoader;
 import org.aya.concrete.stmt.Stmt;
 import org.aya.core.def.Def;
+import org.aya.core.visitor.Fuel;
 import org.aya.lsp.actions.ComputeTerm;
 import org.aya.lsp.actions.GotoDefinition;
 import org.aya.lsp.actions.SyntaxHighlight;
@@ -25,6 +26,7 @@ import org.aya.lsp.models.HighlightResult;
 import org.aya.lsp.utils.Log;
 import org.aya.lsp.utils.LspRange;
 import org.aya.pretty.doc.Doc;
+import org.aya.util.cancel.CancellationIndicator;
 import org.eclipse.lsp4j.*;
 import org.eclipse.lsp4j.jsonrpc.messages.Either;
 import org.eclipse.lsp4j.services.TextDocumentService;
@@ -45,6 +47,11 @@ import java.util.stream.Stream;
 public class AyaService implements WorkspaceService, TextDocumentService {
   private final LspLibraryManager libraryManager = new LspLibraryManager(MutableHashMap.of(), Buffer.create());
   private Set<Path> lastErrorReportedFiles = Collections.emptySet();
+  private final @NotNull CompilerFlags.Caches caches;
+
+  public AyaService(@NotNull CompilerFlags.Caches caches) {
+    this.caches = caches;
+  }
 
   public void registerLibrary(@NotNull Path path) {
     // TODO[kiva]: work with Library System when it is finished
@@ -60,7 +67,7 @@ public class AyaService implements WorkspaceService, TextDocumentService {
     var compiler = new SingleFileCompiler(reporter, libraryManager, null);
     var compilerFlags = new CompilerFlags(
       CompilerFlags.Message.EMOJI, false, null,
-      libraryManager.modulePath.view());
+      libraryManager.modulePath.view(), caches);
 
     var symbols = Buffer.<HighlightResult.Symbol>create();
     try {
@@ -172,10 +179,13 @@ public class AyaService implements WorkspaceService, TextDocumentService {
     return libraryManager.loadedFiles.getOrNull(Path.of(URI.create(uri)));
   }
 
-  public ComputeTermResult computeTerm(@NotNull ComputeTermResult.Params input, ComputeTerm.Kind type) {
+  public ComputeTermResult computeTerm(
+    @NotNull ComputeTermResult.Params input, ComputeTerm.Kind type,
+    @Nullable CancellationIndicator indicator
+  ) {
     var loadedFile = getLoadedFile(input.uri);
     if (loadedFile == null) return ComputeTermResult.bad(input);
-    return new ComputeTerm(loadedFile, type).invoke(input);
+    return new ComputeTerm(loadedFile, type, new Fuel(Fuel.INTERACTIVE, indicator)).invoke(input);
   }
 
   public record AyaFile(
@@ -55,6 +55,13 @@ public class Log {
     if (CLIENT != null) CLIENT.logMessage(new MessageParams(type, format));
   }
 
+  /** Shows the message to the user, rather than only logging it */
+  public static void show(@NotNull MessageType type, @NotNull String fmt, Object... args) {
+    var format = fmt.formatted(args);
+    logConsole(type, format);
+    if (CLIENT != null) CLIENT.showMessage(new MessageParams(type, format));
+  }
+
   public static void logConsole(@NotNull MessageType type, @NotNull String content) {
     try {
       var format = String.format("[%s]: %s%n", type, content);
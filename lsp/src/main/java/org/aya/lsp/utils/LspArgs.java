@@ -2,6 +2,7 @@
 // Use of this source code is governed by the GNU GPLv3 license that can be found in the LICENSE file.
 package org.aya.lsp.utils;
 
+import org.aya.cli.single.CompilerFlags;
 import org.aya.prelude.GeneratedVersion;
 import picocli.CommandLine.Command;
 import picocli.CommandLine.Option;
@@ -21,6 +22,16 @@ public class LspArgs {
   public String host;
   @Option(names = {"-p", "--port"}, description = "Specify port.", defaultValue = "11451")
   public int port;
+  @Option(names = {"--whnf-cache"}, description = "Capacity of the cache of weak head normal forms of each definition, 0 to disable it.", defaultValue = "0")
+  public int whnfCache;
+  @Option(names = {"--conv-cache"}, description = "Capacity of the cache of conversion checks of each definition, 0 to disable it.", defaultValue = "0")
+  public int convCache;
+  @Option(names = {"--intern"}, description = "Share the syntactically equal terms of the type checked definitions.")
+  public boolean intern;
+
+  public CompilerFlags.Caches caches() {
+    return new CompilerFlags.Caches(whnfCache, convCache, intern);
+  }
 
   public enum Mode {
     server,